@@ -0,0 +1,88 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * A map filled with {@code size} keys according to {@code distribution}, and a
+ * trace of keys to probe it with.
+ * Rank i is stored under key 2 * i, so {@code present[j] + 1} is never in the
+ * map. Keys are boxed once here so that the benchmarks measure the trees and
+ * not {@link Integer#valueOf(int)}.
+ * Subclasses choose the implementations to run.
+ */
+@State(Scope.Thread)
+public abstract class AbstractMapState {
+    static final int TRACE_LENGTH = 1 << 16;
+    static final int RANGE_WIDTH = 100;
+    private static final int MASK = TRACE_LENGTH - 1;
+    private static final long SEED = 42;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN", "MOSTLY_SORTED"})
+    KeyDistribution distribution;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int size;
+
+    OrderedMap<Integer, Integer> map;
+
+    /**
+     * keys in the map, in access order.
+     */
+    Integer[] present;
+
+    /**
+     * keys not in the map, each one greater than the matching present key.
+     */
+    Integer[] absent;
+
+    /**
+     * upper bounds of ranges of {@link #RANGE_WIDTH} keys starting at the
+     * matching present key.
+     */
+    Integer[] rangeEnds;
+
+    /**
+     * ranks of the present keys.
+     */
+    int[] ranks;
+
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(SEED);
+        map = impl().create();
+        for (int r : distribution.insertionOrder(size, rnd)) {
+            map.put(2 * r, r);
+        }
+        int[] trace = distribution.accessTrace(size, TRACE_LENGTH, rnd);
+        present = new Integer[TRACE_LENGTH];
+        absent = new Integer[TRACE_LENGTH];
+        rangeEnds = new Integer[TRACE_LENGTH];
+        ranks = new int[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            present[i] = 2 * trace[i];
+            absent[i] = 2 * trace[i] + 1;
+            rangeEnds[i] = 2 * Math.min(size - 1, trace[i] + RANGE_WIDTH - 1);
+            ranks[i] = trace[i];
+        }
+    }
+
+    /**
+     * @return the implementation to fill {@link #map} with
+     */
+    abstract MapImpl impl();
+
+    /**
+     * @return index of the next trace slot to use
+     */
+    int next() {
+        return cursor++ & MASK;
+    }
+}
@@ -0,0 +1,171 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mixed lookups and updates on one map shared by all benchmark threads.
+ * Keys are drawn uniformly from twice the initial size, and updates are half
+ * puts and half deletes, so the map stays near its initial size.
+ * <p>
+ * Compares {@link ConcurrentAVLTree} and {@link ShardedOrderedMap} with an
+ * {@link AVLTree} behind a single monitor, {@link PersistentAVLTree}
+ * (lock-free reads, compare-and-set on the root for writes) and
+ * {@link ConcurrentSkipListMap}. Run once per thread count to see scaling,
+ * e.g.
+ * <pre>
+ * for t in 1 2 4 8 16 32 64; do
+ *     ./gradlew jmh -Pjmh.include=ConcurrentBenchmark -Pjmh.threads=$t
+ * done
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ConcurrentBenchmark {
+
+    public enum Impl {
+        CONCURRENT_AVL, SHARDED_AVL, SYNCHRONIZED_AVL, PERSISTENT_AVL, SKIP_LIST
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedMap {
+        private static final long SEED = 42;
+
+        @Param({"CONCURRENT_AVL", "SHARDED_AVL", "SYNCHRONIZED_AVL", "PERSISTENT_AVL", "SKIP_LIST"})
+        Impl impl;
+
+        @Param({"100000", "1000000"})
+        int size;
+
+        @Param({"90", "50"})
+        int readPercent;
+
+        Integer[] keys;
+
+        private ConcurrentAVLTree<Integer, Integer> concurrent;
+        private ShardedOrderedMap<Integer, Integer> sharded;
+        private AVLTree<Integer, Integer> avl;
+        private PersistentAVLTree<Integer, Integer> persistent;
+        private ConcurrentSkipListMap<Integer, Integer> skipList;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random rnd = new Random(SEED);
+            keys = new Integer[2 * size];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = i;
+            }
+            concurrent = new ConcurrentAVLTree<>();
+            sharded = new ShardedOrderedMap<>(ShardedOrderedMap.Backing.AVL);
+            avl = new AVLTree<>();
+            persistent = new PersistentAVLTree<>();
+            skipList = new ConcurrentSkipListMap<>();
+            for (int i = 0; i < size; i++) {
+                Integer k = keys[rnd.nextInt(keys.length)];
+                put(k, k);
+            }
+        }
+
+        Integer get(Integer k) {
+            switch (impl) {
+                case CONCURRENT_AVL:
+                    return concurrent.get(k);
+                case SHARDED_AVL:
+                    return sharded.get(k);
+                case SYNCHRONIZED_AVL:
+                    synchronized (avl) {
+                        return avl.get(k);
+                    }
+                case PERSISTENT_AVL:
+                    return persistent.get(k);
+                default:
+                    return skipList.get(k);
+            }
+        }
+
+        void put(Integer k, Integer v) {
+            switch (impl) {
+                case CONCURRENT_AVL:
+                    concurrent.put(k, v);
+                    break;
+                case SHARDED_AVL:
+                    sharded.put(k, v);
+                    break;
+                case SYNCHRONIZED_AVL:
+                    synchronized (avl) {
+                        avl.put(k, v);
+                    }
+                    break;
+                case PERSISTENT_AVL:
+                    persistent.put(k, v);
+                    break;
+                default:
+                    skipList.put(k, v);
+            }
+        }
+
+        void delete(Integer k) {
+            switch (impl) {
+                case CONCURRENT_AVL:
+                    concurrent.delete(k);
+                    break;
+                case SHARDED_AVL:
+                    sharded.delete(k);
+                    break;
+                case SYNCHRONIZED_AVL:
+                    synchronized (avl) {
+                        avl.delete(k);
+                    }
+                    break;
+                case PERSISTENT_AVL:
+                    persistent.delete(k);
+                    break;
+                default:
+                    skipList.remove(k);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        SplittableRandom rnd;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            rnd = new SplittableRandom(Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    public Integer mixed(SharedMap m, ThreadRandom t) {
+        Integer k = m.keys[t.rnd.nextInt(m.keys.length)];
+        int op = t.rnd.nextInt(100);
+        if (op < m.readPercent) {
+            return m.get(k);
+        }
+        if ((op & 1) == 0) {
+            m.put(k, k);
+        } else {
+            m.delete(k);
+        }
+        return k;
+    }
+}
@@ -0,0 +1,55 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+
+/**
+ * Prints the heap retained by each {@link MapImpl} per entry, not counting
+ * the key and value objects, which are allocated once and shared by all the
+ * maps.
+ * Run with a large heap, e.g.
+ * {@code java -Xmx8g -cp ... org.andreyliu.containers.balancedtrees.FootprintReport 1000000 10000000}
+ */
+public class FootprintReport {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) {
+        int[] sizes = args.length == 0 ? new int[]{1_000_000} : new int[args.length];
+        for (int i = 0; i < args.length; i++) {
+            sizes[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%-10s %10s %14s %12s%n", "impl", "entries", "bytes", "bytes/entry");
+        for (int n : sizes) {
+            Integer[] keys = new Integer[n];
+            int[] order = KeyDistribution.RANDOM.insertionOrder(n, new Random(42));
+            for (int i = 0; i < n; i++) {
+                keys[i] = order[i];
+            }
+            for (MapImpl impl : MapImpl.values()) {
+                long bytes = retained(impl, keys);
+                System.out.printf("%-10s %10d %14d %12.1f%n", impl, n, bytes, (double) bytes / n);
+            }
+        }
+    }
+
+    private static long retained(MapImpl impl, Integer[] keys) {
+        long before = usedHeap();
+        OrderedMap<Integer, Integer> map = impl.create();
+        for (Integer k : keys) {
+            map.put(k, k);
+        }
+        long bytes = usedHeap() - before;
+        if (map.size() != keys.length) {
+            throw new IllegalStateException(impl + " lost keys");
+        }
+        return bytes;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,93 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only queries on an {@link AVLTree} against the same map frozen with
+ * {@link AVLTree#freeze()}, with Long keys, which take the primitive search
+ * path, and String keys, which compare through compareTo.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class FrozenBenchmark {
+    private static final int TRACE_LENGTH = 1 << 16;
+    private static final int MASK = TRACE_LENGTH - 1;
+    private static final long SEED = 42;
+
+    public enum Keys { LONG, STRING }
+
+    @Param({"LONG", "STRING"})
+    Keys keyType;
+
+    @Param({"1000", "1000000", "10000000"})
+    int size;
+
+    @Param({"false", "true"})
+    boolean frozen;
+
+    // raw, as the key type is a parameter
+    @SuppressWarnings("rawtypes")
+    private OrderedMap map;
+    @SuppressWarnings("rawtypes")
+    private Comparable[] present;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void setUp() {
+        Random rnd = new Random(SEED);
+        AVLTree tree = new AVLTree();
+        Comparable[] keys = new Comparable[size];
+        for (int r : KeyDistribution.RANDOM.insertionOrder(size, rnd)) {
+            keys[r] = keyType == Keys.LONG ? Long.valueOf(2L * r) : String.format("key%010d", 2L * r);
+            tree.put(keys[r], r);
+        }
+        map = frozen ? tree.freeze() : tree;
+        present = new Comparable[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            present[i] = keys[rnd.nextInt(size)];
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public Object get() {
+        return map.get(present[cursor++ & MASK]);
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int rank() {
+        return map.rank(present[cursor++ & MASK]);
+    }
+
+    // the RANGE_WIDTH keys from a present key on
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void keys(Blackhole bh) {
+        Comparable lo = present[cursor++ & MASK];
+        Comparable hi = map.select(Math.min(size - 1, map.rank(lo) + AbstractMapState.RANGE_WIDTH - 1));
+        for (Object k : map.keys(lo, hi)) {
+            bh.consume(k);
+        }
+    }
+}
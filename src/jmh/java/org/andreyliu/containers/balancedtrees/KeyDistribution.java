@@ -0,0 +1,132 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Random;
+
+/**
+ * How keys are inserted into a benchmark map and how they are looked up
+ * afterwards. Both are expressed as ranks in [0, n); the benchmarks map
+ * rank i to the key 2 * i so that odd keys are guaranteed to be absent.
+ */
+public enum KeyDistribution {
+    /**
+     * Keys inserted in ascending order and looked up in ascending order.
+     */
+    SEQUENTIAL {
+        @Override
+        int[] insertionOrder(int n, Random rnd) {
+            return identity(n);
+        }
+
+        @Override
+        int[] accessTrace(int n, int length, Random rnd) {
+            int[] trace = new int[length];
+            for (int i = 0; i < length; i++) {
+                trace[i] = i % n;
+            }
+            return trace;
+        }
+    },
+    /**
+     * Keys inserted in random order and looked up uniformly at random.
+     */
+    RANDOM {
+        @Override
+        int[] insertionOrder(int n, Random rnd) {
+            return shuffle(identity(n), rnd);
+        }
+
+        @Override
+        int[] accessTrace(int n, int length, Random rnd) {
+            int[] trace = new int[length];
+            for (int i = 0; i < length; i++) {
+                trace[i] = rnd.nextInt(n);
+            }
+            return trace;
+        }
+    },
+    /**
+     * Keys inserted in random order and looked up with a Zipfian skew.
+     * The hot ranks are scattered over the key space so that they do not
+     * all sit in one subtree.
+     */
+    ZIPFIAN {
+        @Override
+        int[] insertionOrder(int n, Random rnd) {
+            return shuffle(identity(n), rnd);
+        }
+
+        @Override
+        int[] accessTrace(int n, int length, Random rnd) {
+            int[] scatter = shuffle(identity(n), rnd);
+            ZipfianGenerator zipf = new ZipfianGenerator(n, rnd);
+            int[] trace = new int[length];
+            for (int i = 0; i < length; i++) {
+                trace[i] = scatter[zipf.next()];
+            }
+            return trace;
+        }
+    },
+    /**
+     * Keys inserted in ascending order except for about 1% of them, which are
+     * swapped with a neighbour up to 64 positions away. Lookups follow the
+     * insertion order.
+     */
+    MOSTLY_SORTED {
+        @Override
+        int[] insertionOrder(int n, Random rnd) {
+            int[] a = identity(n);
+            for (int s = 0; s < n / 100; s++) {
+                int i = rnd.nextInt(n);
+                int j = Math.min(n - 1, i + 1 + rnd.nextInt(64));
+                swap(a, i, j);
+            }
+            return a;
+        }
+
+        @Override
+        int[] accessTrace(int n, int length, Random rnd) {
+            int[] order = insertionOrder(n, rnd);
+            int[] trace = new int[length];
+            for (int i = 0; i < length; i++) {
+                trace[i] = order[i % n];
+            }
+            return trace;
+        }
+    };
+
+    /**
+     * @param n number of keys
+     * @param rnd source of randomness
+     * @return a permutation of [0, n) giving the order of insertion
+     */
+    abstract int[] insertionOrder(int n, Random rnd);
+
+    /**
+     * @param n number of keys in the map
+     * @param length length of the trace
+     * @param rnd source of randomness
+     * @return ranks in [0, n) in the order they are accessed
+     */
+    abstract int[] accessTrace(int n, int length, Random rnd);
+
+    private static int[] identity(int n) {
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        return a;
+    }
+
+    private static int[] shuffle(int[] a, Random rnd) {
+        for (int i = a.length - 1; i > 0; i--) {
+            swap(a, i, rnd.nextInt(i + 1));
+        }
+        return a;
+    }
+
+    private static void swap(int[] a, int i, int j) {
+        int t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
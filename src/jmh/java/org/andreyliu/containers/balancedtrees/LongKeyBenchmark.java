@@ -0,0 +1,76 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point lookups by primitive {@code long} key: the boxed {@link AVLTree}
+ * against {@link LongAVLTree} and {@link LongLongLLRBTree}.
+ * The boxed tree is probed with a freshly boxed key, as callers holding a
+ * {@code long} would do.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@State(Scope.Thread)
+public class LongKeyBenchmark {
+    private static final int MASK = AbstractMapState.TRACE_LENGTH - 1;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    int size;
+
+    private AVLTree<Long, Long> boxed;
+    private LongAVLTree<Long> longAVL;
+    private LongLongLLRBTree longLong;
+    private long[] trace;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(42);
+        boxed = new AVLTree<>();
+        longAVL = new LongAVLTree<>();
+        longLong = new LongLongLLRBTree();
+        for (int r : KeyDistribution.RANDOM.insertionOrder(size, rnd)) {
+            long k = 1_000_003L * r;
+            boxed.put(k, k);
+            longAVL.put(k, k);
+            longLong.put(k, k);
+        }
+        trace = new long[AbstractMapState.TRACE_LENGTH];
+        int[] ranks = KeyDistribution.RANDOM.accessTrace(size, trace.length, rnd);
+        for (int i = 0; i < trace.length; i++) {
+            trace[i] = 1_000_003L * ranks[i];
+        }
+    }
+
+    @Benchmark
+    public Long boxedAVL() {
+        return boxed.get(trace[cursor++ & MASK]);
+    }
+
+    @Benchmark
+    public Long longAVL() {
+        return longAVL.get(trace[cursor++ & MASK]);
+    }
+
+    @Benchmark
+    public long longLongLLRB() {
+        return longLong.get(trace[cursor++ & MASK], -1);
+    }
+}
@@ -0,0 +1,49 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-only point queries: get, floor, ceiling, rank and select.
+ * Floor and ceiling probe absent keys so that every query walks to a leaf.
+ * Rank and select run only the implementations in {@link RankedMapState}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class LookupBenchmark {
+
+    @Benchmark
+    public Integer get(MapState s) {
+        return s.map.get(s.present[s.next()]);
+    }
+
+    @Benchmark
+    public Integer floor(MapState s) {
+        return s.map.floor(s.absent[s.next()]);
+    }
+
+    @Benchmark
+    public Integer ceiling(MapState s) {
+        return s.map.ceiling(s.absent[s.next()]);
+    }
+
+    @Benchmark
+    public int rank(RankedMapState s) {
+        return s.map.rank(s.present[s.next()]);
+    }
+
+    @Benchmark
+    public Integer select(RankedMapState s) {
+        return s.map.select(s.ranks[s.next()]);
+    }
+}
@@ -0,0 +1,31 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.function.Supplier;
+
+/**
+ * The {@link OrderedMap} implementations under benchmark.
+ * Add a constant here to include a new implementation in every benchmark
+ * over {@link MapState}, which runs all of them. Add it to the list in
+ * {@link RankedMapState} as well if its rank, select and size(from, to) take
+ * O(log n).
+ */
+public enum MapImpl {
+    AVL(AVLTree::new),
+    LLRB(LLRBTree::new),
+    ARRAY_AVL(ArrayAVLTree::new),
+    BPLUS(BPlusTree::new),
+    PERSISTENT_AVL(PersistentAVLTree::new),
+    CONCURRENT_AVL(ConcurrentAVLTree::new),
+    SPLAY(SplayTree::new),
+    TREEMAP(TreeMapOrderedMap::new);
+
+    private final Supplier<OrderedMap<Integer, Integer>> factory;
+
+    MapImpl(Supplier<OrderedMap<Integer, Integer>> factory) {
+        this.factory = factory;
+    }
+
+    OrderedMap<Integer, Integer> create() {
+        return factory.get();
+    }
+}
@@ -0,0 +1,20 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * An {@link AbstractMapState} over every {@link MapImpl}.
+ */
+@State(Scope.Thread)
+public class MapState extends AbstractMapState {
+    // no values: JMH runs every MapImpl constant
+    @Param
+    MapImpl impl;
+
+    @Override
+    MapImpl impl() {
+        return impl;
+    }
+}
@@ -0,0 +1,100 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merging a delta of {@code deltaRatio * size} random keys into a map of
+ * {@code size} keys, with {@link AVLTree#union} against a loop of puts.
+ * Both maps are rebuilt before every iteration, as each merge consumes them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xms8g", "-Xmx8g"})
+public class MergeBenchmark {
+    private static final long SEED = 42;
+
+    @Param({"AVL", "LLRB"})
+    MapImpl impl;
+
+    @Param({"1000000", "10000000"})
+    int size;
+
+    @Param({"0.01", "1"})
+    double deltaRatio;
+
+    private List<OrderedMap.Entry<Integer, Integer>> baseEntries;
+    private List<OrderedMap.Entry<Integer, Integer>> deltaEntries;
+
+    private AVLTree<Integer, Integer> avlBase;
+    private AVLTree<Integer, Integer> avlDelta;
+    private LLRBTree<Integer, Integer> llrbBase;
+    private LLRBTree<Integer, Integer> llrbDelta;
+
+    @Setup(Level.Trial)
+    public void setUpEntries() {
+        if (impl != MapImpl.AVL && impl != MapImpl.LLRB) {
+            throw new IllegalArgumentException("no set operations on " + impl);
+        }
+        Random rnd = new Random(SEED);
+        baseEntries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            baseEntries.add(OrderedMap.entry(2 * i, i));
+        }
+        int deltaSize = (int) (deltaRatio * size);
+        deltaEntries = new ArrayList<>(deltaSize);
+        for (int i = 0; i < deltaSize; i++) {
+            int k = rnd.nextInt(2 * size);
+            deltaEntries.add(OrderedMap.entry(k, -k));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpMaps() {
+        if (impl == MapImpl.AVL) {
+            avlBase = AVLTree.bulkLoad(baseEntries.iterator());
+            avlDelta = AVLTree.bulkLoad(deltaEntries.iterator());
+        } else {
+            llrbBase = LLRBTree.bulkLoad(baseEntries.iterator());
+            llrbDelta = LLRBTree.bulkLoad(deltaEntries.iterator());
+        }
+    }
+
+    @Benchmark
+    public Object union() {
+        if (impl == MapImpl.AVL) {
+            avlBase.union(avlDelta);
+            return avlBase;
+        }
+        llrbBase.union(llrbDelta);
+        return llrbBase;
+    }
+
+    @Benchmark
+    public Object putLoop() {
+        BST<Integer, Integer> base = impl == MapImpl.AVL ? avlBase : llrbBase;
+        BST<Integer, Integer> delta = impl == MapImpl.AVL ? avlDelta : llrbDelta;
+        for (OrderedMap.Entry<Integer, Integer> e : delta.entries()) {
+            base.put(e.getKey(), e.getValue());
+        }
+        return base;
+    }
+}
@@ -0,0 +1,38 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range queries over {@link AbstractMapState#RANGE_WIDTH} consecutive keys.
+ * The range count runs only the implementations in {@link RankedMapState}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RangeBenchmark {
+
+    @Benchmark
+    public void keys(MapState s, Blackhole bh) {
+        int i = s.next();
+        for (Integer k : s.map.keys(s.present[i], s.rangeEnds[i])) {
+            bh.consume(k);
+        }
+    }
+
+    @Benchmark
+    public int size(RankedMapState s) {
+        int i = s.next();
+        return s.map.size(s.present[i], s.rangeEnds[i]);
+    }
+}
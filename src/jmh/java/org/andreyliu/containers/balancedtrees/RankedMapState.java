@@ -0,0 +1,23 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * An {@link AbstractMapState} over the implementations whose rank, select and
+ * size(from, to) take O(log n). {@link ConcurrentAVLTree} and
+ * {@link TreeMapOrderedMap} keep no subtree sizes and count through an
+ * iterator, so at the larger sizes each of those operations walks the whole
+ * map.
+ */
+@State(Scope.Thread)
+public class RankedMapState extends AbstractMapState {
+    @Param({"AVL", "LLRB", "ARRAY_AVL", "BPLUS", "PERSISTENT_AVL", "SPLAY"})
+    MapImpl impl;
+
+    @Override
+    MapImpl impl() {
+        return impl;
+    }
+}
@@ -0,0 +1,74 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups where {@code hotKeys} keys, scattered over the key space, take
+ * {@code hotShare} of the reads and the rest go uniformly to all keys.
+ * Compares {@link SplayTree}, which moves the hot keys up to the root,
+ * with the balanced trees, which keep every key at depth O(log(n)).
+ * {@link LookupBenchmark} with the ZIPFIAN distribution covers a smoother
+ * skew.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class SkewedLookupBenchmark {
+    private static final int TRACE_LENGTH = 1 << 16;
+    private static final int MASK = TRACE_LENGTH - 1;
+    private static final long SEED = 42;
+
+    @Param({"AVL", "LLRB", "SPLAY"})
+    MapImpl impl;
+
+    @Param({"1000000"})
+    int size;
+
+    @Param({"16", "10000"})
+    int hotKeys;
+
+    @Param({"0.9", "0.99"})
+    double hotShare;
+
+    private OrderedMap<Integer, Integer> map;
+    private Integer[] trace;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random rnd = new Random(SEED);
+        int[] order = KeyDistribution.RANDOM.insertionOrder(size, rnd);
+        map = impl.create();
+        for (int r : order) {
+            map.put(r, r);
+        }
+        // the first hotKeys ranks of a shuffled order are the hot ones
+        trace = new Integer[TRACE_LENGTH];
+        for (int i = 0; i < TRACE_LENGTH; i++) {
+            int r = rnd.nextDouble() < hotShare ? order[rnd.nextInt(hotKeys)] : rnd.nextInt(size);
+            trace[i] = r;
+        }
+    }
+
+    @Benchmark
+    public Integer get() {
+        return map.get(trace[cursor++ & MASK]);
+    }
+}
@@ -0,0 +1,170 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Adapts {@link TreeMap} to {@link OrderedMap} so the JDK tree can be used as
+ * a baseline in the benchmarks.
+ * {@link TreeMap} keeps no subtree sizes, so rank, select and the range count
+ * walk the entries and are O(n) rather than O(log(n)).
+ * @param <K> key
+ * @param <V> value
+ */
+public class TreeMapOrderedMap<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+
+    private final TreeMap<K, V> map = new TreeMap<>();
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public V get(K k) {
+        return map.get(Objects.requireNonNull(k));
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return map.containsKey(Objects.requireNonNull(k));
+    }
+
+    @Override
+    public void put(K k, V val) {
+        map.put(Objects.requireNonNull(k), Objects.requireNonNull(val));
+    }
+
+    @Override
+    public void delete(K k) {
+        map.remove(Objects.requireNonNull(k));
+    }
+
+    @Override
+    public void deleteMin() {
+        map.pollFirstEntry();
+    }
+
+    @Override
+    public void deleteMax() {
+        map.pollLastEntry();
+    }
+
+    @Override
+    public K min() {
+        return map.isEmpty() ? null : map.firstKey();
+    }
+
+    @Override
+    public K max() {
+        return map.isEmpty() ? null : map.lastKey();
+    }
+
+    @Override
+    public K floor(K k) {
+        return map.floorKey(Objects.requireNonNull(k));
+    }
+
+    @Override
+    public K ceiling(K k) {
+        return map.ceilingKey(Objects.requireNonNull(k));
+    }
+
+    @Override
+    public K select(int k) {
+        if (k < 0 || k >= size()) {
+            return null;
+        }
+        Iterator<K> it = map.keySet().iterator();
+        for (int i = 0; i < k; i++) {
+            it.next();
+        }
+        return it.next();
+    }
+
+    @Override
+    public int rank(K k) {
+        return map.headMap(Objects.requireNonNull(k), false).size();
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return map.keySet();
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        return subMap(lo, hi).navigableKeySet();
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        return subMap(lo, hi).descendingKeySet();
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        return () -> new EntryIterator<>(subMap(lo, hi).entrySet().iterator());
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        return () -> new EntryIterator<>(subMap(lo, hi).descendingMap().entrySet().iterator());
+    }
+
+    private NavigableMap<K, V> subMap(K lo, K hi) {
+        if (lo.compareTo(hi) > 0) {
+            return map.subMap(lo, true, lo, false);
+        }
+        return map.subMap(lo, true, hi, true);
+    }
+
+    @Override
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return map.subMap(from, true, to, true).size();
+    }
+
+    private static final class EntryIterator<K extends Comparable<? super K>, V> implements Iterator<Entry<K, V>> {
+        private final Iterator<Map.Entry<K, V>> it;
+
+        EntryIterator(Iterator<Map.Entry<K, V>> it) {
+            this.it = it;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            Map.Entry<K, V> e = it.next();
+            K k = e.getKey();
+            V v = e.getValue();
+            return new Entry<K, V>() {
+                @Override
+                public K getKey() {
+                    return k;
+                }
+
+                @Override
+                public V getValue() {
+                    return v;
+                }
+            };
+        }
+    }
+}
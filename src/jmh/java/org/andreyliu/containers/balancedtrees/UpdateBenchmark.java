@@ -0,0 +1,46 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates that leave the map at its original size, so that every iteration
+ * measures a map of {@link AbstractMapState#size} entries.
+ * An isolated insert or delete would grow or drain the map over the run;
+ * the paired benchmarks below measure one of each instead, and
+ * {@link #putExisting} gives the cost of the descent alone.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class UpdateBenchmark {
+
+    @Benchmark
+    public void putExisting(MapState s) {
+        int i = s.next();
+        s.map.put(s.present[i], s.ranks[i]);
+    }
+
+    @Benchmark
+    public void putAbsentThenDelete(MapState s) {
+        Integer k = s.absent[s.next()];
+        s.map.put(k, k);
+        s.map.delete(k);
+    }
+
+    @Benchmark
+    public void deleteThenPutBack(MapState s) {
+        int i = s.next();
+        s.map.delete(s.present[i]);
+        s.map.put(s.present[i], s.ranks[i]);
+    }
+}
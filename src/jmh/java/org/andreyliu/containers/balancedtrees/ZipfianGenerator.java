@@ -0,0 +1,52 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Random;
+
+/**
+ * Draws ranks in [0, n) where rank i is picked with probability proportional
+ * to 1 / (i + 1)^theta, using the rejection-free method of Gray et al.,
+ * "Quickly Generating Billion-Record Synthetic Databases".
+ * Rank 0 is the hottest.
+ */
+class ZipfianGenerator {
+    static final double DEFAULT_THETA = 0.99;
+
+    private final int n;
+    private final double theta;
+    private final double alpha;
+    private final double zetaN;
+    private final double eta;
+    private final Random rnd;
+
+    ZipfianGenerator(int n, Random rnd) {
+        this(n, DEFAULT_THETA, rnd);
+    }
+
+    ZipfianGenerator(int n, double theta, Random rnd) {
+        if (n <= 0) throw new IllegalArgumentException("n must be positive");
+        this.n = n;
+        this.theta = theta;
+        this.rnd = rnd;
+        this.alpha = 1.0 / (1.0 - theta);
+        this.zetaN = zeta(n, theta);
+        double zeta2 = zeta(2, theta);
+        this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetaN);
+    }
+
+    private static double zeta(int n, double theta) {
+        double sum = 0;
+        for (int i = 1; i <= n; i++) {
+            sum += 1 / Math.pow(i, theta);
+        }
+        return sum;
+    }
+
+    int next() {
+        double u = rnd.nextDouble();
+        double uz = u * zetaN;
+        if (uz < 1.0) return 0;
+        if (uz < 1.0 + Math.pow(0.5, theta)) return Math.min(1, n - 1);
+        int r = (int) (n * Math.pow(eta * u - eta + 1, alpha));
+        return Math.min(r, n - 1);
+    }
+}
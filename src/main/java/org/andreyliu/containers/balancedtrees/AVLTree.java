@@ -1,8 +1,19 @@
 package org.andreyliu.containers.balancedtrees;
 
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
@@ -35,11 +46,184 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
             return right;
         }
     }
+    public AVLTree() {
+    }
+
+    /**
+     * Creates a tree that keeps the aggregate of the values of every
+     * subtree, for {@link #aggregate(Aggregator, Comparable, Comparable)}.
+     * Updates call the aggregator O(log(n)) times.
+     * @param aggregator aggregator
+     */
+    public AVLTree(Aggregator<? super V, ?> aggregator) {
+        aggregator(Objects.requireNonNull(aggregator));
+    }
+
+    /**
+     * Builds a tree from the given entries. Takes O(n) if they come in
+     * increasing key order, and sorts them with a parallel sort first
+     * otherwise. For duplicate keys the last entry wins, as with a sequence
+     * of puts.
+     * @param entries entries with non-null keys and values
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the entries
+     */
+    public static <K extends Comparable<? super K>, V> AVLTree<K, V> bulkLoad(Iterator<? extends Entry<K, V>> entries) {
+        List<Entry<K, V>> sorted = sortedDistinct(entries);
+        AVLTree<K, V> t = new AVLTree<>();
+        t.load(sorted.iterator(), sorted.size());
+        return t;
+    }
+
+    /**
+     * Like {@link #bulkLoad(Iterator)}, into a tree that keeps the aggregate
+     * of the values of every subtree.
+     * @param entries entries with non-null keys and values
+     * @param aggregator aggregator
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the entries
+     */
+    public static <K extends Comparable<? super K>, V> AVLTree<K, V> bulkLoad(Iterator<? extends Entry<K, V>> entries,
+                                                                              Aggregator<? super V, ?> aggregator) {
+        List<Entry<K, V>> sorted = sortedDistinct(entries);
+        AVLTree<K, V> t = new AVLTree<>(aggregator);
+        t.load(sorted.iterator(), sorted.size());
+        return t;
+    }
+
+    /**
+     * Loads a snapshot written by {@link #writeTo(OutputStream, Codec, Codec, boolean)},
+     * building the tree as the entries stream in, in O(n). Reads no further
+     * than the end of the snapshot and does not close in.
+     * @param in stream to read from
+     * @param keys key codec
+     * @param vals value codec
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the snapshot's entries
+     * @throws IOException if in fails, or the snapshot is corrupt
+     * @throws IllegalArgumentException if the codec widths do not match the
+     * snapshot's
+     */
+    public static <K extends Comparable<? super K>, V> AVLTree<K, V> readFrom(
+            InputStream in, Codec<K> keys, Codec<V> vals) throws IOException {
+        return new Snapshot.Reader<>(in, keys, vals).load(r -> {
+            AVLTree<K, V> t = new AVLTree<>();
+            t.load(r, r.size());
+            return t;
+        });
+    }
+
+    /**
+     * Like {@link #readFrom(InputStream, Codec, Codec)}.
+     * @param in channel to read from
+     * @param keys key codec
+     * @param vals value codec
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the snapshot's entries
+     * @throws IOException if in fails, or the snapshot is corrupt
+     */
+    public static <K extends Comparable<? super K>, V> AVLTree<K, V> readFrom(
+            ReadableByteChannel in, Codec<K> keys, Codec<V> vals) throws IOException {
+        return readFrom(Channels.newInputStream(in), keys, vals);
+    }
+
+    /**
+     * @return this tree's hot-path metrics, which it counts from the first
+     * call on
+     * @throws IllegalStateException if metrics are off, see {@link TreeMetrics}
+     */
+    @Override
+    public TreeMetrics metrics() {
+        return super.metrics();
+    }
+
+    /**
+     * @return a cursor over this tree, on no entry until it seeks
+     */
+    public Cursor<K, V> cursor() {
+        return new Cursor<>(this);
+    }
+
+    /**
+     * Copies this map into an immutable map laid out in arrays for fast
+     * searches, in O(n). Later changes to this map do not affect it.
+     * @return a frozen copy of this map
+     */
+    public FrozenOrderedMap<K, V> freeze() {
+        return new FrozenOrderedMap<>(this);
+    }
+
+    /**
+     * @return a spliterator over all entries in key order, which splits
+     * into halves of equal size
+     */
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new EntrySpliterator<>(this, 0, size());
+    }
+
+    /**
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return a spliterator over the entries with keys in [lo, hi] in key
+     * order, which splits into halves of equal size
+     */
+    public Spliterator<Entry<K, V>> spliterator(K lo, K hi) {
+        int from = rank(lo);
+        return new EntrySpliterator<>(this, from, from + size(lo, hi));
+    }
+
+    /**
+     * @return a sequential stream over all entries in key order
+     */
+    public Stream<Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream over all entries, which the common
+     * ForkJoinPool splits by rank down the tree
+     */
+    public Stream<Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // replaces the contents with the next n entries of it, which must come
+    // in strictly increasing key order
+    void load(Iterator<? extends Entry<K, V>> it, int n) {
+        root = build(it, n);
+        modCount++;
+    }
+
+    // builds a perfectly balanced tree from the next n entries of it,
+    // which must come in strictly increasing key order
+    private Node<K, V> build(Iterator<? extends Entry<K, V>> it, int n) {
+        if (n == 0) return null;
+        int leftSize = (n - 1) / 2;
+        Node<K, V> left = build(it, leftSize);
+        Entry<K, V> e = it.next();
+        Node<K, V> h = new Node<>(e.getKey(), e.getValue());
+        h.left = left;
+        h.right = build(it, n - 1 - leftSize);
+        h.size = n;
+        h.height = 1 + Math.max(height(h.left), height(h.right));
+        augment(h);
+        return h;
+    }
+
     @Override
     public int size() {
         return size(root);
     }
 
+    @Override
+    INode<K, V> root() {
+        return root;
+    }
+
     private int size(Node<K, V> n) {
         return n == null ? 0 : n.size;
     }
@@ -51,7 +235,21 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
     @Override
     public V get(K k) {
-        return get(root, Objects.requireNonNull(k));
+        Objects.requireNonNull(k);
+        Node<K, V> h = root;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                h = h.right;
+            } else {
+                endOp(TreeMetrics.GET);
+                return h.val;
+            }
+        }
+        endOp(TreeMetrics.GET);
+        return null;
     }
 
     @Override
@@ -62,17 +260,24 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     @Override
     public void put(K k, V val) {
         root = put(root, Objects.requireNonNull(k), Objects.requireNonNull(val));
+        endOp(TreeMetrics.PUT);
     }
 
     private Node<K, V> put(Node<K, V> h, K k, V v) {
-        if (h == null) return new Node<>(k, v);
-        int comp = k.compareTo(h.key);
+        if (h == null) {
+            modCount++;
+            h = new Node<>(k, v);
+            augment(h);
+            return h;
+        }
+        int comp = visit(k, h);
         if (comp < 0) {
             h.left = put(h.left, k, v);
         } else if (comp > 0) {
             h.right = put(h.right, k, v);
         } else {
             h.val = v;
+            augment(h);
             return h;
         }
         return balance(h);
@@ -80,6 +285,7 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
     private Node<K, V> balance(Node<K, V> h) {
         h.size = 1 + size(h.left) + size(h.right);
+        augment(h);
         h.height = 1 + Math.max(height(h.left), height(h.right));
         int b = balanceFactor(h);
         if (b < -1) {
@@ -110,6 +316,7 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
 
     private Node<K, V> rotateLeft(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.rotations++;
         Node<K, V> x = h.right;
         h.right = x.left;
         x.left = h;
@@ -119,10 +326,13 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
         x.size = h.size;
         h.size = 1 + size(h.left) + size(h.right);
+        augment(h);
+        augment(x);
         return x;
     }
 
     private Node<K, V> rotateRight(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.rotations++;
         Node<K, V> x = h.left;
         h.left = x.right;
         x.right = h;
@@ -132,45 +342,107 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
         x.size = h.size;
         h.size = 1 + size(h.left) + size(h.right);
+        augment(h);
+        augment(x);
         return x;
     }
 
     @Override
     public void delete(K k) {
-        if (!contains(Objects.requireNonNull(k))) {
-            return;
-        }
-        root = delete(root, k);
+        remove(k);
     }
 
-    private Node<K, V> delete(Node<K, V> h, K k) {
-        int comp = k.compareTo(h.key);
+    @Override
+    public V remove(K k) {
+        Update<V> u = new Update<>();
+        root = delete(root, Objects.requireNonNull(k), u);
+        endOp(TreeMetrics.DELETE);
+        return u.before;
+    }
+
+    // deletes k from h if it is there, leaving its value in u
+    private Node<K, V> delete(Node<K, V> h, K k, Update<V> u) {
+        if (h == null) return null;
+        int comp = visit(k, h);
         if (comp < 0) {
-            h.left = delete(h.left, k);
+            h.left = delete(h.left, k, u);
         } else if (comp > 0) {
-            h.right = delete(h.right, k);
+            h.right = delete(h.right, k, u);
         } else {
-            if (h.left != null && h.right != null) {
-                // we look for substitute node from taller subtree
-                if (balanceFactor(h) < 0) {
-                    Node<K, V> succ = (Node<K, V>) min(h.right);
-                    succ.right = deleteMin(h.right);
-                    succ.left = h.left;
-                    h = succ;
-                } else {
-                    Node<K, V> pred = (Node<K, V>) max(h.left);
-                    pred.left = deleteMax(h.left);
-                    pred.right = h.right;
-                    h = pred;
-                }
-                h.size = 1 + size(h.left) + size(h.right);
-                h.height = 1 + Math.max(height(h.left), height(h.right));
-                return h;
+            u.before = h.val;
+            return unlink(h);
+        }
+        return balance(h);
+    }
 
-            } else {
-                return h.left != null ? h.left : h.right;
-            }
+    // removes h from the top of its subtree and returns the new top
+    private Node<K, V> unlink(Node<K, V> h) {
+        modCount++;
+        if (h.left == null || h.right == null) {
+            return h.left != null ? h.left : h.right;
+        }
+        // we look for substitute node from taller subtree
+        if (balanceFactor(h) < 0) {
+            Node<K, V> succ = min(h.right);
+            succ.right = deleteMin(h.right);
+            succ.left = h.left;
+            h = succ;
+        } else {
+            Node<K, V> pred = max(h.left);
+            pred.left = deleteMax(h.left);
+            pred.right = h.right;
+            h = pred;
+        }
+        h.size = 1 + size(h.left) + size(h.right);
+        h.height = 1 + Math.max(height(h.left), height(h.right));
+        augment(h);
+        return h;
+    }
 
+    @Override
+    public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        return update(k, f).after;
+    }
+
+    @Override
+    public V putIfAbsent(K k, V v) {
+        Objects.requireNonNull(v);
+        return update(k, (x, old) -> old == null ? v : old).before;
+    }
+
+    // applies f to k in one descent
+    private Update<V> update(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(f);
+        Update<V> u = new Update<>();
+        root = update(root, k, f, u);
+        endOp(u.before != null && u.after == null ? TreeMetrics.DELETE : TreeMetrics.PUT);
+        return u;
+    }
+
+    private Node<K, V> update(Node<K, V> h, K k, BiFunction<? super K, ? super V, ? extends V> f, Update<V> u) {
+        if (h == null) {
+            V v = f.apply(k, null);
+            if (v == null) return null;
+            u.after = v;
+            modCount++;
+            h = new Node<>(k, v);
+            augment(h);
+            return h;
+        }
+        int comp = visit(k, h);
+        if (comp < 0) {
+            h.left = update(h.left, k, f, u);
+        } else if (comp > 0) {
+            h.right = update(h.right, k, f, u);
+        } else {
+            u.before = h.val;
+            V v = f.apply(k, h.val);
+            if (v == null) return unlink(h);
+            u.after = v;
+            h.val = v;
+            augment(h);
+            return h;
         }
         return balance(h);
     }
@@ -178,7 +450,9 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     @Override
     public void deleteMin() {
         if (isEmpty()) return;
+        modCount++;
         root = deleteMin(root);
+        endOp(TreeMetrics.DELETE);
     }
 
     private Node<K, V> deleteMin(Node<K, V> h) {
@@ -192,7 +466,9 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     @Override
     public void deleteMax() {
         if (isEmpty()) return;
+        modCount++;
         root = deleteMax(root);
+        endOp(TreeMetrics.DELETE);
     }
 
     private Node<K, V> deleteMax(Node<K, V> h) {
@@ -203,6 +479,302 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
         return balance(h);
     }
 
+    @Override
+    Entry<K, V> deleteEnd(boolean min) {
+        if (isEmpty()) return null;
+        modCount++;
+        End<K, V> end = new End<>();
+        root = deleteEnd(root, min, end);
+        endOp(TreeMetrics.DELETE);
+        return entry(end);
+    }
+
+    // deleteMin or deleteMax, leaving in end the parent of the deleted node,
+    // or the nearest node of the subtree that takes its place
+    private Node<K, V> deleteEnd(Node<K, V> h, boolean min, End<K, V> end) {
+        if ((min ? h.left : h.right) == null) {
+            Node<K, V> r = min ? h.right : h.left;
+            if (r != null) {
+                end.node = min ? min(r) : max(r);
+            }
+            return r;
+        }
+        end.node = h;
+        if (min) {
+            h.left = deleteEnd(h.left, true, end);
+        } else {
+            h.right = deleteEnd(h.right, false, end);
+        }
+        return balance(h);
+    }
+
+    /**
+     * Splits this map at k in O(log(n)).
+     * @param k key
+     * @return a new map holding the entries with keys greater than or equal
+     * to k. This map keeps the entries with smaller keys.
+     */
+    public AVLTree<K, V> split(K k) {
+        Split<K, V> s = split(root, Objects.requireNonNull(k));
+        modCount++;
+        root = s.left;
+        AVLTree<K, V> t = new AVLTree<>();
+        t.aggregator = aggregator;
+        t.root = s.mid == null ? s.right : join(null, s.mid, s.right);
+        endOp(TreeMetrics.BULK);
+        return t;
+    }
+
+    /**
+     * Removes the entries with keys in [lo, hi] in O(log(n)), however many
+     * there are: the range is split off and the rest joined back together.
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return number of entries removed
+     */
+    public int deleteRange(K lo, K hi) {
+        return size(cut(lo, hi));
+    }
+
+    /**
+     * Moves the entries with keys in [lo, hi] into a new map in O(log(n)).
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return a new map holding the removed entries, keeping the same
+     * aggregator as this map
+     */
+    public AVLTree<K, V> extractRange(K lo, K hi) {
+        Node<K, V> mid = cut(lo, hi);
+        AVLTree<K, V> t = new AVLTree<>();
+        t.aggregator = aggregator;
+        t.root = mid;
+        return t;
+    }
+
+    // detaches the entries with keys in [lo, hi] and returns their root
+    private Node<K, V> cut(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        if (root == null || lo.compareTo(hi) > 0) {
+            endOp(TreeMetrics.BULK);
+            return null;
+        }
+        Split<K, V> a = split(root, lo);
+        Split<K, V> b = split(a.right, hi);
+        Node<K, V> mid = a.mid == null ? b.left : join(null, a.mid, b.left);
+        if (b.mid != null) mid = join(mid, b.mid, null);
+        root = join2(a.left, b.right);
+        modCount++;
+        endOp(TreeMetrics.BULK);
+        return mid;
+    }
+
+    /**
+     * Joins two maps and a key that goes between them in
+     * O(|left.height() - right.height()| + 1).
+     * Both maps are left empty, as their nodes move into the new map.
+     * @param left map with keys less than k
+     * @param k key
+     * @param v value
+     * @param right map with keys greater than k
+     * @param <K> key
+     * @param <V> value
+     * @return a new map holding the entries of left, k and right
+     * @throws IllegalArgumentException if the keys are out of order, or the
+     * maps keep different aggregators
+     */
+    public static <K extends Comparable<? super K>, V> AVLTree<K, V> join(AVLTree<K, V> left, K k, V v, AVLTree<K, V> right) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(v);
+        if (!left.isEmpty() && left.max(left.root).key.compareTo(k) >= 0
+                || !right.isEmpty() && right.min(right.root).key.compareTo(k) <= 0) {
+            throw new IllegalArgumentException("keys of left must be less than " + k + " and keys of right greater");
+        }
+        if (left.aggregator != right.aggregator) {
+            throw new IllegalArgumentException("maps keep different aggregators");
+        }
+        AVLTree<K, V> t = new AVLTree<>();
+        t.aggregator = left.aggregator;
+        t.root = t.join(left.root, new Node<>(k, v), right.root);
+        left.root = null;
+        right.root = null;
+        left.modCount++;
+        right.modCount++;
+        left.endOp(TreeMetrics.BULK);
+        right.endOp(TreeMetrics.BULK);
+        return t;
+    }
+
+    /**
+     * Adds all entries of other to this map. For keys in both maps the value
+     * from other wins. Takes O(m log(n/m + 1)) for sizes m &lt;= n, and large
+     * maps recurse on both sides in parallel on the common ForkJoinPool.
+     * Other is left empty, as its nodes move into this map.
+     * @param other map to merge in
+     */
+    public void union(AVLTree<K, V> other) {
+        checkOther(other);
+        root = apply(SetOp.UNION, root, other.root);
+        other.root = null;
+        modCount++;
+        other.modCount++;
+        endOp(TreeMetrics.BULK);
+    }
+
+    /**
+     * Removes the entries whose keys are not in other, with the same cost and
+     * parallelism as {@link #union}. Other is not modified.
+     * @param other map whose keys to keep
+     */
+    public void intersection(AVLTree<K, V> other) {
+        checkOther(other);
+        root = apply(SetOp.INTERSECTION, root, other.root);
+        modCount++;
+        endOp(TreeMetrics.BULK);
+    }
+
+    /**
+     * Removes the entries whose keys are in other, with the same cost and
+     * parallelism as {@link #union}. Other is not modified.
+     * @param other map whose keys to remove
+     */
+    public void difference(AVLTree<K, V> other) {
+        checkOther(other);
+        root = apply(SetOp.DIFFERENCE, root, other.root);
+        modCount++;
+        endOp(TreeMetrics.BULK);
+    }
+
+    private void checkOther(AVLTree<K, V> other) {
+        if (other == this) {
+            throw new IllegalArgumentException("cannot combine a map with itself");
+        }
+        if (other.aggregator != aggregator) {
+            throw new IllegalArgumentException("maps keep different aggregators");
+        }
+    }
+
+    // below this many entries in both subtrees, set operations stop forking
+    private static final int SEQUENTIAL_CUTOFF = 1 << 12;
+
+    private enum SetOp { UNION, INTERSECTION, DIFFERENCE }
+
+    private Node<K, V> apply(SetOp op, Node<K, V> a, Node<K, V> b) {
+        if (size(a) + size(b) < SEQUENTIAL_CUTOFF) {
+            return setOp(op, a, b);
+        }
+        // the tasks would race on the counters, so the parallel path counts
+        // no rotations
+        TreeMetrics m = metrics;
+        metrics = null;
+        try {
+            return ForkJoinPool.commonPool().invoke(new SetOpTask(op, a, b));
+        } finally {
+            metrics = m;
+        }
+    }
+
+    // splits a by the root of b and recurses on the two halves.
+    // b is only read unless op is UNION, which reuses its nodes.
+    private Node<K, V> setOp(SetOp op, Node<K, V> a, Node<K, V> b) {
+        if (a == null) return op == SetOp.UNION ? b : null;
+        if (b == null) return op == SetOp.INTERSECTION ? null : a;
+        boolean fork = size(a) + size(b) >= SEQUENTIAL_CUTOFF;
+        Split<K, V> s = split(a, b.key);
+        Node<K, V> l;
+        Node<K, V> r;
+        if (fork) {
+            SetOpTask task = new SetOpTask(op, s.left, b.left);
+            task.fork();
+            r = setOp(op, s.right, b.right);
+            l = task.join();
+        } else {
+            l = setOp(op, s.left, b.left);
+            r = setOp(op, s.right, b.right);
+        }
+        switch (op) {
+            case UNION:
+                return join(l, b, r);
+            case INTERSECTION:
+                return s.mid == null ? join2(l, r) : join(l, s.mid, r);
+            default:
+                return join2(l, r);
+        }
+    }
+
+    private final class SetOpTask extends RecursiveTask<Node<K, V>> {
+        private static final long serialVersionUID = 1L;
+        private final SetOp op;
+        private final Node<K, V> a;
+        private final Node<K, V> b;
+
+        SetOpTask(SetOp op, Node<K, V> a, Node<K, V> b) {
+            this.op = op;
+            this.a = a;
+            this.b = b;
+        }
+
+        @Override
+        protected Node<K, V> compute() {
+            return setOp(op, a, b);
+        }
+    }
+
+    private static final class Split<K extends Comparable<? super K>, V> {
+        Node<K, V> left;
+        // node with the split key, its children are stale
+        Node<K, V> mid;
+        Node<K, V> right;
+    }
+
+    private Split<K, V> split(Node<K, V> h, K k) {
+        if (h == null) return new Split<>();
+        int comp = k.compareTo(h.key);
+        Split<K, V> s;
+        if (comp < 0) {
+            s = split(h.left, k);
+            s.right = join(s.right, h, h.right);
+        } else if (comp > 0) {
+            s = split(h.right, k);
+            s.left = join(h.left, h, s.left);
+        } else {
+            s = new Split<>();
+            s.left = h.left;
+            s.mid = h;
+            s.right = h.right;
+        }
+        return s;
+    }
+
+    // joins l, the detached node m and r, where l < m < r. Descends the
+    // taller tree to a subtree no more than one taller than the other and
+    // puts m there, which grows that subtree by at most one, so rebalancing
+    // on the way up is the same as after an insert.
+    private Node<K, V> join(Node<K, V> l, Node<K, V> m, Node<K, V> r) {
+        if (height(l) > height(r) + 1) {
+            l.right = join(l.right, m, r);
+            return balance(l);
+        }
+        if (height(r) > height(l) + 1) {
+            r.left = join(l, m, r.left);
+            return balance(r);
+        }
+        m.left = l;
+        m.right = r;
+        m.size = 1 + size(l) + size(r);
+        m.height = 1 + Math.max(height(l), height(r));
+        augment(m);
+        return m;
+    }
+
+    // joins l and r, where l < r
+    private Node<K, V> join2(Node<K, V> l, Node<K, V> r) {
+        if (l == null) return r;
+        if (r == null) return l;
+        Node<K, V> m = max(l);
+        return join(deleteMax(l), m, r);
+    }
+
     @Override
     public int height() {
         return height(root);
@@ -210,56 +782,111 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
     @Override
     public K min() {
-        if (isEmpty()) return null;
-        return min(root).key;
+        K m = isEmpty() ? null : min(root).key;
+        endOp(TreeMetrics.SEARCH);
+        return m;
     }
 
     @Override
     public K max() {
-        if (isEmpty()) return null;
-        return max(root).key;
+        K m = isEmpty() ? null : max(root).key;
+        endOp(TreeMetrics.SEARCH);
+        return m;
+    }
+
+    private Node<K, V> min(Node<K, V> h) {
+        while (h.left != null) {
+            h = h.left;
+        }
+        return h;
+    }
+
+    private Node<K, V> max(Node<K, V> h) {
+        while (h.right != null) {
+            h = h.right;
+        }
+        return h;
     }
 
     @Override
     public K floor(K k) {
         Objects.requireNonNull(k);
-        INode<K, V>  f = floor(root, k);
-        return f == null ? null : f.key;
+        Node<K, V> h = root;
+        Node<K, V> best = null;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                best = h;
+                h = h.right;
+            } else {
+                best = h;
+                break;
+            }
+        }
+        endOp(TreeMetrics.SEARCH);
+        return best == null ? null : best.key;
     }
 
     @Override
     public K ceiling(K k) {
         Objects.requireNonNull(k);
-        INode<K, V> c = ceiling(root, k);
-        return c == null ? null : c.key;
+        Node<K, V> h = root;
+        Node<K, V> best = null;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp > 0) {
+                h = h.right;
+            } else if (comp < 0) {
+                best = h;
+                h = h.left;
+            } else {
+                best = h;
+                break;
+            }
+        }
+        endOp(TreeMetrics.SEARCH);
+        return best == null ? null : best.key;
     }
 
     @Override
     public K select(int k) {
-        if (k < 0 || k >= size()) {
-            return null;
+        Node<K, V> h = k < 0 || k >= size() ? null : root;
+        while (h != null) {
+            int rank = size(h.left);
+            if (rank > k) {
+                h = h.left;
+            } else if (rank < k) {
+                k -= rank + 1;
+                h = h.right;
+            } else {
+                break;
+            }
         }
-        return select(root, k).key;
+        endOp(TreeMetrics.SEARCH);
+        return h == null ? null : h.key;
     }
 
     @Override
     public int rank(K k) {
         Objects.requireNonNull(k);
-        return rank(root, k);
-    }
-
-    @Override
-    public Iterable<K> keys() {
-        Queue<K> q = new ArrayDeque<>();
-        keys(root, min(), max(), q);
-        return q;
-    }
-
-    @Override
-    public Iterable<K> keys(K lo, K hi) {
-        Queue<K> q = new ArrayDeque<>();
-        keys(root, lo, hi, q);
-        return q;
+        Node<K, V> h = root;
+        int rank = 0;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                rank += 1 + size(h.left);
+                h = h.right;
+            } else {
+                rank += size(h.left);
+                break;
+            }
+        }
+        endOp(TreeMetrics.SEARCH);
+        return rank;
     }
 
     @Override
@@ -274,6 +901,9 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
         if (!isSizeConsistent(root)) {
             sb.append("size not consistent\n");
         }
+        if (!isAggregateConsistent(root)) {
+            sb.append("aggregate not consistent\n");
+        }
         if (!isRankConsistent()) {
             sb.append("rank is not consistent\n");
         }
@@ -289,6 +919,7 @@ public class AVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     void delete() {
         delete(root);
         root = null;
+        modCount++;
     }
 
     private void delete(Node<K, V> h) {
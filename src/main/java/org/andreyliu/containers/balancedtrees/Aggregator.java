@@ -0,0 +1,107 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Associative summary of values, such as a sum or a minimum, that a tree
+ * keeps for every subtree next to its size. With it the tree answers
+ * {@link BST#aggregate(Aggregator, Comparable, Comparable)} for any key range
+ * in O(log(n)).
+ * combine must be associative and identity must be its neutral element;
+ * combine need not be commutative, as values are combined in key order.
+ * @param <V> value
+ * @param <A> aggregate
+ */
+public interface Aggregator<V, A> {
+    /**
+     * @return aggregate of no values
+     */
+    A identity();
+
+    /**
+     * @param v value, non-nullable
+     * @return aggregate of the single value v
+     */
+    A of(V v);
+
+    /**
+     * @param a aggregate of some values
+     * @param b aggregate of the values that follow them
+     * @return aggregate of both
+     */
+    A combine(A a, A b);
+
+    /**
+     * @param identity aggregate of no values
+     * @param of aggregate of a single value
+     * @param combine associative operator with identity as neutral element
+     * @param <V> value
+     * @param <A> aggregate
+     * @return the aggregator
+     */
+    static <V, A> Aggregator<V, A> of(A identity, Function<? super V, ? extends A> of, BinaryOperator<A> combine) {
+        Objects.requireNonNull(of);
+        Objects.requireNonNull(combine);
+        return new Aggregator<V, A>() {
+            @Override
+            public A identity() {
+                return identity;
+            }
+
+            @Override
+            public A of(V v) {
+                return of.apply(v);
+            }
+
+            @Override
+            public A combine(A a, A b) {
+                return combine.apply(a, b);
+            }
+        };
+    }
+
+    /**
+     * @param f value to add up
+     * @param <V> value
+     * @return aggregator of the sum of f over the values
+     */
+    static <V> Aggregator<V, Long> sum(ToLongFunction<? super V> f) {
+        Objects.requireNonNull(f);
+        return of(0L, f::applyAsLong, Long::sum);
+    }
+
+    /**
+     * @param p predicate
+     * @param <V> value
+     * @return aggregator of the number of values that match p
+     */
+    static <V> Aggregator<V, Long> count(Predicate<? super V> p) {
+        Objects.requireNonNull(p);
+        return of(0L, v -> p.test(v) ? 1L : 0L, Long::sum);
+    }
+
+    /**
+     * @param c comparator
+     * @param <V> value
+     * @return aggregator of the least value, null for no values
+     */
+    static <V> Aggregator<V, V> min(Comparator<? super V> c) {
+        Objects.requireNonNull(c);
+        return of(null, v -> v, (a, b) -> a == null ? b : b == null ? a : c.compare(b, a) < 0 ? b : a);
+    }
+
+    /**
+     * @param c comparator
+     * @param <V> value
+     * @return aggregator of the greatest value, null for no values
+     */
+    static <V> Aggregator<V, V> max(Comparator<? super V> c) {
+        Objects.requireNonNull(c);
+        return of(null, v -> v, (a, b) -> a == null ? b : b == null ? a : c.compare(b, a) > 0 ? b : a);
+    }
+}
@@ -0,0 +1,581 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * AVL tree that stores its nodes as slots in parallel arrays instead of as
+ * objects. A node is an int index; its children, subtree size, height, key
+ * and value live at that index in {@code left}, {@code right}, {@code size},
+ * {@code height}, {@code keys} and {@code vals}.
+ * Slot 0 is the null node, with size 0 and height -1, so that the
+ * arithmetic needs no null checks. Slots freed by deletes are chained
+ * through {@code left} and reused by later puts.
+ * A node costs 21 bytes of array space (with compressed references) against
+ * 40 bytes for an {@link AVLTree} node, and the GC sees six arrays instead
+ * of one object per entry.
+ * @param <K> key
+ * @param <V> value
+ */
+public class ArrayAVLTree<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+    private static final int NIL = 0;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] left;
+    private int[] right;
+    private int[] size;
+    private byte[] height;
+    private Object[] keys;
+    private Object[] vals;
+
+    private int root = NIL;
+    // head of the list of freed slots, linked through left[]
+    private int free = NIL;
+    // first slot that has never been used
+    private int next = 1;
+
+    public ArrayAVLTree() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of entries to make room for up front
+     */
+    public ArrayAVLTree(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("negative capacity");
+        int n = capacity + 1;
+        left = new int[n];
+        right = new int[n];
+        size = new int[n];
+        height = new byte[n];
+        keys = new Object[n];
+        vals = new Object[n];
+        height[NIL] = -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(int h) {
+        return (K) keys[h];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V val(int h) {
+        return (V) vals[h];
+    }
+
+    private int newNode(K k, V v) {
+        int h;
+        if (free != NIL) {
+            h = free;
+            free = left[h];
+        } else {
+            if (next == keys.length) {
+                grow();
+            }
+            h = next++;
+        }
+        keys[h] = k;
+        vals[h] = v;
+        left[h] = NIL;
+        right[h] = NIL;
+        size[h] = 1;
+        height[h] = 0;
+        return h;
+    }
+
+    private void release(int h) {
+        keys[h] = null;
+        vals[h] = null;
+        left[h] = free;
+        free = h;
+    }
+
+    private void grow() {
+        int n = keys.length + (keys.length >> 1) + 1;
+        left = Arrays.copyOf(left, n);
+        right = Arrays.copyOf(right, n);
+        size = Arrays.copyOf(size, n);
+        height = Arrays.copyOf(height, n);
+        keys = Arrays.copyOf(keys, n);
+        vals = Arrays.copyOf(vals, n);
+    }
+
+    @Override
+    public int size() {
+        return size[root];
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == NIL;
+    }
+
+    @Override
+    public V get(K k) {
+        int h = find(Objects.requireNonNull(k));
+        return h == NIL ? null : val(h);
+    }
+
+    private int find(K k) {
+        int h = root;
+        while (h != NIL) {
+            int comp = k.compareTo(key(h));
+            if (comp < 0) {
+                h = left[h];
+            } else if (comp > 0) {
+                h = right[h];
+            } else {
+                return h;
+            }
+        }
+        return NIL;
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return find(Objects.requireNonNull(k)) != NIL;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        root = put(root, Objects.requireNonNull(k), Objects.requireNonNull(val));
+    }
+
+    private int put(int h, K k, V v) {
+        if (h == NIL) return newNode(k, v);
+        int comp = k.compareTo(key(h));
+        if (comp < 0) {
+            int l = put(left[h], k, v);
+            left[h] = l;
+        } else if (comp > 0) {
+            int r = put(right[h], k, v);
+            right[h] = r;
+        } else {
+            vals[h] = v;
+            return h;
+        }
+        return balance(h);
+    }
+
+    private void update(int h) {
+        size[h] = 1 + size[left[h]] + size[right[h]];
+        height[h] = (byte) (1 + Math.max(height[left[h]], height[right[h]]));
+    }
+
+    private int balanceFactor(int h) {
+        return height[left[h]] - height[right[h]];
+    }
+
+    private int balance(int h) {
+        update(h);
+        int b = balanceFactor(h);
+        if (b < -1) {
+            // right tree too tall
+            if (balanceFactor(right[h]) > 0) {
+                right[h] = rotateRight(right[h]);
+            }
+            h = rotateLeft(h);
+        } else if (b > 1) {
+            // left tree too tall
+            if (balanceFactor(left[h]) < 0) {
+                left[h] = rotateLeft(left[h]);
+            }
+            h = rotateRight(h);
+        }
+        return h;
+    }
+
+    private int rotateLeft(int h) {
+        int x = right[h];
+        right[h] = left[x];
+        left[x] = h;
+        update(h);
+        update(x);
+        return x;
+    }
+
+    private int rotateRight(int h) {
+        int x = left[h];
+        left[h] = right[x];
+        right[x] = h;
+        update(h);
+        update(x);
+        return x;
+    }
+
+    @Override
+    public void delete(K k) {
+        if (!contains(k)) {
+            return;
+        }
+        root = delete(root, k);
+    }
+
+    private int delete(int h, K k) {
+        int comp = k.compareTo(key(h));
+        if (comp < 0) {
+            int l = delete(left[h], k);
+            left[h] = l;
+        } else if (comp > 0) {
+            int r = delete(right[h], k);
+            right[h] = r;
+        } else {
+            int x;
+            if (left[h] != NIL && right[h] != NIL) {
+                // we look for substitute node from taller subtree
+                if (balanceFactor(h) < 0) {
+                    x = min(right[h]);
+                    right[x] = deleteMin(right[h]);
+                    left[x] = left[h];
+                } else {
+                    x = max(left[h]);
+                    left[x] = deleteMax(left[h]);
+                    right[x] = right[h];
+                }
+                update(x);
+            } else {
+                x = left[h] != NIL ? left[h] : right[h];
+            }
+            release(h);
+            return x;
+        }
+        return balance(h);
+    }
+
+    @Override
+    public void deleteMin() {
+        if (isEmpty()) return;
+        int m = min(root);
+        root = deleteMin(root);
+        release(m);
+    }
+
+    // unlinks the minimum of h without releasing its slot
+    private int deleteMin(int h) {
+        if (left[h] == NIL) {
+            return right[h];
+        }
+        left[h] = deleteMin(left[h]);
+        return balance(h);
+    }
+
+    @Override
+    public void deleteMax() {
+        if (isEmpty()) return;
+        int m = max(root);
+        root = deleteMax(root);
+        release(m);
+    }
+
+    // unlinks the maximum of h without releasing its slot
+    private int deleteMax(int h) {
+        if (right[h] == NIL) {
+            return left[h];
+        }
+        right[h] = deleteMax(right[h]);
+        return balance(h);
+    }
+
+    /**
+     * @return height of the tree, -1 if empty
+     */
+    public int height() {
+        return height[root];
+    }
+
+    @Override
+    public K min() {
+        if (isEmpty()) return null;
+        return key(min(root));
+    }
+
+    @Override
+    public K max() {
+        if (isEmpty()) return null;
+        return key(max(root));
+    }
+
+    private int min(int h) {
+        while (left[h] != NIL) {
+            h = left[h];
+        }
+        return h;
+    }
+
+    private int max(int h) {
+        while (right[h] != NIL) {
+            h = right[h];
+        }
+        return h;
+    }
+
+    @Override
+    public K floor(K k) {
+        Objects.requireNonNull(k);
+        int h = root;
+        int best = NIL;
+        while (h != NIL) {
+            int comp = k.compareTo(key(h));
+            if (comp < 0) {
+                h = left[h];
+            } else if (comp > 0) {
+                best = h;
+                h = right[h];
+            } else {
+                return key(h);
+            }
+        }
+        return key(best);
+    }
+
+    @Override
+    public K ceiling(K k) {
+        Objects.requireNonNull(k);
+        int h = root;
+        int best = NIL;
+        while (h != NIL) {
+            int comp = k.compareTo(key(h));
+            if (comp > 0) {
+                h = right[h];
+            } else if (comp < 0) {
+                best = h;
+                h = left[h];
+            } else {
+                return key(h);
+            }
+        }
+        return key(best);
+    }
+
+    @Override
+    public K select(int k) {
+        if (k < 0 || k >= size()) {
+            return null;
+        }
+        int h = root;
+        while (true) {
+            int rank = size[left[h]];
+            if (rank > k) {
+                h = left[h];
+            } else if (rank < k) {
+                k -= rank + 1;
+                h = right[h];
+            } else {
+                return key(h);
+            }
+        }
+    }
+
+    @Override
+    public int rank(K k) {
+        Objects.requireNonNull(k);
+        int h = root;
+        int rank = 0;
+        while (h != NIL) {
+            int comp = k.compareTo(key(h));
+            if (comp < 0) {
+                h = left[h];
+            } else if (comp > 0) {
+                rank += 1 + size[left[h]];
+                h = right[h];
+            } else {
+                return rank + size[left[h]];
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        if (contains(to)) return rank(to) - rank(from) + 1;
+        return rank(to) - rank(from);
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new KeyIterator(new SlotIterator(null, null, false));
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator(new SlotIterator(lo, hi, false));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> new KeyIterator(new SlotIterator(null, null, true));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator(new SlotIterator(lo, hi, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return () -> new EntryIterator(new SlotIterator(null, null, false));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(new SlotIterator(lo, hi, false));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return () -> new EntryIterator(new SlotIterator(null, null, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(new SlotIterator(lo, hi, true));
+    }
+
+    /**
+     * Same walk as {@link BST.NodeIterator}, over slots, with the stack in an
+     * int array of height() + 1 slots.
+     */
+    private final class SlotIterator {
+        private final int[] stack = new int[height() + 1];
+        private int top = 0;
+        private final K lo;
+        private final K hi;
+        private final boolean descending;
+
+        SlotIterator(K lo, K hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+            pushPath(root);
+        }
+
+        private void pushPath(int h) {
+            while (h != NIL) {
+                if (descending) {
+                    if (hi != null && key(h).compareTo(hi) > 0) {
+                        h = left[h];
+                    } else {
+                        stack[top++] = h;
+                        h = right[h];
+                    }
+                } else {
+                    if (lo != null && key(h).compareTo(lo) < 0) {
+                        h = right[h];
+                    } else {
+                        stack[top++] = h;
+                        h = left[h];
+                    }
+                }
+            }
+        }
+
+        boolean hasNext() {
+            if (top == 0) return false;
+            K k = key(stack[top - 1]);
+            if (descending) {
+                return lo == null || k.compareTo(lo) >= 0;
+            }
+            return hi == null || k.compareTo(hi) <= 0;
+        }
+
+        int next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int h = stack[--top];
+            pushPath(descending ? left[h] : right[h]);
+            return h;
+        }
+    }
+
+    private final class KeyIterator implements Iterator<K> {
+        private final SlotIterator slots;
+
+        KeyIterator(SlotIterator slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slots.hasNext();
+        }
+
+        @Override
+        public K next() {
+            return key(slots.next());
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final SlotIterator slots;
+
+        EntryIterator(SlotIterator slots) {
+            this.slots = slots;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slots.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            int h = slots.next();
+            return new SimpleEntry<>(key(h), val(h));
+        }
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        if (!isBST(root, null, null)) sb.append("not BST\n");
+        if (!isSizeConsistent(root)) sb.append("size not consistent\n");
+        if (!isBalanced(root)) sb.append("not balanced\n");
+        if (!isFreeListConsistent()) sb.append("free list not consistent\n");
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    private boolean isBST(int h, K min, K max) {
+        if (h == NIL) return true;
+        if (min != null && min.compareTo(key(h)) >= 0) return false;
+        if (max != null && max.compareTo(key(h)) <= 0) return false;
+        return isBST(left[h], min, key(h)) && isBST(right[h], key(h), max);
+    }
+
+    private boolean isSizeConsistent(int h) {
+        if (h == NIL) return true;
+        if (size[h] != 1 + size[left[h]] + size[right[h]]) return false;
+        return isSizeConsistent(left[h]) && isSizeConsistent(right[h]);
+    }
+
+    private boolean isBalanced(int h) {
+        if (h == NIL) return true;
+        if (height[h] != 1 + Math.max(height[left[h]], height[right[h]])) return false;
+        if (Math.abs(balanceFactor(h)) > 1) return false;
+        return isBalanced(left[h]) && isBalanced(right[h]);
+    }
+
+    // every slot below next is either in the tree or on the free list
+    private boolean isFreeListConsistent() {
+        int freed = 0;
+        for (int h = free; h != NIL; h = left[h]) {
+            if (keys[h] != null) return false;
+            freed++;
+        }
+        return freed + size() == next - 1;
+    }
+}
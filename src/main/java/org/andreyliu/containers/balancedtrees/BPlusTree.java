@@ -0,0 +1,748 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * B+tree implementation of {@link OrderedMap}.
+ * Each node holds up to {@code fanout} sorted keys (leaves) or children
+ * (inner nodes) in arrays, so a lookup takes about log_fanout(n) cache misses
+ * rather than the log2(n) of a binary tree. Leaves are linked in both
+ * directions for range scans, and every inner node keeps the number of
+ * entries under each child, so rank, select and size(from, to) stay
+ * O(fanout * log_fanout(n)).
+ * Nodes other than the root are kept at least half full; deletes borrow from
+ * or merge with a sibling when a node drops below that.
+ * @param <K> key
+ * @param <V> value
+ */
+public class BPlusTree<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+    static final int DEFAULT_FANOUT = 64;
+    private static final int MIN_FANOUT = 4;
+
+    private final int fanout;
+    private Node root;
+    private Leaf first;
+    private Leaf last;
+    private int size;
+
+    // set by put and delete when an entry was added or removed
+    private boolean changed;
+    // separator to push up after a split
+    private Object splitKey;
+
+    private abstract static class Node {
+        // keys in a leaf, children in an inner node
+        int n;
+        final Object[] keys;
+
+        Node(int keyCapacity) {
+            keys = new Object[keyCapacity];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] vals;
+        Leaf prev;
+        Leaf next;
+
+        Leaf(int fanout) {
+            // one spare slot to hold the overflowing entry before a split
+            super(fanout + 1);
+            vals = new Object[fanout + 1];
+        }
+    }
+
+    /**
+     * children[i] holds the keys k with keys[i - 1] <= k < keys[i];
+     * counts[i] is the number of entries under children[i].
+     */
+    private static final class Inner extends Node {
+        final Node[] children;
+        final int[] counts;
+
+        Inner(int fanout) {
+            super(fanout);
+            children = new Node[fanout + 1];
+            counts = new int[fanout + 1];
+        }
+    }
+
+    public BPlusTree() {
+        this(DEFAULT_FANOUT);
+    }
+
+    /**
+     * @param fanout maximum number of entries in a leaf and of children of an
+     *               inner node, at least 4
+     */
+    public BPlusTree(int fanout) {
+        if (fanout < MIN_FANOUT) {
+            throw new IllegalArgumentException("fanout must be at least " + MIN_FANOUT);
+        }
+        this.fanout = fanout;
+        Leaf leaf = new Leaf(fanout);
+        root = leaf;
+        first = leaf;
+        last = leaf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Comparable<? super K>> int compare(K k, Object key) {
+        return k.compareTo((K) key);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K key(Node h, int i) {
+        return (K) h.keys[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    private V val(Leaf h, int i) {
+        return (V) h.vals[i];
+    }
+
+    /**
+     * @return index of k in the leaf, or -(insertion point) - 1 if absent
+     */
+    private int search(Leaf h, K k) {
+        int lo = 0;
+        int hi = h.n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int comp = compare(k, h.keys[mid]);
+            if (comp > 0) {
+                lo = mid + 1;
+            } else if (comp < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * @return index of the child of h whose range holds k
+     */
+    private int child(Inner h, K k) {
+        // number of separators <= k
+        int lo = 0;
+        int hi = h.n - 2;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(k, h.keys[mid]) >= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private Leaf leaf(K k) {
+        Node h = root;
+        while (h instanceof Inner) {
+            Inner x = (Inner) h;
+            h = x.children[child(x, k)];
+        }
+        return (Leaf) h;
+    }
+
+    private static int count(Node h) {
+        if (h instanceof Leaf) return h.n;
+        Inner x = (Inner) h;
+        int c = 0;
+        for (int i = 0; i < x.n; i++) {
+            c += x.counts[i];
+        }
+        return c;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(K k) {
+        Objects.requireNonNull(k);
+        Leaf h = leaf(k);
+        int i = search(h, k);
+        return i < 0 ? null : val(h, i);
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(val);
+        changed = false;
+        Node sibling = put(root, k, val);
+        if (sibling != null) {
+            Inner r = new Inner(fanout);
+            r.n = 2;
+            r.keys[0] = splitKey;
+            r.children[0] = root;
+            r.children[1] = sibling;
+            r.counts[0] = count(root);
+            r.counts[1] = count(sibling);
+            root = r;
+        }
+        splitKey = null;
+        if (changed) size++;
+    }
+
+    /**
+     * @return the new right sibling of h if h was split, with its first key
+     * in splitKey, or null
+     */
+    private Node put(Node h, K k, V v) {
+        if (h instanceof Leaf) {
+            Leaf x = (Leaf) h;
+            int i = search(x, k);
+            if (i >= 0) {
+                x.vals[i] = v;
+                return null;
+            }
+            i = -i - 1;
+            System.arraycopy(x.keys, i, x.keys, i + 1, x.n - i);
+            System.arraycopy(x.vals, i, x.vals, i + 1, x.n - i);
+            x.keys[i] = k;
+            x.vals[i] = v;
+            x.n++;
+            changed = true;
+            return x.n > fanout ? splitLeaf(x) : null;
+        }
+        Inner x = (Inner) h;
+        int i = child(x, k);
+        Node c = x.children[i];
+        Node sibling = put(c, k, v);
+        if (changed) x.counts[i]++;
+        if (sibling == null) return null;
+
+        System.arraycopy(x.keys, i, x.keys, i + 1, x.n - 1 - i);
+        System.arraycopy(x.children, i + 1, x.children, i + 2, x.n - 1 - i);
+        System.arraycopy(x.counts, i + 1, x.counts, i + 2, x.n - 1 - i);
+        x.keys[i] = splitKey;
+        x.children[i + 1] = sibling;
+        x.counts[i + 1] = count(sibling);
+        x.counts[i] -= x.counts[i + 1];
+        x.n++;
+        return x.n > fanout ? splitInner(x) : null;
+    }
+
+    private Leaf splitLeaf(Leaf x) {
+        Leaf y = new Leaf(fanout);
+        int keep = (x.n + 1) / 2;
+        y.n = x.n - keep;
+        System.arraycopy(x.keys, keep, y.keys, 0, y.n);
+        System.arraycopy(x.vals, keep, y.vals, 0, y.n);
+        Arrays.fill(x.keys, keep, x.n, null);
+        Arrays.fill(x.vals, keep, x.n, null);
+        x.n = keep;
+
+        y.prev = x;
+        y.next = x.next;
+        if (x.next != null) {
+            x.next.prev = y;
+        } else {
+            last = y;
+        }
+        x.next = y;
+        splitKey = y.keys[0];
+        return y;
+    }
+
+    private Inner splitInner(Inner x) {
+        Inner y = new Inner(fanout);
+        int keep = (x.n + 1) / 2;
+        y.n = x.n - keep;
+        // the separator between the two halves moves up
+        splitKey = x.keys[keep - 1];
+        System.arraycopy(x.keys, keep, y.keys, 0, y.n - 1);
+        System.arraycopy(x.children, keep, y.children, 0, y.n);
+        System.arraycopy(x.counts, keep, y.counts, 0, y.n);
+        Arrays.fill(x.keys, keep - 1, x.n - 1, null);
+        Arrays.fill(x.children, keep, x.n, null);
+        x.n = keep;
+        return y;
+    }
+
+    @Override
+    public void delete(K k) {
+        Objects.requireNonNull(k);
+        changed = false;
+        delete(root, k);
+        if (!changed) return;
+        size--;
+        if (root instanceof Inner && root.n == 1) {
+            root = ((Inner) root).children[0];
+        }
+    }
+
+    private void delete(Node h, K k) {
+        if (h instanceof Leaf) {
+            Leaf x = (Leaf) h;
+            int i = search(x, k);
+            if (i < 0) return;
+            System.arraycopy(x.keys, i + 1, x.keys, i, x.n - 1 - i);
+            System.arraycopy(x.vals, i + 1, x.vals, i, x.n - 1 - i);
+            x.n--;
+            x.keys[x.n] = null;
+            x.vals[x.n] = null;
+            changed = true;
+            return;
+        }
+        Inner x = (Inner) h;
+        int i = child(x, k);
+        delete(x.children[i], k);
+        if (!changed) return;
+        x.counts[i]--;
+        if (x.children[i].n < minFill(x.children[i])) {
+            fix(x, i);
+        }
+    }
+
+    private int minFill(Node h) {
+        return h instanceof Leaf ? fanout / 2 : (fanout + 1) / 2;
+    }
+
+    // refills the underfull child i of x from a sibling, or merges it into one
+    private void fix(Inner x, int i) {
+        if (i > 0 && x.children[i - 1].n > minFill(x.children[i - 1])) {
+            borrowFromLeft(x, i);
+        } else if (i < x.n - 1 && x.children[i + 1].n > minFill(x.children[i + 1])) {
+            borrowFromRight(x, i);
+        } else if (i > 0) {
+            merge(x, i - 1);
+        } else {
+            merge(x, i);
+        }
+    }
+
+    private void borrowFromLeft(Inner x, int i) {
+        Node l = x.children[i - 1];
+        Node c = x.children[i];
+        if (c instanceof Leaf) {
+            Leaf ll = (Leaf) l;
+            Leaf lc = (Leaf) c;
+            System.arraycopy(lc.keys, 0, lc.keys, 1, lc.n);
+            System.arraycopy(lc.vals, 0, lc.vals, 1, lc.n);
+            lc.keys[0] = ll.keys[ll.n - 1];
+            lc.vals[0] = ll.vals[ll.n - 1];
+            lc.n++;
+            ll.n--;
+            ll.keys[ll.n] = null;
+            ll.vals[ll.n] = null;
+            x.keys[i - 1] = lc.keys[0];
+            x.counts[i - 1]--;
+            x.counts[i]++;
+            return;
+        }
+        Inner il = (Inner) l;
+        Inner ic = (Inner) c;
+        System.arraycopy(ic.keys, 0, ic.keys, 1, ic.n - 1);
+        System.arraycopy(ic.children, 0, ic.children, 1, ic.n);
+        System.arraycopy(ic.counts, 0, ic.counts, 1, ic.n);
+        ic.keys[0] = x.keys[i - 1];
+        ic.children[0] = il.children[il.n - 1];
+        ic.counts[0] = il.counts[il.n - 1];
+        ic.n++;
+        x.keys[i - 1] = il.keys[il.n - 2];
+        x.counts[i - 1] -= ic.counts[0];
+        x.counts[i] += ic.counts[0];
+        il.keys[il.n - 2] = null;
+        il.children[il.n - 1] = null;
+        il.n--;
+    }
+
+    private void borrowFromRight(Inner x, int i) {
+        Node c = x.children[i];
+        Node r = x.children[i + 1];
+        if (c instanceof Leaf) {
+            Leaf lc = (Leaf) c;
+            Leaf lr = (Leaf) r;
+            lc.keys[lc.n] = lr.keys[0];
+            lc.vals[lc.n] = lr.vals[0];
+            lc.n++;
+            lr.n--;
+            System.arraycopy(lr.keys, 1, lr.keys, 0, lr.n);
+            System.arraycopy(lr.vals, 1, lr.vals, 0, lr.n);
+            lr.keys[lr.n] = null;
+            lr.vals[lr.n] = null;
+            x.keys[i] = lr.keys[0];
+            x.counts[i]++;
+            x.counts[i + 1]--;
+            return;
+        }
+        Inner ic = (Inner) c;
+        Inner ir = (Inner) r;
+        ic.keys[ic.n - 1] = x.keys[i];
+        ic.children[ic.n] = ir.children[0];
+        ic.counts[ic.n] = ir.counts[0];
+        ic.n++;
+        x.keys[i] = ir.keys[0];
+        x.counts[i] += ir.counts[0];
+        x.counts[i + 1] -= ir.counts[0];
+        System.arraycopy(ir.keys, 1, ir.keys, 0, ir.n - 2);
+        System.arraycopy(ir.children, 1, ir.children, 0, ir.n - 1);
+        System.arraycopy(ir.counts, 1, ir.counts, 0, ir.n - 1);
+        ir.keys[ir.n - 2] = null;
+        ir.children[ir.n - 1] = null;
+        ir.n--;
+    }
+
+    // merges child i + 1 of x into child i
+    private void merge(Inner x, int i) {
+        Node l = x.children[i];
+        Node r = x.children[i + 1];
+        if (l instanceof Leaf) {
+            Leaf ll = (Leaf) l;
+            Leaf lr = (Leaf) r;
+            System.arraycopy(lr.keys, 0, ll.keys, ll.n, lr.n);
+            System.arraycopy(lr.vals, 0, ll.vals, ll.n, lr.n);
+            ll.n += lr.n;
+            ll.next = lr.next;
+            if (lr.next != null) {
+                lr.next.prev = ll;
+            } else {
+                last = ll;
+            }
+        } else {
+            Inner il = (Inner) l;
+            Inner ir = (Inner) r;
+            il.keys[il.n - 1] = x.keys[i];
+            System.arraycopy(ir.keys, 0, il.keys, il.n, ir.n - 1);
+            System.arraycopy(ir.children, 0, il.children, il.n, ir.n);
+            System.arraycopy(ir.counts, 0, il.counts, il.n, ir.n);
+            il.n += ir.n;
+        }
+        x.counts[i] += x.counts[i + 1];
+        System.arraycopy(x.keys, i + 1, x.keys, i, x.n - 2 - i);
+        System.arraycopy(x.children, i + 2, x.children, i + 1, x.n - 2 - i);
+        System.arraycopy(x.counts, i + 2, x.counts, i + 1, x.n - 2 - i);
+        x.n--;
+        x.keys[x.n - 1] = null;
+        x.children[x.n] = null;
+    }
+
+    @Override
+    public void deleteMin() {
+        if (isEmpty()) return;
+        delete(min());
+    }
+
+    @Override
+    public void deleteMax() {
+        if (isEmpty()) return;
+        delete(max());
+    }
+
+    /**
+     * @return number of levels below the root, 0 for a single leaf
+     */
+    public int height() {
+        int height = 0;
+        for (Node h = root; h instanceof Inner; h = ((Inner) h).children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    @Override
+    public K min() {
+        if (isEmpty()) return null;
+        return key(first, 0);
+    }
+
+    @Override
+    public K max() {
+        if (isEmpty()) return null;
+        return key(last, last.n - 1);
+    }
+
+    @Override
+    public K floor(K k) {
+        Objects.requireNonNull(k);
+        Leaf h = leaf(k);
+        int i = search(h, k);
+        if (i >= 0) return key(h, i);
+        i = -i - 2;
+        if (i >= 0) return key(h, i);
+        // every key in h is greater than k
+        return h.prev == null ? null : key(h.prev, h.prev.n - 1);
+    }
+
+    @Override
+    public K ceiling(K k) {
+        Objects.requireNonNull(k);
+        Leaf h = leaf(k);
+        int i = search(h, k);
+        if (i >= 0) return key(h, i);
+        i = -i - 1;
+        if (i < h.n) return key(h, i);
+        // every key in h is less than k
+        return h.next == null ? null : key(h.next, 0);
+    }
+
+    @Override
+    public K select(int k) {
+        if (k < 0 || k >= size()) {
+            return null;
+        }
+        Node h = root;
+        while (h instanceof Inner) {
+            Inner x = (Inner) h;
+            int i = 0;
+            while (k >= x.counts[i]) {
+                k -= x.counts[i++];
+            }
+            h = x.children[i];
+        }
+        return key(h, k);
+    }
+
+    @Override
+    public int rank(K k) {
+        Objects.requireNonNull(k);
+        int rank = 0;
+        Node h = root;
+        while (h instanceof Inner) {
+            Inner x = (Inner) h;
+            int c = child(x, k);
+            for (int i = 0; i < c; i++) {
+                rank += x.counts[i];
+            }
+            h = x.children[c];
+        }
+        int i = search((Leaf) h, k);
+        return rank + (i >= 0 ? i : -i - 1);
+    }
+
+    @Override
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        if (contains(to)) return rank(to) - rank(from) + 1;
+        return rank(to) - rank(from);
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new KeyIterator(new Cursor(first, 0, null, false));
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator(ascending(lo, hi));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> new KeyIterator(new Cursor(last, last.n - 1, null, true));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator(descending(lo, hi));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return () -> new EntryIterator(new Cursor(first, 0, null, false));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(ascending(lo, hi));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return () -> new EntryIterator(new Cursor(last, last.n - 1, null, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(descending(lo, hi));
+    }
+
+    private Cursor ascending(K lo, K hi) {
+        Leaf h = leaf(lo);
+        int i = search(h, lo);
+        return new Cursor(h, i >= 0 ? i : -i - 1, hi, false);
+    }
+
+    private Cursor descending(K lo, K hi) {
+        Leaf h = leaf(hi);
+        int i = search(h, hi);
+        return new Cursor(h, i >= 0 ? i : -i - 2, lo, true);
+    }
+
+    /**
+     * Position in the linked leaves, moving forwards up to an upper bound or
+     * backwards down to a lower bound (null for none).
+     */
+    private final class Cursor {
+        private Leaf leaf;
+        private int i;
+        private final K bound;
+        private final boolean descending;
+
+        Cursor(Leaf leaf, int i, K bound, boolean descending) {
+            this.leaf = leaf;
+            this.i = i;
+            this.bound = bound;
+            this.descending = descending;
+            settle();
+        }
+
+        // steps over leaf boundaries so that (leaf, i) is an entry or leaf is null
+        private void settle() {
+            if (descending) {
+                while (leaf != null && i < 0) {
+                    leaf = leaf.prev;
+                    i = leaf == null ? 0 : leaf.n - 1;
+                }
+            } else {
+                while (leaf != null && i >= leaf.n) {
+                    leaf = leaf.next;
+                    i = 0;
+                }
+            }
+        }
+
+        boolean hasNext() {
+            if (leaf == null) return false;
+            if (bound == null) return true;
+            int comp = key(leaf, i).compareTo(bound);
+            return descending ? comp >= 0 : comp <= 0;
+        }
+
+        void advance() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            i += descending ? -1 : 1;
+            settle();
+        }
+    }
+
+    private final class KeyIterator implements Iterator<K> {
+        private final Cursor cursor;
+
+        KeyIterator(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public K next() {
+            if (!cursor.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            K k = key(cursor.leaf, cursor.i);
+            cursor.advance();
+            return k;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Cursor cursor;
+
+        EntryIterator(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!cursor.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> e = new SimpleEntry<>(key(cursor.leaf, cursor.i), val(cursor.leaf, cursor.i));
+            cursor.advance();
+            return e;
+        }
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        int depth = height();
+        if (check(root, null, null, 0, depth) != size) sb.append("counts not consistent\n");
+        if (!isLeafChainConsistent()) sb.append("leaf chain not consistent\n");
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    // returns the number of entries under h, or -1 if h breaks an invariant
+    private int check(Node h, K lo, K hi, int level, int depth) {
+        if (h != root && h.n < minFill(h)) return -1;
+        if (h.n > fanout) return -1;
+        int keys = h instanceof Leaf ? h.n : h.n - 1;
+        for (int i = 0; i < keys; i++) {
+            K k = key(h, i);
+            if (i > 0 && key(h, i - 1).compareTo(k) >= 0) return -1;
+            if (lo != null && k.compareTo(lo) < 0) return -1;
+            if (hi != null && k.compareTo(hi) >= 0) return -1;
+        }
+        if (h instanceof Leaf) {
+            return level == depth ? h.n : -1;
+        }
+        Inner x = (Inner) h;
+        int total = 0;
+        for (int i = 0; i < x.n; i++) {
+            K clo = i == 0 ? lo : key(x, i - 1);
+            K chi = i == x.n - 1 ? hi : key(x, i);
+            int c = check(x.children[i], clo, chi, level + 1, depth);
+            if (c == -1 || c != x.counts[i]) return -1;
+            total += c;
+        }
+        return total;
+    }
+
+    private boolean isLeafChainConsistent() {
+        int total = 0;
+        Leaf prev = null;
+        for (Leaf h = first; h != null; h = h.next) {
+            if (h.prev != prev) return false;
+            if (prev != null && prev.n > 0 && h.n > 0
+                    && key(prev, prev.n - 1).compareTo(key(h, 0)) >= 0) {
+                return false;
+            }
+            total += h.n;
+            prev = h;
+        }
+        return prev == last && total == size;
+    }
+}
@@ -1,7 +1,16 @@
 package org.andreyliu.containers.balancedtrees;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-import java.util.Queue;
 
 public abstract class BST<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
 
@@ -9,6 +18,8 @@ public abstract class BST<K extends Comparable<? super K>, V> implements Ordered
         K key;
         V val;
         int size = 1;
+        // the tree's aggregate of the subtree, if it has an aggregator
+        Object agg;
         INode(K key, V val) {
             this.key = key;
             this.val = val;
@@ -32,110 +43,582 @@ public abstract class BST<K extends Comparable<? super K>, V> implements Ordered
             return String.format("{%s: %s | size: %s}", key, val, size);
         }
     }
+
+    // what a single-descent update did, made afresh for each call
+    static final class Update<V> {
+        // value of the key before and after
+        V before;
+        V after;
+        // for LLRBTree: whether the subtree returned has one black node
+        // less on each path than the one it replaces
+        boolean shorter;
+    }
+
+    // the node a deleteEnd leaves at the end it deleted from, made afresh
+    // for each call
+    static final class End<K extends Comparable<? super K>, V> {
+        INode<K, V> node;
+    }
     int size(INode<K, V> h) {
         return h == null ? 0 : h.size;
     }
-    V get(INode<K, V> h, K k) {
-        if (h == null) return null;
-        int comp = k.compareTo(h.key);
-        if (comp < 0) {
-            return get(h.getLeft(), k);
+
+    // structural modifications so far, for fail-fast cursors
+    int modCount;
+
+    // hot-path counters, null until metrics() is called. Hooks test
+    // TreeMetrics.ENABLED first, so they fold away when metrics are off.
+    TreeMetrics metrics;
+
+    TreeMetrics metrics() {
+        if (!TreeMetrics.ENABLED) {
+            throw new IllegalStateException(
+                    "metrics are off, run with -Dorg.andreyliu.containers.balancedtrees.metrics=true");
+        }
+        if (metrics == null) metrics = new TreeMetrics();
+        return metrics;
+    }
+
+    // compares k with the key of h, a node on the search path of an operation
+    final int visit(K k, INode<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.visit();
+        return k.compareTo(h.key);
+    }
+
+    // compares k with the key of h, a node already visited
+    final int compare(K k, INode<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.compare();
+        return k.compareTo(h.key);
+    }
+
+    // ends an operation of the given TreeMetrics kind
+    final void endOp(int op) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.end(op);
+    }
+
+    // summary kept in every node next to its size, or null
+    Aggregator<? super V, Object> aggregator;
+
+    @SuppressWarnings("unchecked")
+    void aggregator(Aggregator<? super V, ?> aggregator) {
+        this.aggregator = (Aggregator<? super V, Object>) aggregator;
+    }
+
+    // recomputes the aggregate of h from its value and its children's
+    // aggregates. Trees call it wherever they recompute the size of h, so on
+    // every node whose subtree changed, children first. Subclasses override
+    // it to keep their own augmentation.
+    void augment(INode<K, V> h) {
+        if (aggregator == null) return;
+        Object a = aggregator.of(h.val);
+        if (h.getLeft() != null) a = aggregator.combine(h.getLeft().agg, a);
+        if (h.getRight() != null) a = aggregator.combine(a, h.getRight().agg);
+        h.agg = a;
+    }
+
+    /**
+     * Aggregates the values of the entries with keys between lo and hi,
+     * inclusive, in O(log(n)).
+     * @param aggregator the aggregator this tree was created with
+     * @param lo lower bound
+     * @param hi upper bound
+     * @param <A> aggregate
+     * @return aggregate of the values in key order, the identity if there
+     * are none
+     * @throws IllegalArgumentException if this tree does not keep aggregator
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(Aggregator<? super V, A> aggregator, K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        checkAggregator(aggregator);
+        A a = lo.compareTo(hi) > 0 ? aggregator.identity() : (A) aggregate(root(), lo, hi);
+        endOp(TreeMetrics.SEARCH);
+        return a;
+    }
+
+    /**
+     * Aggregates all values in O(1).
+     * @param aggregator the aggregator this tree was created with
+     * @param <A> aggregate
+     * @return aggregate of the values in key order, the identity if there
+     * are none
+     * @throws IllegalArgumentException if this tree does not keep aggregator
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(Aggregator<? super V, A> aggregator) {
+        checkAggregator(aggregator);
+        INode<K, V> h = root();
+        endOp(TreeMetrics.SEARCH);
+        return h == null ? aggregator.identity() : (A) h.agg;
+    }
+
+    private void checkAggregator(Aggregator<?, ?> aggregator) {
+        if (aggregator == null || aggregator != this.aggregator) {
+            throw new IllegalArgumentException("not the aggregator this tree was created with");
+        }
+    }
+
+    // aggregate of the entries under h with keys in [lo, hi], where a null
+    // bound is open. Below the node where the bounds part ways each side has
+    // one open bound, so this visits O(height) nodes.
+    private Object aggregate(INode<K, V> h, K lo, K hi) {
+        while (h != null) {
+            if (lo != null && h.key.compareTo(lo) < 0) {
+                h = h.getRight();
+            } else if (hi != null && h.key.compareTo(hi) > 0) {
+                h = h.getLeft();
+            } else {
+                break;
+            }
         }
-        if (comp > 0) {
-            return get(h.getRight(), k);
+        if (h == null) return aggregator.identity();
+        if (lo == null && hi == null) return h.agg;
+        Object a = aggregator.of(h.val);
+        a = aggregator.combine(aggregate(h.getLeft(), lo, null), a);
+        return aggregator.combine(a, aggregate(h.getRight(), null, hi));
+    }
+    V get(INode<K, V> h, K k) {
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.getLeft();
+            } else if (comp > 0) {
+                h = h.getRight();
+            } else {
+                return h.val;
+            }
         }
-        return h.val;
+        return null;
     }
 
     abstract int height();
 
+    @Override
+    public V get(K k) {
+        return get(root(), Objects.requireNonNull(k));
+    }
+
     @Override
     public boolean contains(K k) {
         return get(k) != null;
     }
 
     INode<K, V> min(INode<K, V> h) {
-        if (h.getLeft() == null) return h;
-        return min(h.getLeft());
+        while (h.getLeft() != null) {
+            h = h.getLeft();
+        }
+        return h;
     }
 
     INode<K, V> max(INode<K, V> h) {
-        if (h.getRight() == null) return h;
-        return max(h.getRight());
+        while (h.getRight() != null) {
+            h = h.getRight();
+        }
+        return h;
+    }
+
+    @Override
+    public K min() {
+        K m = isEmpty() ? null : min(root()).key;
+        endOp(TreeMetrics.SEARCH);
+        return m;
+    }
+
+    @Override
+    public K max() {
+        K m = isEmpty() ? null : max(root()).key;
+        endOp(TreeMetrics.SEARCH);
+        return m;
     }
 
     INode<K, V> floor(INode<K, V> h, K k) {
-        if (h == null) return null;
-        int comp = h.key.compareTo(k);
-        if (comp < 0) {
-            INode<K, V> t = floor(h.getRight(), k);
-            return t == null ? h : t;
-        }
-        if (comp > 0) {
-            return floor(h.getLeft(), k);
+        INode<K, V> best = null;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp > 0) {
+                best = h;
+                h = h.getRight();
+            } else if (comp < 0) {
+                h = h.getLeft();
+            } else {
+                return h;
+            }
         }
-        return h;
+        return best;
     }
 
     INode<K, V> ceiling(INode<K, V> h, K k) {
-        if (h == null) return null;
-        int comp = h.key.compareTo(k);
-        if (comp > 0) {
-            INode<K, V> t = ceiling(h.getLeft(), k);
-            return t == null ? h : t;
+        INode<K, V> best = null;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                best = h;
+                h = h.getLeft();
+            } else if (comp > 0) {
+                h = h.getRight();
+            } else {
+                return h;
+            }
         }
-        if (comp < 0) {
-            return ceiling(h.getRight(), k);
+        return best;
+    }
+
+    @Override
+    public Entry<K, V> minEntry() {
+        return entry(isEmpty() ? null : min(root()));
+    }
+
+    @Override
+    public Entry<K, V> maxEntry() {
+        return entry(isEmpty() ? null : max(root()));
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K k) {
+        return entry(floor(root(), Objects.requireNonNull(k)));
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K k) {
+        return entry(ceiling(root(), Objects.requireNonNull(k)));
+    }
+
+    // deletes the least key if min, or the greatest otherwise, and returns
+    // the entry now at that end, or null if the tree is empty. AVLTree and
+    // LLRBTree find the new end on the walk that deletes the old one.
+    Entry<K, V> deleteEnd(boolean min) {
+        if (min) {
+            deleteMin();
+        } else {
+            deleteMax();
         }
-        return h;
+        return min ? minEntry() : maxEntry();
+    }
+
+    // the entry of the node a deleteEnd left in end, if any
+    Entry<K, V> entry(End<K, V> end) {
+        return end.node == null ? null : new SimpleEntry<>(end.node.key, end.node.val);
+    }
+
+    // ends a search that found h, or nothing if it is null
+    private Entry<K, V> entry(INode<K, V> h) {
+        endOp(TreeMetrics.SEARCH);
+        return h == null ? null : new SimpleEntry<>(h.key, h.val);
+    }
+
+    @Override
+    public K floor(K k) {
+        Objects.requireNonNull(k);
+        INode<K, V> f = floor(root(), k);
+        endOp(TreeMetrics.SEARCH);
+        return f == null ? null : f.key;
+    }
+
+    @Override
+    public K ceiling(K k) {
+        Objects.requireNonNull(k);
+        INode<K, V> c = ceiling(root(), k);
+        endOp(TreeMetrics.SEARCH);
+        return c == null ? null : c.key;
     }
 
     INode<K, V> select(INode<K, V> h, int k) {
-        int rank = size(h.getLeft());
-        if (rank > k) {
-            return select(h.getLeft(), k);
-        }
-        if (rank < k) {
-            return select(h.getRight(), k - rank - 1);
+        while (true) {
+            int rank = size(h.getLeft());
+            if (rank > k) {
+                h = h.getLeft();
+            } else if (rank < k) {
+                k -= rank + 1;
+                h = h.getRight();
+            } else {
+                return h;
+            }
         }
-        return h;
     }
 
     int rank(INode<K, V> h, K k) {
         // how many keys are strictly less than k?
-        if (h == null) return 0;
-        int comp = h.key.compareTo(k);
-        if (comp < 0) {
-            return 1 + size(h.getLeft()) + rank(h.getRight(), k);
+        int rank = 0;
+        while (h != null) {
+            if (visit(k, h) > 0) {
+                rank += 1 + size(h.getLeft());
+                h = h.getRight();
+            } else {
+                h = h.getLeft();
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public K select(int k) {
+        K s = k < 0 || k >= size() ? null : select(root(), k).key;
+        endOp(TreeMetrics.SEARCH);
+        return s;
+    }
+
+    @Override
+    public int rank(K k) {
+        Objects.requireNonNull(k);
+        int r = rank(root(), k);
+        endOp(TreeMetrics.SEARCH);
+        return r;
+    }
+
+    abstract INode<K, V> root();
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new KeyIterator<>(nodes(null, null, false));
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator<>(nodes(lo, hi, false));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> new KeyIterator<>(nodes(null, null, true));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator<>(nodes(lo, hi, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return () -> nodes(null, null, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> nodes(lo, hi, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return () -> nodes(null, null, true);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> nodes(lo, hi, true);
+    }
+
+    // walk behind every key and entry iterator. A null bound is open.
+    Iterator<Entry<K, V>> nodes(K lo, K hi, boolean descending) {
+        return new NodeIterator<>(root(), lo, hi, descending);
+    }
+
+    /**
+     * Walks the nodes with keys in [lo, hi] in order (or in reverse order)
+     * with an explicit stack. The stack holds the unvisited ancestors of the
+     * current node, so it never grows past height() + 1 and the first node
+     * is reached in O(log(n)).
+     * A null bound means the range is open on that side.
+     */
+    static final class NodeIterator<K extends Comparable<? super K>, V> implements Iterator<Entry<K, V>> {
+        private final ArrayDeque<INode<K, V>> stack = new ArrayDeque<>();
+        private final K lo;
+        private final K hi;
+        private final boolean descending;
+
+        NodeIterator(INode<K, V> root, K lo, K hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+            pushPath(root);
+        }
+
+        // pushes the path to the first node in range within h
+        private void pushPath(INode<K, V> h) {
+            while (h != null) {
+                if (descending) {
+                    if (hi != null && h.key.compareTo(hi) > 0) {
+                        h = h.getLeft();
+                    } else {
+                        stack.push(h);
+                        h = h.getRight();
+                    }
+                } else {
+                    if (lo != null && h.key.compareTo(lo) < 0) {
+                        h = h.getRight();
+                    } else {
+                        stack.push(h);
+                        h = h.getLeft();
+                    }
+                }
+            }
+        }
+
+        // next node, or null at the end
+        INode<K, V> peek() {
+            return hasNext() ? stack.peek() : null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            INode<K, V> h = stack.peek();
+            if (h == null) return false;
+            if (descending) {
+                return lo == null || h.key.compareTo(lo) >= 0;
+            }
+            return hi == null || h.key.compareTo(hi) <= 0;
+        }
+
+        @Override
+        public INode<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            INode<K, V> h = stack.pop();
+            pushPath(descending ? h.getLeft() : h.getRight());
+            return h;
         }
-        return rank(h.getLeft(), k);
     }
 
-    void keys(INode<K, V> h, K lo, K hi, Queue<K> q) {
-        if (h == null) return;
-        int loComp = lo.compareTo(h.key);
-        int hiComp = hi.compareTo(h.key);
-        if (loComp < 0) {
-            keys(h.getLeft(), lo, hi, q);
+    private static final class KeyIterator<K extends Comparable<? super K>, V> implements Iterator<K> {
+        private final Iterator<Entry<K, V>> nodes;
+
+        KeyIterator(Iterator<Entry<K, V>> nodes) {
+            this.nodes = nodes;
         }
-        if (loComp <= 0 && hiComp >= 0) {
-            q.offer(h.key);
+
+        @Override
+        public boolean hasNext() {
+            return nodes.hasNext();
         }
-        if (hiComp > 0) {
-            keys(h.getRight(), lo, hi, q);
+
+        @Override
+        public K next() {
+            return nodes.next().getKey();
         }
     }
 
+    /**
+     * Counts in one descent: down to the node where the paths to from and
+     * to part ways, then along each of the two paths, adding up the
+     * subtrees that fall inside the range.
+     */
     @Override
     public int size(K from, K to) {
         Objects.requireNonNull(from);
         Objects.requireNonNull(to);
-        if (from.compareTo(to) > 0) {
-            return 0;
+        int n = from.compareTo(to) > 0 ? 0 : size(root(), from, to);
+        endOp(TreeMetrics.SEARCH);
+        return n;
+    }
+
+    private int size(INode<K, V> h, K from, K to) {
+        while (h != null) {
+            if (visit(from, h) > 0) {
+                h = h.getRight();
+            } else if (compare(to, h) < 0) {
+                h = h.getLeft();
+            } else {
+                break;
+            }
         }
-        if (contains(to)) return rank(to) - rank(from) + 1;
+        if (h == null) return 0;
+        int n = 1;
+        // keys >= from in the left subtree
+        for (INode<K, V> x = h.getLeft(); x != null; ) {
+            int comp = visit(from, x);
+            if (comp <= 0) {
+                n += 1 + size(x.getRight());
+                if (comp == 0) break;
+                x = x.getLeft();
+            } else {
+                x = x.getRight();
+            }
+        }
+        // keys <= to in the right subtree
+        for (INode<K, V> x = h.getRight(); x != null; ) {
+            int comp = visit(to, x);
+            if (comp >= 0) {
+                n += 1 + size(x.getLeft());
+                if (comp == 0) break;
+                x = x.getRight();
+            } else {
+                x = x.getLeft();
+            }
+        }
+        return n;
+    }
 
-        return rank(to) - rank(from);
+    /**
+     * Collects entries in increasing key order with no duplicate keys, keeping
+     * the last value given for a key as a sequence of puts would.
+     * Sorted input is only checked; anything else goes through
+     * {@link Arrays#parallelSort}, which is stable, so the last value still
+     * wins.
+     */
+    static <K extends Comparable<? super K>, V> List<Entry<K, V>> sortedDistinct(Iterator<? extends Entry<K, V>> entries) {
+        List<Entry<K, V>> list = new ArrayList<>();
+        boolean sorted = true;
+        K prev = null;
+        while (entries.hasNext()) {
+            Entry<K, V> e = entries.next();
+            K k = Objects.requireNonNull(e.getKey());
+            Objects.requireNonNull(e.getValue());
+            if (prev != null && prev.compareTo(k) > 0) {
+                sorted = false;
+            }
+            prev = k;
+            list.add(e);
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Entry<K, V>[] a = list.toArray(new Entry[0]);
+        if (!sorted) {
+            Arrays.parallelSort(a, (x, y) -> x.getKey().compareTo(y.getKey()));
+        }
+        // keep only the last of each run of equal keys
+        int n = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (i + 1 < a.length && a[i].getKey().compareTo(a[i + 1].getKey()) == 0) {
+                continue;
+            }
+            a[n++] = a[i];
+        }
+        return Arrays.asList(a).subList(0, n);
+    }
+
+    /**
+     * Writes the entries in key order as a binary snapshot, one block of
+     * up to 64KB at a time. The tree's readFrom loads it back in O(n).
+     * Does not close out.
+     * @param out stream to write to
+     * @param keys key codec
+     * @param vals value codec
+     * @param compress whether to compress blocks in LZ4 format
+     * @throws IOException if out fails
+     * @throws IllegalArgumentException if a key or value does not fit its codec
+     */
+    public void writeTo(OutputStream out, Codec<K> keys, Codec<V> vals, boolean compress) throws IOException {
+        Snapshot.write(this, out, keys, vals, compress);
+    }
+
+    /**
+     * Like {@link #writeTo(OutputStream, Codec, Codec, boolean)}.
+     * @param out channel to write to
+     * @param keys key codec
+     * @param vals value codec
+     * @param compress whether to compress blocks in LZ4 format
+     * @throws IOException if out fails
+     */
+    public void writeTo(WritableByteChannel out, Codec<K> keys, Codec<V> vals, boolean compress) throws IOException {
+        writeTo(Channels.newOutputStream(out), keys, vals, compress);
     }
 
     abstract void delete();
@@ -146,14 +629,15 @@ public abstract class BST<K extends Comparable<? super K>, V> implements Ordered
 
     boolean isRankConsistent() {
 
+        // the helpers, so that checking does not count as operations
         for (int i = 0; i < size(); i++) {
-            if (i != rank(select(i))) {
+            if (i != rank(root(), select(root(), i).key)) {
                 return false;
             }
         }
 
         for (K key : this.keys()) {
-            if (key.compareTo(select(rank(key))) != 0) {
+            if (key.compareTo(select(root(), rank(root(), key)).key) != 0) {
                 return false;
             }
         }
@@ -175,6 +659,16 @@ public abstract class BST<K extends Comparable<? super K>, V> implements Ordered
         return isBST(h.getLeft(), min, h.key) && isBST(h.getRight(), h.key, max);
     }
 
+    boolean isAggregateConsistent(INode<K, V> h) {
+        if (h == null || aggregator == null) return true;
+        Object agg = h.agg;
+        augment(h);
+        if (!Objects.equals(agg, h.agg)) {
+            return false;
+        }
+        return isAggregateConsistent(h.getLeft()) && isAggregateConsistent(h.getRight());
+    }
+
     boolean isSizeConsistent(INode<K, V> h) {
         if (h == null) return true;
         int expected = 1 + size(h.getLeft()) + size(h.getRight());
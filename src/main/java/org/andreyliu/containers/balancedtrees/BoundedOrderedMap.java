@@ -0,0 +1,365 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * Wraps an {@link OrderedMap} such as {@link AVLTree} or {@link LLRBTree}
+ * so that it holds at most {@code capacity} entries, for top-N tables such
+ * as the highest N scores or the latest N events.
+ * <p>
+ * Once the map is full, inserting a new key evicts the entry at the
+ * configured end: {@link Eviction#MIN} keeps the N greatest keys and
+ * {@link Eviction#MAX} the N least. The key at that end, the bound, is
+ * cached with its value, so an insert of a new key beyond the bound into a
+ * full map is rejected with one comparison and no descent: the map is left
+ * unchanged and {@link #offer} returns false. An insert inside the bound
+ * takes the put and a deleteMin or deleteMax, which for an {@link AVLTree}
+ * or {@link LLRBTree} reads the new bound on its walk down the spine, and
+ * for other maps takes a second walk to it; of these only the put compares
+ * keys.
+ * <p>
+ * Evicted entries are passed to the listener, if there is one, after they
+ * leave the map. Rejected inserts and deletes are not evictions. The
+ * listener must not modify the map.
+ * Reads go straight to the map. Like the maps it wraps, it is not
+ * thread-safe.
+ * @param <K> key
+ * @param <V> value
+ */
+public class BoundedOrderedMap<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+
+    /**
+     * End of the key order that entries are evicted from.
+     */
+    public enum Eviction {
+        /** evicts the least key, keeping the greatest ones */
+        MIN,
+        /** evicts the greatest key, keeping the least ones */
+        MAX
+    }
+
+    private final OrderedMap<K, V> map;
+    private final int capacity;
+    private final Eviction eviction;
+    private final BiConsumer<? super K, ? super V> listener;
+    // minEntry() or maxEntry() of map, whichever end evicts, or null if it
+    // is empty
+    private Entry<K, V> bound;
+
+    /**
+     * @param map map to hold the entries, which the caller should no longer
+     *            update directly
+     * @param capacity maximum number of entries, at least 1
+     * @param eviction end to evict from
+     */
+    public BoundedOrderedMap(OrderedMap<K, V> map, int capacity, Eviction eviction) {
+        this(map, capacity, eviction, null);
+    }
+
+    /**
+     * Evicts the entries of map beyond the capacity right away, passing
+     * them to the listener.
+     * @param map map to hold the entries, which the caller should no longer
+     *            update directly
+     * @param capacity maximum number of entries, at least 1
+     * @param eviction end to evict from
+     * @param listener called with the key and value of each evicted entry,
+     *                 or null
+     */
+    public BoundedOrderedMap(OrderedMap<K, V> map, int capacity, Eviction eviction,
+                             BiConsumer<? super K, ? super V> listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.map = Objects.requireNonNull(map);
+        this.capacity = capacity;
+        this.eviction = Objects.requireNonNull(eviction);
+        this.listener = listener;
+        bound = end();
+        while (map.size() > capacity) {
+            evict();
+        }
+    }
+
+    /**
+     * @return maximum number of entries
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return end of the key order that entries are evicted from
+     */
+    public Eviction eviction() {
+        return eviction;
+    }
+
+    private Entry<K, V> end() {
+        return eviction == Eviction.MIN ? map.minEntry() : map.maxEntry();
+    }
+
+    // whether k is strictly beyond the bound, on the side that evicts
+    private boolean beyond(K k) {
+        int comp = k.compareTo(bound.getKey());
+        return eviction == Eviction.MIN ? comp < 0 : comp > 0;
+    }
+
+    // deletes the least key if min, or the greatest otherwise, and returns
+    // the entry now at that end
+    private Entry<K, V> deleteEnd(boolean min) {
+        if (map instanceof BST) {
+            return ((BST<K, V>) map).deleteEnd(min);
+        }
+        if (min) {
+            map.deleteMin();
+        } else {
+            map.deleteMax();
+        }
+        return min ? map.minEntry() : map.maxEntry();
+    }
+
+    private void evict() {
+        Entry<K, V> e = bound;
+        bound = deleteEnd(eviction == Eviction.MIN);
+        if (listener != null) {
+            listener.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Puts the mapping unless the map is full and k is a new key beyond
+     * the bound, evicting an entry if k is new and the map was full.
+     * @param k key, non-nullable
+     * @param val value, non-nullable
+     * @return false if the insert was rejected and the map is unchanged
+     */
+    public boolean offer(K k, V val) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(val);
+        int n = map.size();
+        if (n >= capacity && beyond(k)) {
+            return false;
+        }
+        map.put(k, val);
+        if (map.size() == n) {
+            // replaced a value
+            if (k.compareTo(bound.getKey()) == 0) {
+                bound = new SimpleEntry<>(k, val);
+            }
+            return true;
+        }
+        if (bound == null || beyond(k)) {
+            bound = new SimpleEntry<>(k, val);
+        }
+        if (n == capacity) {
+            evict();
+        }
+        return true;
+    }
+
+    /**
+     * Same as {@link #offer}, dropping an insert that is rejected.
+     */
+    @Override
+    public void put(K k, V val) {
+        offer(k, val);
+    }
+
+    /**
+     * Like {@link OrderedMap#putIfAbsent}, but returns v itself if k is
+     * absent and putting it is rejected, so that null still means k is now
+     * mapped to v. Use {@link #offer} to tell a rejected insert from a key
+     * already mapped to v.
+     */
+    @Override
+    public V putIfAbsent(K k, V v) {
+        Objects.requireNonNull(v);
+        V old = get(k);
+        if (old != null) {
+            return old;
+        }
+        return offer(k, v) ? null : v;
+    }
+
+    /**
+     * Like {@link OrderedMap#compute}, but returns null if putting the new
+     * value is rejected.
+     */
+    @Override
+    public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        Objects.requireNonNull(f);
+        V old = get(k);
+        V v = f.apply(k, old);
+        if (v != null) {
+            return offer(k, v) ? v : null;
+        }
+        if (old != null) {
+            delete(k);
+        }
+        return null;
+    }
+
+    @Override
+    public void delete(K k) {
+        Objects.requireNonNull(k);
+        map.delete(k);
+        if (bound != null && k.compareTo(bound.getKey()) == 0) {
+            bound = end();
+        }
+    }
+
+    @Override
+    public void deleteMin() {
+        if (eviction == Eviction.MIN) {
+            bound = deleteEnd(true);
+            return;
+        }
+        map.deleteMin();
+        if (map.isEmpty()) {
+            bound = null;
+        }
+    }
+
+    @Override
+    public void deleteMax() {
+        if (eviction == Eviction.MAX) {
+            bound = deleteEnd(false);
+            return;
+        }
+        map.deleteMax();
+        if (map.isEmpty()) {
+            bound = null;
+        }
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public V get(K k) {
+        return map.get(k);
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return map.contains(k);
+    }
+
+    @Override
+    public K min() {
+        return map.min();
+    }
+
+    @Override
+    public K max() {
+        return map.max();
+    }
+
+    @Override
+    public Entry<K, V> minEntry() {
+        return map.minEntry();
+    }
+
+    @Override
+    public Entry<K, V> maxEntry() {
+        return map.maxEntry();
+    }
+
+    @Override
+    public K floor(K k) {
+        return map.floor(k);
+    }
+
+    @Override
+    public K ceiling(K k) {
+        return map.ceiling(k);
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K k) {
+        return map.floorEntry(k);
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K k) {
+        return map.ceilingEntry(k);
+    }
+
+    @Override
+    public K select(int k) {
+        return map.select(k);
+    }
+
+    @Override
+    public int rank(K k) {
+        return map.rank(k);
+    }
+
+    @Override
+    public int size(K from, K to) {
+        return map.size(from, to);
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return map.keys();
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        return map.keys(lo, hi);
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return map.descendingKeys();
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        return map.descendingKeys(lo, hi);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return map.entries();
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        return map.entries(lo, hi);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return map.descendingEntries();
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        return map.descendingEntries(lo, hi);
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        if (map.size() > capacity) {
+            sb.append("over capacity\n");
+        }
+        Entry<K, V> e = end();
+        if (e == null ? bound != null
+                : bound == null || !e.getKey().equals(bound.getKey()) || !e.getValue().equals(bound.getValue())) {
+            sb.append("bound not consistent\n");
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+}
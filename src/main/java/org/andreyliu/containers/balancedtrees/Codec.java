@@ -0,0 +1,184 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes keys or values into a fixed number of bytes, for maps that keep
+ * their entries outside the heap such as {@link MappedBPlusTree}.
+ * Variable-length values are stored with a length prefix in a slot of
+ * {@link #width()} bytes.
+ * All reads and writes are absolute and leave the buffer's position alone.
+ * @param <T> encoded type
+ */
+public interface Codec<T> {
+    /**
+     * @return bytes each encoded value takes, including any length prefix
+     */
+    int width();
+
+    /**
+     * @param b buffer
+     * @param at offset of the slot in b
+     * @param t value, non-nullable
+     */
+    void write(ByteBuffer b, int at, T t);
+
+    /**
+     * @param b buffer
+     * @param at offset of the slot in b
+     * @return the decoded value
+     */
+    T read(ByteBuffer b, int at);
+
+    /**
+     * Compares t with an encoded key. Codecs override this to compare
+     * without decoding; the default decodes the key, and so allocates at
+     * every step of a search.
+     * @param t key, non-nullable
+     * @param b buffer
+     * @param at offset of the slot in b
+     * @return negative, zero or positive as t is less than, equal to or
+     * greater than the encoded key
+     */
+    @SuppressWarnings("unchecked")
+    default int compare(T t, ByteBuffer b, int at) {
+        return ((Comparable<? super T>) t).compareTo(read(b, at));
+    }
+
+    Codec<Integer> INT = new Codec<Integer>() {
+        @Override
+        public int width() {
+            return Integer.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer b, int at, Integer t) {
+            b.putInt(at, t);
+        }
+
+        @Override
+        public Integer read(ByteBuffer b, int at) {
+            return b.getInt(at);
+        }
+
+        @Override
+        public int compare(Integer t, ByteBuffer b, int at) {
+            return Integer.compare(t, b.getInt(at));
+        }
+    };
+
+    Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public int width() {
+            return Long.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer b, int at, Long t) {
+            b.putLong(at, t);
+        }
+
+        @Override
+        public Long read(ByteBuffer b, int at) {
+            return b.getLong(at);
+        }
+
+        @Override
+        public int compare(Long t, ByteBuffer b, int at) {
+            return Long.compare(t, b.getLong(at));
+        }
+    };
+
+    Codec<Double> DOUBLE = new Codec<Double>() {
+        @Override
+        public int width() {
+            return Double.BYTES;
+        }
+
+        @Override
+        public void write(ByteBuffer b, int at, Double t) {
+            b.putDouble(at, t);
+        }
+
+        @Override
+        public Double read(ByteBuffer b, int at) {
+            return b.getDouble(at);
+        }
+
+        @Override
+        public int compare(Double t, ByteBuffer b, int at) {
+            return Double.compare(t, b.getDouble(at));
+        }
+    };
+
+    /**
+     * @param maxBytes largest UTF-8 encoding to store, at most 65535
+     * @return codec for strings, stored as a two byte length and their
+     * UTF-8 bytes, which compares keys by decoding their bytes in place
+     * into the UTF-16 chars that {@link String#compareTo} compares
+     */
+    static Codec<String> utf8(int maxBytes) {
+        if (maxBytes < 0 || maxBytes > 0xffff) {
+            throw new IllegalArgumentException("maxBytes must be from 0 to 65535");
+        }
+        return new Codec<String>() {
+            @Override
+            public int width() {
+                return Short.BYTES + maxBytes;
+            }
+
+            @Override
+            public void write(ByteBuffer b, int at, String t) {
+                byte[] bytes = t.getBytes(StandardCharsets.UTF_8);
+                if (bytes.length > maxBytes) {
+                    throw new IllegalArgumentException("longer than " + maxBytes + " bytes: " + t);
+                }
+                b.putShort(at, (short) bytes.length);
+                for (int i = 0; i < bytes.length; i++) {
+                    b.put(at + Short.BYTES + i, bytes[i]);
+                }
+            }
+
+            @Override
+            public String read(ByteBuffer b, int at) {
+                byte[] bytes = new byte[b.getShort(at) & 0xffff];
+                for (int i = 0; i < bytes.length; i++) {
+                    bytes[i] = b.get(at + Short.BYTES + i);
+                }
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public int compare(String t, ByteBuffer b, int at) {
+                // UTF-8 bytes sort by code point, which differs from the
+                // order of String for chars above the surrogates, so the
+                // bytes are decoded one char at a time
+                int p = at + Short.BYTES;
+                int end = p + (b.getShort(at) & 0xffff);
+                int i = 0;
+                while (p < end) {
+                    int c = b.get(p++) & 0xff;
+                    if (c >= 0xf0) {
+                        c = (c & 0x07) << 18 | (b.get(p++) & 0x3f) << 12 | (b.get(p++) & 0x3f) << 6
+                                | b.get(p++) & 0x3f;
+                    } else if (c >= 0xe0) {
+                        c = (c & 0x0f) << 12 | (b.get(p++) & 0x3f) << 6 | b.get(p++) & 0x3f;
+                    } else if (c >= 0x80) {
+                        c = (c & 0x1f) << 6 | b.get(p++) & 0x3f;
+                    }
+                    if (c > 0xffff) {
+                        if (i == t.length()) return -1;
+                        int comp = t.charAt(i++) - Character.highSurrogate(c);
+                        if (comp != 0) return comp;
+                        c = Character.lowSurrogate(c);
+                    }
+                    if (i == t.length()) return -1;
+                    int comp = t.charAt(i++) - c;
+                    if (comp != 0) return comp;
+                }
+                return i < t.length() ? 1 : 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,916 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe AVL tree with optimistic, hand-over-hand version validation,
+ * after Bronson, Casper, Chafi and Olukotun, "A Practical Concurrent Binary
+ * Search Tree" (PPoPP 2010).
+ * <p>
+ * Lookups take no locks. Every node carries a version that changes when a
+ * rotation shrinks the range of keys below it. A search reads a child's
+ * version before moving to it, and checks the parent's version again
+ * afterwards, so it can tell when its path was rotated away and step back
+ * instead of locking. A search that meets a rotation in progress spins until
+ * it ends.
+ * Updates lock only the nodes they change, and rebalance afterwards by
+ * walking up from the change, one parent and child pair at a time.
+ * A key removed from a node with two children leaves that node in place
+ * without a value, as a routing node, until a rebalance can unlink it.
+ * Balance is relaxed: each update repairs the damage it sees on its way back
+ * up, but updates racing on the same nodes can read each other's heights
+ * before they are written, and leave a stale height or a node that is off
+ * balance by two behind until a later update passes through. Sequential use
+ * always leaves a strict AVL tree.
+ * <p>
+ * Consistency: {@link #get}, {@link #contains}, {@link #put} and
+ * {@link #delete} are linearizable. {@link #floor}, {@link #ceiling},
+ * {@link #min} and {@link #max} return a key that was in the map at some
+ * point during the call, and their entry forms return it with a value it
+ * was mapped to, read from the node the search found. Iterators are weakly consistent: they never throw
+ * because of concurrent updates, return keys in order, and return every key
+ * that is in the map for the whole iteration exactly once. Keys added or
+ * removed during the iteration may or may not be returned. Each step is an
+ * O(log(n)) search from the root.
+ * Subtree sizes are not kept, since every update would have to change the
+ * size of every node up to the root and all updates would contend there.
+ * {@link #size()} is a striped counter and exact only when no update is in
+ * flight, and {@link #rank}, {@link #select} and {@link #size(Comparable, Comparable)}
+ * count through a weakly consistent iterator in O(n log(n)).
+ * They are exact when no update runs during the call.
+ * The read-modify-write defaults of {@link OrderedMap}, such as
+ * {@link #compute} and {@link #putIfAbsent}, are a lookup followed by an
+ * update, and are not atomic.
+ * @param <K> key
+ * @param <V> value
+ */
+public class ConcurrentAVLTree<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+
+    private static final char LEFT = 'L';
+    private static final char RIGHT = 'R';
+
+    // version bits: a count of finished shrinks, whether a shrink is in
+    // progress, and a distinct value for unlinked nodes
+    private static final long UNLINKED = 1L;
+    private static final long SHRINKING = 2L;
+    private static final long SHRINK_COUNT_INCR = 4L;
+
+    // nodeCondition results besides a new height
+    private static final int UNLINK_REQUIRED = -1;
+    private static final int REBALANCE_REQUIRED = -2;
+    private static final int NOTHING_REQUIRED = -3;
+
+    private static final int SPINS = 100;
+
+    // returned by the attempt methods when the search must restart higher up
+    private static final Object RETRY = new Object();
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile int height;
+        volatile long version;
+        // null for a routing node
+        volatile V val;
+        volatile Node<K, V> parent;
+        volatile Node<K, V> left;
+        volatile Node<K, V> right;
+
+        Node(K key, V val, Node<K, V> parent) {
+            this.key = key;
+            this.val = val;
+            this.parent = parent;
+            this.height = 1;
+        }
+
+        Node<K, V> child(char dir) {
+            return dir == LEFT ? left : right;
+        }
+
+        void setChild(char dir, Node<K, V> n) {
+            if (dir == LEFT) {
+                left = n;
+            } else {
+                right = n;
+            }
+        }
+    }
+
+    // the root is holder.right. The holder is never rotated or unlinked,
+    // so searches can start from it with a version that never changes.
+    private final Node<K, V> holder = new Node<>(null, null, null);
+
+    private final LongAdder count = new LongAdder();
+
+    private static boolean isShrinkingOrUnlinked(long v) {
+        return (v & (SHRINKING | UNLINKED)) != 0;
+    }
+
+    private static long beginShrink(long v) {
+        return v | SHRINKING;
+    }
+
+    private static long endShrink(long v) {
+        return v + SHRINK_COUNT_INCR;
+    }
+
+    private static void waitUntilShrinkCompleted(Node<?, ?> n, long v) {
+        if ((v & SHRINKING) == 0) return;
+        for (int spins = 0; n.version == v; spins++) {
+            if (spins > SPINS) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static int height(Node<?, ?> n) {
+        return n == null ? 0 : n.height;
+    }
+
+    @Override
+    public int size() {
+        return (int) count.sum();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count.sum() == 0;
+    }
+
+    @Override
+    public V get(K k) {
+        Objects.requireNonNull(k);
+        while (true) {
+            Object r = attemptGet(k, holder, RIGHT, holder.version);
+            if (r != RETRY) {
+                @SuppressWarnings("unchecked")
+                V v = (V) r;
+                return v;
+            }
+        }
+    }
+
+    private Object attemptGet(K k, Node<K, V> node, char dir, long nodeV) {
+        while (true) {
+            Node<K, V> child = node.child(dir);
+            if (child == null) {
+                if (node.version != nodeV) return RETRY;
+                return null;
+            }
+            int comp = k.compareTo(child.key);
+            if (comp == 0) {
+                // keys never move between nodes, and unlinking clears val
+                return child.val;
+            }
+            long childV = child.version;
+            if (isShrinkingOrUnlinked(childV)) {
+                waitUntilShrinkCompleted(child, childV);
+                if (node.version != nodeV) return RETRY;
+            } else if (child != node.child(dir)) {
+                if (node.version != nodeV) return RETRY;
+            } else {
+                // child was still below node with nodeV, so k is in its range
+                if (node.version != nodeV) return RETRY;
+                Object r = attemptGet(k, child, comp < 0 ? LEFT : RIGHT, childV);
+                if (r != RETRY) return r;
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        update(Objects.requireNonNull(k), Objects.requireNonNull(val));
+    }
+
+    @Override
+    public void delete(K k) {
+        update(Objects.requireNonNull(k), null);
+    }
+
+    // sets the value of k, or removes it if val is null, and returns the
+    // previous value
+    private V update(K k, V val) {
+        while (true) {
+            Object r = attemptUpdate(k, val, holder, RIGHT, holder.version);
+            if (r != RETRY) {
+                @SuppressWarnings("unchecked")
+                V prev = (V) r;
+                return prev;
+            }
+        }
+    }
+
+    private Object attemptUpdate(K k, V val, Node<K, V> node, char dir, long nodeV) {
+        while (true) {
+            Node<K, V> child = node.child(dir);
+            if (node.version != nodeV) return RETRY;
+            if (child == null) {
+                if (val == null) return null;
+                Object r = attemptInsert(k, val, node, dir, nodeV);
+                if (r != RETRY) return r;
+                continue;
+            }
+            int comp = k.compareTo(child.key);
+            if (comp == 0) {
+                Object r = val == null ? attemptRemoveNode(node, child) : attemptSetValue(child, val);
+                if (r != RETRY) return r;
+                continue;
+            }
+            long childV = child.version;
+            if (isShrinkingOrUnlinked(childV)) {
+                waitUntilShrinkCompleted(child, childV);
+            } else if (child == node.child(dir)) {
+                if (node.version != nodeV) return RETRY;
+                Object r = attemptUpdate(k, val, child, comp < 0 ? LEFT : RIGHT, childV);
+                if (r != RETRY) return r;
+            }
+        }
+    }
+
+    private Object attemptInsert(K k, V val, Node<K, V> node, char dir, long nodeV) {
+        Node<K, V> damaged;
+        synchronized (node) {
+            if (node.version != nodeV || node.child(dir) != null) return RETRY;
+            node.setChild(dir, new Node<>(k, val, node));
+            damaged = fixHeight(node);
+        }
+        count.increment();
+        fixHeightAndRebalance(damaged);
+        return null;
+    }
+
+    private Object attemptSetValue(Node<K, V> node, V val) {
+        V prev;
+        synchronized (node) {
+            if (node.version == UNLINKED) return RETRY;
+            prev = node.val;
+            node.val = val;
+        }
+        if (prev == null) {
+            // revived a routing node
+            count.increment();
+        }
+        return prev;
+    }
+
+    private Object attemptRemoveNode(Node<K, V> parent, Node<K, V> node) {
+        if (node.val == null) return null;
+        V prev;
+        if (!canUnlink(node)) {
+            // two children: leave a routing node behind
+            synchronized (node) {
+                if (node.version == UNLINKED || canUnlink(node)) return RETRY;
+                prev = node.val;
+                node.val = null;
+            }
+            if (prev != null) {
+                count.decrement();
+            }
+            return prev;
+        }
+        Node<K, V> damaged;
+        synchronized (parent) {
+            if (parent.version == UNLINKED || node.parent != parent) return RETRY;
+            synchronized (node) {
+                prev = node.val;
+                if (prev == null) return null;
+                if (!attemptUnlink(parent, node)) return RETRY;
+            }
+            damaged = fixHeight(parent);
+        }
+        count.decrement();
+        fixHeightAndRebalance(damaged);
+        return prev;
+    }
+
+    private boolean canUnlink(Node<K, V> n) {
+        return n.left == null || n.right == null;
+    }
+
+    // caller holds the locks of parent and n
+    private boolean attemptUnlink(Node<K, V> parent, Node<K, V> n) {
+        Node<K, V> parentL = parent.left;
+        Node<K, V> parentR = parent.right;
+        if (parentL != n && parentR != n) return false;
+        Node<K, V> l = n.left;
+        Node<K, V> r = n.right;
+        if (l != null && r != null) return false;
+        Node<K, V> splice = l != null ? l : r;
+        if (parentL == n) {
+            parent.left = splice;
+        } else {
+            parent.right = splice;
+        }
+        if (splice != null) splice.parent = parent;
+        n.version = UNLINKED;
+        n.val = null;
+        return true;
+    }
+
+    // what node needs: UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED,
+    // or a new height
+    private int nodeCondition(Node<K, V> node) {
+        Node<K, V> l = node.left;
+        Node<K, V> r = node.right;
+        if ((l == null || r == null) && node.val == null) return UNLINK_REQUIRED;
+        int h = node.height;
+        int hl = height(l);
+        int hr = height(r);
+        int hRepl = 1 + Math.max(hl, hr);
+        int bal = hl - hr;
+        if (bal < -1 || bal > 1) return REBALANCE_REQUIRED;
+        return h != hRepl ? hRepl : NOTHING_REQUIRED;
+    }
+
+    // walks up from node, fixing heights and rebalancing, until nothing
+    // needs doing
+    private void fixHeightAndRebalance(Node<K, V> node) {
+        while (node != null && node.parent != null) {
+            int c = nodeCondition(node);
+            if (c == NOTHING_REQUIRED || node.version == UNLINKED) return;
+            if (c != UNLINK_REQUIRED && c != REBALANCE_REQUIRED) {
+                synchronized (node) {
+                    node = fixHeight(node);
+                }
+            } else {
+                Node<K, V> parent = node.parent;
+                synchronized (parent) {
+                    if (parent.version != UNLINKED && node.parent == parent) {
+                        synchronized (node) {
+                            node = rebalance(parent, node);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // caller holds the lock of node. Returns the next node to repair.
+    private Node<K, V> fixHeight(Node<K, V> node) {
+        int c = nodeCondition(node);
+        switch (c) {
+            case REBALANCE_REQUIRED:
+            case UNLINK_REQUIRED:
+                return node;
+            case NOTHING_REQUIRED:
+                return null;
+            default:
+                node.height = c;
+                return node.parent;
+        }
+    }
+
+    // caller holds the locks of parent and n
+    private Node<K, V> rebalance(Node<K, V> parent, Node<K, V> n) {
+        Node<K, V> l = n.left;
+        Node<K, V> r = n.right;
+        if ((l == null || r == null) && n.val == null) {
+            return attemptUnlink(parent, n) ? fixHeight(parent) : n;
+        }
+        int h = n.height;
+        int hl = height(l);
+        int hr = height(r);
+        int hRepl = 1 + Math.max(hl, hr);
+        int bal = hl - hr;
+        if (bal > 1) {
+            return rebalanceToRight(parent, n, l, hr);
+        } else if (bal < -1) {
+            return rebalanceToLeft(parent, n, r, hl);
+        } else if (hRepl != h) {
+            n.height = hRepl;
+            return fixHeight(parent);
+        }
+        return null;
+    }
+
+    private Node<K, V> rebalanceToRight(Node<K, V> parent, Node<K, V> n, Node<K, V> l, int hr) {
+        synchronized (l) {
+            int hl = l.height;
+            if (hl - hr <= 1) return n;
+            Node<K, V> lr = l.right;
+            int hll = height(l.left);
+            int hlr = height(lr);
+            if (hll >= hlr) {
+                return rotateRight(parent, n, l, hr, hll, lr, hlr);
+            }
+            synchronized (lr) {
+                hlr = lr.height;
+                if (hll >= hlr) {
+                    return rotateRight(parent, n, l, hr, hll, lr, hlr);
+                }
+                int hlrl = height(lr.left);
+                int b = hll - hlrl;
+                if (b >= -1 && b <= 1 && !((hll == 0 || hlrl == 0) && l.val == null)) {
+                    return rotateRightOverLeft(parent, n, l, hr, hll, lr, hlrl);
+                }
+            }
+            // l needs a rotation of its own first
+            return rebalanceToLeft(n, l, lr, hll);
+        }
+    }
+
+    private Node<K, V> rebalanceToLeft(Node<K, V> parent, Node<K, V> n, Node<K, V> r, int hl) {
+        synchronized (r) {
+            int hr = r.height;
+            if (hl - hr >= -1) return n;
+            Node<K, V> rl = r.left;
+            int hrl = height(rl);
+            int hrr = height(r.right);
+            if (hrr >= hrl) {
+                return rotateLeft(parent, n, hl, r, rl, hrl, hrr);
+            }
+            synchronized (rl) {
+                hrl = rl.height;
+                if (hrr >= hrl) {
+                    return rotateLeft(parent, n, hl, r, rl, hrl, hrr);
+                }
+                int hrlr = height(rl.right);
+                int b = hrr - hrlr;
+                if (b >= -1 && b <= 1 && !((hrr == 0 || hrlr == 0) && r.val == null)) {
+                    return rotateLeftOverRight(parent, n, hl, r, rl, hrr, hrlr);
+                }
+            }
+            // r needs a rotation of its own first
+            return rebalanceToRight(n, r, rl, hrr);
+        }
+    }
+
+    private void replaceChild(Node<K, V> parent, Node<K, V> old, Node<K, V> n) {
+        if (parent.left == old) {
+            parent.left = n;
+        } else {
+            parent.right = n;
+        }
+        n.parent = parent;
+    }
+
+    // n moves down and shrinks, l takes its place
+    private Node<K, V> rotateRight(Node<K, V> parent, Node<K, V> n, Node<K, V> l,
+                                   int hr, int hll, Node<K, V> lr, int hlr) {
+        long nodeV = n.version;
+        n.version = beginShrink(nodeV);
+
+        n.left = lr;
+        if (lr != null) lr.parent = n;
+        l.right = n;
+        replaceChild(parent, n, l);
+        n.parent = l;
+
+        int hRepl = 1 + Math.max(hlr, hr);
+        n.height = hRepl;
+        l.height = 1 + Math.max(hll, hRepl);
+
+        n.version = endShrink(nodeV);
+
+        // report the lowest node that may still need work
+        int balN = hlr - hr;
+        if (balN < -1 || balN > 1) return n;
+        if ((lr == null || hr == 0) && n.val == null) return n;
+        int balL = hll - hRepl;
+        if (balL < -1 || balL > 1) return l;
+        if (hll == 0 && l.val == null) return l;
+        return fixHeight(parent);
+    }
+
+    // n moves down and shrinks, r takes its place
+    private Node<K, V> rotateLeft(Node<K, V> parent, Node<K, V> n, int hl,
+                                  Node<K, V> r, Node<K, V> rl, int hrl, int hrr) {
+        long nodeV = n.version;
+        n.version = beginShrink(nodeV);
+
+        n.right = rl;
+        if (rl != null) rl.parent = n;
+        r.left = n;
+        replaceChild(parent, n, r);
+        n.parent = r;
+
+        int hRepl = 1 + Math.max(hl, hrl);
+        n.height = hRepl;
+        r.height = 1 + Math.max(hRepl, hrr);
+
+        n.version = endShrink(nodeV);
+
+        int balN = hrl - hl;
+        if (balN < -1 || balN > 1) return n;
+        if ((rl == null || hl == 0) && n.val == null) return n;
+        int balR = hrr - hRepl;
+        if (balR < -1 || balR > 1) return r;
+        if (hrr == 0 && r.val == null) return r;
+        return fixHeight(parent);
+    }
+
+    // n and l both move down and shrink, lr takes the place of n
+    private Node<K, V> rotateRightOverLeft(Node<K, V> parent, Node<K, V> n, Node<K, V> l,
+                                           int hr, int hll, Node<K, V> lr, int hlrl) {
+        long nodeV = n.version;
+        long leftV = l.version;
+        Node<K, V> lrl = lr.left;
+        Node<K, V> lrr = lr.right;
+        int hlrr = height(lrr);
+
+        n.version = beginShrink(nodeV);
+        l.version = beginShrink(leftV);
+
+        n.left = lrr;
+        if (lrr != null) lrr.parent = n;
+        l.right = lrl;
+        if (lrl != null) lrl.parent = l;
+        lr.left = l;
+        l.parent = lr;
+        lr.right = n;
+        replaceChild(parent, n, lr);
+        n.parent = lr;
+
+        int hRepl = 1 + Math.max(hlrr, hr);
+        n.height = hRepl;
+        int hlRepl = 1 + Math.max(hll, hlrl);
+        l.height = hlRepl;
+        lr.height = 1 + Math.max(hlRepl, hRepl);
+
+        n.version = endShrink(nodeV);
+        l.version = endShrink(leftV);
+
+        int balN = hlrr - hr;
+        if (balN < -1 || balN > 1) return n;
+        if ((lrr == null || hr == 0) && n.val == null) return n;
+        int balLR = hlRepl - hRepl;
+        if (balLR < -1 || balLR > 1) return lr;
+        return fixHeight(parent);
+    }
+
+    // n and r both move down and shrink, rl takes the place of n
+    private Node<K, V> rotateLeftOverRight(Node<K, V> parent, Node<K, V> n, int hl,
+                                           Node<K, V> r, Node<K, V> rl, int hrr, int hrlr) {
+        long nodeV = n.version;
+        long rightV = r.version;
+        Node<K, V> rll = rl.left;
+        Node<K, V> rlr = rl.right;
+        int hrll = height(rll);
+
+        n.version = beginShrink(nodeV);
+        r.version = beginShrink(rightV);
+
+        n.right = rll;
+        if (rll != null) rll.parent = n;
+        r.left = rlr;
+        if (rlr != null) rlr.parent = r;
+        rl.right = r;
+        r.parent = rl;
+        rl.left = n;
+        replaceChild(parent, n, rl);
+        n.parent = rl;
+
+        int hRepl = 1 + Math.max(hl, hrll);
+        n.height = hRepl;
+        int hrRepl = 1 + Math.max(hrlr, hrr);
+        r.height = hrRepl;
+        rl.height = 1 + Math.max(hRepl, hrRepl);
+
+        n.version = endShrink(nodeV);
+        r.version = endShrink(rightV);
+
+        int balN = hrll - hl;
+        if (balN < -1 || balN > 1) return n;
+        if ((rll == null || hl == 0) && n.val == null) return n;
+        int balRL = hrRepl - hRepl;
+        if (balRL < -1 || balRL > 1) return rl;
+        return fixHeight(parent);
+    }
+
+    @Override
+    public void deleteMin() {
+        for (K k = min(); k != null; k = min()) {
+            if (update(k, null) != null) return;
+        }
+    }
+
+    @Override
+    public void deleteMax() {
+        for (K k = max(); k != null; k = max()) {
+            if (update(k, null) != null) return;
+        }
+    }
+
+    @Override
+    public K min() {
+        return key(nearest(null, true, true));
+    }
+
+    @Override
+    public K max() {
+        return key(nearest(null, true, false));
+    }
+
+    @Override
+    public K floor(K k) {
+        return key(nearest(Objects.requireNonNull(k), true, false));
+    }
+
+    @Override
+    public K ceiling(K k) {
+        return key(nearest(Objects.requireNonNull(k), true, true));
+    }
+
+    @Override
+    public Entry<K, V> minEntry() {
+        return entry(null, true);
+    }
+
+    @Override
+    public Entry<K, V> maxEntry() {
+        return entry(null, false);
+    }
+
+    @Override
+    public Entry<K, V> floorEntry(K k) {
+        return entry(Objects.requireNonNull(k), false);
+    }
+
+    @Override
+    public Entry<K, V> ceilingEntry(K k) {
+        return entry(Objects.requireNonNull(k), true);
+    }
+
+    private K key(Node<K, V> n) {
+        return n == null ? null : n.key;
+    }
+
+    // the entry of nearest(k, true, ceiling), with the value read from the
+    // node the search found. Searches again if the key was removed since.
+    private Entry<K, V> entry(K k, boolean ceiling) {
+        while (true) {
+            Node<K, V> n = nearest(k, true, ceiling);
+            if (n == null) return null;
+            V v = n.val;
+            if (v != null) return new SimpleEntry<>(n.key, v);
+        }
+    }
+
+    // the node with the smallest key above k if ceiling, or the largest key
+    // below k otherwise, or k itself if inclusive. A null k lies beyond
+    // every key, so this finds the minimum or maximum.
+    private Node<K, V> nearest(K k, boolean inclusive, boolean ceiling) {
+        while (true) {
+            Object r = attemptNearest(k, inclusive, ceiling, holder, RIGHT, holder.version);
+            if (r != RETRY) {
+                @SuppressWarnings("unchecked")
+                Node<K, V> n = (Node<K, V>) r;
+                return n;
+            }
+        }
+    }
+
+    private Object attemptNearest(K k, boolean inclusive, boolean ceiling, Node<K, V> node, char dir, long nodeV) {
+        // below a node that qualifies, keys closer to k lie toward k and
+        // keys that also qualify lie away from it
+        char toward = ceiling ? LEFT : RIGHT;
+        char away = ceiling ? RIGHT : LEFT;
+        while (true) {
+            Node<K, V> child = node.child(dir);
+            if (node.version != nodeV) return RETRY;
+            if (child == null) return null;
+            int comp = k == null ? (ceiling ? -1 : 1) : k.compareTo(child.key);
+            long childV = child.version;
+            if (isShrinkingOrUnlinked(childV)) {
+                waitUntilShrinkCompleted(child, childV);
+                continue;
+            }
+            if (child != node.child(dir)) continue;
+            if (node.version != nodeV) return RETRY;
+            boolean qualifies = comp == 0 ? inclusive : (comp < 0) == ceiling;
+            Object r;
+            if (!qualifies) {
+                r = attemptNearest(k, inclusive, ceiling, child, away, childV);
+            } else {
+                r = comp == 0 ? null : attemptNearest(k, inclusive, ceiling, child, toward, childV);
+                if (r == null) {
+                    r = child.val != null ? child : attemptNearest(k, inclusive, ceiling, child, away, childV);
+                }
+            }
+            if (r != RETRY) return r;
+        }
+    }
+
+    @Override
+    public K select(int k) {
+        if (k < 0) return null;
+        for (K key : keys()) {
+            if (k-- == 0) return key;
+        }
+        return null;
+    }
+
+    @Override
+    public int rank(K k) {
+        Objects.requireNonNull(k);
+        int rank = 0;
+        for (K key : keys()) {
+            if (key.compareTo(k) >= 0) break;
+            rank++;
+        }
+        return rank;
+    }
+
+    @Override
+    public int size(K from, K to) {
+        int size = 0;
+        for (K ignored : keys(from, to)) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return height of the tree, -1 if empty
+     */
+    public int height() {
+        return height(holder.right) - 1;
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new KeyIterator<>(new EntryIterator(null, null, false));
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator<>(new EntryIterator(lo, hi, false));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> new KeyIterator<>(new EntryIterator(null, null, true));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator<>(new EntryIterator(lo, hi, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return () -> new EntryIterator(null, null, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(lo, hi, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return () -> new EntryIterator(null, null, true);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(lo, hi, true);
+    }
+
+    // finds each entry with a fresh search for the nearest key past the last
+    // one, so rotations behind or ahead of it do not matter. Null bounds are
+    // unbounded.
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final K lo;
+        private final K hi;
+        private final boolean descending;
+        private Entry<K, V> next;
+
+        EntryIterator(K lo, K hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+            if (lo == null || lo.compareTo(hi) <= 0) {
+                advance(descending ? hi : lo, true);
+            }
+        }
+
+        private void advance(K from, boolean inclusive) {
+            while (true) {
+                Node<K, V> n = nearest(from, inclusive, !descending);
+                if (n == null
+                        || !descending && hi != null && n.key.compareTo(hi) > 0
+                        || descending && lo != null && n.key.compareTo(lo) < 0) {
+                    next = null;
+                    return;
+                }
+                V v = n.val;
+                if (v != null) {
+                    next = new SimpleEntry<>(n.key, v);
+                    return;
+                }
+                // removed since the search found it
+                from = n.key;
+                inclusive = false;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> e = next;
+            advance(e.getKey(), false);
+            return e;
+        }
+    }
+
+    private static final class KeyIterator<K extends Comparable<? super K>, V> implements Iterator<K> {
+        private final Iterator<Entry<K, V>> entries;
+
+        KeyIterator(Iterator<Entry<K, V>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public K next() {
+            return entries.next().getKey();
+        }
+    }
+
+    // only meaningful while no update is in flight
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        Node<K, V> root = holder.right;
+        if (root != null && root.parent != holder) {
+            sb.append("root not linked to holder\n");
+        }
+        if (!isBST(root, null, null)) {
+            sb.append("not BST\n");
+        }
+        if (!isLinked(root)) {
+            sb.append("parent links not consistent\n");
+        }
+        if (!hasNoBareRoutingNodes(root)) {
+            sb.append("routing node with fewer than two children\n");
+        }
+        if (countValues(root) != size()) {
+            sb.append("size not consistent\n");
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    private boolean isBST(Node<K, V> h, K min, K max) {
+        if (h == null) return true;
+        if (min != null && h.key.compareTo(min) <= 0) return false;
+        if (max != null && h.key.compareTo(max) >= 0) return false;
+        return isBST(h.left, min, h.key) && isBST(h.right, h.key, max);
+    }
+
+    private boolean isLinked(Node<K, V> h) {
+        if (h == null) return true;
+        if (h.left != null && h.left.parent != h) return false;
+        if (h.right != null && h.right.parent != h) return false;
+        return isLinked(h.left) && isLinked(h.right);
+    }
+
+    // strict AVL balance with exact heights, only guaranteed after
+    // sequential updates
+    boolean isBalanced() {
+        return isBalanced(holder.right);
+    }
+
+    private boolean isBalanced(Node<K, V> h) {
+        if (h == null) return true;
+        if (h.height != 1 + Math.max(height(h.left), height(h.right))) return false;
+        if (Math.abs(height(h.left) - height(h.right)) > 1) return false;
+        return isBalanced(h.left) && isBalanced(h.right);
+    }
+
+    private boolean hasNoBareRoutingNodes(Node<K, V> h) {
+        if (h == null) return true;
+        if (h.val == null && (h.left == null || h.right == null)) return false;
+        return hasNoBareRoutingNodes(h.left) && hasNoBareRoutingNodes(h.right);
+    }
+
+    private int countValues(Node<K, V> h) {
+        if (h == null) return 0;
+        return (h.val == null ? 0 : 1) + countValues(h.left) + countValues(h.right);
+    }
+}
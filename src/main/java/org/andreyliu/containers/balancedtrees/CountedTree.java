@@ -0,0 +1,120 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * AVL tree with one node per distinct key, whose value counts the
+ * occurrences of the key and of its whole subtree. Ranks and selects count
+ * occurrences. Adding or removing occurrences takes the single descent of
+ * {@link #compute}, inserting or deleting the key in the same pass, and
+ * for a key already present only recomputes the totals on the path back
+ * up, without rotations.
+ * @param <K> key
+ * @param <B> occurrences of a key
+ */
+final class CountedTree<K extends Comparable<? super K>, B extends CountedTree.Bag> extends AVLTree<K, B> {
+
+    // each node owns its bag, as the trees move nodes rather than values
+    static class Bag {
+        // occurrences of the key
+        int count;
+        // occurrences in the subtree
+        int total;
+    }
+
+    @Override
+    void augment(INode<K, B> h) {
+        h.val.total = h.val.count + total(h.getLeft()) + total(h.getRight());
+    }
+
+    private int total(INode<K, B> h) {
+        return h == null ? 0 : h.val.total;
+    }
+
+    int total() {
+        return total(root());
+    }
+
+    /**
+     * Adds n, which may be negative, to the count of k in one descent.
+     * A key not in the tree is inserted with a bag from create if n is
+     * positive, and a key whose count comes to 0 is deleted.
+     * @param k key
+     * @param n change, leaving the count at 0 or more
+     * @param create makes the bag for a new key
+     * @return the bag of k, or null if k is not in the tree afterwards
+     */
+    B add(K k, int n, Supplier<? extends B> create) {
+        Objects.requireNonNull(k);
+        if (n > 0 && total() > Integer.MAX_VALUE - n) {
+            throw new IllegalStateException("more than " + Integer.MAX_VALUE + " occurrences");
+        }
+        return compute(k, (x, b) -> {
+            if (b == null) {
+                if (n <= 0) return null;
+                b = create.get();
+            }
+            b.count += n;
+            return b.count == 0 ? null : b;
+        });
+    }
+
+    /**
+     * @param k key
+     * @return number of occurrences of keys less than k
+     */
+    int countLess(K k) {
+        int rank = 0;
+        INode<K, B> h = root();
+        while (h != null) {
+            int comp = k.compareTo(h.key);
+            if (comp < 0) {
+                h = h.getLeft();
+            } else if (comp > 0) {
+                rank += total(h.getLeft()) + h.val.count;
+                h = h.getRight();
+            } else {
+                return rank + total(h.getLeft());
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @param i index of an occurrence, in [0, total())
+     * @return node holding it
+     */
+    INode<K, B> nodeAt(int i) {
+        INode<K, B> h = root();
+        while (true) {
+            int left = total(h.getLeft());
+            if (i < left) {
+                h = h.getLeft();
+            } else if (i < left + h.val.count) {
+                return h;
+            } else {
+                i -= left + h.val.count;
+                h = h.getRight();
+            }
+        }
+    }
+
+    @Override
+    String check() {
+        String s = super.check();
+        StringBuilder sb = new StringBuilder(s.equals("pass") ? "" : s);
+        if (!isCountConsistent(root())) {
+            sb.append("counts not consistent\n");
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    private boolean isCountConsistent(INode<K, B> h) {
+        if (h == null) return true;
+        if (h.val.count <= 0 || h.val.total != h.val.count + total(h.getLeft()) + total(h.getRight())) {
+            return false;
+        }
+        return isCountConsistent(h.getLeft()) && isCountConsistent(h.getRight());
+    }
+}
@@ -0,0 +1,217 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Position in a tree that moves to the next or previous entry.
+ * <p>
+ * The cursor keeps the path from the root down to its node, so a step only
+ * climbs or descends that path: any run of m steps in one direction takes
+ * O(m + log(n)), which is amortized O(1) per step. Seeking by key or rank
+ * takes O(log(n)).
+ * <p>
+ * A cursor fails fast: once the tree is structurally modified other than
+ * through {@link #setValue}, every operation but a seek throws
+ * {@link ConcurrentModificationException}. A seek positions it afresh.
+ * @param <K> key
+ * @param <V> value
+ */
+public final class Cursor<K extends Comparable<? super K>, V> {
+    private final BST<K, V> tree;
+    // path[0] is the root and path[depth - 1] the current node
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private BST.INode<K, V>[] path = new BST.INode[16];
+    private int depth;
+    private int expectedModCount;
+
+    Cursor(BST<K, V> tree) {
+        this.tree = tree;
+        expectedModCount = tree.modCount;
+    }
+
+    private void push(BST.INode<K, V> h) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, 2 * depth);
+        }
+        path[depth++] = h;
+    }
+
+    private void checkModCount() {
+        if (tree.modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    private void reset() {
+        depth = 0;
+        expectedModCount = tree.modCount;
+    }
+
+    private BST.INode<K, V> node() {
+        checkModCount();
+        if (depth == 0) {
+            throw new NoSuchElementException();
+        }
+        return path[depth - 1];
+    }
+
+    /**
+     * @return whether the cursor is on an entry
+     */
+    public boolean isValid() {
+        checkModCount();
+        return depth > 0;
+    }
+
+    /**
+     * Moves to the least key greater than or equal to k.
+     * @param k key
+     * @return whether there is such a key
+     */
+    public boolean seek(K k) {
+        Objects.requireNonNull(k);
+        reset();
+        // the ceiling is the last node on the search path we went left at
+        int found = 0;
+        for (BST.INode<K, V> h = tree.root(); h != null; ) {
+            push(h);
+            int comp = k.compareTo(h.key);
+            if (comp < 0) {
+                found = depth;
+                h = h.getLeft();
+            } else if (comp > 0) {
+                h = h.getRight();
+            } else {
+                return true;
+            }
+        }
+        depth = found;
+        return depth > 0;
+    }
+
+    /**
+     * Moves to the key of rank i.
+     * @param i rank
+     * @return whether i is in [0, size())
+     */
+    public boolean seekRank(int i) {
+        reset();
+        if (i < 0 || i >= tree.size()) {
+            return false;
+        }
+        BST.INode<K, V> h = tree.root();
+        while (true) {
+            push(h);
+            int left = tree.size(h.getLeft());
+            if (i < left) {
+                h = h.getLeft();
+            } else if (i > left) {
+                i -= left + 1;
+                h = h.getRight();
+            } else {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves to the least key.
+     * @return whether the tree has any entries
+     */
+    public boolean seekFirst() {
+        reset();
+        for (BST.INode<K, V> h = tree.root(); h != null; h = h.getLeft()) {
+            push(h);
+        }
+        return depth > 0;
+    }
+
+    /**
+     * Moves to the greatest key.
+     * @return whether the tree has any entries
+     */
+    public boolean seekLast() {
+        reset();
+        for (BST.INode<K, V> h = tree.root(); h != null; h = h.getRight()) {
+            push(h);
+        }
+        return depth > 0;
+    }
+
+    /**
+     * Moves to the next greater key.
+     * @return whether there is one; if not, the cursor is no longer on an
+     * entry
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public boolean next() {
+        BST.INode<K, V> h = node();
+        if (h.getRight() != null) {
+            for (h = h.getRight(); h != null; h = h.getLeft()) {
+                push(h);
+            }
+            return true;
+        }
+        // climb while coming up from a right child
+        while (--depth > 0 && path[depth - 1].getRight() == h) {
+            h = path[depth - 1];
+        }
+        return depth > 0;
+    }
+
+    /**
+     * Moves to the next smaller key.
+     * @return whether there is one; if not, the cursor is no longer on an
+     * entry
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public boolean prev() {
+        BST.INode<K, V> h = node();
+        if (h.getLeft() != null) {
+            for (h = h.getLeft(); h != null; h = h.getRight()) {
+                push(h);
+            }
+            return true;
+        }
+        while (--depth > 0 && path[depth - 1].getLeft() == h) {
+            h = path[depth - 1];
+        }
+        return depth > 0;
+    }
+
+    /**
+     * @return key of the current entry
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public K key() {
+        return node().key;
+    }
+
+    /**
+     * @return value of the current entry
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public V value() {
+        return node().val;
+    }
+
+    /**
+     * Replaces the value of the current entry, which is not a structural
+     * modification. Takes O(log(n)) if the tree keeps an aggregator, to
+     * update the aggregates on the path, and O(1) otherwise.
+     * @param v value
+     * @throws NoSuchElementException if the cursor is not on an entry
+     */
+    public void setValue(V v) {
+        Objects.requireNonNull(v);
+        node().val = v;
+        if (tree.aggregator != null) {
+            for (int i = depth - 1; i >= 0; i--) {
+                tree.augment(path[i]);
+            }
+        }
+    }
+}
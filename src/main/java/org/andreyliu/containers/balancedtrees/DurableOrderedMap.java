@@ -0,0 +1,658 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Wraps an in-memory {@link OrderedMap} such as {@link AVLTree} or
+ * {@link LLRBTree} with a write-ahead log and checkpoints, so that its
+ * contents survive a crash.
+ * <p>
+ * Every update is appended to the log, encoded with the key and value
+ * {@link Codec}s, before it is applied to the map. Records are buffered
+ * and written in batches, each with a CRC32, and a background thread
+ * forces them to the disk every {@code syncIntervalMillis}, so one fsync
+ * commits all the updates of the interval. A crash loses at most the
+ * updates of the last interval; {@link #sync()} commits everything so far
+ * at once. With an interval of 0 every update is forced before it returns.
+ * <p>
+ * Once the log holds more records than the map holds entries (and at least
+ * 65536), the map is written out as a sorted checkpoint and a new log is
+ * started, so checkpoints cost O(1) amortized per update. Checkpoints are
+ * written to a temporary file and renamed into place.
+ * <p>
+ * {@link #open} loads the last checkpoint with the given bulk load, in
+ * linear time, and replays the log written since. A batch cut short by a
+ * crash ends the log and is dropped.
+ * Reads go straight to the map. Like the maps it wraps, it is not
+ * thread-safe.
+ * @param <K> key
+ * @param <V> value
+ */
+public class DurableOrderedMap<K extends Comparable<? super K>, V> implements OrderedMap<K, V>, Closeable {
+    static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10;
+    static final int CHECKPOINT_MIN_RECORDS = 1 << 16;
+    private static final int BATCH_BYTES = 1 << 16;
+
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOG_PREFIX = "log-";
+    private static final int MAGIC = 0x43484b50;
+    private static final int VERSION = 1;
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte DELETE_MIN = 3;
+    private static final byte DELETE_MAX = 4;
+
+    private final Path dir;
+    private final Codec<K> keys;
+    private final Codec<V> vals;
+    private final OrderedMap<K, V> map;
+    private final long syncIntervalMillis;
+    private final int checkpointMinRecords;
+    private final ScheduledExecutorService syncer;
+
+    // generation of the log being appended to. The last checkpoint has this
+    // generation, or an older one if a crash cut a checkpoint short.
+    private long generation;
+    private volatile Log log;
+    private long records;
+    // set if the background sync fails; updates throw it from then on
+    private volatile IOException failure;
+
+    /**
+     * Opens or creates the map stored in dir, committing the log every 10
+     * milliseconds.
+     * @param dir directory for the checkpoint and log files
+     * @param keys key codec
+     * @param vals value codec
+     * @param bulkLoad builds the map from sorted entries, e.g.
+     *                 {@code AVLTree::bulkLoad}
+     * @param <K> key
+     * @param <V> value
+     * @return the recovered map
+     * @throws IOException if the files cannot be read or written, or the
+     * checkpoint is corrupt
+     */
+    public static <K extends Comparable<? super K>, V> DurableOrderedMap<K, V> open(
+            Path dir, Codec<K> keys, Codec<V> vals,
+            Function<Iterator<? extends Entry<K, V>>, ? extends OrderedMap<K, V>> bulkLoad) throws IOException {
+        return open(dir, keys, vals, bulkLoad, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param dir directory for the checkpoint and log files
+     * @param keys key codec
+     * @param vals value codec
+     * @param bulkLoad builds the map from sorted entries, e.g.
+     *                 {@code AVLTree::bulkLoad}
+     * @param syncIntervalMillis time between log commits, or 0 to commit
+     *                           every update before it returns
+     * @param <K> key
+     * @param <V> value
+     * @return the recovered map
+     * @throws IOException if the files cannot be read or written, or the
+     * checkpoint is corrupt
+     */
+    public static <K extends Comparable<? super K>, V> DurableOrderedMap<K, V> open(
+            Path dir, Codec<K> keys, Codec<V> vals,
+            Function<Iterator<? extends Entry<K, V>>, ? extends OrderedMap<K, V>> bulkLoad,
+            long syncIntervalMillis) throws IOException {
+        return open(dir, keys, vals, bulkLoad, syncIntervalMillis, CHECKPOINT_MIN_RECORDS);
+    }
+
+    static <K extends Comparable<? super K>, V> DurableOrderedMap<K, V> open(
+            Path dir, Codec<K> keys, Codec<V> vals,
+            Function<Iterator<? extends Entry<K, V>>, ? extends OrderedMap<K, V>> bulkLoad,
+            long syncIntervalMillis, int checkpointMinRecords) throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must not be negative");
+        }
+        Files.createDirectories(dir);
+        Path checkpoint = dir.resolve(CHECKPOINT);
+        long generation = 0;
+        List<Entry<K, V>> entries = Collections.emptyList();
+        if (Files.exists(checkpoint)) {
+            Checkpoint<K, V> c = readCheckpoint(checkpoint, keys, vals);
+            generation = c.generation;
+            entries = c.entries;
+        }
+        OrderedMap<K, V> map = bulkLoad.apply(entries.iterator());
+        return new DurableOrderedMap<>(dir, keys, vals, map, generation, syncIntervalMillis, checkpointMinRecords);
+    }
+
+    private DurableOrderedMap(Path dir, Codec<K> keys, Codec<V> vals, OrderedMap<K, V> map, long generation,
+                              long syncIntervalMillis, int checkpointMinRecords) throws IOException {
+        this.dir = dir;
+        this.keys = keys;
+        this.vals = vals;
+        this.map = map;
+        this.generation = generation;
+        this.syncIntervalMillis = syncIntervalMillis;
+        this.checkpointMinRecords = checkpointMinRecords;
+
+        // replay the logs from the checkpoint's on, and append to the last
+        List<Long> gens = logGenerations();
+        for (Long g : gens) {
+            if (g < generation) {
+                Files.delete(logPath(g));
+            }
+        }
+        gens.removeIf(g -> g < generation);
+        boolean created = gens.isEmpty();
+        if (created) {
+            gens.add(generation);
+        }
+        Log last = null;
+        for (int i = 0; i < gens.size(); i++) {
+            Log l = new Log(logPath(gens.get(i)));
+            long valid = replay(l.channel);
+            if (i < gens.size() - 1) {
+                if (valid != l.channel.size()) {
+                    l.channel.close();
+                    throw new IOException(logPath(gens.get(i)) + " is corrupt");
+                }
+                l.channel.close();
+            } else {
+                l.channel.truncate(valid);
+                l.channel.position(valid);
+                last = l;
+            }
+        }
+        log = last;
+        this.generation = gens.get(gens.size() - 1);
+        if (created) {
+            // records synced to the new log are lost with it if its entry
+            // in the directory is not durable
+            syncDirectory();
+        }
+
+        if (syncIntervalMillis > 0) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "DurableOrderedMap-sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(() -> {
+                try {
+                    log.sync();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    private Path logPath(long generation) {
+        return dir.resolve(LOG_PREFIX + generation);
+    }
+
+    private List<Long> logGenerations() throws IOException {
+        List<Long> gens = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, LOG_PREFIX + "*")) {
+            for (Path f : files) {
+                String name = f.getFileName().toString().substring(LOG_PREFIX.length());
+                if (name.matches("\\d+")) {
+                    gens.add(Long.parseLong(name));
+                }
+            }
+        }
+        Collections.sort(gens);
+        return gens;
+    }
+
+    /**
+     * Applies the intact batches of a log to the map.
+     * @return length of the intact batches
+     */
+    private long replay(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(8);
+        ByteBuffer batch = ByteBuffer.allocate(0);
+        CRC32 crc = new CRC32();
+        long valid = 0;
+        channel.position(0);
+        while (true) {
+            header.clear();
+            if (!readFully(channel, header)) return valid;
+            int len = header.getInt(0);
+            if (len <= 0 || len > channel.size() - valid - 8) return valid;
+            if (batch.capacity() < len) {
+                batch = ByteBuffer.allocate(len);
+            }
+            batch.clear().limit(len);
+            if (!readFully(channel, batch)) return valid;
+            crc.reset();
+            crc.update(batch.array(), 0, len);
+            if ((int) crc.getValue() != header.getInt(4)) return valid;
+            apply(batch, len);
+            valid += 8 + len;
+        }
+    }
+
+    private static boolean readFully(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b) < 0) return false;
+        }
+        return true;
+    }
+
+    private void apply(ByteBuffer b, int len) {
+        int at = 0;
+        while (at < len) {
+            byte op = b.get(at++);
+            switch (op) {
+                case PUT: {
+                    K k = keys.read(b, at);
+                    V v = vals.read(b, at + keys.width());
+                    at += keys.width() + vals.width();
+                    map.put(k, v);
+                    break;
+                }
+                case DELETE:
+                    map.delete(keys.read(b, at));
+                    at += keys.width();
+                    break;
+                case DELETE_MIN:
+                    map.deleteMin();
+                    break;
+                case DELETE_MAX:
+                    map.deleteMax();
+                    break;
+                default:
+                    throw new IllegalStateException("unknown log record " + op);
+            }
+            records++;
+        }
+    }
+
+    /**
+     * Log file being appended to. Records are buffered and written as a
+     * batch of [length, crc, records] when the buffer fills or on sync.
+     */
+    private final class Log {
+        final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(Math.max(BATCH_BYTES, 9 + keys.width() + vals.width()));
+
+        Log(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            buffer.position(8);
+        }
+
+        // caller holds the lock of this log
+        ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                write();
+            }
+            return buffer;
+        }
+
+        // caller holds the lock of this log
+        private void write() throws IOException {
+            int len = buffer.position() - 8;
+            if (len == 0) return;
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 8, len);
+            buffer.putInt(0, len);
+            buffer.putInt(4, (int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            buffer.position(8);
+        }
+
+        void sync() throws IOException {
+            synchronized (this) {
+                if (!channel.isOpen()) return;
+                write();
+            }
+            // updates go on while the batch is forced
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException e) {
+                // a checkpoint closed this log, forcing it first
+            }
+        }
+
+        void close() throws IOException {
+            synchronized (this) {
+                write();
+                channel.force(false);
+                channel.close();
+            }
+        }
+    }
+
+    private void checkFailure() {
+        IOException e = failure;
+        if (e != null) {
+            throw new UncheckedIOException("log sync failed", e);
+        }
+    }
+
+    // logs an update before it is applied, encoding key and value first
+    // so a codec error leaves log and map alone
+    private void append(byte op, K k, V v) {
+        checkFailure();
+        Log l = log;
+        int bytes = 1 + (k == null ? 0 : keys.width()) + (v == null ? 0 : vals.width());
+        try {
+            synchronized (l) {
+                ByteBuffer b = l.reserve(bytes);
+                int at = b.position();
+                if (k != null) keys.write(b, at + 1, k);
+                if (v != null) vals.write(b, at + 1 + keys.width(), v);
+                b.put(at, op);
+                b.position(at + bytes);
+            }
+            if (syncIntervalMillis == 0) {
+                l.sync();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        records++;
+    }
+
+    // called after an update is applied
+    private void maybeCheckpoint() {
+        if (records >= Math.max(checkpointMinRecords, map.size())) {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Forces every update so far to the disk.
+     * @throws IOException if the log cannot be written
+     */
+    public void sync() throws IOException {
+        log.sync();
+    }
+
+    /**
+     * Writes the map to a new checkpoint and starts a new log, deleting the
+     * old one. Runs automatically as the log grows.
+     * @throws IOException if the files cannot be written
+     */
+    public void checkpoint() throws IOException {
+        long next = generation + 1;
+        Log old = log;
+        log = new Log(logPath(next));
+        old.close();
+        // a crash from here on replays both logs on top of the old checkpoint
+        Path tmp = dir.resolve(CHECKPOINT + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeCheckpoint(Channels.newOutputStream(channel), next);
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        for (Long g : logGenerations()) {
+            if (g < next) {
+                Files.delete(logPath(g));
+            }
+        }
+        generation = next;
+        records = 0;
+    }
+
+    private void syncDirectory() {
+        // makes renames and new files durable where directories can be opened
+        try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+            d.force(true);
+        } catch (IOException e) {
+            // not supported on this platform
+        }
+    }
+
+    // [magic, version, generation, key width, value width, count, entries..., crc]
+    private void writeCheckpoint(OutputStream os, long next) throws IOException {
+        CRC32 crc = new CRC32();
+        DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(os), crc));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(next);
+        out.writeInt(keys.width());
+        out.writeInt(vals.width());
+        out.writeInt(map.size());
+        ByteBuffer b = ByteBuffer.allocate(keys.width() + vals.width());
+        for (Entry<K, V> e : map.entries()) {
+            keys.write(b, 0, e.getKey());
+            vals.write(b, keys.width(), e.getValue());
+            out.write(b.array());
+        }
+        out.flush();
+        out.writeInt((int) crc.getValue());
+        out.flush();
+    }
+
+    private static final class Checkpoint<K extends Comparable<? super K>, V> {
+        final long generation;
+        final List<Entry<K, V>> entries;
+
+        Checkpoint(long generation, List<Entry<K, V>> entries) {
+            this.generation = generation;
+            this.entries = entries;
+        }
+    }
+
+    private static <K extends Comparable<? super K>, V> Checkpoint<K, V> readCheckpoint(
+            Path path, Codec<K> keys, Codec<V> vals) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream is = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(is), crc));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not a checkpoint");
+            }
+            long generation = in.readLong();
+            if (in.readInt() != keys.width() || in.readInt() != vals.width()) {
+                throw new IllegalArgumentException("codec widths do not match " + path);
+            }
+            int n = in.readInt();
+            List<Entry<K, V>> entries = new ArrayList<>(n);
+            ByteBuffer b = ByteBuffer.allocate(keys.width() + vals.width());
+            for (int i = 0; i < n; i++) {
+                in.readFully(b.array());
+                entries.add(new SimpleEntry<>(keys.read(b, 0), vals.read(b, keys.width())));
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException(path + " is corrupt");
+            }
+            return new Checkpoint<>(generation, entries);
+        } catch (EOFException e) {
+            throw new IOException(path + " is truncated", e);
+        }
+    }
+
+    /**
+     * Commits the log and closes the files. The map must not be used
+     * afterwards.
+     * @throws IOException if the log cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdown();
+            try {
+                syncer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.close();
+        checkFailure();
+    }
+
+    @Override
+    public void put(K k, V val) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(val);
+        append(PUT, k, val);
+        map.put(k, val);
+        maybeCheckpoint();
+    }
+
+    @Override
+    public void delete(K k) {
+        Objects.requireNonNull(k);
+        append(DELETE, k, null);
+        map.delete(k);
+        maybeCheckpoint();
+    }
+
+    @Override
+    public void deleteMin() {
+        if (map.isEmpty()) return;
+        append(DELETE_MIN, null, null);
+        map.deleteMin();
+        maybeCheckpoint();
+    }
+
+    @Override
+    public void deleteMax() {
+        if (map.isEmpty()) return;
+        append(DELETE_MAX, null, null);
+        map.deleteMax();
+        maybeCheckpoint();
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public V get(K k) {
+        return map.get(k);
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return map.contains(k);
+    }
+
+    @Override
+    public K min() {
+        return map.min();
+    }
+
+    @Override
+    public K max() {
+        return map.max();
+    }
+
+    @Override
+    public K floor(K k) {
+        return map.floor(k);
+    }
+
+    @Override
+    public K ceiling(K k) {
+        return map.ceiling(k);
+    }
+
+    @Override
+    public K select(int k) {
+        return map.select(k);
+    }
+
+    @Override
+    public int rank(K k) {
+        return map.rank(k);
+    }
+
+    @Override
+    public int size(K from, K to) {
+        return map.size(from, to);
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return map.keys();
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        return map.keys(lo, hi);
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return map.descendingKeys();
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        return map.descendingKeys(lo, hi);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return map.entries();
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        return map.entries(lo, hi);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return map.descendingEntries();
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        return map.descendingEntries(lo, hi);
+    }
+
+    // generation of the current log, for tests
+    long generation() {
+        return generation;
+    }
+}
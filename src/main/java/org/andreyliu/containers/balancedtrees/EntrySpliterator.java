@@ -0,0 +1,133 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.andreyliu.containers.balancedtrees.OrderedMap.Entry;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the entries of a tree with ranks in [from, to).
+ * <p>
+ * Splitting halves the rank range, so both halves have exact sizes and
+ * parallel streams divide the work evenly however the keys are spread.
+ * Neither half walks the tree to split: each finds its first node by rank
+ * with the subtree sizes when it starts traversing, in O(log(n)), and then
+ * walks in order with a stack of unvisited ancestors, like
+ * {@link BST.NodeIterator}.
+ * <p>
+ * Traversal fails fast with {@link ConcurrentModificationException} if the
+ * tree is structurally modified after the spliterator was created.
+ * @param <K> key
+ * @param <V> value
+ */
+final class EntrySpliterator<K extends Comparable<? super K>, V> implements Spliterator<Entry<K, V>> {
+    private final BST<K, V> tree;
+    private final int expectedModCount;
+    // rank of the next entry
+    private int from;
+    private final int to;
+    // path to the next entry, or null until traversal starts
+    private ArrayDeque<BST.INode<K, V>> stack;
+
+    EntrySpliterator(BST<K, V> tree, int from, int to) {
+        this(tree, from, to, tree.modCount);
+    }
+
+    private EntrySpliterator(BST<K, V> tree, int from, int to, int expectedModCount) {
+        this.tree = tree;
+        this.from = from;
+        this.to = to;
+        this.expectedModCount = expectedModCount;
+    }
+
+    private void checkModCount() {
+        if (tree.modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    // pushes the path down to the node of rank from
+    private void seek() {
+        stack = new ArrayDeque<>();
+        int i = from;
+        BST.INode<K, V> h = tree.root();
+        while (h != null) {
+            int left = tree.size(h.getLeft());
+            if (i < left) {
+                stack.push(h);
+                h = h.getLeft();
+            } else if (i > left) {
+                i -= left + 1;
+                h = h.getRight();
+            } else {
+                stack.push(h);
+                return;
+            }
+        }
+    }
+
+    private BST.INode<K, V> advance() {
+        BST.INode<K, V> h = stack.pop();
+        for (BST.INode<K, V> x = h.getRight(); x != null; x = x.getLeft()) {
+            stack.push(x);
+        }
+        from++;
+        return h;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+        Objects.requireNonNull(action);
+        checkModCount();
+        if (from >= to) return false;
+        if (stack == null) seek();
+        action.accept(advance());
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Entry<K, V>> action) {
+        Objects.requireNonNull(action);
+        checkModCount();
+        if (from >= to) return;
+        if (stack == null) seek();
+        while (from < to) {
+            action.accept(advance());
+        }
+        checkModCount();
+    }
+
+    /**
+     * Hands the lower half of the remaining ranks to a new spliterator,
+     * along with the traversal position if there is one.
+     */
+    @Override
+    public Spliterator<Entry<K, V>> trySplit() {
+        int mid = (from + to) >>> 1;
+        if (mid == from) return null;
+        EntrySpliterator<K, V> lower = new EntrySpliterator<>(tree, from, mid, expectedModCount);
+        lower.stack = stack;
+        stack = null;
+        from = mid;
+        return lower;
+    }
+
+    @Override
+    public long estimateSize() {
+        return to - from;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+    }
+
+    @Override
+    public Comparator<? super Entry<K, V>> getComparator() {
+        return (a, b) -> a.getKey().compareTo(b.getKey());
+    }
+}
@@ -0,0 +1,410 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable ordered map in flat arrays, made by {@link AVLTree#freeze()} or
+ * {@link LLRBTree#freeze()} for maps that are built once and then only read.
+ * <p>
+ * Keys and values are stored in Eytzinger order: the implicit complete
+ * binary search tree where the children of slot i are at 2i and 2i + 1, as
+ * in a binary heap. The top levels share a few cache lines that stay hot,
+ * and each step down picks the child by arithmetic on the result of the
+ * comparison rather than by a branch. When every key is a Long, the keys
+ * are stored as primitive longs, so a lookup compares them in place instead
+ * of loading a boxed key per level, and the long overloads such as
+ * {@link #get(long)} take no boxed argument either.
+ * <p>
+ * The keys are also kept in sorted order, as the tree's own key objects,
+ * and the values only in sorted order: the rank of the key in a slot
+ * follows from the shape of the layout in O(1), so a lookup finds its
+ * value by the rank of the slot it ends on. So rank is a search, select is
+ * an index, size(from, to) is two searches, and every range iterator is a
+ * view of a slice of the sorted arrays.
+ * <p>
+ * Every update throws {@link UnsupportedOperationException}.
+ * @param <K> key
+ * @param <V> value
+ */
+public final class FrozenOrderedMap<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+    private final int n;
+    // in Eytzinger order from slot 1, for searching. Exactly one of eyt and
+    // longEyt is set.
+    private final K[] eyt;
+    private final long[] longEyt;
+    // in key order, indexed by rank
+    private final K[] keys;
+    private final V[] vals;
+    // level of the last slot, with the root at level 0
+    private final int last;
+    // in-order position of the first missing slot of the last level, were
+    // the layout a perfect tree: every slot before it is present, and only
+    // every other one after it
+    private final int full;
+
+    @SuppressWarnings("unchecked")
+    FrozenOrderedMap(BST<K, V> tree) {
+        n = tree.size();
+        keys = (K[]) new Comparable<?>[n];
+        vals = (V[]) new Object[n];
+        boolean allLong = n > 0;
+        int r = 0;
+        for (Entry<K, V> e : tree.entries()) {
+            keys[r] = e.getKey();
+            vals[r++] = e.getValue();
+            allLong &= e.getKey() instanceof Long;
+        }
+        last = n == 0 ? 0 : 31 - Integer.numberOfLeadingZeros(n);
+        full = 2 * (n - (1 << last) + 1);
+        if (allLong) {
+            eyt = null;
+            longEyt = new long[n + 1];
+            for (int i = 1; i <= n; i++) {
+                longEyt[i] = (Long) keys[rankOf(i)];
+            }
+        } else {
+            eyt = (K[]) new Comparable<?>[n + 1];
+            longEyt = null;
+            for (int i = 1; i <= n; i++) {
+                eyt[i] = keys[rankOf(i)];
+            }
+        }
+    }
+
+    /**
+     * Counts the slots before slot i in order. In a perfect tree the slot
+     * at index j of level d is at in-order position (2j + 1) * 2^(last - d)
+     * - 1; the slots missing from the last level are at the even positions
+     * from full on, and are taken off.
+     * @return rank of the key in slot i
+     */
+    private int rankOf(int i) {
+        int d = 31 - Integer.numberOfLeadingZeros(i);
+        int p = ((i - (1 << d) << 1 | 1) << (last - d)) - 1;
+        return p < full ? p : (p + full - 1) >>> 1;
+    }
+
+    /**
+     * Descends from slot 1 going right past every key less than k. The
+     * right turns taken below the last left turn are the trailing ones of i,
+     * so shifting them out, and the left turn with them, leaves the slot of
+     * the least key not less than k, or 0 if there is none.
+     * @return slot of the ceiling of k, or 0
+     */
+    private int lowerBoundSlot(K k) {
+        if (longEyt != null) {
+            return lowerBoundSlot((long) (Long) k);
+        }
+        int i = 1;
+        while (i <= n) {
+            i = 2 * i + (eyt[i].compareTo(k) < 0 ? 1 : 0);
+        }
+        return i >>> (Integer.numberOfTrailingZeros(~i) + 1);
+    }
+
+    // same as lowerBoundSlot(K) over the primitive keys
+    private int lowerBoundSlot(long x) {
+        int i = 1;
+        while (i <= n) {
+            i = 2 * i + (longEyt[i] < x ? 1 : 0);
+        }
+        return i >>> (Integer.numberOfTrailingZeros(~i) + 1);
+    }
+
+    private boolean keyEquals(int slot, K k) {
+        if (slot == 0) return false;
+        return longEyt != null ? longEyt[slot] == (Long) k : eyt[slot].compareTo(k) == 0;
+    }
+
+    // number of keys less than k
+    private int lowerBound(K k) {
+        int slot = lowerBoundSlot(k);
+        return slot == 0 ? n : rankOf(slot);
+    }
+
+    // number of keys less than or equal to k
+    private int upperBound(K k) {
+        int slot = lowerBoundSlot(k);
+        if (slot == 0) return n;
+        return keyEquals(slot, k) ? rankOf(slot) + 1 : rankOf(slot);
+    }
+
+    /**
+     * Boxes k as a key of this map when its keys are not Longs. An int
+     * argument resolves to the long overloads, so a map with Integer keys
+     * gets an Integer.
+     * @return the boxed key, or null if k is out of the range of Integer
+     * keys
+     */
+    @SuppressWarnings("unchecked")
+    private K box(long k) {
+        if (n == 0 || !(keys[0] instanceof Integer)) return (K) Long.valueOf(k);
+        return (int) k == k ? (K) Integer.valueOf((int) k) : null;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return n == 0;
+    }
+
+    @Override
+    public V get(K k) {
+        int slot = lowerBoundSlot(Objects.requireNonNull(k));
+        return keyEquals(slot, k) ? vals[rankOf(slot)] : null;
+    }
+
+    /**
+     * Same as {@link #get(Comparable)} without boxing k, for Long keys.
+     * @param k key
+     * @return value mapped by k, or null
+     * @throws ClassCastException if the keys are neither Longs nor Integers
+     */
+    public V get(long k) {
+        if (longEyt == null) {
+            K b = box(k);
+            return b == null ? null : get(b);
+        }
+        int slot = lowerBoundSlot(k);
+        return slot != 0 && longEyt[slot] == k ? vals[rankOf(slot)] : null;
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return get(k) != null;
+    }
+
+    /**
+     * @param k key
+     * @return whether the map contains k
+     * @throws ClassCastException if the keys are neither Longs nor Integers
+     */
+    public boolean contains(long k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        throw new UnsupportedOperationException("frozen map");
+    }
+
+    @Override
+    public void delete(K k) {
+        throw new UnsupportedOperationException("frozen map");
+    }
+
+    @Override
+    public void deleteMin() {
+        throw new UnsupportedOperationException("frozen map");
+    }
+
+    @Override
+    public void deleteMax() {
+        throw new UnsupportedOperationException("frozen map");
+    }
+
+    @Override
+    public K min() {
+        return n == 0 ? null : keys[0];
+    }
+
+    @Override
+    public K max() {
+        return n == 0 ? null : keys[n - 1];
+    }
+
+    @Override
+    public K floor(K k) {
+        int r = upperBound(Objects.requireNonNull(k));
+        return r == 0 ? null : keys[r - 1];
+    }
+
+    /**
+     * Same as {@link #floor(Comparable)} without boxing, for Long keys.
+     * @param k key
+     * @param absent returned if no key is less than or equal to k
+     * @return the largest key less than or equal to k, or absent
+     * @throws ClassCastException if the keys are neither Longs nor Integers
+     */
+    public long floor(long k, long absent) {
+        int r;
+        if (longEyt != null) {
+            int slot = lowerBoundSlot(k);
+            r = slot == 0 ? n : longEyt[slot] == k ? rankOf(slot) + 1 : rankOf(slot);
+        } else {
+            K b = box(k);
+            r = b != null ? upperBound(b) : k < 0 ? 0 : n;
+        }
+        return r == 0 ? absent : ((Number) keys[r - 1]).longValue();
+    }
+
+    @Override
+    public K ceiling(K k) {
+        int r = lowerBound(Objects.requireNonNull(k));
+        return r == n ? null : keys[r];
+    }
+
+    /**
+     * Same as {@link #ceiling(Comparable)} without boxing, for Long keys.
+     * @param k key
+     * @param absent returned if no key is greater than or equal to k
+     * @return the smallest key greater than or equal to k, or absent
+     * @throws ClassCastException if the keys are neither Longs nor Integers
+     */
+    public long ceiling(long k, long absent) {
+        int r = rank(k);
+        return r == n ? absent : ((Number) keys[r]).longValue();
+    }
+
+    @Override
+    public K select(int k) {
+        return k < 0 || k >= n ? null : keys[k];
+    }
+
+    @Override
+    public int rank(K k) {
+        return lowerBound(Objects.requireNonNull(k));
+    }
+
+    /**
+     * Same as {@link #rank(Comparable)} without boxing k, for Long keys.
+     * @param k key
+     * @return number of keys less than k
+     * @throws ClassCastException if the keys are neither Longs nor Integers
+     */
+    public int rank(long k) {
+        if (longEyt == null) {
+            K b = box(k);
+            return b != null ? lowerBound(b) : k < 0 ? 0 : n;
+        }
+        int slot = lowerBoundSlot(k);
+        return slot == 0 ? n : rankOf(slot);
+    }
+
+    @Override
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return upperBound(to) - lowerBound(from);
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return slice(keys, 0, n, false);
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return slice(keys, lowerBound(lo), upperBound(hi), false);
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return slice(keys, lowerBound(lo), upperBound(hi), true);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return entries(lowerBound(lo), upperBound(hi), false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return entries(lowerBound(lo), upperBound(hi), true);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return entries(0, n, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return entries(0, n, true);
+    }
+
+    /**
+     * @param from rank of the first key
+     * @param to rank past the last key
+     * @param descending whether to go from to - 1 down to from
+     * @return read-only view of a slice of a, in either direction
+     */
+    private static <T> List<T> slice(T[] a, int from, int to, boolean descending) {
+        if (from >= to) return Collections.emptyList();
+        if (!descending) {
+            return Collections.unmodifiableList(Arrays.asList(a).subList(from, to));
+        }
+        return new AbstractList<T>() {
+            @Override
+            public T get(int i) {
+                checkIndex(i, size());
+                return a[to - 1 - i];
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    private Iterable<Entry<K, V>> entries(int from, int to, boolean descending) {
+        if (from >= to) return Collections.emptyList();
+        return new AbstractList<Entry<K, V>>() {
+            @Override
+            public Entry<K, V> get(int i) {
+                checkIndex(i, size());
+                int r = descending ? to - 1 - i : from + i;
+                return new SimpleEntry<>(keys[r], vals[r]);
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    private static void checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + size);
+        }
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        for (int r = 1; r < n; r++) {
+            if (keys[r - 1].compareTo(keys[r]) >= 0) {
+                sb.append("keys not sorted\n");
+                break;
+            }
+        }
+        for (int i = 1; i <= n; i++) {
+            int r = rankOf(i);
+            if (r < 0 || r >= n || (longEyt != null ? longEyt[i] != (Long) keys[r] : eyt[i] != keys[r])) {
+                sb.append("layout not consistent with the sorted keys\n");
+                break;
+            }
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+}
@@ -0,0 +1,474 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * AVL tree mapping primitive {@code int} keys to {@code int} values.
+ * Same operations as {@link AVLTree}, but neither keys nor values are boxed,
+ * so lookups allocate nothing.
+ * Queries that may have no answer take the value to return in that case:
+ * {@link #get(int, int)} returns the given default value, and
+ * {@link #floor(int, int)} and {@link #ceiling(int, int)} the given default
+ * key. {@link #min()}, {@link #max()} and {@link #select(int)} throw when
+ * there is no such key.
+ */
+public class IntIntAVLTree {
+
+    private Node root;
+
+    private static final class Node {
+        final int key;
+        int val;
+        int size = 1;
+        int height = 0;
+        Node left;
+        Node right;
+
+        Node(int key, int val) {
+            this.key = key;
+            this.val = val;
+        }
+    }
+
+    /**
+     * @return size of the map
+     */
+    public int size() {
+        return size(root);
+    }
+
+    private int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    /**
+     * @return whether map is empty.
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @param k key
+     * @param absent returned if the key does not exist
+     * @return value mapped by key, or absent
+     */
+    public int get(int k, int absent) {
+        Node h = root;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                h = h.right;
+            } else {
+                return h.val;
+            }
+        }
+        return absent;
+    }
+
+    /**
+     * @param k key
+     * @return whether map contains the key.
+     */
+    public boolean contains(int k) {
+        Node h = root;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                h = h.right;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts the key-value mapping in the map. Replace the existing
+     * mapping if key already in the map.
+     * @param k key
+     * @param val value
+     */
+    public void put(int k, int val) {
+        root = put(root, k, val);
+    }
+
+    private Node put(Node h, int k, int v) {
+        if (h == null) return new Node(k, v);
+        if (k < h.key) {
+            h.left = put(h.left, k, v);
+        } else if (k > h.key) {
+            h.right = put(h.right, k, v);
+        } else {
+            h.val = v;
+            return h;
+        }
+        return balance(h);
+    }
+
+    private Node balance(Node h) {
+        h.size = 1 + size(h.left) + size(h.right);
+        h.height = 1 + Math.max(height(h.left), height(h.right));
+        int b = balanceFactor(h);
+        if (b < -1) {
+            if (balanceFactor(h.right) > 0) {
+                h.right = rotateRight(h.right);
+            }
+            h = rotateLeft(h);
+        } else if (b > 1) {
+            if (balanceFactor(h.left) < 0) {
+                h.left = rotateLeft(h.left);
+            }
+            h = rotateRight(h);
+        }
+        return h;
+    }
+
+    private int balanceFactor(Node h) {
+        return height(h.left) - height(h.right);
+    }
+
+    private int height(Node h) {
+        return h == null ? -1 : h.height;
+    }
+
+    private Node rotateLeft(Node h) {
+        Node x = h.right;
+        h.right = x.left;
+        x.left = h;
+
+        h.height = 1 + Math.max(height(h.left), height(h.right));
+        x.height = 1 + Math.max(height(x.left), height(x.right));
+
+        x.size = h.size;
+        h.size = 1 + size(h.left) + size(h.right);
+        return x;
+    }
+
+    private Node rotateRight(Node h) {
+        Node x = h.left;
+        h.left = x.right;
+        x.right = h;
+
+        h.height = 1 + Math.max(height(h.left), height(h.right));
+        x.height = 1 + Math.max(height(x.left), height(x.right));
+
+        x.size = h.size;
+        h.size = 1 + size(h.left) + size(h.right);
+        return x;
+    }
+
+    /**
+     * Delete the key-value mapping for the specified key if key is in the map.
+     * @param k key
+     */
+    public void delete(int k) {
+        root = delete(root, k);
+    }
+
+    private Node delete(Node h, int k) {
+        if (h == null) return null;
+        if (k < h.key) {
+            h.left = delete(h.left, k);
+        } else if (k > h.key) {
+            h.right = delete(h.right, k);
+        } else {
+            if (h.left != null && h.right != null) {
+                // we look for substitute node from taller subtree
+                if (balanceFactor(h) < 0) {
+                    Node succ = min(h.right);
+                    succ.right = deleteMin(h.right);
+                    succ.left = h.left;
+                    h = succ;
+                } else {
+                    Node pred = max(h.left);
+                    pred.left = deleteMax(h.left);
+                    pred.right = h.right;
+                    h = pred;
+                }
+                h.size = 1 + size(h.left) + size(h.right);
+                h.height = 1 + Math.max(height(h.left), height(h.right));
+                return h;
+            } else {
+                return h.left != null ? h.left : h.right;
+            }
+        }
+        return balance(h);
+    }
+
+    /**
+     * Delete minimum key entry.
+     */
+    public void deleteMin() {
+        if (isEmpty()) return;
+        root = deleteMin(root);
+    }
+
+    private Node deleteMin(Node h) {
+        if (h.left == null) {
+            return h.right;
+        }
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    /**
+     * Delete maximum key entry.
+     */
+    public void deleteMax() {
+        if (isEmpty()) return;
+        root = deleteMax(root);
+    }
+
+    private Node deleteMax(Node h) {
+        if (h.right == null) {
+            return h.left;
+        }
+        h.right = deleteMax(h.right);
+        return balance(h);
+    }
+
+    /**
+     * @return height of the tree, -1 if empty
+     */
+    public int height() {
+        return height(root);
+    }
+
+    /**
+     * @return minimum key
+     * @throws NoSuchElementException if the map is empty
+     */
+    public int min() {
+        if (isEmpty()) throw new NoSuchElementException("empty map");
+        return min(root).key;
+    }
+
+    /**
+     * @return maximum key
+     * @throws NoSuchElementException if the map is empty
+     */
+    public int max() {
+        if (isEmpty()) throw new NoSuchElementException("empty map");
+        return max(root).key;
+    }
+
+    private Node min(Node h) {
+        while (h.left != null) {
+            h = h.left;
+        }
+        return h;
+    }
+
+    private Node max(Node h) {
+        while (h.right != null) {
+            h = h.right;
+        }
+        return h;
+    }
+
+    /**
+     * @param k key
+     * @param absent returned if no key is less than or equal to k
+     * @return the largest key less than or equal to k, or absent
+     */
+    public int floor(int k, int absent) {
+        Node h = root;
+        Node best = null;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                best = h;
+                h = h.right;
+            } else {
+                return h.key;
+            }
+        }
+        return best == null ? absent : best.key;
+    }
+
+    /**
+     * @param k key
+     * @param absent returned if no key is greater than or equal to k
+     * @return the smallest key greater than or equal to k, or absent
+     */
+    public int ceiling(int k, int absent) {
+        Node h = root;
+        Node best = null;
+        while (h != null) {
+            if (k > h.key) {
+                h = h.right;
+            } else if (k < h.key) {
+                best = h;
+                h = h.left;
+            } else {
+                return h.key;
+            }
+        }
+        return best == null ? absent : best.key;
+    }
+
+    /**
+     * Select the key with the given rank.
+     * @param k rank (from 0 to size() - 1)
+     * @return the key with the rank
+     * @throws IndexOutOfBoundsException if rank is not valid
+     */
+    public int select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("rank " + k + " out of [0, " + size() + ")");
+        }
+        Node h = root;
+        while (true) {
+            int rank = size(h.left);
+            if (rank > k) {
+                h = h.left;
+            } else if (rank < k) {
+                k -= rank + 1;
+                h = h.right;
+            } else {
+                return h.key;
+            }
+        }
+    }
+
+    /**
+     * @param k key
+     * @return number of keys strictly less than k
+     */
+    public int rank(int k) {
+        Node h = root;
+        int rank = 0;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                rank += 1 + size(h.left);
+                h = h.right;
+            } else {
+                return rank + size(h.left);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @param from lower bound
+     * @param to upper bound (inclusive)
+     * @return number of keys in the given range.
+     */
+    public int size(int from, int to) {
+        if (from > to) {
+            return 0;
+        }
+        // down to the first key in the range, then the keys of its left
+        // subtree from from on and of its right subtree up to to
+        Node h = root;
+        while (h != null && (h.key < from || h.key > to)) {
+            h = h.key < from ? h.right : h.left;
+        }
+        if (h == null) return 0;
+        int n = 1;
+        for (Node x = h.left; x != null; ) {
+            if (x.key >= from) {
+                n += 1 + size(x.right);
+                x = x.left;
+            } else {
+                x = x.right;
+            }
+        }
+        for (Node x = h.right; x != null; ) {
+            if (x.key <= to) {
+                n += 1 + size(x.left);
+                x = x.right;
+            } else {
+                x = x.left;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return all the keys in order
+     */
+    public PrimitiveIterator.OfInt keys() {
+        return new KeyIterator(root, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return keys from lo to hi in order
+     */
+    public PrimitiveIterator.OfInt keys(int lo, int hi) {
+        return new KeyIterator(root, lo, hi);
+    }
+
+    private static final class KeyIterator implements PrimitiveIterator.OfInt {
+        private final ArrayDeque<Node> stack = new ArrayDeque<>();
+        private final int hi;
+
+        KeyIterator(Node root, int lo, int hi) {
+            this.hi = hi;
+            for (Node h = root; h != null; ) {
+                if (h.key < lo) {
+                    h = h.right;
+                } else {
+                    stack.push(h);
+                    h = h.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            Node h = stack.peek();
+            return h != null && h.key <= hi;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node h = stack.pop();
+            for (Node x = h.right; x != null; x = x.left) {
+                stack.push(x);
+            }
+            return h.key;
+        }
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        if (!isBST(root, Integer.MIN_VALUE, Integer.MAX_VALUE)) sb.append("not BST\n");
+        if (!isSizeConsistent(root)) sb.append("size not consistent\n");
+        if (!isBalanced(root)) sb.append("not balanced\n");
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    private boolean isBST(Node h, int min, int max) {
+        if (h == null) return true;
+        if (h.key < min || h.key > max) return false;
+        return (h.key == Integer.MIN_VALUE || isBST(h.left, min, h.key - 1))
+                && (h.key == Integer.MAX_VALUE || isBST(h.right, h.key + 1, max));
+    }
+
+    private boolean isSizeConsistent(Node h) {
+        if (h == null) return true;
+        if (h.size != 1 + size(h.left) + size(h.right)) return false;
+        return isSizeConsistent(h.left) && isSizeConsistent(h.right);
+    }
+
+    private boolean isBalanced(Node h) {
+        if (h == null) return true;
+        if (h.height != 1 + Math.max(height(h.left), height(h.right))) return false;
+        if (Math.abs(balanceFactor(h)) > 1) return false;
+        return isBalanced(h.left) && isBalanced(h.right);
+    }
+}
@@ -0,0 +1,335 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.andreyliu.containers.balancedtrees.OrderedMap.Entry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Map from closed intervals to values, answering overlap and stabbing
+ * queries.
+ * <p>
+ * Intervals are kept in an {@link AVLTree} ordered by low endpoint, then
+ * high endpoint, whose nodes also hold the greatest high endpoint of their
+ * subtree, kept up to date by the tree's own balance and rotations. Overlap
+ * iteration skips every subtree whose greatest high endpoint is below the
+ * query and stops at the first low endpoint above it, so it visits
+ * O(log(n)) nodes besides the paths down to the k intervals it reports.
+ * A second tree counts the high endpoints, so overlaps are counted in
+ * O(log(n)) without visiting them.
+ * @param <K> endpoint
+ * @param <V> value
+ */
+public class IntervalTree<K extends Comparable<? super K>, V> {
+
+    /**
+     * Closed interval [lo, hi], ordered by lo, then hi.
+     * @param <K> endpoint
+     */
+    public static final class Interval<K extends Comparable<? super K>> implements Comparable<Interval<K>> {
+        private final K lo;
+        private final K hi;
+
+        /**
+         * @param lo low endpoint
+         * @param hi high endpoint
+         * @throws IllegalArgumentException if lo is greater than hi
+         */
+        public Interval(K lo, K hi) {
+            this.lo = Objects.requireNonNull(lo);
+            this.hi = Objects.requireNonNull(hi);
+            if (lo.compareTo(hi) > 0) {
+                throw new IllegalArgumentException("interval [" + lo + ", " + hi + "] is empty");
+            }
+        }
+
+        public K getLo() {
+            return lo;
+        }
+
+        public K getHi() {
+            return hi;
+        }
+
+        /**
+         * @param a low endpoint
+         * @param b high endpoint
+         * @return whether this interval and [a, b] have a point in common
+         */
+        public boolean overlaps(K a, K b) {
+            return lo.compareTo(b) <= 0 && hi.compareTo(a) >= 0;
+        }
+
+        @Override
+        public int compareTo(Interval<K> o) {
+            int comp = lo.compareTo(o.lo);
+            return comp != 0 ? comp : hi.compareTo(o.hi);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Interval)) return false;
+            Interval<?> i = (Interval<?>) o;
+            return lo.equals(i.lo) && hi.equals(i.hi);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * lo.hashCode() + hi.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "[" + lo + ", " + hi + "]";
+        }
+    }
+
+    // intervals, with the greatest high endpoint of each subtree in agg
+    private static final class Starts<K extends Comparable<? super K>, V> extends AVLTree<Interval<K>, V> {
+        @Override
+        void augment(INode<Interval<K>, V> h) {
+            K max = h.key.hi;
+            if (h.getLeft() != null) max = greater(max, maxHi(h.getLeft()));
+            if (h.getRight() != null) max = greater(max, maxHi(h.getRight()));
+            h.agg = max;
+        }
+    }
+
+    private final Starts<K, V> starts = new Starts<>();
+    // number of intervals with each high endpoint
+    private final Aggregator<Integer, Long> count = Aggregator.sum(c -> c);
+    private final AVLTree<K, Integer> ends = new AVLTree<>(count);
+
+    /**
+     * Builds a tree from the given entries, in O(n) if they come in
+     * increasing order. For duplicate intervals the last entry wins, as with
+     * a sequence of puts.
+     * @param entries entries with non-null intervals and values
+     * @param <K> endpoint
+     * @param <V> value
+     * @return a new tree holding the entries
+     */
+    public static <K extends Comparable<? super K>, V> IntervalTree<K, V> bulkLoad(
+            Iterator<? extends Entry<Interval<K>, V>> entries) {
+        List<Entry<Interval<K>, V>> sorted = BST.sortedDistinct(entries);
+        IntervalTree<K, V> t = new IntervalTree<>();
+        t.starts.load(sorted.iterator(), sorted.size());
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        K[] his = (K[]) new Comparable[sorted.size()];
+        for (int i = 0; i < his.length; i++) {
+            his[i] = sorted.get(i).getKey().hi;
+        }
+        Arrays.parallelSort(his);
+        List<Entry<K, Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < his.length; i++) {
+            int last = counts.size() - 1;
+            if (last >= 0 && counts.get(last).getKey().compareTo(his[i]) == 0) {
+                counts.set(last, OrderedMap.entry(his[i], counts.get(last).getValue() + 1));
+            } else {
+                counts.add(OrderedMap.entry(his[i], 1));
+            }
+        }
+        t.ends.load(counts.iterator(), counts.size());
+        return t;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K extends Comparable<? super K>> K maxHi(BST.INode<Interval<K>, ?> h) {
+        return (K) h.agg;
+    }
+
+    private static <K extends Comparable<? super K>> K greater(K a, K b) {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+    public int size() {
+        return starts.size();
+    }
+
+    public boolean isEmpty() {
+        return starts.isEmpty();
+    }
+
+    /**
+     * @param lo low endpoint
+     * @param hi high endpoint
+     * @return value of [lo, hi], or null if it is not in the tree
+     */
+    public V get(K lo, K hi) {
+        return starts.get(new Interval<>(lo, hi));
+    }
+
+    /**
+     * Maps [lo, hi] to v, replacing any value it had.
+     * @param lo low endpoint
+     * @param hi high endpoint
+     * @param v value
+     * @throws IllegalArgumentException if lo is greater than hi
+     */
+    public void put(K lo, K hi, V v) {
+        Objects.requireNonNull(v);
+        Interval<K> i = new Interval<>(lo, hi);
+        if (starts.get(i) == null) {
+            Integer c = ends.get(hi);
+            ends.put(hi, c == null ? 1 : c + 1);
+        }
+        starts.put(i, v);
+    }
+
+    /**
+     * Removes [lo, hi] if it is in the tree.
+     * @param lo low endpoint
+     * @param hi high endpoint
+     */
+    public void delete(K lo, K hi) {
+        Interval<K> i = new Interval<>(lo, hi);
+        if (starts.get(i) == null) {
+            return;
+        }
+        starts.delete(i);
+        int c = ends.get(hi);
+        if (c == 1) {
+            ends.delete(hi);
+        } else {
+            ends.put(hi, c - 1);
+        }
+    }
+
+    /**
+     * Lazily iterates over the intervals that overlap [a, b], in interval
+     * order. The tree must not be modified during the iteration.
+     * @param a low endpoint
+     * @param b high endpoint
+     * @return the overlapping intervals and their values
+     */
+    public Iterable<Entry<Interval<K>, V>> overlapping(K a, K b) {
+        Objects.requireNonNull(a);
+        Objects.requireNonNull(b);
+        return () -> new OverlapIterator(a, b);
+    }
+
+    /**
+     * @param x point
+     * @return the intervals that contain x, as {@link #overlapping}
+     */
+    public Iterable<Entry<Interval<K>, V>> stabbing(K x) {
+        return overlapping(x, x);
+    }
+
+    /**
+     * Counts the intervals that overlap [a, b] in O(log(n)): those that start
+     * no later than b, less those that end before a, which all start before
+     * b too.
+     * @param a low endpoint
+     * @param b high endpoint
+     * @return number of overlapping intervals
+     */
+    public int countOverlapping(K a, K b) {
+        Objects.requireNonNull(a);
+        Objects.requireNonNull(b);
+        if (a.compareTo(b) > 0 || isEmpty()) {
+            return 0;
+        }
+        int startsBy = 0;
+        for (BST.INode<Interval<K>, V> h = starts.root(); h != null; ) {
+            if (h.key.lo.compareTo(b) <= 0) {
+                startsBy += 1 + starts.size(h.getLeft());
+                h = h.getRight();
+            } else {
+                h = h.getLeft();
+            }
+        }
+        long endsBefore = 0;
+        if (ends.min().compareTo(a) < 0) {
+            Integer atA = ends.get(a);
+            endsBefore = ends.aggregate(count, ends.min(), a) - (atA == null ? 0 : atA);
+        }
+        return (int) (startsBy - endsBefore);
+    }
+
+    /**
+     * @param x point
+     * @return number of intervals that contain x
+     */
+    public int countStabbing(K x) {
+        return countOverlapping(x, x);
+    }
+
+    // in-order walk that only descends into subtrees reaching a
+    private final class OverlapIterator implements Iterator<Entry<Interval<K>, V>> {
+        private final K a;
+        private final K b;
+        private final ArrayDeque<BST.INode<Interval<K>, V>> stack = new ArrayDeque<>();
+        private BST.INode<Interval<K>, V> next;
+
+        OverlapIterator(K a, K b) {
+            this.a = a;
+            this.b = b;
+            pushLeft(starts.root());
+            advance();
+        }
+
+        private void pushLeft(BST.INode<Interval<K>, V> h) {
+            while (h != null && maxHi(h).compareTo(a) >= 0) {
+                stack.push(h);
+                h = h.getLeft();
+            }
+        }
+
+        private void advance() {
+            next = null;
+            while (!stack.isEmpty()) {
+                BST.INode<Interval<K>, V> h = stack.pop();
+                if (h.key.lo.compareTo(b) > 0) {
+                    // everything after h starts later still
+                    stack.clear();
+                    return;
+                }
+                pushLeft(h.getRight());
+                if (h.key.hi.compareTo(a) >= 0) {
+                    next = h;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<Interval<K>, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<Interval<K>, V> e = next;
+            advance();
+            return e;
+        }
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        String s = starts.check();
+        if (!s.equals("pass")) sb.append(s);
+        if (!ends.check().equals("pass")) sb.append(ends.check());
+        if (!isMaxConsistent(starts.root())) sb.append("max endpoints not consistent\n");
+        if (ends.aggregate(count) != size()) sb.append("endpoint counts not consistent\n");
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    private boolean isMaxConsistent(BST.INode<Interval<K>, V> h) {
+        if (h == null) return true;
+        K max = maxHi(h);
+        starts.augment(h);
+        if (max == null || max.compareTo(maxHi(h)) != 0) return false;
+        return isMaxConsistent(h.getLeft()) && isMaxConsistent(h.getRight());
+    }
+}
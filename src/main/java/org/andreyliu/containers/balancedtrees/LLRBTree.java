@@ -1,8 +1,19 @@
 package org.andreyliu.containers.balancedtrees;
 
-import java.util.ArrayDeque;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Full implementation of a Left-leaning Red Black BST.
@@ -34,11 +45,218 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
         }
     }
 
+    public LLRBTree() {
+    }
+
+    /**
+     * Creates a tree that keeps the aggregate of the values of every
+     * subtree, for {@link #aggregate(Aggregator, Comparable, Comparable)}.
+     * Updates call the aggregator O(log(n)) times.
+     * @param aggregator aggregator
+     */
+    public LLRBTree(Aggregator<? super V, ?> aggregator) {
+        aggregator(Objects.requireNonNull(aggregator));
+    }
+
+    /**
+     * Builds a tree from the given entries. Takes O(n) if they come in
+     * increasing key order, and sorts them with a parallel sort first
+     * otherwise. For duplicate keys the last entry wins, as with a sequence
+     * of puts.
+     * @param entries entries with non-null keys and values
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the entries
+     */
+    public static <K extends Comparable<? super K>, V> LLRBTree<K, V> bulkLoad(Iterator<? extends Entry<K, V>> entries) {
+        List<Entry<K, V>> sorted = sortedDistinct(entries);
+        LLRBTree<K, V> t = new LLRBTree<>();
+        int n = sorted.size();
+        t.root = t.build(sorted.iterator(), n, minBlackHeight(n));
+        return t;
+    }
+
+    /**
+     * Like {@link #bulkLoad(Iterator)}, into a tree that keeps the aggregate
+     * of the values of every subtree.
+     * @param entries entries with non-null keys and values
+     * @param aggregator aggregator
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the entries
+     */
+    public static <K extends Comparable<? super K>, V> LLRBTree<K, V> bulkLoad(Iterator<? extends Entry<K, V>> entries,
+                                                                               Aggregator<? super V, ?> aggregator) {
+        List<Entry<K, V>> sorted = sortedDistinct(entries);
+        LLRBTree<K, V> t = new LLRBTree<>(aggregator);
+        int n = sorted.size();
+        t.root = t.build(sorted.iterator(), n, minBlackHeight(n));
+        return t;
+    }
+
+    /**
+     * Loads a snapshot written by {@link #writeTo(OutputStream, Codec, Codec, boolean)},
+     * building the tree as the entries stream in, in O(n). Reads no further
+     * than the end of the snapshot and does not close in.
+     * @param in stream to read from
+     * @param keys key codec
+     * @param vals value codec
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the snapshot's entries
+     * @throws IOException if in fails, or the snapshot is corrupt
+     * @throws IllegalArgumentException if the codec widths do not match the
+     * snapshot's
+     */
+    public static <K extends Comparable<? super K>, V> LLRBTree<K, V> readFrom(
+            InputStream in, Codec<K> keys, Codec<V> vals) throws IOException {
+        return new Snapshot.Reader<>(in, keys, vals).load(r -> {
+            LLRBTree<K, V> t = new LLRBTree<>();
+            t.root = t.build(r, r.size(), minBlackHeight(r.size()));
+            return t;
+        });
+    }
+
+    /**
+     * Like {@link #readFrom(InputStream, Codec, Codec)}.
+     * @param in channel to read from
+     * @param keys key codec
+     * @param vals value codec
+     * @param <K> key
+     * @param <V> value
+     * @return a new tree holding the snapshot's entries
+     * @throws IOException if in fails, or the snapshot is corrupt
+     */
+    public static <K extends Comparable<? super K>, V> LLRBTree<K, V> readFrom(
+            ReadableByteChannel in, Codec<K> keys, Codec<V> vals) throws IOException {
+        return readFrom(Channels.newInputStream(in), keys, vals);
+    }
+
+    /**
+     * @return this tree's hot-path metrics, which it counts from the first
+     * call on
+     * @throws IllegalStateException if metrics are off, see {@link TreeMetrics}
+     */
+    @Override
+    public TreeMetrics metrics() {
+        return super.metrics();
+    }
+
+    /**
+     * @return a cursor over this tree, on no entry until it seeks
+     */
+    public Cursor<K, V> cursor() {
+        return new Cursor<>(this);
+    }
+
+    /**
+     * Copies this map into an immutable map laid out in arrays for fast
+     * searches, in O(n). Later changes to this map do not affect it.
+     * @return a frozen copy of this map
+     */
+    public FrozenOrderedMap<K, V> freeze() {
+        return new FrozenOrderedMap<>(this);
+    }
+
+    /**
+     * @return a spliterator over all entries in key order, which splits
+     * into halves of equal size
+     */
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new EntrySpliterator<>(this, 0, size());
+    }
+
+    /**
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return a spliterator over the entries with keys in [lo, hi] in key
+     * order, which splits into halves of equal size
+     */
+    public Spliterator<Entry<K, V>> spliterator(K lo, K hi) {
+        int from = rank(lo);
+        return new EntrySpliterator<>(this, from, from + size(lo, hi));
+    }
+
+    /**
+     * @return a sequential stream over all entries in key order
+     */
+    public Stream<Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * @return a parallel stream over all entries, which the common
+     * ForkJoinPool splits by rank down the tree
+     */
+    public Stream<Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    // smallest 2-3 tree height that can hold n keys with every node a 2-node
+    private static int minBlackHeight(int n) {
+        return 31 - Integer.numberOfLeadingZeros(n + 1);
+    }
+
+    // largest number of keys in a 2-3 tree of height h, 3^h - 1
+    private static long maxKeys(int h) {
+        long p = 1;
+        for (int i = 0; i < h; i++) {
+            p *= 3;
+        }
+        return p - 1;
+    }
+
+    // builds a 2-3 tree of the given height from the next n entries of it,
+    // which must come in strictly increasing key order, using 3-nodes only
+    // where 2-nodes cannot hold all the keys
+    private Node<K, V> build(Iterator<? extends Entry<K, V>> it, int n, int blackHeight) {
+        if (n == 0) return null;
+        Node<K, V> h;
+        if (n - 1 <= 2 * maxKeys(blackHeight - 1)) {
+            int leftSize = (n - 1) / 2;
+            Node<K, V> left = build(it, leftSize, blackHeight - 1);
+            h = node(it.next());
+            h.left = left;
+            h.right = build(it, n - 1 - leftSize, blackHeight - 1);
+        } else {
+            // 3-node: red left child x, with the three subtrees split evenly
+            int rest = n - 2;
+            int a = rest / 3;
+            int b = (rest - a) / 2;
+            Node<K, V> left = build(it, a, blackHeight - 1);
+            Node<K, V> x = node(it.next());
+            x.left = left;
+            x.right = build(it, b, blackHeight - 1);
+            x.size = 1 + a + b;
+            augment(x);
+            h = node(it.next());
+            h.left = x;
+            h.right = build(it, rest - a - b, blackHeight - 1);
+        }
+        h.color = BLACK;
+        h.size = n;
+        augment(h);
+        return h;
+    }
+
+    private Node<K, V> node(Entry<K, V> e) {
+        return new Node<>(e.getKey(), e.getValue());
+    }
+
     @Override
     public int size() {
         return size(root);
     }
 
+    private int size(Node<K, V> n) {
+        return n == null ? 0 : n.size;
+    }
+
+    @Override
+    INode<K, V> root() {
+        return root;
+    }
+
     @Override
     public boolean isEmpty() {
         return size() == 0;
@@ -47,32 +265,28 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     @Override
     public V get(K k) {
         Objects.requireNonNull(k);
-
-        return get(root, k);
-    }
-
-/*    private V get(Node<K, V> h, K k) {
-        if (h == null) return null;
-        int comp = k.compareTo(h.key);
-        if (comp < 0) {
-            return get(h.left, k);
-        }
-        if (comp > 0) {
-            return get(h.right, k);
+        Node<K, V> h = root;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                h = h.right;
+            } else {
+                endOp(TreeMetrics.GET);
+                return h.val;
+            }
         }
-        return h.val;
-    }*/
-//
-//    @Override
-//    public boolean contains(K k) {
-//        return get(k) != null;
-//    }
+        endOp(TreeMetrics.GET);
+        return null;
+    }
 
     private boolean red(Node<K, V> n) {
         return n != null && n.color == RED;
     }
 
     private Node<K, V> rotateLeft(Node<K, V> x) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.rotations++;
         assert(red(x.right));
         Node<K, V> h = x.right;
         x.right = h.left;
@@ -83,10 +297,13 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
         h.size = x.size;
         x.size = 1 + size(x.left) + size(x.right);
+        augment(x);
+        augment(h);
         return h;
     }
 
     private Node<K, V> rotateRight(Node<K, V> x) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.rotations++;
         assert(red(x.left));
         Node<K, V> h = x.left;
         x.left = h.right;
@@ -97,10 +314,13 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
         h.size = x.size;
         x.size = 1 + size(x.left) + size(x.right);
+        augment(x);
+        augment(h);
         return h;
     }
 
     private void flip(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.flips++;
         assert(h.left != null && h.right != null);
         assert (h.color != h.left.color && h.color != h.right.color);
         h.color = !h.color;
@@ -119,6 +339,7 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
             flip(h);
         }
         h.size = 1 + size(h.left) + size(h.right);
+        augment(h);
         return h;
     }
 
@@ -126,19 +347,25 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     public void put(K k, V v) {
         root = put(root, Objects.requireNonNull(k), Objects.requireNonNull(v));
         root.color = BLACK;
-
+        endOp(TreeMetrics.PUT);
     }
 
     private Node<K, V> put(Node<K, V> h, K key, V val) {
-        if (h == null) return new Node<>(key, val);
+        if (h == null) {
+            modCount++;
+            h = new Node<>(key, val);
+            augment(h);
+            return h;
+        }
 
-        int comp = key.compareTo(h.key);
+        int comp = visit(key, h);
         if (comp < 0) {
             h.left = put(h.left, key, val);
         } else if (comp > 0) {
             h.right = put(h.right, key, val);
         } else {
             h.val = val;
+            augment(h);
             return h;
         }
         return balance(h);
@@ -146,46 +373,179 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
     @Override
     public void delete(K k) {
+        remove(k);
+    }
+
+    @Override
+    public V remove(K k) {
         Objects.requireNonNull(k);
-        if (!contains(k)) return;
-        root.color = RED;
-        root = delete(root, k);
-        if (!isEmpty()) root.color = BLACK;
+        Update<V> u = new Update<>();
+        root = update(root, k, (x, old) -> null, u);
+        if (root != null) root.color = BLACK;
+        endOp(TreeMetrics.DELETE);
+        return u.before;
     }
 
-    private Node<K, V> delete(Node<K, V> h, K k) {
-        if (k.compareTo(h.key) < 0) {
-            if (!red(h.left) && !red(h.left.left)) {
-                h = groupLeftFour(h);
-            }
-            h.left = delete(h.left, k);
+    /**
+     * Puts, replaces or deletes k in one descent.
+     */
+    @Override
+    public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        return update(k, f).after;
+    }
+
+    @Override
+    public V putIfAbsent(K k, V v) {
+        Objects.requireNonNull(v);
+        return update(k, (x, old) -> old == null ? v : old).before;
+    }
+
+    private Update<V> update(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(f);
+        Update<V> u = new Update<>();
+        root = update(root, k, f, u);
+        if (root != null) root.color = BLACK;
+        endOp(u.before != null && u.after == null ? TreeMetrics.DELETE : TreeMetrics.PUT);
+        return u;
+    }
+
+    // applies f to k below h, bottom-up like put. A key f deletes is
+    // unlinked where it is found, and the loss of a black level, if any,
+    // is made up on the way back up, so unlike a top-down delete this
+    // does not have to know beforehand that k is there, and leaves the tree
+    // alone if it is not.
+    private Node<K, V> update(Node<K, V> h, K k, BiFunction<? super K, ? super V, ? extends V> f, Update<V> u) {
+        if (h == null) {
+            V v = f.apply(k, null);
+            if (v == null) return null;
+            u.after = v;
+            modCount++;
+            h = new Node<>(k, v);
+            augment(h);
+            return h;
+        }
+        int comp = visit(k, h);
+        if (comp < 0) {
+            h.left = update(h.left, k, f, u);
+            if (u.shorter) return fixLeft(h, u);
+        } else if (comp > 0) {
+            h.right = update(h.right, k, f, u);
+            if (u.shorter) return fixRight(h, u);
         } else {
-            if (red(h.left)) h = rotateRight(h);
-            if (h.right == null) {
-                return null;
-            }
-            if (!red(h.right) && !red(h.right.left)) {
-                h = groupRightFour(h);
-            }
-            if (k.compareTo(h.key) > 0) {
-                h.right = delete(h.right, k);
-            } else {
-                Node<K, V> succ = (Node<K, V>) min(h.right);
-                succ.right = deleteMin(h.right);
-                succ.left = h.left;
-                succ.color = h.color;
-                h = succ;
-            }
+            u.before = h.val;
+            V v = f.apply(k, h.val);
+            if (v == null) return unlink(h, u);
+            u.after = v;
+            h.val = v;
+            augment(h);
+            return h;
         }
         return balance(h);
     }
 
+    // removes h from the top of its subtree and returns the new top
+    private Node<K, V> unlink(Node<K, V> h, Update<V> u) {
+        modCount++;
+        if (h.right == null) {
+            // h.left is null or a red leaf, which takes the place of h
+            if (h.left != null) return blacken(h.left);
+            u.shorter = !red(h);
+            return null;
+        }
+        Node<K, V> succ = min(h.right);
+        Node<K, V> right = unlinkMin(h.right, u);
+        succ.left = h.left;
+        succ.right = right;
+        succ.color = h.color;
+        return u.shorter ? fixRight(succ, u) : balance(succ);
+    }
+
+    // removes the least node below h, bottom-up
+    private Node<K, V> unlinkMin(Node<K, V> h, Update<V> u) {
+        if (h.left == null) {
+            u.shorter = !red(h);
+            return null;
+        }
+        h.left = unlinkMin(h.left, u);
+        return u.shorter ? fixLeft(h, u) : balance(h);
+    }
+
+    // h.left has one black level less than h.right, and a black root.
+    // Moves a node over from the sibling h.right if it is a 3-node, and
+    // otherwise merges h into it, which passes the loss up unless h was
+    // red.
+    private Node<K, V> fixLeft(Node<K, V> h, Update<V> u) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.regroups++;
+        Node<K, V> s = h.right;
+        if (red(s.left)) {
+            Node<K, V> x = s.left;
+            s.left = x.right;
+            h.right = x.left;
+            x.left = h;
+            x.right = s;
+            x.color = h.color;
+            h.color = BLACK;
+            resize(h);
+            resize(s);
+            resize(x);
+            u.shorter = false;
+            return x;
+        }
+        h.right = s.left;
+        s.left = h;
+        u.shorter = !red(h);
+        h.color = RED;
+        resize(h);
+        resize(s);
+        return s;
+    }
+
+    // h.right has one black level less than h.left, and a black root.
+    // The mirror image of fixLeft, except that if h is a 3-node its sibling
+    // is h.left.right, so h first moves down under h.left.
+    private Node<K, V> fixRight(Node<K, V> h, Update<V> u) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.regroups++;
+        Node<K, V> l = h.left;
+        if (red(l)) {
+            h.left = l.right;
+            l.right = h;
+            l.color = h.color;
+            h.color = RED;
+            l.right = fixRight(h, u);
+            return balance(l);
+        }
+        if (red(l.left)) {
+            h.left = l.right;
+            l.right = h;
+            l.color = h.color;
+            h.color = BLACK;
+            l.left.color = BLACK;
+            resize(h);
+            resize(l);
+            u.shorter = false;
+            return l;
+        }
+        l.color = RED;
+        u.shorter = !red(h);
+        h.color = BLACK;
+        resize(h);
+        return h;
+    }
+
+    private void resize(Node<K, V> h) {
+        h.size = 1 + size(h.left) + size(h.right);
+        augment(h);
+    }
+
     @Override
     public void deleteMin() {
         if (isEmpty()) return;
+        modCount++;
         root.color = RED;
         root = deleteMin(root);
         if (!isEmpty()) root.color = BLACK;
+        endOp(TreeMetrics.DELETE);
     }
 
     private Node<K, V> deleteMin(Node<K, V> h) {
@@ -198,6 +558,7 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     }
 
     private Node<K, V> groupLeftFour(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.regroups++;
         assert(h.left != null);
         assert(!red(h.left) && !red(h.left.left));
 
@@ -213,9 +574,11 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
     @Override
     public void deleteMax() {
         if (isEmpty()) return;
+        modCount++;
         root.color = RED;
         root = deleteMax(root);
         if (!isEmpty()) root.color = BLACK;
+        endOp(TreeMetrics.DELETE);
     }
 
     private Node<K, V> deleteMax(Node<K, V> h) {
@@ -228,7 +591,55 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
         return balance(h);
     }
 
+    @Override
+    Entry<K, V> deleteEnd(boolean min) {
+        if (isEmpty()) return null;
+        modCount++;
+        End<K, V> end = new End<>();
+        root.color = RED;
+        root = min ? deleteMin(root, end) : deleteMax(root, end);
+        if (!isEmpty()) root.color = BLACK;
+        endOp(TreeMetrics.DELETE);
+        return entry(end);
+    }
+
+    // deleteMin, leaving in end the parent of the deleted node, or the node
+    // that takes its place
+    private Node<K, V> deleteMin(Node<K, V> h, End<K, V> end) {
+        if (h.left == null) {
+            if (h.right != null) {
+                end.node = min(h.right);
+            }
+            return h.right;
+        }
+        if (!red(h.left) && !red(h.left.left)) {
+            h = groupLeftFour(h);
+        }
+        end.node = h;
+        h.left = deleteMin(h.left, end);
+        return balance(h);
+    }
+
+    // deleteMax, leaving in end the parent of the deleted node, or the node
+    // that takes its place
+    private Node<K, V> deleteMax(Node<K, V> h, End<K, V> end) {
+        if (red(h.left)) h = rotateRight(h);
+        if (h.right == null) {
+            if (h.left != null) {
+                end.node = max(h.left);
+            }
+            return h.left;
+        }
+        if (!red(h.right) && !red(h.right.left)) {
+            h = groupRightFour(h);
+        }
+        end.node = h;
+        h.right = deleteMax(h.right, end);
+        return balance(h);
+    }
+
     private Node<K, V> groupRightFour(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.regroups++;
         assert(h.right != null);
         assert(!red(h.right) && !red(h.right.left));
 
@@ -240,6 +651,364 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
         return h;
     }
 
+    /**
+     * Splits this map at k in O(log(n)).
+     * @param k key
+     * @return a new map holding the entries with keys greater than or equal
+     * to k. This map keeps the entries with smaller keys.
+     */
+    public LLRBTree<K, V> split(K k) {
+        Split<K, V> s = split(root, blackHeight(root), Objects.requireNonNull(k));
+        modCount++;
+        root = blacken(s.left);
+        LLRBTree<K, V> t = new LLRBTree<>();
+        t.aggregator = aggregator;
+        t.root = blacken(s.mid == null ? s.right : join(null, 0, s.mid, s.right, s.rbh).root);
+        endOp(TreeMetrics.BULK);
+        return t;
+    }
+
+    /**
+     * Removes the entries with keys in [lo, hi] in O(log(n)), however many
+     * there are: the range is split off and the rest joined back together.
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return number of entries removed
+     */
+    public int deleteRange(K lo, K hi) {
+        return size(cut(lo, hi));
+    }
+
+    /**
+     * Moves the entries with keys in [lo, hi] into a new map in O(log(n)).
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return a new map holding the removed entries, keeping the same
+     * aggregator as this map
+     */
+    public LLRBTree<K, V> extractRange(K lo, K hi) {
+        Node<K, V> mid = cut(lo, hi);
+        LLRBTree<K, V> t = new LLRBTree<>();
+        t.aggregator = aggregator;
+        t.root = mid;
+        return t;
+    }
+
+    // detaches the entries with keys in [lo, hi] and returns their root.
+    // Two splits and at most three joins, all given the black heights
+    // measured once at the root, so O(log(n)) in all.
+    private Node<K, V> cut(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        if (root == null || lo.compareTo(hi) > 0) {
+            endOp(TreeMetrics.BULK);
+            return null;
+        }
+        Split<K, V> a = split(root, blackHeight(root), lo);
+        Split<K, V> b = split(a.right, a.rbh, hi);
+        Part<K, V> mid = a.mid == null ? new Part<>(b.left, b.lbh) : join(null, 0, a.mid, b.left, b.lbh);
+        if (b.mid != null) mid = join(mid.root, mid.bh, b.mid, null, 0);
+        root = blacken(join2(a.left, a.lbh, b.right, b.rbh).root);
+        modCount++;
+        endOp(TreeMetrics.BULK);
+        return blacken(mid.root);
+    }
+
+    /**
+     * Joins two maps and a key that goes between them in
+     * O(|black height of left - black height of right| + log(n)).
+     * Both maps are left empty, as their nodes move into the new map.
+     * @param left map with keys less than k
+     * @param k key
+     * @param v value
+     * @param right map with keys greater than k
+     * @param <K> key
+     * @param <V> value
+     * @return a new map holding the entries of left, k and right
+     * @throws IllegalArgumentException if the keys are out of order, or the
+     * maps keep different aggregators
+     */
+    public static <K extends Comparable<? super K>, V> LLRBTree<K, V> join(LLRBTree<K, V> left, K k, V v, LLRBTree<K, V> right) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(v);
+        if (!left.isEmpty() && left.max(left.root).key.compareTo(k) >= 0
+                || !right.isEmpty() && right.min(right.root).key.compareTo(k) <= 0) {
+            throw new IllegalArgumentException("keys of left must be less than " + k + " and keys of right greater");
+        }
+        if (left.aggregator != right.aggregator) {
+            throw new IllegalArgumentException("maps keep different aggregators");
+        }
+        LLRBTree<K, V> t = new LLRBTree<>();
+        t.aggregator = left.aggregator;
+        t.root = t.blacken(t.join(left.root, t.blackHeight(left.root), new Node<K, V>(k, v),
+                right.root, t.blackHeight(right.root)).root);
+        left.root = null;
+        right.root = null;
+        left.modCount++;
+        right.modCount++;
+        left.endOp(TreeMetrics.BULK);
+        right.endOp(TreeMetrics.BULK);
+        return t;
+    }
+
+    /**
+     * Adds all entries of other to this map. For keys in both maps the value
+     * from other wins. Takes O(m log(n/m + 1)) for sizes m &lt;= n, and large
+     * maps recurse on both sides in parallel on the common ForkJoinPool.
+     * Other is left empty, as its nodes move into this map.
+     * @param other map to merge in
+     */
+    public void union(LLRBTree<K, V> other) {
+        checkOther(other);
+        root = apply(SetOp.UNION, root, other.root);
+        other.root = null;
+        modCount++;
+        other.modCount++;
+        endOp(TreeMetrics.BULK);
+    }
+
+    /**
+     * Removes the entries whose keys are not in other, with the same cost and
+     * parallelism as {@link #union}. Other is not modified.
+     * @param other map whose keys to keep
+     */
+    public void intersection(LLRBTree<K, V> other) {
+        checkOther(other);
+        root = apply(SetOp.INTERSECTION, root, other.root);
+        modCount++;
+        endOp(TreeMetrics.BULK);
+    }
+
+    /**
+     * Removes the entries whose keys are in other, with the same cost and
+     * parallelism as {@link #union}. Other is not modified.
+     * @param other map whose keys to remove
+     */
+    public void difference(LLRBTree<K, V> other) {
+        checkOther(other);
+        root = apply(SetOp.DIFFERENCE, root, other.root);
+        modCount++;
+        endOp(TreeMetrics.BULK);
+    }
+
+    private void checkOther(LLRBTree<K, V> other) {
+        if (other == this) {
+            throw new IllegalArgumentException("cannot combine a map with itself");
+        }
+        if (other.aggregator != aggregator) {
+            throw new IllegalArgumentException("maps keep different aggregators");
+        }
+    }
+
+    // below this many entries in both subtrees, set operations stop forking
+    private static final int SEQUENTIAL_CUTOFF = 1 << 12;
+
+    private enum SetOp { UNION, INTERSECTION, DIFFERENCE }
+
+    private Node<K, V> apply(SetOp op, Node<K, V> a, Node<K, V> b) {
+        int abh = blackHeight(a);
+        int bbh = blackHeight(b);
+        Part<K, V> p;
+        if (size(a) + size(b) < SEQUENTIAL_CUTOFF) {
+            p = setOp(op, a, abh, b, bbh);
+        } else {
+            // the tasks would race on the counters, so the parallel path
+            // counts no rotations, flips or regroupings
+            TreeMetrics m = metrics;
+            metrics = null;
+            try {
+                p = ForkJoinPool.commonPool().invoke(new SetOpTask(op, a, abh, b, bbh));
+            } finally {
+                metrics = m;
+            }
+        }
+        return blacken(p.root);
+    }
+
+    // splits a by the root of b and recurses on the two halves.
+    // b is only read unless op is UNION, which reuses its nodes.
+    private Part<K, V> setOp(SetOp op, Node<K, V> a, int abh, Node<K, V> b, int bbh) {
+        if (a == null) return op == SetOp.UNION ? new Part<>(b, bbh) : new Part<>(null, 0);
+        if (b == null) return op == SetOp.INTERSECTION ? new Part<>(null, 0) : new Part<>(a, abh);
+        boolean fork = size(a) + size(b) >= SEQUENTIAL_CUTOFF;
+        Split<K, V> s = split(a, abh, b.key);
+        int cbh = red(b) ? bbh : bbh - 1;
+        Part<K, V> l;
+        Part<K, V> r;
+        if (fork) {
+            SetOpTask task = new SetOpTask(op, s.left, s.lbh, b.left, cbh);
+            task.fork();
+            r = setOp(op, s.right, s.rbh, b.right, cbh);
+            l = task.join();
+        } else {
+            l = setOp(op, s.left, s.lbh, b.left, cbh);
+            r = setOp(op, s.right, s.rbh, b.right, cbh);
+        }
+        switch (op) {
+            case UNION:
+                return join(l.root, l.bh, b, r.root, r.bh);
+            case INTERSECTION:
+                return s.mid == null ? join2(l.root, l.bh, r.root, r.bh) : join(l.root, l.bh, s.mid, r.root, r.bh);
+            default:
+                return join2(l.root, l.bh, r.root, r.bh);
+        }
+    }
+
+    private final class SetOpTask extends RecursiveTask<Part<K, V>> {
+        private static final long serialVersionUID = 1L;
+        private final SetOp op;
+        private final Node<K, V> a;
+        private final int abh;
+        private final Node<K, V> b;
+        private final int bbh;
+
+        SetOpTask(SetOp op, Node<K, V> a, int abh, Node<K, V> b, int bbh) {
+            this.op = op;
+            this.a = a;
+            this.abh = abh;
+            this.b = b;
+            this.bbh = bbh;
+        }
+
+        @Override
+        protected Part<K, V> compute() {
+            return setOp(op, a, abh, b, bbh);
+        }
+    }
+
+    // a tree made by a join, whose root may be red, and its black height.
+    // Black heights count the root only if it is black. split and setOp
+    // pass them down from the root, less one at each black node, so a join
+    // never walks a spine to measure them.
+    private static final class Part<K extends Comparable<? super K>, V> {
+        final Node<K, V> root;
+        final int bh;
+
+        Part(Node<K, V> root, int bh) {
+            this.root = root;
+            this.bh = bh;
+        }
+    }
+
+    private static final class Split<K extends Comparable<? super K>, V> {
+        Node<K, V> left;
+        int lbh;
+        // node with the split key, its children and color are stale
+        Node<K, V> mid;
+        Node<K, V> right;
+        int rbh;
+    }
+
+    // splits h, of black height hbh. left and right may come back with a
+    // red root.
+    private Split<K, V> split(Node<K, V> h, int hbh, K k) {
+        if (h == null) return new Split<>();
+        int cbh = red(h) ? hbh : hbh - 1;
+        int comp = k.compareTo(h.key);
+        Split<K, V> s;
+        if (comp < 0) {
+            s = split(h.left, cbh, k);
+            Part<K, V> p = join(s.right, s.rbh, h, h.right, cbh);
+            s.right = p.root;
+            s.rbh = p.bh;
+        } else if (comp > 0) {
+            s = split(h.right, cbh, k);
+            Part<K, V> p = join(h.left, cbh, h, s.left, s.lbh);
+            s.left = p.root;
+            s.lbh = p.bh;
+        } else {
+            s = new Split<>();
+            s.left = h.left;
+            s.lbh = cbh;
+            s.mid = h;
+            s.right = h.right;
+            s.rbh = cbh;
+        }
+        return s;
+    }
+
+    private Node<K, V> blacken(Node<K, V> h) {
+        if (h != null) h.color = BLACK;
+        return h;
+    }
+
+    // number of black nodes on any path from h down to a null link, in
+    // O(log(n)), for the roots that operations start from
+    private int blackHeight(Node<K, V> h) {
+        int bh = 0;
+        for (; h != null; h = h.left) {
+            if (!red(h)) bh++;
+        }
+        return bh;
+    }
+
+    // joins l, the detached node m and r, where l < m < r, of black heights
+    // lbh and rbh, in O(|lbh - rbh| + 1). m goes in red next to the black
+    // subtree on the facing spine of the taller tree that has the black
+    // height of the shorter one, and balance() fixes up the path as after
+    // an insert. The root may come back red, which keeps the black height
+    // at that of the taller tree.
+    private Part<K, V> join(Node<K, V> l, int lbh, Node<K, V> m, Node<K, V> r, int rbh) {
+        if (red(l)) lbh++;
+        if (red(r)) rbh++;
+        blacken(l);
+        blacken(r);
+        Node<K, V> h;
+        if (lbh > rbh) {
+            h = joinRight(l, lbh, m, r, rbh);
+        } else if (rbh > lbh) {
+            h = joinLeft(r, rbh, m, l, lbh);
+        } else {
+            m.left = l;
+            m.right = r;
+            m.color = RED;
+            m.size = 1 + size(l) + size(r);
+            augment(m);
+            h = m;
+        }
+        return new Part<>(h, Math.max(lbh, rbh));
+    }
+
+    // right links are black, so each step down the right spine is one black level
+    private Node<K, V> joinRight(Node<K, V> h, int hbh, Node<K, V> m, Node<K, V> r, int rbh) {
+        if (hbh == rbh) {
+            m.left = h;
+            m.right = r;
+            m.color = RED;
+            m.size = 1 + size(h) + size(r);
+            augment(m);
+            return m;
+        }
+        h.right = joinRight(h.right, hbh - 1, m, r, rbh);
+        return balance(h);
+    }
+
+    // left links may be red, which do not count towards the black height
+    private Node<K, V> joinLeft(Node<K, V> h, int hbh, Node<K, V> m, Node<K, V> l, int lbh) {
+        if (!red(h) && hbh == lbh) {
+            m.left = l;
+            m.right = h;
+            m.color = RED;
+            m.size = 1 + size(l) + size(h);
+            augment(m);
+            return m;
+        }
+        h.left = joinLeft(h.left, red(h) ? hbh : hbh - 1, m, l, lbh);
+        return balance(h);
+    }
+
+    // joins l and r, where l < r, of black heights lbh and rbh
+    private Part<K, V> join2(Node<K, V> l, int lbh, Node<K, V> r, int rbh) {
+        if (l == null) return new Part<>(r, rbh);
+        if (r == null) return new Part<>(l, lbh);
+        Node<K, V> m = min(r);
+        // deleteMin keeps the black height, once the root no longer counts
+        if (!red(r)) rbh--;
+        r.color = RED;
+        r = deleteMin(r);
+        return join(l, lbh, m, r, rbh);
+    }
+
     @Override
     public int height() {
         return height(root);
@@ -252,62 +1021,118 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
 
     @Override
     public K min() {
-        if (isEmpty()) return null;
-        return min(root).key;
+        K m = isEmpty() ? null : min(root).key;
+        endOp(TreeMetrics.SEARCH);
+        return m;
     }
 
     @Override
     public K max() {
-        if (isEmpty()) return null;
-        return max(root).key;
+        K m = isEmpty() ? null : max(root).key;
+        endOp(TreeMetrics.SEARCH);
+        return m;
+    }
+
+    private Node<K, V> min(Node<K, V> h) {
+        while (h.left != null) {
+            h = h.left;
+        }
+        return h;
+    }
+
+    private Node<K, V> max(Node<K, V> h) {
+        while (h.right != null) {
+            h = h.right;
+        }
+        return h;
     }
 
     @Override
     public K floor(K k) {
         Objects.requireNonNull(k);
-        INode<K, V>  f = floor(root, k);
-        return f == null ? null : f.key;
+        Node<K, V> h = root;
+        Node<K, V> best = null;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                best = h;
+                h = h.right;
+            } else {
+                best = h;
+                break;
+            }
+        }
+        endOp(TreeMetrics.SEARCH);
+        return best == null ? null : best.key;
     }
 
     @Override
     public K ceiling(K k) {
         Objects.requireNonNull(k);
-        INode<K, V> c = ceiling(root, k);
-        return c == null ? null : c.key;
+        Node<K, V> h = root;
+        Node<K, V> best = null;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp > 0) {
+                h = h.right;
+            } else if (comp < 0) {
+                best = h;
+                h = h.left;
+            } else {
+                best = h;
+                break;
+            }
+        }
+        endOp(TreeMetrics.SEARCH);
+        return best == null ? null : best.key;
     }
 
     @Override
     public K select(int k) {
-        if (k < 0 || k >= size()) {
-            return null;
+        Node<K, V> h = k < 0 || k >= size() ? null : root;
+        while (h != null) {
+            int rank = size(h.left);
+            if (rank > k) {
+                h = h.left;
+            } else if (rank < k) {
+                k -= rank + 1;
+                h = h.right;
+            } else {
+                break;
+            }
         }
-        return select(root, k).key;
+        endOp(TreeMetrics.SEARCH);
+        return h == null ? null : h.key;
     }
 
     @Override
     public int rank(K k) {
         Objects.requireNonNull(k);
-        return rank(root, k);
-    }
-
-    @Override
-    public Iterable<K> keys() {
-        Queue<K> q = new ArrayDeque<>();
-        keys(root, min(), max(), q);
-        return q;
-    }
-
-    @Override
-    public Iterable<K> keys(K lo, K hi) {
-        Queue<K> q = new ArrayDeque<>();
-        keys(root, lo, hi, q);
-        return q;
+        Node<K, V> h = root;
+        int rank = 0;
+        while (h != null) {
+            int comp = visit(k, h);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                rank += 1 + size(h.left);
+                h = h.right;
+            } else {
+                rank += size(h.left);
+                break;
+            }
+        }
+        endOp(TreeMetrics.SEARCH);
+        return rank;
     }
 
     @Override
     void delete() {
         delete(root);
         root = null;
+        modCount++;
     }
 
     private void delete(Node<K, V> h) {
@@ -322,6 +1147,7 @@ public class LLRBTree<K extends Comparable<? super K>, V> extends BST<K, V> {
         StringBuilder sb = new StringBuilder();
         if (!isBST())            sb.append("Not in symmetric order\n");
         if (!isSizeConsistent()) sb.append("Subtree counts not consistent\n");
+        if (!isAggregateConsistent(root)) sb.append("Aggregates not consistent\n");
         if (!isRankConsistent()) sb.append("Ranks not consistent\n");
         if (!is23())             sb.append("Not a 2-3 tree\n");
         if (!isBalanced())       sb.append("Not balanced\n");
@@ -0,0 +1,531 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Left-leaning Red Black BST mapping primitive {@code long} keys to
+ * {@code long} values.
+ * Same operations as {@link LLRBTree}, but neither keys nor values are boxed,
+ * so lookups allocate nothing.
+ * Queries that may have no answer take the value to return in that case:
+ * {@link #get(long, long)} returns the given default value, and
+ * {@link #floor(long, long)} and {@link #ceiling(long, long)} the given
+ * default key. {@link #min()}, {@link #max()} and {@link #select(int)} throw
+ * when there is no such key.
+ */
+public class LongLongLLRBTree {
+
+    private static final boolean RED = true;
+    private static final boolean BLACK = false;
+    private Node root;
+
+    private static final class Node {
+        final long key;
+        long val;
+        int size = 1;
+        boolean color = RED;
+        Node left;
+        Node right;
+
+        Node(long key, long val) {
+            this.key = key;
+            this.val = val;
+        }
+    }
+
+    /**
+     * @return size of the map
+     */
+    public int size() {
+        return size(root);
+    }
+
+    private int size(Node n) {
+        return n == null ? 0 : n.size;
+    }
+
+    /**
+     * @return whether map is empty.
+     */
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * @param k key
+     * @param absent returned if the key does not exist
+     * @return value mapped by key, or absent
+     */
+    public long get(long k, long absent) {
+        Node h = root;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                h = h.right;
+            } else {
+                return h.val;
+            }
+        }
+        return absent;
+    }
+
+    /**
+     * @param k key
+     * @return whether map contains the key.
+     */
+    public boolean contains(long k) {
+        Node h = root;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                h = h.right;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean red(Node n) {
+        return n != null && n.color == RED;
+    }
+
+    private Node rotateLeft(Node x) {
+        assert(red(x.right));
+        Node h = x.right;
+        x.right = h.left;
+        h.left = x;
+
+        h.color = x.color;
+        x.color = RED;
+
+        h.size = x.size;
+        x.size = 1 + size(x.left) + size(x.right);
+        return h;
+    }
+
+    private Node rotateRight(Node x) {
+        assert(red(x.left));
+        Node h = x.left;
+        x.left = h.right;
+        h.right = x;
+
+        h.color = x.color;
+        x.color = RED;
+
+        h.size = x.size;
+        x.size = 1 + size(x.left) + size(x.right);
+        return h;
+    }
+
+    private void flip(Node h) {
+        assert(h.left != null && h.right != null);
+        assert (h.color != h.left.color && h.color != h.right.color);
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    private Node balance(Node h) {
+        if (red(h.right) && !red(h.left)) {
+            h = rotateLeft(h);
+        }
+        if (red(h.left) && red(h.left.left)) {
+            h = rotateRight(h);
+        }
+        if (red(h.left) && red(h.right)) {
+            flip(h);
+        }
+        h.size = 1 + size(h.left) + size(h.right);
+        return h;
+    }
+
+    /**
+     * Puts the key-value mapping in the map. Replace the existing
+     * mapping if key already in the map.
+     * @param k key
+     * @param v value
+     */
+    public void put(long k, long v) {
+        root = put(root, k, v);
+        root.color = BLACK;
+    }
+
+    private Node put(Node h, long key, long val) {
+        if (h == null) return new Node(key, val);
+
+        if (key < h.key) {
+            h.left = put(h.left, key, val);
+        } else if (key > h.key) {
+            h.right = put(h.right, key, val);
+        } else {
+            h.val = val;
+            return h;
+        }
+        return balance(h);
+    }
+
+    /**
+     * Delete the key-value mapping for the specified key if key is in the map.
+     * @param k key
+     */
+    public void delete(long k) {
+        if (isEmpty()) return;
+        root.color = RED;
+        root = delete(root, k);
+        if (!isEmpty()) root.color = BLACK;
+    }
+
+    private Node delete(Node h, long k) {
+        if (k < h.key) {
+            // k is not in the map: the moves down so far keep the black
+            // heights, and balance fixes up the colors on the way back
+            if (h.left == null) return h;
+            if (!red(h.left) && !red(h.left.left)) {
+                h = groupLeftFour(h);
+            }
+            h.left = delete(h.left, k);
+        } else {
+            if (red(h.left)) h = rotateRight(h);
+            if (h.right == null) {
+                // a leaf, as h has no red left child
+                return k == h.key ? null : h;
+            }
+            if (!red(h.right) && !red(h.right.left)) {
+                h = groupRightFour(h);
+            }
+            if (k > h.key) {
+                h.right = delete(h.right, k);
+            } else {
+                Node succ = min(h.right);
+                succ.right = deleteMin(h.right);
+                succ.left = h.left;
+                succ.color = h.color;
+                h = succ;
+            }
+        }
+        return balance(h);
+    }
+
+    /**
+     * Delete minimum key entry.
+     */
+    public void deleteMin() {
+        if (isEmpty()) return;
+        root.color = RED;
+        root = deleteMin(root);
+        if (!isEmpty()) root.color = BLACK;
+    }
+
+    private Node deleteMin(Node h) {
+        if (h.left == null) return h.right;
+        if (!red(h.left) && !red(h.left.left)) {
+            h = groupLeftFour(h);
+        }
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+    private Node groupLeftFour(Node h) {
+        assert(h.left != null);
+        assert(!red(h.left) && !red(h.left.left));
+
+        flip(h);
+        if (red(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+            flip(h);
+        }
+        return h;
+    }
+
+    /**
+     * Delete maximum key entry.
+     */
+    public void deleteMax() {
+        if (isEmpty()) return;
+        root.color = RED;
+        root = deleteMax(root);
+        if (!isEmpty()) root.color = BLACK;
+    }
+
+    private Node deleteMax(Node h) {
+        if (red(h.left)) h = rotateRight(h);
+        if (h.right == null) return h.left;
+        if (!red(h.right) && !red(h.right.left)) {
+            h = groupRightFour(h);
+        }
+        h.right = deleteMax(h.right);
+        return balance(h);
+    }
+
+    private Node groupRightFour(Node h) {
+        assert(h.right != null);
+        assert(!red(h.right) && !red(h.right.left));
+
+        flip(h);
+        if (red(h.left.left)) {
+            h = rotateRight(h);
+            flip(h);
+        }
+        return h;
+    }
+
+    /**
+     * @return height of the tree, -1 if empty
+     */
+    public int height() {
+        return height(root);
+    }
+
+    private int height(Node h) {
+        if (h == null) return -1;
+        return 1 + Math.max(height(h.left), height(h.right));
+    }
+
+    /**
+     * @return minimum key
+     * @throws NoSuchElementException if the map is empty
+     */
+    public long min() {
+        if (isEmpty()) throw new NoSuchElementException("empty map");
+        return min(root).key;
+    }
+
+    /**
+     * @return maximum key
+     * @throws NoSuchElementException if the map is empty
+     */
+    public long max() {
+        if (isEmpty()) throw new NoSuchElementException("empty map");
+        return max(root).key;
+    }
+
+    private Node min(Node h) {
+        while (h.left != null) {
+            h = h.left;
+        }
+        return h;
+    }
+
+    private Node max(Node h) {
+        while (h.right != null) {
+            h = h.right;
+        }
+        return h;
+    }
+
+    /**
+     * @param k key
+     * @param absent returned if no key is less than or equal to k
+     * @return the largest key less than or equal to k, or absent
+     */
+    public long floor(long k, long absent) {
+        Node h = root;
+        Node best = null;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                best = h;
+                h = h.right;
+            } else {
+                return h.key;
+            }
+        }
+        return best == null ? absent : best.key;
+    }
+
+    /**
+     * @param k key
+     * @param absent returned if no key is greater than or equal to k
+     * @return the smallest key greater than or equal to k, or absent
+     */
+    public long ceiling(long k, long absent) {
+        Node h = root;
+        Node best = null;
+        while (h != null) {
+            if (k > h.key) {
+                h = h.right;
+            } else if (k < h.key) {
+                best = h;
+                h = h.left;
+            } else {
+                return h.key;
+            }
+        }
+        return best == null ? absent : best.key;
+    }
+
+    /**
+     * Select the key with the given rank.
+     * @param k rank (from 0 to size() - 1)
+     * @return the key with the rank
+     * @throws IndexOutOfBoundsException if rank is not valid
+     */
+    public long select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("rank " + k + " out of [0, " + size() + ")");
+        }
+        Node h = root;
+        while (true) {
+            int rank = size(h.left);
+            if (rank > k) {
+                h = h.left;
+            } else if (rank < k) {
+                k -= rank + 1;
+                h = h.right;
+            } else {
+                return h.key;
+            }
+        }
+    }
+
+    /**
+     * @param k key
+     * @return number of keys strictly less than k
+     */
+    public int rank(long k) {
+        Node h = root;
+        int rank = 0;
+        while (h != null) {
+            if (k < h.key) {
+                h = h.left;
+            } else if (k > h.key) {
+                rank += 1 + size(h.left);
+                h = h.right;
+            } else {
+                return rank + size(h.left);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * @param from lower bound
+     * @param to upper bound (inclusive)
+     * @return number of keys in the given range.
+     */
+    public int size(long from, long to) {
+        if (from > to) {
+            return 0;
+        }
+        // down to the first key in the range, then the keys of its left
+        // subtree from from on and of its right subtree up to to
+        Node h = root;
+        while (h != null && (h.key < from || h.key > to)) {
+            h = h.key < from ? h.right : h.left;
+        }
+        if (h == null) return 0;
+        int n = 1;
+        for (Node x = h.left; x != null; ) {
+            if (x.key >= from) {
+                n += 1 + size(x.right);
+                x = x.left;
+            } else {
+                x = x.right;
+            }
+        }
+        for (Node x = h.right; x != null; ) {
+            if (x.key <= to) {
+                n += 1 + size(x.left);
+                x = x.right;
+            } else {
+                x = x.left;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return all the keys in order
+     */
+    public PrimitiveIterator.OfLong keys() {
+        return new KeyIterator(root, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return keys from lo to hi in order
+     */
+    public PrimitiveIterator.OfLong keys(long lo, long hi) {
+        return new KeyIterator(root, lo, hi);
+    }
+
+    private static final class KeyIterator implements PrimitiveIterator.OfLong {
+        private final ArrayDeque<Node> stack = new ArrayDeque<>();
+        private final long hi;
+
+        KeyIterator(Node root, long lo, long hi) {
+            this.hi = hi;
+            for (Node h = root; h != null; ) {
+                if (h.key < lo) {
+                    h = h.right;
+                } else {
+                    stack.push(h);
+                    h = h.left;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            Node h = stack.peek();
+            return h != null && h.key <= hi;
+        }
+
+        @Override
+        public long nextLong() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node h = stack.pop();
+            for (Node x = h.right; x != null; x = x.left) {
+                stack.push(x);
+            }
+            return h.key;
+        }
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        if (!isBST(root, Long.MIN_VALUE, Long.MAX_VALUE)) sb.append("Not in symmetric order\n");
+        if (!isSizeConsistent(root)) sb.append("Subtree counts not consistent\n");
+        if (!is23(root)) sb.append("Not a 2-3 tree\n");
+        if (isBalanced(root) == -1) sb.append("Not balanced\n");
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    private boolean isBST(Node h, long min, long max) {
+        if (h == null) return true;
+        if (h.key < min || h.key > max) return false;
+        return (h.key == Long.MIN_VALUE || isBST(h.left, min, h.key - 1))
+                && (h.key == Long.MAX_VALUE || isBST(h.right, h.key + 1, max));
+    }
+
+    private boolean isSizeConsistent(Node h) {
+        if (h == null) return true;
+        if (h.size != 1 + size(h.left) + size(h.right)) return false;
+        return isSizeConsistent(h.left) && isSizeConsistent(h.right);
+    }
+
+    private boolean is23(Node h) {
+        if (h == null) return true;
+        if (red(h.right)) return false;
+        if (h != root && red(h) && red(h.left)) return false;
+        return is23(h.left) && is23(h.right);
+    }
+
+    private int isBalanced(Node h) {
+        if (h == null) return 1;
+        int l = isBalanced(h.left);
+        int r = isBalanced(h.right);
+        if (l == -1 || r == -1 || l != r) return -1;
+        return (red(h) ? 0 : 1) + l;
+    }
+}
@@ -0,0 +1,150 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressor for the LZ4 block format: a sequence of tokens, each a run of
+ * literal bytes followed by a copy of up to 64KB back.
+ * The compressor finds matches through a hash table of 4-byte sequences, so
+ * it runs in one pass and decompression is a loop of copies.
+ */
+final class Lz4Block {
+    private static final int MIN_MATCH = 4;
+    // the last match must start this far from the end of the block
+    private static final int MF_LIMIT = 12;
+    // and the block always ends with this many literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 0xffff;
+    private static final int HASH_BITS = 12;
+
+    private final int[] table = new int[1 << HASH_BITS];
+
+    /**
+     * @param len bytes to compress
+     * @return largest compressed size of len bytes
+     */
+    static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int seq) {
+        return (seq * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    /**
+     * @param src bytes to compress
+     * @param len number of bytes of src
+     * @param dst holds at least maxCompressedLength(len) bytes
+     * @return compressed size
+     */
+    int compress(byte[] src, int len, byte[] dst) {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int out = 0;
+        int i = 0;
+        while (i < len - MF_LIMIT) {
+            int seq = readInt(src, i);
+            int h = hash(seq);
+            int ref = table[h];
+            table[h] = i;
+            if (ref < 0 || i - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+                i++;
+                continue;
+            }
+            int match = MIN_MATCH;
+            while (i + match < len - LAST_LITERALS && src[ref + match] == src[i + match]) {
+                match++;
+            }
+            int token = out;
+            out = sequence(src, anchor, i - anchor, dst, out);
+            dst[out++] = (byte) (i - ref);
+            dst[out++] = (byte) ((i - ref) >>> 8);
+            int rest = match - MIN_MATCH;
+            dst[token] |= (byte) Math.min(rest, 15);
+            if (rest >= 15) {
+                out = length(rest - 15, dst, out);
+            }
+            i += match;
+            anchor = i;
+        }
+        return sequence(src, anchor, len - anchor, dst, out);
+    }
+
+    // writes a token with the literal length, and the literals
+    private static int sequence(byte[] src, int from, int literals, byte[] dst, int out) {
+        dst[out++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) {
+            out = length(literals - 15, dst, out);
+        }
+        System.arraycopy(src, from, dst, out, literals);
+        return out + literals;
+    }
+
+    private static int length(int n, byte[] dst, int out) {
+        while (n >= 255) {
+            dst[out++] = (byte) 255;
+            n -= 255;
+        }
+        dst[out++] = (byte) n;
+        return out;
+    }
+
+    /**
+     * @param src compressed bytes
+     * @param srcLen number of bytes of src
+     * @param dst holds the decompressed bytes
+     * @param dstLen expected decompressed size
+     * @throws IOException if src is not a valid block of dstLen bytes
+     */
+    static void decompress(byte[] src, int srcLen, byte[] dst, int dstLen) throws IOException {
+        int in = 0;
+        int out = 0;
+        while (in < srcLen) {
+            int token = src[in++] & 0xff;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (in >= srcLen) throw corrupt();
+                    b = src[in++] & 0xff;
+                    literals += b;
+                } while (b == 255);
+            }
+            if (literals > srcLen - in || literals > dstLen - out) throw corrupt();
+            System.arraycopy(src, in, dst, out, literals);
+            in += literals;
+            out += literals;
+            if (in == srcLen) break;
+
+            if (in + 2 > srcLen) throw corrupt();
+            int offset = (src[in] & 0xff) | (src[in + 1] & 0xff) << 8;
+            in += 2;
+            int match = token & 0xf;
+            if (match == 15) {
+                int b;
+                do {
+                    if (in >= srcLen) throw corrupt();
+                    b = src[in++] & 0xff;
+                    match += b;
+                } while (b == 255);
+            }
+            match += MIN_MATCH;
+            if (offset == 0 || offset > out || match > dstLen - out) throw corrupt();
+            // byte by byte, as the copy may overlap itself
+            for (int j = 0; j < match; j++) {
+                dst[out + j] = dst[out - offset + j];
+            }
+            out += match;
+        }
+        if (out != dstLen) throw corrupt();
+    }
+
+    private static IOException corrupt() {
+        return new IOException("corrupt compressed block");
+    }
+}
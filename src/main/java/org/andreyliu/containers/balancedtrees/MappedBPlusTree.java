@@ -0,0 +1,1062 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * B+tree implementation of {@link OrderedMap} that lives in a memory-mapped
+ * file rather than on the heap.
+ * Nodes are fixed-size pages laid out like the nodes of {@link BPlusTree}:
+ * leaves hold sorted key and value slots and are linked in both directions,
+ * inner nodes hold separator keys, child page numbers and the number of
+ * entries under each child. Keys and values are stored through
+ * {@link Codec}s, so each takes a fixed-width slot.
+ * <p>
+ * Lookups, floor, ceiling and range scans compare the search key against
+ * the mapped pages directly and only decode the keys and values they
+ * return. Opening an existing file maps it and reads its header page,
+ * whatever its size. The file is mapped in segments of up to 1GB, so it
+ * may grow beyond 2GB.
+ * <p>
+ * Updates are written to the mapped pages in place, and reach the disk when
+ * the operating system writes them back or on {@link #flush()} and
+ * {@link #close()}. A crash between flushes may leave the file torn, so
+ * the header records whether the file is dirty: the first update after a
+ * flush marks it dirty on the disk before touching any page, and a flush
+ * clears the mark once the pages are written. Opening a file left dirty
+ * fails, rather than reading pages that may be torn.
+ * Pages freed by deletes are reused by later inserts. Like the other maps
+ * in this package it is not thread-safe.
+ * @param <K> key
+ * @param <V> value
+ */
+public class MappedBPlusTree<K extends Comparable<? super K>, V> implements OrderedMap<K, V>, Closeable {
+    static final int DEFAULT_PAGE_SIZE = 4096;
+    static final int MIN_PAGE_SIZE = 128;
+    static final int SEGMENT_BYTES = 1 << 30;
+    private static final int MIN_FANOUT = 4;
+
+    private static final int MAGIC = 0x42504c54;
+    private static final int VERSION = 1;
+
+    // header page
+    private static final int H_MAGIC = 0;
+    private static final int H_VERSION = 4;
+    private static final int H_PAGE_SIZE = 8;
+    private static final int H_KEY_WIDTH = 12;
+    private static final int H_VAL_WIDTH = 16;
+    private static final int H_ROOT = 20;
+    private static final int H_FIRST = 24;
+    private static final int H_LAST = 28;
+    private static final int H_SIZE = 32;
+    private static final int H_PAGES = 36;
+    private static final int H_FREE = 40;
+    // nonzero from the first update after a flush until the next flush
+    private static final int H_DIRTY = 44;
+    private static final int H_END = 48;
+
+    // node pages. Page 0 is the header, so 0 also stands for no page.
+    private static final int P_TYPE = 0;
+    private static final int P_N = 4;
+    private static final int P_PREV = 8;
+    private static final int P_NEXT = 12;
+    private static final int P_DATA = 16;
+
+    private static final int LEAF = 1;
+    private static final int INNER = 2;
+    private static final int FREE = 3;
+
+    private final FileChannel channel;
+    private final Codec<K> keys;
+    private final Codec<V> vals;
+    private final int pageSize;
+    private final int pagesPerSegment;
+    private final int segmentBytes;
+    private final int keyWidth;
+    private final int entryWidth;
+    // most entries in a leaf and children of an inner node; each page has
+    // one more slot to hold the overflow before a split
+    private final int leafFanout;
+    private final int innerFanout;
+    // offset of the separator keys in an inner page
+    private final int innerKeys;
+
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long mapped;
+
+    private int root;
+    private int first;
+    private int last;
+    private int size;
+    private int pages;
+    private int free;
+    // whether the header on the disk marks the file dirty
+    private boolean dirty;
+
+    // set by put and delete when an entry was added or removed
+    private boolean changed;
+    // separator to push up after a split, encoded
+    private final byte[] splitKey;
+    // an entry being inserted, encoded before any page is touched
+    private final ByteBuffer entry;
+    private final byte[] scratch;
+
+    /**
+     * Opens the map stored in path, or creates it with 4KB pages if the file
+     * does not exist or is empty.
+     * @param path file
+     * @param keys key codec
+     * @param vals value codec
+     * @param <K> key
+     * @param <V> value
+     * @return the map
+     * @throws IOException if the file cannot be opened, is not a map, or
+     * was not flushed after its last update
+     * @throws IllegalArgumentException if the codec widths do not match the
+     * file's
+     */
+    public static <K extends Comparable<? super K>, V> MappedBPlusTree<K, V> open(
+            Path path, Codec<K> keys, Codec<V> vals) throws IOException {
+        return open(path, keys, vals, DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * Opens the map stored in path, or creates it with the given page size
+     * if the file does not exist or is empty. An existing file keeps the
+     * page size it was created with.
+     * @param path file
+     * @param keys key codec
+     * @param vals value codec
+     * @param pageSize power of two, at least 128, for new files
+     * @param <K> key
+     * @param <V> value
+     * @return the map
+     * @throws IOException if the file cannot be opened, is not a map, or
+     * was not flushed after its last update
+     * @throws IllegalArgumentException if the codec widths do not match the
+     * file's, or leave room for fewer than 4 entries per page
+     */
+    public static <K extends Comparable<? super K>, V> MappedBPlusTree<K, V> open(
+            Path path, Codec<K> keys, Codec<V> vals, int pageSize) throws IOException {
+        return open(path, keys, vals, pageSize, SEGMENT_BYTES);
+    }
+
+    static <K extends Comparable<? super K>, V> MappedBPlusTree<K, V> open(
+            Path path, Codec<K> keys, Codec<V> vals, int pageSize, int segmentBytes) throws IOException {
+        Objects.requireNonNull(keys);
+        Objects.requireNonNull(vals);
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() > 0) {
+                ByteBuffer h = ByteBuffer.allocate(H_END);
+                while (h.hasRemaining() && channel.read(h, h.position()) >= 0) {
+                    // read the whole header
+                }
+                if (h.hasRemaining() || h.getInt(H_MAGIC) != MAGIC || h.getInt(H_VERSION) != VERSION) {
+                    throw new IOException(path + " is not a B+tree file");
+                }
+                if (h.getInt(H_DIRTY) != 0) {
+                    throw new IOException(path + " was not flushed after its last update and may be torn");
+                }
+                if (h.getInt(H_KEY_WIDTH) != keys.width() || h.getInt(H_VAL_WIDTH) != vals.width()) {
+                    throw new IllegalArgumentException("codec widths do not match " + path);
+                }
+                pageSize = h.getInt(H_PAGE_SIZE);
+            }
+            return new MappedBPlusTree<>(channel, keys, vals, pageSize, segmentBytes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private MappedBPlusTree(FileChannel channel, Codec<K> keys, Codec<V> vals,
+                            int pageSize, int segmentBytes) throws IOException {
+        if (pageSize < MIN_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("page size must be a power of two of at least " + MIN_PAGE_SIZE);
+        }
+        if (segmentBytes < pageSize || segmentBytes % pageSize != 0) {
+            throw new IllegalArgumentException("segment size must be a multiple of the page size");
+        }
+        this.channel = channel;
+        this.keys = keys;
+        this.vals = vals;
+        this.pageSize = pageSize;
+        this.segmentBytes = segmentBytes;
+        this.pagesPerSegment = segmentBytes / pageSize;
+        keyWidth = keys.width();
+        entryWidth = keyWidth + vals.width();
+        leafFanout = (pageSize - P_DATA) / entryWidth - 1;
+        innerFanout = (pageSize - P_DATA - 8) / (8 + keyWidth);
+        innerKeys = P_DATA + 8 * (innerFanout + 1);
+        if (leafFanout < MIN_FANOUT || innerFanout < MIN_FANOUT) {
+            throw new IllegalArgumentException("pages of " + pageSize + " bytes hold fewer than "
+                    + MIN_FANOUT + " entries");
+        }
+        splitKey = new byte[keyWidth];
+        entry = ByteBuffer.allocate(entryWidth);
+        scratch = new byte[pageSize];
+
+        if (channel.size() == 0) {
+            map(2L * pageSize);
+            ByteBuffer h = buf(0);
+            h.putInt(H_MAGIC, MAGIC);
+            h.putInt(H_VERSION, VERSION);
+            h.putInt(H_PAGE_SIZE, pageSize);
+            h.putInt(H_KEY_WIDTH, keyWidth);
+            h.putInt(H_VAL_WIDTH, vals.width());
+            // a new file is dirty until its first flush
+            h.putInt(H_DIRTY, 1);
+            dirty = true;
+            pages = 1;
+            root = allocate(LEAF);
+            first = root;
+            last = root;
+            writeHeader();
+        } else {
+            map(channel.size());
+            ByteBuffer h = buf(0);
+            root = h.getInt(H_ROOT);
+            first = h.getInt(H_FIRST);
+            last = h.getInt(H_LAST);
+            size = h.getInt(H_SIZE);
+            pages = h.getInt(H_PAGES);
+            free = h.getInt(H_FREE);
+            if ((long) pages * pageSize > mapped) {
+                throw new IOException("file is shorter than its " + pages + " pages");
+            }
+        }
+    }
+
+    // maps the first bytes of the file, growing it if needed
+    private void map(long bytes) throws IOException {
+        int count = (int) ((bytes + segmentBytes - 1) / segmentBytes);
+        MappedByteBuffer[] s = Arrays.copyOf(segments, count);
+        for (int i = 0; i < count; i++) {
+            long start = (long) i * segmentBytes;
+            long len = Math.min(segmentBytes, bytes - start);
+            if (s[i] == null || s[i].capacity() < len) {
+                s[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, len);
+            }
+        }
+        segments = s;
+        mapped = bytes;
+    }
+
+    private void writeHeader() {
+        ByteBuffer h = buf(0);
+        h.putInt(H_ROOT, root);
+        h.putInt(H_FIRST, first);
+        h.putInt(H_LAST, last);
+        h.putInt(H_SIZE, size);
+        h.putInt(H_PAGES, pages);
+        h.putInt(H_FREE, free);
+    }
+
+    // marks the file dirty on the disk before the first update after a
+    // flush, so that no page it writes can reach the disk first
+    private void markDirty() {
+        if (dirty) return;
+        segments[0].putInt(H_DIRTY, 1);
+        segments[0].force();
+        dirty = true;
+    }
+
+    /**
+     * Writes all changes to the disk, then marks the file clean.
+     * @throws IOException if the file cannot be written
+     */
+    public void flush() throws IOException {
+        for (MappedByteBuffer s : segments) {
+            s.force();
+        }
+        if (dirty) {
+            segments[0].putInt(H_DIRTY, 0);
+            segments[0].force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Flushes and closes the file. The map must not be used afterwards.
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            segments = new MappedByteBuffer[0];
+            channel.close();
+        }
+    }
+
+    private ByteBuffer buf(int p) {
+        return segments[p / pagesPerSegment];
+    }
+
+    private int off(int p) {
+        return p % pagesPerSegment * pageSize;
+    }
+
+    private int getInt(int p, int at) {
+        return buf(p).getInt(off(p) + at);
+    }
+
+    private void putInt(int p, int at, int v) {
+        buf(p).putInt(off(p) + at, v);
+    }
+
+    private int n(int p) {
+        return getInt(p, P_N);
+    }
+
+    private void n(int p, int n) {
+        putInt(p, P_N, n);
+    }
+
+    private boolean isLeaf(int p) {
+        return getInt(p, P_TYPE) == LEAF;
+    }
+
+    // offset of entry i of a leaf
+    private int entryAt(int i) {
+        return P_DATA + i * entryWidth;
+    }
+
+    // offset of child i of an inner page; its count follows it
+    private int childAt(int i) {
+        return P_DATA + 8 * i;
+    }
+
+    // offset of separator i of an inner page
+    private int sepAt(int i) {
+        return innerKeys + i * keyWidth;
+    }
+
+    private int child(int p, int i) {
+        return getInt(p, childAt(i));
+    }
+
+    private int count(int p, int i) {
+        return getInt(p, childAt(i) + 4);
+    }
+
+    private void count(int p, int i, int c) {
+        putInt(p, childAt(i) + 4, c);
+    }
+
+    private K key(int p, int at) {
+        return keys.read(buf(p), off(p) + at);
+    }
+
+    private V val(int p, int i) {
+        return vals.read(buf(p), off(p) + entryAt(i) + keyWidth);
+    }
+
+    private int compare(K k, int p, int at) {
+        return keys.compare(k, buf(p), off(p) + at);
+    }
+
+    // copies len bytes, which may overlap
+    private void copy(int from, int fromAt, int to, int toAt, int len) {
+        if (len <= 0) return;
+        ByteBuffer src = buf(from);
+        src.position(off(from) + fromAt);
+        src.get(scratch, 0, len);
+        ByteBuffer dst = buf(to);
+        dst.position(off(to) + toAt);
+        dst.put(scratch, 0, len);
+    }
+
+    private void copyIn(byte[] b, int len, int to, int toAt) {
+        ByteBuffer dst = buf(to);
+        dst.position(off(to) + toAt);
+        dst.put(b, 0, len);
+    }
+
+    private void copyOut(int from, int fromAt, byte[] b, int len) {
+        ByteBuffer src = buf(from);
+        src.position(off(from) + fromAt);
+        src.get(b, 0, len);
+    }
+
+    private int allocate(int type) {
+        int p;
+        if (free != 0) {
+            p = free;
+            free = getInt(p, P_NEXT);
+        } else {
+            p = pages++;
+            long need = (long) pages * pageSize;
+            if (need > mapped) {
+                // double the file, but add at most a segment at a time
+                try {
+                    map(Math.max(need, mapped + Math.min(mapped, segmentBytes)));
+                } catch (IOException e) {
+                    pages--;
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        putInt(p, P_TYPE, type);
+        putInt(p, P_N, 0);
+        putInt(p, P_PREV, 0);
+        putInt(p, P_NEXT, 0);
+        return p;
+    }
+
+    private void release(int p) {
+        putInt(p, P_TYPE, FREE);
+        putInt(p, P_NEXT, free);
+        free = p;
+    }
+
+    /**
+     * @return index of k in the leaf, or -(insertion point) - 1 if absent
+     */
+    private int search(int p, K k) {
+        int lo = 0;
+        int hi = n(p) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int comp = compare(k, p, entryAt(mid));
+            if (comp > 0) {
+                lo = mid + 1;
+            } else if (comp < 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * @return index of the child of p whose range holds k
+     */
+    private int childFor(int p, K k) {
+        // number of separators <= k
+        int lo = 0;
+        int hi = n(p) - 2;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(k, p, sepAt(mid)) >= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private int leaf(K k) {
+        int p = root;
+        while (!isLeaf(p)) {
+            p = child(p, childFor(p, k));
+        }
+        return p;
+    }
+
+    private int count(int p) {
+        if (isLeaf(p)) return n(p);
+        int c = 0;
+        for (int i = 0; i < n(p); i++) {
+            c += count(p, i);
+        }
+        return c;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public V get(K k) {
+        Objects.requireNonNull(k);
+        int p = leaf(k);
+        int i = search(p, k);
+        return i < 0 ? null : val(p, i);
+    }
+
+    @Override
+    public boolean contains(K k) {
+        Objects.requireNonNull(k);
+        return search(leaf(k), k) >= 0;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(val);
+        keys.write(entry, 0, k);
+        vals.write(entry, keyWidth, val);
+        markDirty();
+        changed = false;
+        int sibling = put(root, k);
+        if (sibling != 0) {
+            int r = allocate(INNER);
+            n(r, 2);
+            copyIn(splitKey, keyWidth, r, sepAt(0));
+            putInt(r, childAt(0), root);
+            count(r, 0, count(root));
+            putInt(r, childAt(1), sibling);
+            count(r, 1, count(sibling));
+            root = r;
+        }
+        if (changed) size++;
+        writeHeader();
+    }
+
+    /**
+     * Stores the encoded entry under p.
+     * @return the new right sibling of p if p was split, with its first key
+     * in splitKey, or 0
+     */
+    private int put(int p, K k) {
+        if (isLeaf(p)) {
+            int i = search(p, k);
+            if (i >= 0) {
+                copyIn(entry.array(), entryWidth, p, entryAt(i));
+                return 0;
+            }
+            i = -i - 1;
+            int n = n(p);
+            copy(p, entryAt(i), p, entryAt(i + 1), (n - i) * entryWidth);
+            copyIn(entry.array(), entryWidth, p, entryAt(i));
+            n(p, ++n);
+            changed = true;
+            return n > leafFanout ? splitLeaf(p) : 0;
+        }
+        int i = childFor(p, k);
+        int sibling = put(child(p, i), k);
+        if (changed) count(p, i, count(p, i) + 1);
+        if (sibling == 0) return 0;
+
+        int n = n(p);
+        copy(p, sepAt(i), p, sepAt(i + 1), (n - 1 - i) * keyWidth);
+        copy(p, childAt(i + 1), p, childAt(i + 2), (n - 1 - i) * 8);
+        copyIn(splitKey, keyWidth, p, sepAt(i));
+        int c = count(sibling);
+        putInt(p, childAt(i + 1), sibling);
+        count(p, i + 1, c);
+        count(p, i, count(p, i) - c);
+        n(p, ++n);
+        return n > innerFanout ? splitInner(p) : 0;
+    }
+
+    private int splitLeaf(int x) {
+        int y = allocate(LEAF);
+        int n = n(x);
+        int keep = (n + 1) / 2;
+        copy(x, entryAt(keep), y, entryAt(0), (n - keep) * entryWidth);
+        n(y, n - keep);
+        n(x, keep);
+
+        int next = getInt(x, P_NEXT);
+        putInt(y, P_PREV, x);
+        putInt(y, P_NEXT, next);
+        if (next != 0) {
+            putInt(next, P_PREV, y);
+        } else {
+            last = y;
+        }
+        putInt(x, P_NEXT, y);
+        copyOut(y, entryAt(0), splitKey, keyWidth);
+        return y;
+    }
+
+    private int splitInner(int x) {
+        int y = allocate(INNER);
+        int n = n(x);
+        int keep = (n + 1) / 2;
+        // the separator between the two halves moves up
+        copyOut(x, sepAt(keep - 1), splitKey, keyWidth);
+        copy(x, sepAt(keep), y, sepAt(0), (n - keep - 1) * keyWidth);
+        copy(x, childAt(keep), y, childAt(0), (n - keep) * 8);
+        n(y, n - keep);
+        n(x, keep);
+        return y;
+    }
+
+    @Override
+    public void delete(K k) {
+        Objects.requireNonNull(k);
+        changed = false;
+        delete(root, k);
+        if (!changed) return;
+        size--;
+        if (!isLeaf(root) && n(root) == 1) {
+            int old = root;
+            root = child(root, 0);
+            release(old);
+        }
+        writeHeader();
+    }
+
+    private void delete(int p, K k) {
+        if (isLeaf(p)) {
+            int i = search(p, k);
+            if (i < 0) return;
+            markDirty();
+            int n = n(p);
+            copy(p, entryAt(i + 1), p, entryAt(i), (n - 1 - i) * entryWidth);
+            n(p, n - 1);
+            changed = true;
+            return;
+        }
+        int i = childFor(p, k);
+        int c = child(p, i);
+        delete(c, k);
+        if (!changed) return;
+        count(p, i, count(p, i) - 1);
+        if (n(c) < minFill(c)) {
+            fix(p, i);
+        }
+    }
+
+    private int minFill(int p) {
+        return isLeaf(p) ? leafFanout / 2 : (innerFanout + 1) / 2;
+    }
+
+    // refills the underfull child i of x from a sibling, or merges it into one
+    private void fix(int x, int i) {
+        if (i > 0 && n(child(x, i - 1)) > minFill(child(x, i - 1))) {
+            borrowFromLeft(x, i);
+        } else if (i < n(x) - 1 && n(child(x, i + 1)) > minFill(child(x, i + 1))) {
+            borrowFromRight(x, i);
+        } else if (i > 0) {
+            merge(x, i - 1);
+        } else {
+            merge(x, i);
+        }
+    }
+
+    private void borrowFromLeft(int x, int i) {
+        int l = child(x, i - 1);
+        int c = child(x, i);
+        int ln = n(l);
+        int cn = n(c);
+        if (isLeaf(c)) {
+            copy(c, entryAt(0), c, entryAt(1), cn * entryWidth);
+            copy(l, entryAt(ln - 1), c, entryAt(0), entryWidth);
+            n(c, cn + 1);
+            n(l, ln - 1);
+            copy(c, entryAt(0), x, sepAt(i - 1), keyWidth);
+            count(x, i - 1, count(x, i - 1) - 1);
+            count(x, i, count(x, i) + 1);
+            return;
+        }
+        copy(c, sepAt(0), c, sepAt(1), (cn - 1) * keyWidth);
+        copy(c, childAt(0), c, childAt(1), cn * 8);
+        copy(x, sepAt(i - 1), c, sepAt(0), keyWidth);
+        copy(l, childAt(ln - 1), c, childAt(0), 8);
+        n(c, cn + 1);
+        copy(l, sepAt(ln - 2), x, sepAt(i - 1), keyWidth);
+        n(l, ln - 1);
+        int moved = count(c, 0);
+        count(x, i - 1, count(x, i - 1) - moved);
+        count(x, i, count(x, i) + moved);
+    }
+
+    private void borrowFromRight(int x, int i) {
+        int c = child(x, i);
+        int r = child(x, i + 1);
+        int cn = n(c);
+        int rn = n(r);
+        if (isLeaf(c)) {
+            copy(r, entryAt(0), c, entryAt(cn), entryWidth);
+            n(c, cn + 1);
+            copy(r, entryAt(1), r, entryAt(0), (rn - 1) * entryWidth);
+            n(r, rn - 1);
+            copy(r, entryAt(0), x, sepAt(i), keyWidth);
+            count(x, i, count(x, i) + 1);
+            count(x, i + 1, count(x, i + 1) - 1);
+            return;
+        }
+        copy(x, sepAt(i), c, sepAt(cn - 1), keyWidth);
+        copy(r, childAt(0), c, childAt(cn), 8);
+        n(c, cn + 1);
+        copy(r, sepAt(0), x, sepAt(i), keyWidth);
+        int moved = count(r, 0);
+        count(x, i, count(x, i) + moved);
+        count(x, i + 1, count(x, i + 1) - moved);
+        copy(r, sepAt(1), r, sepAt(0), (rn - 2) * keyWidth);
+        copy(r, childAt(1), r, childAt(0), (rn - 1) * 8);
+        n(r, rn - 1);
+    }
+
+    // merges child i + 1 of x into child i
+    private void merge(int x, int i) {
+        int l = child(x, i);
+        int r = child(x, i + 1);
+        int ln = n(l);
+        int rn = n(r);
+        if (isLeaf(l)) {
+            copy(r, entryAt(0), l, entryAt(ln), rn * entryWidth);
+            int next = getInt(r, P_NEXT);
+            putInt(l, P_NEXT, next);
+            if (next != 0) {
+                putInt(next, P_PREV, l);
+            } else {
+                last = l;
+            }
+        } else {
+            copy(x, sepAt(i), l, sepAt(ln - 1), keyWidth);
+            copy(r, sepAt(0), l, sepAt(ln), (rn - 1) * keyWidth);
+            copy(r, childAt(0), l, childAt(ln), rn * 8);
+        }
+        n(l, ln + rn);
+        release(r);
+        count(x, i, count(x, i) + count(x, i + 1));
+        int xn = n(x);
+        copy(x, sepAt(i + 1), x, sepAt(i), (xn - 2 - i) * keyWidth);
+        copy(x, childAt(i + 2), x, childAt(i + 1), (xn - 2 - i) * 8);
+        n(x, xn - 1);
+    }
+
+    @Override
+    public void deleteMin() {
+        if (isEmpty()) return;
+        delete(min());
+    }
+
+    @Override
+    public void deleteMax() {
+        if (isEmpty()) return;
+        delete(max());
+    }
+
+    /**
+     * @return number of levels below the root, 0 for a single leaf
+     */
+    public int height() {
+        int height = 0;
+        for (int p = root; !isLeaf(p); p = child(p, 0)) {
+            height++;
+        }
+        return height;
+    }
+
+    @Override
+    public K min() {
+        if (isEmpty()) return null;
+        return key(first, entryAt(0));
+    }
+
+    @Override
+    public K max() {
+        if (isEmpty()) return null;
+        return key(last, entryAt(n(last) - 1));
+    }
+
+    @Override
+    public K floor(K k) {
+        Objects.requireNonNull(k);
+        int p = leaf(k);
+        int i = search(p, k);
+        if (i >= 0) return key(p, entryAt(i));
+        i = -i - 2;
+        if (i >= 0) return key(p, entryAt(i));
+        // every key in p is greater than k
+        int prev = getInt(p, P_PREV);
+        return prev == 0 ? null : key(prev, entryAt(n(prev) - 1));
+    }
+
+    @Override
+    public K ceiling(K k) {
+        Objects.requireNonNull(k);
+        int p = leaf(k);
+        int i = search(p, k);
+        if (i >= 0) return key(p, entryAt(i));
+        i = -i - 1;
+        if (i < n(p)) return key(p, entryAt(i));
+        // every key in p is less than k
+        int next = getInt(p, P_NEXT);
+        return next == 0 ? null : key(next, entryAt(0));
+    }
+
+    @Override
+    public K select(int k) {
+        if (k < 0 || k >= size()) {
+            return null;
+        }
+        int p = root;
+        while (!isLeaf(p)) {
+            int i = 0;
+            while (k >= count(p, i)) {
+                k -= count(p, i++);
+            }
+            p = child(p, i);
+        }
+        return key(p, entryAt(k));
+    }
+
+    @Override
+    public int rank(K k) {
+        Objects.requireNonNull(k);
+        int rank = 0;
+        int p = root;
+        while (!isLeaf(p)) {
+            int c = childFor(p, k);
+            for (int i = 0; i < c; i++) {
+                rank += count(p, i);
+            }
+            p = child(p, c);
+        }
+        int i = search(p, k);
+        return rank + (i >= 0 ? i : -i - 1);
+    }
+
+    @Override
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        if (contains(to)) return rank(to) - rank(from) + 1;
+        return rank(to) - rank(from);
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new KeyIterator(new Cursor(first, 0, null, false));
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator(ascending(lo, hi));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> new KeyIterator(new Cursor(last, n(last) - 1, null, true));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator(descending(lo, hi));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return () -> new EntryIterator(new Cursor(first, 0, null, false));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(ascending(lo, hi));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return () -> new EntryIterator(new Cursor(last, n(last) - 1, null, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new EntryIterator(descending(lo, hi));
+    }
+
+    private Cursor ascending(K lo, K hi) {
+        int p = leaf(lo);
+        int i = search(p, lo);
+        return new Cursor(p, i >= 0 ? i : -i - 1, hi, false);
+    }
+
+    private Cursor descending(K lo, K hi) {
+        int p = leaf(hi);
+        int i = search(p, hi);
+        return new Cursor(p, i >= 0 ? i : -i - 2, lo, true);
+    }
+
+    /**
+     * Position in the linked leaves, moving forwards up to an upper bound or
+     * backwards down to a lower bound (null for none).
+     */
+    private final class Cursor {
+        private int leaf;
+        private int i;
+        private final K bound;
+        private final boolean descending;
+
+        Cursor(int leaf, int i, K bound, boolean descending) {
+            this.leaf = leaf;
+            this.i = i;
+            this.bound = bound;
+            this.descending = descending;
+            settle();
+        }
+
+        // steps over leaf boundaries so that (leaf, i) is an entry or leaf is 0
+        private void settle() {
+            if (descending) {
+                while (leaf != 0 && i < 0) {
+                    leaf = getInt(leaf, P_PREV);
+                    i = leaf == 0 ? 0 : n(leaf) - 1;
+                }
+            } else {
+                while (leaf != 0 && i >= n(leaf)) {
+                    leaf = getInt(leaf, P_NEXT);
+                    i = 0;
+                }
+            }
+        }
+
+        boolean hasNext() {
+            if (leaf == 0) return false;
+            if (bound == null) return true;
+            // the sign of bound compared with the current key
+            int comp = compare(bound, leaf, entryAt(i));
+            return descending ? comp <= 0 : comp >= 0;
+        }
+
+        void advance() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            i += descending ? -1 : 1;
+            settle();
+        }
+    }
+
+    private final class KeyIterator implements Iterator<K> {
+        private final Cursor cursor;
+
+        KeyIterator(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public K next() {
+            if (!cursor.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            K k = key(cursor.leaf, entryAt(cursor.i));
+            cursor.advance();
+            return k;
+        }
+    }
+
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Cursor cursor;
+
+        EntryIterator(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!cursor.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> e = new SimpleEntry<>(key(cursor.leaf, entryAt(cursor.i)), val(cursor.leaf, cursor.i));
+            cursor.advance();
+            return e;
+        }
+    }
+
+    /**
+     * @return number of pages in the file, including the header and free
+     * pages
+     */
+    int pages() {
+        return pages;
+    }
+
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        int depth = height();
+        int[] reached = {0};
+        if (check(root, null, null, 0, depth, reached) != size) sb.append("counts not consistent\n");
+        if (!isLeafChainConsistent()) sb.append("leaf chain not consistent\n");
+        int freed = 0;
+        for (int p = free; p != 0 && freed < pages; p = getInt(p, P_NEXT)) {
+            if (getInt(p, P_TYPE) != FREE) sb.append("free page ").append(p).append(" in use\n");
+            freed++;
+        }
+        if (1 + reached[0] + freed != pages) sb.append("pages leaked\n");
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    // returns the number of entries under p, or -1 if p breaks an invariant
+    private int check(int p, K lo, K hi, int level, int depth, int[] reached) {
+        reached[0]++;
+        int n = n(p);
+        if (p != root && n < minFill(p)) return -1;
+        if (n > (isLeaf(p) ? leafFanout : innerFanout)) return -1;
+        int keyCount = isLeaf(p) ? n : n - 1;
+        K prev = null;
+        for (int i = 0; i < keyCount; i++) {
+            K k = key(p, isLeaf(p) ? entryAt(i) : sepAt(i));
+            if (prev != null && prev.compareTo(k) >= 0) return -1;
+            if (lo != null && k.compareTo(lo) < 0) return -1;
+            if (hi != null && k.compareTo(hi) >= 0) return -1;
+            prev = k;
+        }
+        if (isLeaf(p)) {
+            return level == depth ? n : -1;
+        }
+        if (getInt(p, P_TYPE) != INNER) return -1;
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            K clo = i == 0 ? lo : key(p, sepAt(i - 1));
+            K chi = i == n - 1 ? hi : key(p, sepAt(i));
+            int c = check(child(p, i), clo, chi, level + 1, depth, reached);
+            if (c == -1 || c != count(p, i)) return -1;
+            total += c;
+        }
+        return total;
+    }
+
+    private boolean isLeafChainConsistent() {
+        int total = 0;
+        int prev = 0;
+        for (int p = first; p != 0; p = getInt(p, P_NEXT)) {
+            if (getInt(p, P_PREV) != prev) return false;
+            if (prev != 0 && n(prev) > 0 && n(p) > 0
+                    && key(prev, entryAt(n(prev) - 1)).compareTo(key(p, entryAt(0))) >= 0) {
+                return false;
+            }
+            total += n(p);
+            prev = p;
+        }
+        return prev == last && total == size;
+    }
+}
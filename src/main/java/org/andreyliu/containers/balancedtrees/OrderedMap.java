@@ -1,5 +1,10 @@
 package org.andreyliu.containers.balancedtrees;
 
+import java.util.Collections;
+import java.util.Objects;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
 /**
  * Ordered map representing a map container of keys to values, where the keys
  * have a total order.
@@ -92,19 +97,74 @@ public interface OrderedMap<K extends Comparable<? super K>, V> {
 
     /**
      * Returns an iterable collection of all the keys in the map in order.
+     * The iterable is a lazy view of the map: each iterator walks the map
+     * as it is when the iterator is created, and must not be used after the
+     * map is modified.
      * @return all the keys in order
      */
     Iterable<K> keys();
 
     /**
      * Returns an iterable collection of all the keys in the map in order
-     * from lo to hi (inclusive).
+     * from lo to hi (inclusive). Like {@link #keys()}, the iterable is a lazy
+     * view of the map.
      * @param lo lower bound
      * @param hi upper bound (inclusive)
      * @return range of keys in order
      */
     Iterable<K> keys(K lo, K hi);
 
+    /**
+     * @return all the keys in descending order
+     */
+    default Iterable<K> descendingKeys() {
+        if (isEmpty()) return Collections.emptyList();
+        return descendingKeys(min(), max());
+    }
+
+    /**
+     * Returns the keys from hi down to lo (both inclusive). Like
+     * {@link #keys()}, the iterable is a lazy view of the map.
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return range of keys in descending order
+     */
+    Iterable<K> descendingKeys(K lo, K hi);
+
+    /**
+     * @return all the entries in order
+     */
+    default Iterable<Entry<K, V>> entries() {
+        if (isEmpty()) return Collections.emptyList();
+        return entries(min(), max());
+    }
+
+    /**
+     * Returns the entries with keys from lo to hi (both inclusive) in order.
+     * Like {@link #keys()}, the iterable is a lazy view of the map.
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return range of entries in order
+     */
+    Iterable<Entry<K, V>> entries(K lo, K hi);
+
+    /**
+     * @return all the entries in descending order
+     */
+    default Iterable<Entry<K, V>> descendingEntries() {
+        if (isEmpty()) return Collections.emptyList();
+        return descendingEntries(min(), max());
+    }
+
+    /**
+     * Returns the entries with keys from hi down to lo (both inclusive).
+     * Like {@link #keys()}, the iterable is a lazy view of the map.
+     * @param lo lower bound
+     * @param hi upper bound (inclusive)
+     * @return range of entries in descending order
+     */
+    Iterable<Entry<K, V>> descendingEntries(K lo, K hi);
+
     /**
      * Retursn the number of keys in the map within the range.
      * @param from lower bound
@@ -113,6 +173,136 @@ public interface OrderedMap<K extends Comparable<? super K>, V> {
      */
     int size(K from, K to);
 
+    /**
+     * @param k key, non-nullable
+     * @param defaultValue value to return if k is not in the map
+     * @return value mapped by k, or defaultValue
+     */
+    default V getOrDefault(K k, V defaultValue) {
+        V v = get(k);
+        return v == null ? defaultValue : v;
+    }
+
+    /**
+     * Deletes the mapping for k and returns its value.
+     * @param k key, non-nullable
+     * @return the value k had, or null if it was not in the map
+     */
+    default V remove(K k) {
+        V v = get(k);
+        if (v != null) delete(k);
+        return v;
+    }
+
+    /**
+     * Maps k to v unless k is already in the map.
+     * @param k key, non-nullable
+     * @param v value, non-nullable
+     * @return the value k had, or null if it was not in the map and is now
+     * mapped to v
+     */
+    default V putIfAbsent(K k, V v) {
+        Objects.requireNonNull(v);
+        V old = get(k);
+        if (old == null) put(k, v);
+        return old;
+    }
+
+    /**
+     * Replaces the mapping for k with f(k, value of k), where the value is
+     * null if k is not in the map. If f returns null, k is deleted, or stays
+     * out of the map.
+     * f must not modify the map.
+     * The default looks k up, then puts or deletes it, and is not atomic.
+     * Trees override it to do all of it in one descent.
+     * @param k key, non-nullable
+     * @param f remapping function
+     * @return the new value of k, or null if it is not in the map
+     */
+    default V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        Objects.requireNonNull(f);
+        V old = get(k);
+        V v = f.apply(k, old);
+        if (v != null) {
+            put(k, v);
+        } else if (old != null) {
+            delete(k);
+        }
+        return v;
+    }
+
+    /**
+     * Maps k to f(k) if k is not in the map and f(k) is not null, with one
+     * {@link #compute}.
+     * @param k key, non-nullable
+     * @param f mapping function
+     * @return the value of k afterwards, or null if it is not in the map
+     */
+    default V computeIfAbsent(K k, Function<? super K, ? extends V> f) {
+        Objects.requireNonNull(f);
+        return compute(k, (x, old) -> old != null ? old : f.apply(x));
+    }
+
+    /**
+     * Replaces the value of k with f(k, value) if k is in the map, deleting
+     * k if f returns null, with one {@link #compute}.
+     * @param k key, non-nullable
+     * @param f remapping function
+     * @return the new value of k, or null if it is not in the map
+     */
+    default V computeIfPresent(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        Objects.requireNonNull(f);
+        return compute(k, (x, old) -> old == null ? null : f.apply(x, old));
+    }
+
+    /**
+     * Maps k to v if k is not in the map, and otherwise to f(value, v),
+     * deleting k if f returns null, with one {@link #compute}.
+     * @param k key, non-nullable
+     * @param v value, non-nullable
+     * @param f remapping function
+     * @return the new value of k, or null if it is not in the map
+     */
+    default V merge(K k, V v, BiFunction<? super V, ? super V, ? extends V> f) {
+        Objects.requireNonNull(v);
+        Objects.requireNonNull(f);
+        return compute(k, (x, old) -> old == null ? v : f.apply(old, v));
+    }
+
+    /**
+     * @param k key, non-nullable
+     * @return the entry with the floor key, or null
+     */
+    default Entry<K, V> floorEntry(K k) {
+        K f = floor(k);
+        return f == null ? null : new SimpleEntry<>(f, get(f));
+    }
+
+    /**
+     * @param k key, non-nullable
+     * @return the entry with the ceiling key, or null
+     */
+    default Entry<K, V> ceilingEntry(K k) {
+        K c = ceiling(k);
+        return c == null ? null : new SimpleEntry<>(c, get(c));
+    }
+
+    /**
+     * @return the entry with the minimum key, or null if the map is empty
+     */
+    default Entry<K, V> minEntry() {
+        K m = min();
+        return m == null ? null : new SimpleEntry<>(m, get(m));
+    }
+
+    /**
+     * @return the entry with the maximum key, or null if the map is empty
+     */
+    default Entry<K, V> maxEntry() {
+        K m = max();
+        return m == null ? null : new SimpleEntry<>(m, get(m));
+    }
+
     /**
      * Represents an entry in the Map that maps key to value
      * @param <K> key
@@ -122,4 +312,15 @@ public interface OrderedMap<K extends Comparable<? super K>, V> {
         K getKey();
         V getValue();
     }
+
+    /**
+     * @param k key, non-nullable
+     * @param v value, non-nullable
+     * @param <K> key
+     * @param <V> value
+     * @return an immutable entry, e.g. to feed a bulk load
+     */
+    static <K extends Comparable<? super K>, V> Entry<K, V> entry(K k, V v) {
+        return new SimpleEntry<>(Objects.requireNonNull(k), Objects.requireNonNull(v));
+    }
 }
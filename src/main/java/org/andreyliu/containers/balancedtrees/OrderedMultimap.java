@@ -0,0 +1,203 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.andreyliu.containers.balancedtrees.OrderedMap.Entry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Sorted multimap on an AVL tree with one node per distinct key holding the
+ * key's values in insertion order, and a count of entries in every node.
+ * rank, select and size(from, to) count every entry in O(log(n)) for n
+ * distinct keys. Adding or removing a value takes one descent, which for
+ * a key already present only recomputes the counts on the path back up.
+ * @param <K> key
+ * @param <V> value
+ */
+public class OrderedMultimap<K extends Comparable<? super K>, V> {
+
+    private static final class Values<V> extends CountedTree.Bag {
+        final List<V> list = new ArrayList<>(1);
+    }
+
+    private final CountedTree<K, Values<V>> tree = new CountedTree<>();
+
+    /**
+     * Adds an entry, after any other values of k.
+     * @param k key
+     * @param v value
+     * @throws IllegalStateException if the multimap would hold more than
+     * Integer.MAX_VALUE entries
+     */
+    public void put(K k, V v) {
+        Objects.requireNonNull(v);
+        tree.add(k, 1, Values::new).list.add(v);
+    }
+
+    /**
+     * @param k key
+     * @return values of k in insertion order, empty if there are none.
+     * The list is a read-only view that changes with the multimap.
+     */
+    public List<V> get(K k) {
+        Values<V> b = tree.get(Objects.requireNonNull(k));
+        return b == null ? Collections.emptyList() : Collections.unmodifiableList(b.list);
+    }
+
+    /**
+     * Removes the first entry of k with a value equal to v.
+     * @param k key
+     * @param v value
+     * @return whether there was such an entry
+     */
+    public boolean remove(K k, V v) {
+        int total = tree.total();
+        tree.compute(Objects.requireNonNull(k), (x, b) -> {
+            if (b == null || !b.list.remove(v)) return b;
+            return --b.count == 0 ? null : b;
+        });
+        return tree.total() < total;
+    }
+
+    /**
+     * Removes every entry of k.
+     * @param k key
+     * @return the removed values in insertion order
+     */
+    public List<V> removeAll(K k) {
+        Values<V> b = tree.remove(Objects.requireNonNull(k));
+        return b == null ? Collections.emptyList() : b.list;
+    }
+
+    /**
+     * @param k key
+     * @return number of values of k
+     */
+    public int count(K k) {
+        Values<V> b = tree.get(Objects.requireNonNull(k));
+        return b == null ? 0 : b.count;
+    }
+
+    public boolean contains(K k) {
+        return tree.contains(k);
+    }
+
+    /**
+     * @return number of entries
+     */
+    public int size() {
+        return tree.total();
+    }
+
+    /**
+     * @return number of distinct keys
+     */
+    public int distinctSize() {
+        return tree.size();
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    public K min() {
+        return tree.min();
+    }
+
+    public K max() {
+        return tree.max();
+    }
+
+    public K floor(K k) {
+        return tree.floor(k);
+    }
+
+    public K ceiling(K k) {
+        return tree.ceiling(k);
+    }
+
+    /**
+     * @param k key
+     * @return number of entries with keys less than k
+     */
+    public int rank(K k) {
+        return tree.countLess(Objects.requireNonNull(k));
+    }
+
+    /**
+     * @param i index in the order of {@link #entries()}
+     * @return entry at index i, or null if i is out of range
+     */
+    public Entry<K, V> select(int i) {
+        if (i < 0 || i >= size()) {
+            return null;
+        }
+        BST.INode<K, Values<V>> h = tree.nodeAt(i);
+        return new SimpleEntry<>(h.key, h.val.list.get(i - rank(h.key)));
+    }
+
+    /**
+     * @param from lower bound
+     * @param to upper bound (inclusive)
+     * @return number of entries with keys in [from, to]
+     */
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return rank(to) + count(to) - rank(from);
+    }
+
+    /**
+     * @return distinct keys in order
+     */
+    public Iterable<K> keys() {
+        return tree.keys();
+    }
+
+    /**
+     * @return every entry in key order, and the values of a key in
+     * insertion order
+     */
+    public Iterable<Entry<K, V>> entries() {
+        return () -> new Iterator<Entry<K, V>>() {
+            private final Iterator<Entry<K, Values<V>>> nodes = tree.entries().iterator();
+            private K k;
+            private Iterator<V> values = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                return values.hasNext() || nodes.hasNext();
+            }
+
+            @Override
+            public Entry<K, V> next() {
+                if (!values.hasNext()) {
+                    if (!nodes.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Entry<K, Values<V>> e = nodes.next();
+                    k = e.getKey();
+                    values = e.getValue().list.iterator();
+                }
+                return new SimpleEntry<>(k, values.next());
+            }
+        };
+    }
+
+    String check() {
+        String s = tree.check();
+        for (Entry<K, Values<V>> e : tree.entries()) {
+            if (e.getValue().list.size() != e.getValue().count) {
+                return (s.equals("pass") ? "" : s) + "value lists not consistent\n";
+            }
+        }
+        return s;
+    }
+}
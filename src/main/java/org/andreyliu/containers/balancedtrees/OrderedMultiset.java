@@ -0,0 +1,184 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Sorted multiset on an AVL tree with one node per distinct key and a count
+ * of occurrences in every node. rank, select and size(from, to) count every
+ * occurrence in O(log(n)) for n distinct keys. Adding or removing an
+ * occurrence takes one descent, which for a key already present only
+ * recomputes the counts on the path back up.
+ * @param <K> key
+ */
+public class OrderedMultiset<K extends Comparable<? super K>> implements Iterable<K> {
+
+    private final CountedTree<K, CountedTree.Bag> tree = new CountedTree<>();
+
+    /**
+     * Adds one occurrence of k.
+     * @param k key
+     */
+    public void add(K k) {
+        add(k, 1);
+    }
+
+    /**
+     * Adds n occurrences of k.
+     * @param k key
+     * @param n occurrences, positive
+     * @throws IllegalStateException if the multiset would hold more than
+     * Integer.MAX_VALUE occurrences
+     */
+    public void add(K k, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("cannot add " + n + " occurrences");
+        }
+        tree.add(k, n, CountedTree.Bag::new);
+    }
+
+    /**
+     * Removes one occurrence of k.
+     * @param k key
+     * @return whether k was in the multiset
+     */
+    public boolean remove(K k) {
+        int total = tree.total();
+        tree.add(k, -1, null);
+        return tree.total() < total;
+    }
+
+    /**
+     * Removes every occurrence of k.
+     * @param k key
+     * @return number of occurrences removed
+     */
+    public int removeAll(K k) {
+        CountedTree.Bag b = tree.remove(Objects.requireNonNull(k));
+        return b == null ? 0 : b.count;
+    }
+
+    /**
+     * @param k key
+     * @return number of occurrences of k
+     */
+    public int count(K k) {
+        CountedTree.Bag b = tree.get(Objects.requireNonNull(k));
+        return b == null ? 0 : b.count;
+    }
+
+    public boolean contains(K k) {
+        return tree.contains(k);
+    }
+
+    /**
+     * @return number of occurrences of all keys
+     */
+    public int size() {
+        return tree.total();
+    }
+
+    /**
+     * @return number of distinct keys
+     */
+    public int distinctSize() {
+        return tree.size();
+    }
+
+    public boolean isEmpty() {
+        return tree.isEmpty();
+    }
+
+    public K min() {
+        return tree.min();
+    }
+
+    public K max() {
+        return tree.max();
+    }
+
+    public K floor(K k) {
+        return tree.floor(k);
+    }
+
+    public K ceiling(K k) {
+        return tree.ceiling(k);
+    }
+
+    /**
+     * @param k key
+     * @return number of occurrences of keys less than k
+     */
+    public int rank(K k) {
+        return tree.countLess(Objects.requireNonNull(k));
+    }
+
+    /**
+     * @param i index in sorted order, counting every occurrence
+     * @return key at index i, or null if i is out of range
+     */
+    public K select(int i) {
+        if (i < 0 || i >= size()) {
+            return null;
+        }
+        return tree.nodeAt(i).key;
+    }
+
+    /**
+     * @param from lower bound
+     * @param to upper bound (inclusive)
+     * @return number of occurrences of keys in [from, to]
+     */
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) {
+            return 0;
+        }
+        return rank(to) + count(to) - rank(from);
+    }
+
+    /**
+     * @return distinct keys in order
+     */
+    public Iterable<K> keys() {
+        return tree.keys();
+    }
+
+    /**
+     * Iterates over every occurrence in order, so each key comes up as many
+     * times as it was added.
+     */
+    @Override
+    public Iterator<K> iterator() {
+        Iterator<OrderedMap.Entry<K, CountedTree.Bag>> nodes = tree.entries().iterator();
+        return new Iterator<K>() {
+            private K k;
+            private int left;
+
+            @Override
+            public boolean hasNext() {
+                return left > 0 || nodes.hasNext();
+            }
+
+            @Override
+            public K next() {
+                if (left == 0) {
+                    if (!nodes.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    OrderedMap.Entry<K, CountedTree.Bag> e = nodes.next();
+                    k = e.getKey();
+                    left = e.getValue().count;
+                }
+                left--;
+                return k;
+            }
+        };
+    }
+
+    String check() {
+        return tree.check();
+    }
+}
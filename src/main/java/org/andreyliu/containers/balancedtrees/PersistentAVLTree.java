@@ -0,0 +1,251 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * AVL tree whose nodes are never modified once built.
+ * Updates copy the O(log(n)) nodes on the path from the root to the change
+ * and swing the root to the new path, so every root ever published stays a
+ * valid, unchanging version of the map sharing all other nodes with its
+ * neighbours.
+ * <p>
+ * {@link #snapshot()} is O(1). Reads need no locking: each query and each
+ * iterator reads the root once and works on that version throughout, even
+ * while other threads update the map. Updates publish their new root with
+ * a compare-and-set and retry if another update got there first.
+ * @param <K> key
+ * @param <V> value
+ */
+public class PersistentAVLTree<K extends Comparable<? super K>, V> extends BST<K, V> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<PersistentAVLTree, Node> ROOT =
+            AtomicReferenceFieldUpdater.newUpdater(PersistentAVLTree.class, Node.class, "root");
+
+    private volatile Node<K, V> root;
+
+    private static final class Node<K extends Comparable<? super K>, V> extends BST.INode<K, V> {
+        final int height;
+        final Node<K, V> left;
+        final Node<K, V> right;
+
+        Node(K key, V val, Node<K, V> left, Node<K, V> right) {
+            super(key, val);
+            this.left = left;
+            this.right = right;
+            this.size = 1 + (left == null ? 0 : left.size) + (right == null ? 0 : right.size);
+            this.height = 1 + Math.max(left == null ? -1 : left.height, right == null ? -1 : right.height);
+        }
+
+        @Override
+        INode<K, V> getLeft() {
+            return left;
+        }
+
+        @Override
+        INode<K, V> getRight() {
+            return right;
+        }
+    }
+
+    /**
+     * @return an independent map holding the current version. It shares
+     * every node with this map, and updates to either one leave the other
+     * unchanged.
+     */
+    public PersistentAVLTree<K, V> snapshot() {
+        PersistentAVLTree<K, V> t = new PersistentAVLTree<>();
+        t.root = root;
+        return t;
+    }
+
+    @Override
+    INode<K, V> root() {
+        return root;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    @Override
+    public V get(K k) {
+        Objects.requireNonNull(k);
+        Node<K, V> h = root;
+        while (h != null) {
+            int comp = k.compareTo(h.key);
+            if (comp < 0) {
+                h = h.left;
+            } else if (comp > 0) {
+                h = h.right;
+            } else {
+                return h.val;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(val);
+        Node<K, V> h;
+        do {
+            h = root;
+        } while (!ROOT.compareAndSet(this, h, put(h, k, val)));
+    }
+
+    private Node<K, V> put(Node<K, V> h, K k, V v) {
+        if (h == null) return new Node<>(k, v, null, null);
+        int comp = k.compareTo(h.key);
+        if (comp < 0) {
+            return balance(h.key, h.val, put(h.left, k, v), h.right);
+        } else if (comp > 0) {
+            return balance(h.key, h.val, h.left, put(h.right, k, v));
+        } else {
+            return new Node<>(h.key, v, h.left, h.right);
+        }
+    }
+
+    // builds the node (k, v, l, r), with one single or double rotation if
+    // the heights of l and r differ by two
+    private Node<K, V> balance(K k, V v, Node<K, V> l, Node<K, V> r) {
+        int b = height(l) - height(r);
+        if (b > 1) {
+            // left tree too tall
+            if (height(l.left) < height(l.right)) {
+                Node<K, V> lr = l.right;
+                return new Node<>(lr.key, lr.val,
+                        new Node<>(l.key, l.val, l.left, lr.left),
+                        new Node<>(k, v, lr.right, r));
+            }
+            return new Node<>(l.key, l.val, l.left, new Node<>(k, v, l.right, r));
+        } else if (b < -1) {
+            // right tree too tall
+            if (height(r.right) < height(r.left)) {
+                Node<K, V> rl = r.left;
+                return new Node<>(rl.key, rl.val,
+                        new Node<>(k, v, l, rl.left),
+                        new Node<>(r.key, r.val, rl.right, r.right));
+            }
+            return new Node<>(r.key, r.val, new Node<>(k, v, l, r.left), r.right);
+        }
+        return new Node<>(k, v, l, r);
+    }
+
+    private int height(Node<K, V> h) {
+        return h == null ? -1 : h.height;
+    }
+
+    @Override
+    public void delete(K k) {
+        Objects.requireNonNull(k);
+        Node<K, V> h;
+        do {
+            h = root;
+            if (get(h, k) == null) return;
+        } while (!ROOT.compareAndSet(this, h, delete(h, k)));
+    }
+
+    private Node<K, V> delete(Node<K, V> h, K k) {
+        int comp = k.compareTo(h.key);
+        if (comp < 0) {
+            return balance(h.key, h.val, delete(h.left, k), h.right);
+        } else if (comp > 0) {
+            return balance(h.key, h.val, h.left, delete(h.right, k));
+        }
+        if (h.left == null) return h.right;
+        if (h.right == null) return h.left;
+        Node<K, V> succ = min(h.right);
+        return balance(succ.key, succ.val, h.left, deleteMin(h.right));
+    }
+
+    @Override
+    public void deleteMin() {
+        Node<K, V> h;
+        do {
+            h = root;
+            if (h == null) return;
+        } while (!ROOT.compareAndSet(this, h, deleteMin(h)));
+    }
+
+    private Node<K, V> deleteMin(Node<K, V> h) {
+        if (h.left == null) return h.right;
+        return balance(h.key, h.val, deleteMin(h.left), h.right);
+    }
+
+    @Override
+    public void deleteMax() {
+        Node<K, V> h;
+        do {
+            h = root;
+            if (h == null) return;
+        } while (!ROOT.compareAndSet(this, h, deleteMax(h)));
+    }
+
+    private Node<K, V> deleteMax(Node<K, V> h) {
+        if (h.right == null) return h.left;
+        return balance(h.key, h.val, h.left, deleteMax(h.right));
+    }
+
+    private Node<K, V> min(Node<K, V> h) {
+        while (h.left != null) {
+            h = h.left;
+        }
+        return h;
+    }
+
+    @Override
+    public int height() {
+        return height(root);
+    }
+
+    @Override
+    void delete() {
+        // nodes may be shared with snapshots, so only drop the root
+        root = null;
+    }
+
+    @Override
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        Node<K, V> h = root;
+        if (!isBST(h)) {
+            sb.append("not BST\n");
+        }
+        if (!isBalanced(h)) {
+            sb.append("not balanced\n");
+        }
+        if (!isSizeConsistent(h)) {
+            sb.append("size not consistent\n");
+        }
+        if (!isRankConsistent()) {
+            sb.append("rank is not consistent\n");
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    @Override
+    boolean isBalanced() {
+        return isBalanced(root);
+    }
+
+    private boolean isBalanced(Node<K, V> h) {
+        if (h == null) return true;
+        if (h.height != 1 + Math.max(height(h.left), height(h.right))) return false;
+        if (Math.abs(height(h.left) - height(h.right)) > 1) return false;
+        return isBalanced(h.left) && isBalanced(h.right);
+    }
+}
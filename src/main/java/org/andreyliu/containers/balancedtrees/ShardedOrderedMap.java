@@ -0,0 +1,701 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Thread-safe ordered map that partitions the keys into ranges, each held
+ * by its own {@link AVLTree} or {@link LLRBTree} behind its own
+ * {@link StampedLock}.
+ * <p>
+ * Point operations find their shard in an immutable, volatile directory
+ * without locking, lock only that shard, and then check that the shard was
+ * not split or merged away in the meantime, retrying with the new directory
+ * if it was. Lookups take the shard's read lock, so they run in parallel
+ * with each other but not with updates to the same shard.
+ * <p>
+ * {@link #rank}, {@link #select}, {@link #size(Comparable, Comparable)},
+ * {@link #floor}, {@link #ceiling} and the iterators compose the per-shard
+ * answers, locking one shard at a time. Each shard's part is consistent,
+ * but the whole is only exact when no update runs during the call.
+ * Iterators copy up to {@value #CHUNK} entries at a time under the read
+ * lock, so they never hold a lock between calls to next().
+ * {@link #size()} is a striped counter.
+ * <p>
+ * Shards split at their median key, in O(log(n)), when they hold more than
+ * twice their share of the entries, or when they are hot: they take more
+ * than three quarters of all writes, or more than {@value #HOT_FACTOR}
+ * times their share of them. A shard holding less than one share is joined
+ * with a neighbour, unless together they would be too large or hot.
+ * A share is {@code max(minShardSize, size() / maxShards)} entries, and
+ * there are never more than {@code maxShards} shards.
+ * Both are checked every {@value #CHECK_PERIOD} writes to a shard.
+ * @param <K> key
+ * @param <V> value
+ */
+public class ShardedOrderedMap<K extends Comparable<? super K>, V> implements OrderedMap<K, V> {
+
+    /**
+     * Trees a shard can be backed by. Both support the O(log(n)) split and
+     * join that resharding relies on.
+     */
+    public enum Backing {
+        AVL {
+            @Override
+            <K extends Comparable<? super K>, V> BST<K, V> create() {
+                return new AVLTree<>();
+            }
+
+            @Override
+            <K extends Comparable<? super K>, V> BST<K, V> split(BST<K, V> t, K k) {
+                return ((AVLTree<K, V>) t).split(k);
+            }
+
+            @Override
+            <K extends Comparable<? super K>, V> BST<K, V> join(BST<K, V> l, K k, V v, BST<K, V> r) {
+                return AVLTree.join((AVLTree<K, V>) l, k, v, (AVLTree<K, V>) r);
+            }
+        },
+        LLRB {
+            @Override
+            <K extends Comparable<? super K>, V> BST<K, V> create() {
+                return new LLRBTree<>();
+            }
+
+            @Override
+            <K extends Comparable<? super K>, V> BST<K, V> split(BST<K, V> t, K k) {
+                return ((LLRBTree<K, V>) t).split(k);
+            }
+
+            @Override
+            <K extends Comparable<? super K>, V> BST<K, V> join(BST<K, V> l, K k, V v, BST<K, V> r) {
+                return LLRBTree.join((LLRBTree<K, V>) l, k, v, (LLRBTree<K, V>) r);
+            }
+        };
+
+        abstract <K extends Comparable<? super K>, V> BST<K, V> create();
+
+        // t keeps the keys less than k, the result has the rest
+        abstract <K extends Comparable<? super K>, V> BST<K, V> split(BST<K, V> t, K k);
+
+        abstract <K extends Comparable<? super K>, V> BST<K, V> join(BST<K, V> l, K k, V v, BST<K, V> r);
+
+        // joins l and r, where l < r
+        <K extends Comparable<? super K>, V> BST<K, V> join(BST<K, V> l, BST<K, V> r) {
+            if (r.isEmpty()) return l;
+            K k = r.min();
+            V v = r.get(k);
+            r.deleteMin();
+            return join(l, k, v, r);
+        }
+    }
+
+    static final int CHUNK = 256;
+    static final int CHECK_PERIOD = 1024;
+    static final int HOT_FACTOR = 4;
+    // hot shards smaller than this are not worth splitting
+    private static final int MIN_HOT_SPLIT = 64;
+
+    private static final class Shard<K extends Comparable<? super K>, V> {
+        // smallest key routed here, null for the first shard
+        final K lo;
+        final BST<K, V> tree;
+        final StampedLock lock = new StampedLock();
+        // guarded by lock
+        boolean retired;
+        int writes;
+        long windowStart;
+
+        Shard(K lo, BST<K, V> tree, long windowStart) {
+            this.lo = lo;
+            this.tree = tree;
+            this.windowStart = windowStart;
+        }
+    }
+
+    private final Backing backing;
+    private final int maxShards;
+    private final int minShardSize;
+
+    private volatile Shard<K, V>[] shards;
+    // held while splitting or merging shards, never by point operations
+    private final ReentrantLock restructure = new ReentrantLock();
+    private final LongAdder count = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * Map of AVL-backed shards with the default limits.
+     */
+    public ShardedOrderedMap() {
+        this(Backing.AVL);
+    }
+
+    /**
+     * Map with up to four shards per available processor, each holding at
+     * least 1024 entries before it is split for size.
+     * @param backing tree to hold each shard
+     */
+    public ShardedOrderedMap(Backing backing) {
+        this(backing, 4 * Runtime.getRuntime().availableProcessors(), 1024);
+    }
+
+    /**
+     * @param backing tree to hold each shard
+     * @param maxShards largest number of shards
+     * @param minShardSize smallest share of entries a shard is sized for
+     */
+    public ShardedOrderedMap(Backing backing, int maxShards, int minShardSize) {
+        if (maxShards < 1 || minShardSize < 1) {
+            throw new IllegalArgumentException("maxShards and minShardSize must be positive");
+        }
+        this.backing = Objects.requireNonNull(backing);
+        this.maxShards = maxShards;
+        this.minShardSize = minShardSize;
+        Shard<K, V>[] d = newShards(1);
+        d[0] = new Shard<K, V>(null, backing.create(), 0);
+        this.shards = d;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K extends Comparable<? super K>, V> Shard<K, V>[] newShards(int n) {
+        return new Shard[n];
+    }
+
+    /**
+     * @return current number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // index of the shard whose range holds k
+    private int indexFor(Shard<K, V>[] d, K k) {
+        int lo = 1;
+        int hi = d.length - 1;
+        int idx = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (d[mid].lo.compareTo(k) <= 0) {
+                idx = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return idx;
+    }
+
+    @Override
+    public int size() {
+        return (int) count.sum();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count.sum() == 0;
+    }
+
+    @Override
+    public V get(K k) {
+        Objects.requireNonNull(k);
+        while (true) {
+            Shard<K, V>[] d = shards;
+            Shard<K, V> s = d[indexFor(d, k)];
+            long stamp = s.lock.readLock();
+            try {
+                if (!s.retired) return s.tree.get(k);
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public void put(K k, V val) {
+        Objects.requireNonNull(val);
+        write(k, t -> {
+            t.put(k, val);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(K k) {
+        remove(k);
+    }
+
+    @Override
+    public V remove(K k) {
+        return write(k, t -> t.remove(k));
+    }
+
+    @Override
+    public V putIfAbsent(K k, V v) {
+        Objects.requireNonNull(v);
+        return write(k, t -> t.putIfAbsent(k, v));
+    }
+
+    /**
+     * Atomic, as f runs under the lock of the shard of k.
+     */
+    @Override
+    public V compute(K k, BiFunction<? super K, ? super V, ? extends V> f) {
+        Objects.requireNonNull(f);
+        return write(k, t -> t.compute(k, f));
+    }
+
+    // runs op on the tree of the shard of k under its write lock
+    private <R> R write(K k, Function<BST<K, V>, R> op) {
+        Objects.requireNonNull(k);
+        Shard<K, V> s;
+        boolean check;
+        R r;
+        while (true) {
+            Shard<K, V>[] d = shards;
+            s = d[indexFor(d, k)];
+            long stamp = s.lock.writeLock();
+            try {
+                if (s.retired) continue;
+                int before = s.tree.size();
+                r = op.apply(s.tree);
+                count.add(s.tree.size() - before);
+                check = noteWrite(s);
+                break;
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+        }
+        if (check) rebalance(s);
+        return r;
+    }
+
+    @Override
+    public void deleteMin() {
+        deleteEnd(true);
+    }
+
+    @Override
+    public void deleteMax() {
+        deleteEnd(false);
+    }
+
+    private void deleteEnd(boolean min) {
+        Shard<K, V> s = null;
+        boolean check = false;
+        restart:
+        while (true) {
+            Shard<K, V>[] d = shards;
+            for (int i = 0; i < d.length; i++) {
+                s = d[min ? i : d.length - 1 - i];
+                long stamp = s.lock.writeLock();
+                try {
+                    if (s.retired) continue restart;
+                    if (s.tree.isEmpty()) continue;
+                    if (min) {
+                        s.tree.deleteMin();
+                    } else {
+                        s.tree.deleteMax();
+                    }
+                    count.decrement();
+                    check = noteWrite(s);
+                    break restart;
+                } finally {
+                    s.lock.unlockWrite(stamp);
+                }
+            }
+            return;
+        }
+        if (check) rebalance(s);
+    }
+
+    // caller holds the write lock of s. Returns whether s is due a check.
+    private boolean noteWrite(Shard<K, V> s) {
+        writes.increment();
+        return ++s.writes >= CHECK_PERIOD;
+    }
+
+    // entries a shard is sized for
+    private long share() {
+        return Math.max(minShardSize, count.sum() / maxShards);
+    }
+
+    // whether a shard taking w of the last all writes is hot, out of n shards
+    private static boolean isHot(long w, long all, int n) {
+        return w >= CHECK_PERIOD && (4 * w > 3 * all || w * n > HOT_FACTOR * all);
+    }
+
+    // splits s if it is too large or hot, or merges it with a neighbour if
+    // both are small and the merged shard would not be hot. Skips the check
+    // if another thread is restructuring, as s will come up for one again.
+    private void rebalance(Shard<K, V> s) {
+        if (!restructure.tryLock()) return;
+        try {
+            Shard<K, V>[] d = shards;
+            int i = 0;
+            while (i < d.length && d[i] != s) i++;
+            if (i == d.length) return;
+            long share = share();
+            long stamp = s.lock.writeLock();
+            try {
+                int size = s.tree.size();
+                long now = writes.sum();
+                boolean hot = isHot(s.writes, now - s.windowStart, d.length);
+                if (d.length < maxShards && (size > 2 * share || hot && size >= 2 * MIN_HOT_SPLIT)) {
+                    split(d, i);
+                } else if (!hot && d.length > 1 && size < share) {
+                    merge(d, i, i + 1 < d.length ? i + 1 : i - 1, share);
+                }
+                s.writes = 0;
+                s.windowStart = now;
+            } finally {
+                s.lock.unlockWrite(stamp);
+            }
+        } finally {
+            restructure.unlock();
+        }
+    }
+
+    // caller holds restructure and the write lock of d[i]
+    private void split(Shard<K, V>[] d, int i) {
+        Shard<K, V> s = d[i];
+        K mid = s.tree.select(s.tree.size() / 2);
+        BST<K, V> right = backing.split(s.tree, mid);
+        long now = writes.sum();
+        Shard<K, V>[] next = newShards(d.length + 1);
+        System.arraycopy(d, 0, next, 0, i);
+        next[i] = new Shard<>(s.lo, s.tree, now);
+        next[i + 1] = new Shard<>(mid, right, now);
+        System.arraycopy(d, i + 1, next, i + 2, d.length - i - 1);
+        shards = next;
+        s.retired = true;
+    }
+
+    // merges d[i] and its neighbour d[j]. Caller holds restructure and the
+    // write lock of d[i]. Only restructuring takes two shard locks, so the
+    // order they are taken in does not matter.
+    private void merge(Shard<K, V>[] d, int i, int j, long share) {
+        Shard<K, V> other = d[j];
+        long stamp = other.lock.writeLock();
+        try {
+            Shard<K, V> l = d[Math.min(i, j)];
+            Shard<K, V> r = d[Math.max(i, j)];
+            long now = writes.sum();
+            long all = now - Math.min(l.windowStart, r.windowStart);
+            if (l.tree.size() + r.tree.size() >= share
+                    || isHot((long) l.writes + r.writes, all, d.length - 1)) {
+                return;
+            }
+            BST<K, V> joined = backing.join(l.tree, r.tree);
+            Shard<K, V>[] next = newShards(d.length - 1);
+            int at = Math.min(i, j);
+            System.arraycopy(d, 0, next, 0, at);
+            next[at] = new Shard<>(l.lo, joined, now);
+            System.arraycopy(d, at + 2, next, at + 1, d.length - at - 2);
+            shards = next;
+            l.retired = true;
+            r.retired = true;
+        } finally {
+            other.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Applies f to the trees of the shards from the one holding start, or
+     * from the first or last shard if start is null, towards higher keys if
+     * up or lower keys otherwise, one read lock at a time, until f returns
+     * non-null. f is told whether the tree is the first one it is given.
+     * Starts over if a shard is split or merged on the way.
+     */
+    private <R> R scan(K start, boolean up, BiFunction<BST<K, V>, Boolean, R> f) {
+        return scan(start, up, null, f);
+    }
+
+    // same as scan(start, up, f), running reset, if non-null, before each
+    // pass, so that state f accumulated from the shards of a pass that was
+    // abandoned is not counted again
+    private <R> R scan(K start, boolean up, Runnable reset, BiFunction<BST<K, V>, Boolean, R> f) {
+        restart:
+        while (true) {
+            if (reset != null) reset.run();
+            Shard<K, V>[] d = shards;
+            int i = start != null ? indexFor(d, start) : up ? 0 : d.length - 1;
+            for (boolean first = true; i >= 0 && i < d.length; i += up ? 1 : -1, first = false) {
+                Shard<K, V> s = d[i];
+                long stamp = s.lock.readLock();
+                try {
+                    if (s.retired) continue restart;
+                    R r = f.apply(s.tree, first);
+                    if (r != null) return r;
+                } finally {
+                    s.lock.unlockRead(stamp);
+                }
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public K min() {
+        return scan(null, true, (t, first) -> t.min());
+    }
+
+    @Override
+    public K max() {
+        return scan(null, false, (t, first) -> t.max());
+    }
+
+    @Override
+    public K floor(K k) {
+        Objects.requireNonNull(k);
+        return scan(k, false, (t, first) -> first ? t.floor(k) : t.max());
+    }
+
+    @Override
+    public K ceiling(K k) {
+        Objects.requireNonNull(k);
+        return scan(k, true, (t, first) -> first ? t.ceiling(k) : t.min());
+    }
+
+    /**
+     * Reads the key and value under the same shard lock.
+     */
+    @Override
+    public Entry<K, V> minEntry() {
+        return scan(null, true, (t, first) -> t.minEntry());
+    }
+
+    /**
+     * Reads the key and value under the same shard lock.
+     */
+    @Override
+    public Entry<K, V> maxEntry() {
+        return scan(null, false, (t, first) -> t.maxEntry());
+    }
+
+    /**
+     * Reads the key and value under the same shard lock.
+     */
+    @Override
+    public Entry<K, V> floorEntry(K k) {
+        Objects.requireNonNull(k);
+        return scan(k, false, (t, first) -> first ? t.floorEntry(k) : t.maxEntry());
+    }
+
+    /**
+     * Reads the key and value under the same shard lock.
+     */
+    @Override
+    public Entry<K, V> ceilingEntry(K k) {
+        Objects.requireNonNull(k);
+        return scan(k, true, (t, first) -> first ? t.ceilingEntry(k) : t.minEntry());
+    }
+
+    @Override
+    public K select(int k) {
+        if (k < 0) return null;
+        int[] rest = new int[1];
+        return scan(null, true, () -> rest[0] = k, (t, first) -> {
+            if (rest[0] < t.size()) return t.select(rest[0]);
+            rest[0] -= t.size();
+            return null;
+        });
+    }
+
+    @Override
+    public int rank(K k) {
+        Objects.requireNonNull(k);
+        int[] rank = new int[1];
+        scan(k, false, () -> rank[0] = 0, (t, first) -> {
+            rank[0] += first ? t.rank(k) : t.size();
+            return null;
+        });
+        return rank[0];
+    }
+
+    @Override
+    public int size(K from, K to) {
+        Objects.requireNonNull(from);
+        Objects.requireNonNull(to);
+        if (from.compareTo(to) > 0) return 0;
+        int[] size = new int[1];
+        scan(from, true, () -> size[0] = 0, (t, first) -> {
+            if (!t.isEmpty() && t.min().compareTo(to) > 0) return Boolean.TRUE;
+            size[0] += t.size(from, to);
+            return null;
+        });
+        return size[0];
+    }
+
+    @Override
+    public Iterable<K> keys() {
+        return () -> new KeyIterator<>(new ChunkIterator(null, null, false));
+    }
+
+    @Override
+    public Iterable<K> keys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator<>(new ChunkIterator(lo, hi, false));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys() {
+        return () -> new KeyIterator<>(new ChunkIterator(null, null, true));
+    }
+
+    @Override
+    public Iterable<K> descendingKeys(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new KeyIterator<>(new ChunkIterator(lo, hi, true));
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries() {
+        return () -> new ChunkIterator(null, null, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> entries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new ChunkIterator(lo, hi, false);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries() {
+        return () -> new ChunkIterator(null, null, true);
+    }
+
+    @Override
+    public Iterable<Entry<K, V>> descendingEntries(K lo, K hi) {
+        Objects.requireNonNull(lo);
+        Objects.requireNonNull(hi);
+        return () -> new ChunkIterator(lo, hi, true);
+    }
+
+    // copies up to CHUNK entries at a time out of the shards, resuming after
+    // the last key returned. Null bounds are unbounded.
+    private final class ChunkIterator implements Iterator<Entry<K, V>> {
+        private final K lo;
+        private final K hi;
+        private final boolean descending;
+        private final ArrayDeque<Entry<K, V>> buffer = new ArrayDeque<>();
+        // last key copied, null before the first chunk
+        private K last;
+        private boolean exhausted;
+
+        ChunkIterator(K lo, K hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+            exhausted = lo != null && lo.compareTo(hi) > 0;
+        }
+
+        private void fill() {
+            K start = last != null ? last : descending ? hi : lo;
+            Boolean done = scan(start, !descending, (t, first) -> {
+                if (t.isEmpty()) return null;
+                K a = lo != null ? lo : t.min();
+                K b = hi != null ? hi : t.max();
+                if (last != null) {
+                    if (descending) {
+                        b = last;
+                    } else {
+                        a = last;
+                    }
+                }
+                if (descending ? t.max().compareTo(a) < 0 : t.min().compareTo(b) > 0) {
+                    // this shard and all after it are out of range
+                    return Boolean.TRUE;
+                }
+                for (Entry<K, V> e : descending ? t.descendingEntries(a, b) : t.entries(a, b)) {
+                    if (last != null && e.getKey().compareTo(last) == 0) continue;
+                    buffer.add(new SimpleEntry<>(e.getKey(), e.getValue()));
+                    if (buffer.size() == CHUNK) break;
+                }
+                if (buffer.isEmpty()) return null;
+                last = buffer.peekLast().getKey();
+                return Boolean.FALSE;
+            });
+            if (done == null || done) {
+                exhausted = true;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (buffer.isEmpty() && !exhausted) {
+                fill();
+            }
+            return !buffer.isEmpty();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffer.poll();
+        }
+    }
+
+    private static final class KeyIterator<K extends Comparable<? super K>, V> implements Iterator<K> {
+        private final Iterator<Entry<K, V>> entries;
+
+        KeyIterator(Iterator<Entry<K, V>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries.hasNext();
+        }
+
+        @Override
+        public K next() {
+            return entries.next().getKey();
+        }
+    }
+
+    // only meaningful while no update is in flight
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        Shard<K, V>[] d = shards;
+        int total = 0;
+        for (int i = 0; i < d.length; i++) {
+            BST<K, V> t = d[i].tree;
+            String c = t.check();
+            if (!c.equals("pass")) {
+                sb.append("shard ").append(i).append(": ").append(c);
+            }
+            if (!t.isEmpty() && (i > 0 && t.min().compareTo(d[i].lo) < 0
+                    || i + 1 < d.length && t.max().compareTo(d[i + 1].lo) >= 0)) {
+                sb.append("shard ").append(i).append(" holds keys outside its range\n");
+            }
+            if (d[i].retired) {
+                sb.append("shard ").append(i).append(" is retired\n");
+            }
+            total += t.size();
+        }
+        if (d.length > maxShards) {
+            sb.append("too many shards\n");
+        }
+        if (total != size()) {
+            sb.append("size not consistent\n");
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package org.andreyliu.containers.balancedtrees;
+
+/**
+ * Immutable key-value pair, for maps that do not keep an entry object per key.
+ * @param <K> key
+ * @param <V> value
+ */
+final class SimpleEntry<K extends Comparable<? super K>, V> implements OrderedMap.Entry<K, V> {
+    private final K key;
+    private final V val;
+
+    SimpleEntry(K key, V val) {
+        this.key = key;
+        this.val = val;
+    }
+
+    @Override
+    public K getKey() {
+        return key;
+    }
+
+    @Override
+    public V getValue() {
+        return val;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{%s: %s}", key, val);
+    }
+}
@@ -0,0 +1,212 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.andreyliu.containers.balancedtrees.OrderedMap.Entry;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Sorted binary snapshot of a map, streamed in blocks.
+ * <p>
+ * The header holds a magic number, the format version, flags, the codec
+ * widths and the number of entries. Then come blocks of up to 64KB of
+ * encoded entries in increasing key order, each written as its raw length,
+ * its stored length, the CRC32 of the raw bytes and the stored bytes. With
+ * compression on, a block is stored in {@link Lz4Block} format when that is
+ * smaller. Both sides keep one block in memory at a time, and the reader
+ * never reads past the last block, so a snapshot can be followed by other
+ * data in the same stream.
+ */
+final class Snapshot {
+    private static final int MAGIC = 0x534e4150;
+    private static final int VERSION = 1;
+    private static final int COMPRESSED = 1;
+    private static final int HEADER = 24;
+    private static final int BLOCK_HEADER = 12;
+    private static final int BLOCK_BYTES = 1 << 16;
+    // largest block a reader accepts, against corrupt lengths
+    private static final int MAX_BLOCK_BYTES = 1 << 26;
+
+    private Snapshot() {
+    }
+
+    static <K extends Comparable<? super K>, V> void write(OrderedMap<K, V> map, OutputStream out,
+                                                          Codec<K> keys, Codec<V> vals,
+                                                          boolean compress) throws IOException {
+        int width = keys.width() + vals.width();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(compress ? COMPRESSED : 0)
+                .putInt(keys.width()).putInt(vals.width()).putInt(map.size());
+        out.write(header.array());
+
+        int perBlock = Math.max(1, BLOCK_BYTES / width);
+        ByteBuffer raw = ByteBuffer.allocate(perBlock * width);
+        byte[] packed = compress ? new byte[Lz4Block.maxCompressedLength(raw.capacity())] : null;
+        Lz4Block lz4 = compress ? new Lz4Block() : null;
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER);
+        CRC32 crc = new CRC32();
+        int at = 0;
+        int written = 0;
+        for (Iterator<Entry<K, V>> it = map.entries().iterator(); it.hasNext(); ) {
+            Entry<K, V> e = it.next();
+            keys.write(raw, at, e.getKey());
+            vals.write(raw, at + keys.width(), e.getValue());
+            at += width;
+            written++;
+            if (at == raw.capacity() || !it.hasNext()) {
+                crc.reset();
+                crc.update(raw.array(), 0, at);
+                int stored = compress ? lz4.compress(raw.array(), at, packed) : at;
+                boolean packedSmaller = compress && stored < at;
+                blockHeader.clear();
+                blockHeader.putInt(at).putInt(packedSmaller ? stored : at).putInt((int) crc.getValue());
+                out.write(blockHeader.array());
+                out.write(packedSmaller ? packed : raw.array(), 0, packedSmaller ? stored : at);
+                at = 0;
+            }
+        }
+        if (written != map.size()) {
+            throw new IllegalStateException("map changed while it was written");
+        }
+        out.flush();
+    }
+
+    /**
+     * Streams the entries of a snapshot. next() throws
+     * {@link UncheckedIOException} if the stream fails or the snapshot is
+     * corrupt; {@link #load} turns that back into an IOException.
+     */
+    static final class Reader<K extends Comparable<? super K>, V> implements Iterator<Entry<K, V>> {
+        private final InputStream in;
+        private final Codec<K> keys;
+        private final Codec<V> vals;
+        private final int width;
+        private final int size;
+        private final boolean compressed;
+        private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER);
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer raw = ByteBuffer.allocate(0);
+        private byte[] packed = new byte[0];
+        private int at;
+        private int end;
+        private int read;
+        private K prev;
+
+        Reader(InputStream in, Codec<K> keys, Codec<V> vals) throws IOException {
+            this.in = in;
+            this.keys = keys;
+            this.vals = vals;
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            readFully(header.array(), HEADER);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("not a snapshot");
+            }
+            compressed = (header.getInt() & COMPRESSED) != 0;
+            if (header.getInt() != keys.width() || header.getInt() != vals.width()) {
+                throw new IllegalArgumentException("codec widths do not match the snapshot");
+            }
+            size = header.getInt();
+            if (size < 0) {
+                throw new IOException("corrupt snapshot header");
+            }
+            width = keys.width() + vals.width();
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void readFully(byte[] b, int len) throws IOException {
+            int n = 0;
+            while (n < len) {
+                int r = in.read(b, n, len - n);
+                if (r < 0) throw new EOFException("snapshot is truncated");
+                n += r;
+            }
+        }
+
+        private void readBlock() throws IOException {
+            readFully(blockHeader.array(), BLOCK_HEADER);
+            int rawLen = blockHeader.getInt(0);
+            int stored = blockHeader.getInt(4);
+            if (rawLen <= 0 || rawLen > MAX_BLOCK_BYTES || rawLen % width != 0
+                    || stored <= 0 || stored > rawLen || stored < rawLen && !compressed) {
+                throw new IOException("corrupt snapshot block");
+            }
+            if (raw.capacity() < rawLen) {
+                raw = ByteBuffer.allocate(rawLen);
+            }
+            if (stored < rawLen) {
+                if (packed.length < stored) {
+                    packed = new byte[stored];
+                }
+                readFully(packed, stored);
+                Lz4Block.decompress(packed, stored, raw.array(), rawLen);
+            } else {
+                readFully(raw.array(), rawLen);
+            }
+            crc.reset();
+            crc.update(raw.array(), 0, rawLen);
+            if ((int) crc.getValue() != blockHeader.getInt(8)) {
+                throw new IOException("corrupt snapshot block");
+            }
+            at = 0;
+            end = rawLen;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return read < size;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                if (at == end) {
+                    readBlock();
+                }
+                K k = keys.read(raw, at);
+                if (prev != null && prev.compareTo(k) >= 0) {
+                    throw new IOException("snapshot keys out of order");
+                }
+                Entry<K, V> e = new SimpleEntry<>(k, vals.read(raw, at + keys.width()));
+                prev = k;
+                at += width;
+                read++;
+                return e;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Builds a map from all the entries.
+         * @param build consumes exactly size() entries
+         * @return the map
+         * @throws IOException if the stream fails or the snapshot is corrupt
+         */
+        <T> T load(Function<Reader<K, V>, T> build) throws IOException {
+            T t;
+            try {
+                t = build.apply(this);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            if (at != end) {
+                throw new IOException("corrupt snapshot block");
+            }
+            return t;
+        }
+    }
+}
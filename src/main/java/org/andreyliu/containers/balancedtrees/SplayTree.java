@@ -0,0 +1,390 @@
+package org.andreyliu.containers.balancedtrees;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Self-adjusting binary search tree, after Sleator and Tarjan,
+ * "Self-Adjusting Binary Search Trees".
+ * <p>
+ * get, put and delete splay the node they look for to the root, so keys
+ * used often stay near the top. Every operation takes O(log(n)) amortized,
+ * and a key looked up with frequency p takes O(log(1/p)) amortized, so
+ * under skewed access the hot keys take only a few comparisons. compute
+ * and the other defaults that look a key up and then put it find it at the
+ * root the second time.
+ * <p>
+ * Splaying is top-down in a single pass without recursion, so it needs no
+ * stack however deep the tree gets, and sequential inserts do leave it a
+ * path. The nodes a splay relinks get their sizes and aggregates
+ * recomputed on the way back up the two side paths, so rank, select,
+ * size(from, to) and aggregates work as in the balanced trees. Those
+ * queries, floor, ceiling, min, max and iteration do not splay.
+ * <p>
+ * Lookups restructure the tree, so unlike the balanced trees a SplayTree
+ * needs exclusive access even for reads. Iterators are not disturbed by
+ * gets or value replacements: after a splay they resume past the last key
+ * they returned.
+ * @param <K> key
+ * @param <V> value
+ */
+public class SplayTree<K extends Comparable<? super K>, V> extends BST<K, V> {
+
+    private static final class Node<K extends Comparable<? super K>, V> extends BST.INode<K, V> {
+        private Node<K, V> left;
+        private Node<K, V> right;
+
+        Node(K key, V val) {
+            super(key, val);
+        }
+
+        @Override
+        INode<K, V> getLeft() {
+            return left;
+        }
+
+        @Override
+        INode<K, V> getRight() {
+            return right;
+        }
+    }
+
+    private Node<K, V> root;
+    // splays so far, for iterators to notice the tree changed shape
+    private int splays;
+    // nodes linked into the left and right trees by the splay in progress,
+    // in the order linked, so the deepest comes last
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<K, V>[] lefts = new Node[16];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node<K, V>[] rights = new Node[16];
+
+    public SplayTree() {
+    }
+
+    /**
+     * @param aggregator aggregator to keep for {@link #aggregate}
+     */
+    public SplayTree(Aggregator<? super V, ?> aggregator) {
+        aggregator(Objects.requireNonNull(aggregator));
+    }
+
+    /**
+     * @return this tree's hot-path metrics, which it counts from the first
+     * call on
+     * @throws IllegalStateException if metrics are off, see {@link TreeMetrics}
+     */
+    @Override
+    public TreeMetrics metrics() {
+        return super.metrics();
+    }
+
+    @Override
+    INode<K, V> root() {
+        return root;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    private void fix(Node<K, V> h) {
+        h.size = 1 + size(h.left) + size(h.right);
+        augment(h);
+    }
+
+    /**
+     * Brings the node with k to the root, or if there is none the last node
+     * on the search path for k, which holds the floor or ceiling of k.
+     * Descends two levels at a time: when the path goes the same way twice
+     * it first rotates, which is what halves the depth of the path. Each
+     * node it leaves behind is linked into the left tree, of keys less than
+     * k, or the right tree, of keys greater, which end up as the subtrees of
+     * the new root.
+     * @return k compared with the key of the new root
+     */
+    private int splay(K k) {
+        Node<K, V> t = root;
+        // lowest nodes of the left and right trees, whose right and left
+        // links are the ones still open
+        Node<K, V> l = null;
+        Node<K, V> r = null;
+        int nl = 0;
+        int nr = 0;
+        int comp = visit(k, t);
+        while (comp != 0) {
+            if (comp < 0) {
+                if (t.left == null) break;
+                comp = visit(k, t.left);
+                if (comp < 0) {
+                    t = rotateRight(t);
+                    if (t.left == null) break;
+                    comp = visit(k, t.left);
+                }
+                if (nr == rights.length) rights = Arrays.copyOf(rights, 2 * nr);
+                rights[nr++] = t;
+                if (r != null) r.left = t;
+                r = t;
+                t = t.left;
+            } else {
+                if (t.right == null) break;
+                comp = visit(k, t.right);
+                if (comp > 0) {
+                    t = rotateLeft(t);
+                    if (t.right == null) break;
+                    comp = visit(k, t.right);
+                }
+                if (nl == lefts.length) lefts = Arrays.copyOf(lefts, 2 * nl);
+                lefts[nl++] = t;
+                if (l != null) l.right = t;
+                l = t;
+                t = t.right;
+            }
+        }
+        // the subtrees of t go under the lowest nodes, and the two trees
+        // under t
+        if (l != null) {
+            l.right = t.left;
+            t.left = lefts[0];
+        }
+        if (r != null) {
+            r.left = t.right;
+            t.right = rights[0];
+        }
+        for (int i = nl - 1; i >= 0; i--) {
+            fix(lefts[i]);
+            lefts[i] = null;
+        }
+        for (int i = nr - 1; i >= 0; i--) {
+            fix(rights[i]);
+            rights[i] = null;
+        }
+        fix(t);
+        root = t;
+        splays++;
+        return comp;
+    }
+
+    private Node<K, V> rotateRight(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.rotations++;
+        Node<K, V> x = h.left;
+        h.left = x.right;
+        x.right = h;
+        fix(h);
+        return x;
+    }
+
+    private Node<K, V> rotateLeft(Node<K, V> h) {
+        if (TreeMetrics.ENABLED && metrics != null) metrics.rotations++;
+        Node<K, V> x = h.right;
+        h.right = x.left;
+        x.left = h;
+        fix(h);
+        return x;
+    }
+
+    @Override
+    public V get(K k) {
+        Objects.requireNonNull(k);
+        V v = root != null && splay(k) == 0 ? root.val : null;
+        endOp(TreeMetrics.GET);
+        return v;
+    }
+
+    @Override
+    public boolean contains(K k) {
+        return get(k) != null;
+    }
+
+    @Override
+    public void put(K k, V v) {
+        Objects.requireNonNull(k);
+        Objects.requireNonNull(v);
+        if (root == null) {
+            root = new Node<>(k, v);
+            fix(root);
+            modCount++;
+        } else {
+            int comp = splay(k);
+            if (comp == 0) {
+                root.val = v;
+                augment(root);
+            } else {
+                // the new node goes on top, splitting the old root from the
+                // subtree on the far side of k
+                Node<K, V> h = new Node<>(k, v);
+                if (comp < 0) {
+                    h.left = root.left;
+                    h.right = root;
+                    root.left = null;
+                } else {
+                    h.right = root.right;
+                    h.left = root;
+                    root.right = null;
+                }
+                fix(root);
+                fix(h);
+                root = h;
+                modCount++;
+            }
+        }
+        endOp(TreeMetrics.PUT);
+    }
+
+    @Override
+    public void delete(K k) {
+        remove(k);
+    }
+
+    @Override
+    public V remove(K k) {
+        Objects.requireNonNull(k);
+        V v = null;
+        if (root != null && splay(k) == 0) {
+            v = root.val;
+            Node<K, V> right = root.right;
+            if (root.left == null) {
+                root = right;
+            } else {
+                // every key on the left is less than k, so splaying k there
+                // brings up the greatest, which has no right child
+                root = root.left;
+                splay(k);
+                root.right = right;
+                fix(root);
+            }
+            modCount++;
+        }
+        endOp(TreeMetrics.DELETE);
+        return v;
+    }
+
+    @Override
+    public void deleteMin() {
+        if (isEmpty()) return;
+        remove(min(root()).key);
+    }
+
+    @Override
+    public void deleteMax() {
+        if (isEmpty()) return;
+        remove(max(root()).key);
+    }
+
+    /**
+     * Takes O(n), as nodes keep no heights, without recursion.
+     */
+    @Override
+    public int height() {
+        int height = -1;
+        ArrayDeque<Node<K, V>> level = new ArrayDeque<>();
+        if (root != null) level.add(root);
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                Node<K, V> h = level.poll();
+                if (h.left != null) level.add(h.left);
+                if (h.right != null) level.add(h.right);
+            }
+        }
+        return height;
+    }
+
+    @Override
+    Iterator<Entry<K, V>> nodes(K lo, K hi, boolean descending) {
+        return new SplayIterator(lo, hi, descending);
+    }
+
+    // walks like NodeIterator until a splay reshapes the tree under its
+    // stack, and then starts a new walk just past the last key it returned
+    private final class SplayIterator implements Iterator<Entry<K, V>> {
+        private final K lo;
+        private final K hi;
+        private final boolean descending;
+        private NodeIterator<K, V> nodes;
+        private int expectedSplays;
+        private K last;
+
+        SplayIterator(K lo, K hi, boolean descending) {
+            this.lo = lo;
+            this.hi = hi;
+            this.descending = descending;
+            nodes = new NodeIterator<>(root, lo, hi, descending);
+            expectedSplays = splays;
+        }
+
+        private void resume() {
+            if (expectedSplays == splays) return;
+            expectedSplays = splays;
+            if (last == null) {
+                nodes = new NodeIterator<>(root, lo, hi, descending);
+                return;
+            }
+            nodes = descending
+                    ? new NodeIterator<>(root, lo, last, true)
+                    : new NodeIterator<>(root, last, hi, false);
+            INode<K, V> h = nodes.peek();
+            if (h != null && h.key.compareTo(last) == 0) {
+                nodes.next();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            resume();
+            return nodes.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            resume();
+            if (!nodes.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            INode<K, V> h = nodes.next();
+            last = h.key;
+            return h;
+        }
+    }
+
+    @Override
+    void delete() {
+        root = null;
+        modCount++;
+    }
+
+    @Override
+    String check() {
+        StringBuilder sb = new StringBuilder();
+        if (!isBST(root)) {
+            sb.append("not BST\n");
+        }
+        if (!isSizeConsistent(root)) {
+            sb.append("size not consistent\n");
+        }
+        if (!isAggregateConsistent(root)) {
+            sb.append("aggregate not consistent\n");
+        }
+        if (!isRankConsistent()) {
+            sb.append("rank is not consistent\n");
+        }
+        return sb.length() == 0 ? "pass" : sb.toString();
+    }
+
+    /**
+     * Splay trees keep no balance invariant, only amortized bounds.
+     */
+    @Override
+    boolean isBalanced() {
+        return true;
+    }
+}
@@ -0,0 +1,191 @@
+package org.andreyliu.containers.balancedtrees;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+ * Hot-path counters of an {@link AVLTree} or {@link LLRBTree}: operations,
+ * key comparisons per operation, search path lengths, rotations, color
+ * flips and regroupings, and the longest search path.
+ * <p>
+ * Metrics are compiled in only when the JVM runs with
+ * {@code -Dorg.andreyliu.containers.balancedtrees.metrics=true}. Every hook
+ * in the trees first tests {@link #ENABLED}, a static final the JIT folds
+ * into a constant, so with metrics off the hooks are dead code and compile
+ * to nothing. With metrics on, a tree only counts once its metrics() has
+ * been called, and then at the cost of a few field increments per node.
+ * <p>
+ * Every public lookup and update of the tree counts as one operation of
+ * a kind: a get (get, contains), a put (put and the compute family), a
+ * delete (delete, remove, deleteMin, deleteMax, and a compute that
+ * deletes), a search (floor, ceiling, their entries, min, max, rank,
+ * select, size of a range and aggregate) or a bulk operation (split,
+ * deleteRange, extractRange, the set operations, and join, which counts on
+ * both maps it empties). A bulk operation counts its rotations, flips and
+ * regroupings but not its comparisons, except that union, intersection and
+ * difference of maps large enough to run on the common ForkJoinPool count
+ * only the operation itself, as their tasks restructure the tree on other
+ * threads at once. Iterators, cursors and streams are not counted.
+ * <p>
+ * The counters are plain fields updated by the thread operating on the
+ * tree, like the tree itself. Readers on other threads, such as a JMX
+ * console, see values that may lag slightly behind.
+ */
+public final class TreeMetrics implements TreeMetricsMBean {
+
+    static final boolean ENABLED = Boolean.getBoolean("org.andreyliu.containers.balancedtrees.metrics");
+
+    static final int GET = 0;
+    static final int PUT = 1;
+    static final int DELETE = 2;
+    static final int SEARCH = 3;
+    static final int BULK = 4;
+
+    // operations making this many or more comparisons share the last bucket
+    private static final int BUCKETS = 64;
+
+    private final long[] ops = new long[5];
+    private final long[] histogram = new long[BUCKETS];
+    private long comparisons;
+    private long visits;
+    private int longestPath;
+    // counts of the operation in progress
+    private int opComparisons;
+    private int opVisits;
+    long rotations;
+    long flips;
+    long regroups;
+
+    void visit() {
+        opVisits++;
+        opComparisons++;
+    }
+
+    void compare() {
+        opComparisons++;
+    }
+
+    void end(int op) {
+        ops[op]++;
+        comparisons += opComparisons;
+        visits += opVisits;
+        longestPath = Math.max(longestPath, opVisits);
+        histogram[Math.min(opComparisons, BUCKETS - 1)]++;
+        opComparisons = 0;
+        opVisits = 0;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, under
+     * org.andreyliu.containers.balancedtrees:type=TreeMetrics,name=name.
+     * @param name name of the tree
+     * @return the name registered
+     * @throws JMException if the name is taken or not valid
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName on = new ObjectName("org.andreyliu.containers.balancedtrees:type=TreeMetrics,name="
+                + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        return on;
+    }
+
+    @Override
+    public long getGets() {
+        return ops[GET];
+    }
+
+    @Override
+    public long getPuts() {
+        return ops[PUT];
+    }
+
+    @Override
+    public long getDeletes() {
+        return ops[DELETE];
+    }
+
+    @Override
+    public long getSearches() {
+        return ops[SEARCH];
+    }
+
+    @Override
+    public long getBulkOperations() {
+        return ops[BULK];
+    }
+
+    @Override
+    public long getOperations() {
+        long n = 0;
+        for (long o : ops) {
+            n += o;
+        }
+        return n;
+    }
+
+    @Override
+    public long getComparisons() {
+        return comparisons;
+    }
+
+    @Override
+    public double getComparisonsPerOperation() {
+        return (double) comparisons / getOperations();
+    }
+
+    @Override
+    public long[] getComparisonHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public double getAveragePathLength() {
+        return (double) visits / getOperations();
+    }
+
+    @Override
+    public long getRotations() {
+        return rotations;
+    }
+
+    @Override
+    public long getFlips() {
+        return flips;
+    }
+
+    @Override
+    public long getRegroups() {
+        return regroups;
+    }
+
+    /**
+     * Tracked as operations end, rather than read from the tree, which an
+     * LLRB tree would have to walk in full while another thread changes it.
+     */
+    @Override
+    public int getLongestPath() {
+        return longestPath;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(ops, 0);
+        Arrays.fill(histogram, 0);
+        comparisons = 0;
+        visits = 0;
+        opComparisons = 0;
+        opVisits = 0;
+        longestPath = 0;
+        rotations = 0;
+        flips = 0;
+        regroups = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("{ops: %d | comparisons/op: %.2f | path: %.2f | rotations: %d | flips: %d | regroups: %d}",
+                getOperations(), getComparisonsPerOperation(), getAveragePathLength(), rotations, flips, regroups);
+    }
+}
@@ -0,0 +1,70 @@
+package org.andreyliu.containers.balancedtrees;
+
+/**
+ * Management interface of {@link TreeMetrics}.
+ */
+public interface TreeMetricsMBean {
+
+    long getGets();
+
+    long getPuts();
+
+    long getDeletes();
+
+    /**
+     * @return floors, ceilings, mins, maxes, ranks, selects, range sizes
+     * and aggregates
+     */
+    long getSearches();
+
+    /**
+     * @return splits, range deletions and extractions, joins and set
+     * operations
+     */
+    long getBulkOperations();
+
+    long getOperations();
+
+    long getComparisons();
+
+    /**
+     * @return key comparisons per operation, NaN before any operation
+     */
+    double getComparisonsPerOperation();
+
+    /**
+     * @return number of operations that made i key comparisons at index i,
+     * with the last bucket counting every operation that made more
+     */
+    long[] getComparisonHistogram();
+
+    /**
+     * @return nodes on the search paths per operation, NaN before any
+     * operation
+     */
+    double getAveragePathLength();
+
+    long getRotations();
+
+    /**
+     * @return color flips, always 0 for AVL trees
+     */
+    long getFlips();
+
+    /**
+     * @return red-black regroupings on the way down a delete
+     * (groupLeftFour and groupRightFour), always 0 for AVL trees
+     */
+    long getRegroups();
+
+    /**
+     * @return most nodes on the search path of one operation, a lower
+     * bound on the height plus one
+     */
+    int getLongestPath();
+
+    /**
+     * Sets every counter back to 0.
+     */
+    void reset();
+}
@@ -6,12 +6,97 @@ package org.andreyliu.containers.balancedtrees;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+
 public class AVLTTest {
+    private static final TinyST.Trees<AVLTree<Integer, Integer>> trees = new TinyST.Trees<AVLTree<Integer, Integer>>() {
+        @Override public AVLTree<Integer, Integer> create() {
+            return new AVLTree<>();
+        }
+
+        @Override public AVLTree<Integer, Integer> create(Aggregator<? super Integer, ?> aggregator) {
+            return new AVLTree<>(aggregator);
+        }
+
+        @Override public AVLTree<Integer, Integer> bulkLoad(Iterator<? extends OrderedMap.Entry<Integer, Integer>> entries) {
+            return AVLTree.bulkLoad(entries);
+        }
+
+        @Override public AVLTree<Integer, Integer> bulkLoad(Iterator<? extends OrderedMap.Entry<Integer, Integer>> entries,
+                Aggregator<? super Integer, ?> aggregator) {
+            return AVLTree.bulkLoad(entries, aggregator);
+        }
+
+        @Override public AVLTree<Integer, Integer> readFrom(InputStream in, Codec<Integer> keys, Codec<Integer> vals)
+                throws IOException {
+            return AVLTree.readFrom(in, keys, vals);
+        }
+
+        @Override public AVLTree<Integer, Integer> readFrom(ReadableByteChannel in, Codec<Integer> keys, Codec<Integer> vals)
+                throws IOException {
+            return AVLTree.readFrom(in, keys, vals);
+        }
+
+        @Override public AVLTree<Integer, Integer> join(AVLTree<Integer, Integer> left, Integer k, Integer v, AVLTree<Integer, Integer> right) {
+            return AVLTree.join(left, k, v, right);
+        }
+
+        @Override public AVLTree<Integer, Integer> split(AVLTree<Integer, Integer> st, Integer k) {
+            return st.split(k);
+        }
+
+        @Override public int deleteRange(AVLTree<Integer, Integer> st, Integer lo, Integer hi) {
+            return st.deleteRange(lo, hi);
+        }
+
+        @Override public AVLTree<Integer, Integer> extractRange(AVLTree<Integer, Integer> st, Integer lo, Integer hi) {
+            return st.extractRange(lo, hi);
+        }
+
+        @Override public void union(AVLTree<Integer, Integer> st, AVLTree<Integer, Integer> other) {
+            st.union(other);
+        }
+
+        @Override public void intersection(AVLTree<Integer, Integer> st, AVLTree<Integer, Integer> other) {
+            st.intersection(other);
+        }
+
+        @Override public void difference(AVLTree<Integer, Integer> st, AVLTree<Integer, Integer> other) {
+            st.difference(other);
+        }
+
+        @Override public Cursor<Integer, Integer> cursor(AVLTree<Integer, Integer> st) {
+            return st.cursor();
+        }
+
+        @Override public Spliterator<OrderedMap.Entry<Integer, Integer>> spliterator(AVLTree<Integer, Integer> st) {
+            return st.spliterator();
+        }
+
+        @Override public Spliterator<OrderedMap.Entry<Integer, Integer>> spliterator(AVLTree<Integer, Integer> st, Integer lo, Integer hi) {
+            return st.spliterator(lo, hi);
+        }
+
+        @Override public Stream<OrderedMap.Entry<Integer, Integer>> stream(AVLTree<Integer, Integer> st) {
+            return st.stream();
+        }
+
+        @Override public Stream<OrderedMap.Entry<Integer, Integer>> parallelStream(AVLTree<Integer, Integer> st) {
+            return st.parallelStream();
+        }
+    };
+
     private int numNodes;
     private TinyST<BST<String, Integer>> test;
 
@@ -46,11 +131,21 @@ public class AVLTTest {
         test.testRangeSearch();
     }
 
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
     @Test
     public void testDelete1() {
         test.testDelete();
     }
 
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
     @Test public void testInsert2() {
         BST<Integer, Integer> st2 = new AVLTree<>();
         for (int i = 0; i < numNodes; i++) {
@@ -80,4 +175,79 @@ public class AVLTTest {
         assertThat(st2.isEmpty(), is(true));
     }
 
+    @Test public void testBulkLoad() {
+        TinyST.testBulkLoad(trees);
+    }
+
+    @Test public void testBulkLoadUnsorted() {
+        TinyST.testBulkLoadUnsorted(trees);
+    }
+
+    @Test public void testDeleteEnd() {
+        TinyST.testDeleteEnd(trees);
+    }
+
+    @Test public void testSplitJoin() {
+        TinyST.testSplitJoin(trees);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJoinOutOfOrder() {
+        TinyST.testJoinOutOfOrder(trees);
+    }
+
+    @Test public void testDeleteRange() {
+        TinyST.testDeleteRange(trees);
+    }
+
+    @Test public void testSetOperations() {
+        TinyST.testSetOperations(trees);
+    }
+
+    @Test public void testAggregate() {
+        TinyST.testAggregate(trees);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregateOther() {
+        TinyST.testAggregateOther(trees);
+    }
+
+    @Test public void testCursor() {
+        TinyST.testCursor(trees);
+    }
+
+    @Test public void testCursorSetValueAggregate() {
+        TinyST.testCursorSetValueAggregate(trees);
+    }
+
+    @Test public void testStream() {
+        TinyST.testStream(trees);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testSpliteratorModified() {
+        TinyST.testSpliteratorModified(trees);
+    }
+
+    @Test public void testMetrics() throws Exception {
+        TinyST.testMetrics(trees, m -> { }, m -> assertThat(m.getFlips(), is(0L)));
+    }
+
+    @Test public void testComputeRandom() {
+        TinyST.testComputeRandom(trees);
+    }
+
+    @Test public void testSnapshot() throws IOException {
+        TinyST.testSnapshot(trees);
+    }
+
+    @Test public void testSnapshotCompression() throws IOException {
+        TinyST.testSnapshotCompression(trees);
+    }
+
+    @Test(expected = IOException.class)
+    public void testSnapshotCorrupt() throws IOException {
+        TinyST.testSnapshotCorrupt(trees);
+    }
 }
@@ -0,0 +1,98 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ArrayAVLTTest {
+    private int numNodes;
+    private TinyST<ArrayAVLTree<String, Integer>> test;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void initialize() {
+        numNodes = 1000;
+        test = new TinyST<>((Class<ArrayAVLTree<String, Integer>>) (Class<?>) ArrayAVLTree.class);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    @Test public void testInsert2() {
+        ArrayAVLTree<Integer, Integer> st2 = new ArrayAVLTree<>(0);
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+            assertThat(st2.check(), is("pass"));
+        }
+        assertThat(st2.height(), is(9));
+    }
+
+    @Test public void testDeleteAndReuse() {
+        // delete keys in random order, then refill the freed slots
+        ArrayAVLTree<Integer, Integer> st2 = new ArrayAVLTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+        }
+
+        Random gen = new Random(2);
+        while (st2.size() > numNodes / 2) {
+            int i = gen.nextInt(numNodes);
+            if (st2.contains(i)) {
+                st2.delete(i);
+                assertThat(st2.check(), is("pass"));
+            }
+        }
+        st2.deleteMin();
+        st2.deleteMax();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, -i);
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(numNodes));
+        for (int i = 0; i < numNodes; i++) {
+            assertThat(st2.get(i), is(-i));
+            assertThat(st2.rank(i), is(i));
+        }
+    }
+}
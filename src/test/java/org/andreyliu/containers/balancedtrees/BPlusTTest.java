@@ -0,0 +1,112 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BPlusTTest {
+    private int numNodes;
+    private TinyST<BPlusTree<String, Integer>> test;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void initialize() {
+        numNodes = 1000;
+        test = new TinyST<>((Class<BPlusTree<String, Integer>>) (Class<?>) BPlusTree.class);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    @Test public void testInsert2() {
+        BPlusTree<Integer, Integer> st2 = new BPlusTree<>(4);
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+            assertThat(st2.check(), is("pass"));
+        }
+        assertThat(st2.size(), is(numNodes));
+    }
+
+    @Test public void testRandomOps() {
+        // small fanouts so that every split, borrow and merge path runs
+        for (int fanout = 4; fanout <= 7; fanout++) {
+            BPlusTree<Integer, Integer> st2 = new BPlusTree<>(fanout);
+            TreeMap<Integer, Integer> ref = new TreeMap<>();
+            Random gen = new Random(fanout);
+            for (int i = 0; i < 20 * numNodes; i++) {
+                int k = gen.nextInt(numNodes);
+                if (gen.nextBoolean()) {
+                    st2.put(k, i);
+                    ref.put(k, i);
+                } else {
+                    st2.delete(k);
+                    ref.remove(k);
+                }
+                if (i % 97 == 0) {
+                    assertThat(st2.check(), is("pass"));
+                }
+            }
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(ref.size()));
+            for (int k = -1; k <= numNodes; k++) {
+                assertThat(st2.get(k), is(ref.get(k)));
+                assertThat(st2.floor(k), is(ref.floorKey(k)));
+                assertThat(st2.ceiling(k), is(ref.ceilingKey(k)));
+                assertThat(st2.rank(k), is(ref.headMap(k).size()));
+            }
+            Iterator<Integer> it = st2.descendingKeys(100, 900).iterator();
+            for (int k : ref.subMap(100, true, 900, true).descendingKeySet()) {
+                assertThat(it.next(), is(k));
+            }
+            assertThat(it.hasNext(), is(false));
+            while (!st2.isEmpty()) {
+                st2.deleteMin();
+                st2.deleteMax();
+                assertThat(st2.check(), is("pass"));
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BoundedOrderedMapTest {
+    private final int numNodes = 1000;
+    private TinyST<BoundedOrderedMap<String, Integer>> test;
+
+    @Before
+    public void initialize() {
+        // never full, so it behaves as the map it wraps
+        BoundedOrderedMap<String, Integer> st =
+                new BoundedOrderedMap<>(new LLRBTree<String, Integer>(), numNodes, BoundedOrderedMap.Eviction.MIN);
+        TinyST.buildTinyST(st);
+        test = new TinyST<>(st);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    // random updates of the bounded map and of a TreeMap trimmed by hand
+    private static void testRandom(BoundedOrderedMap.Eviction eviction, OrderedMap<Integer, Integer> backing) {
+        int capacity = 100;
+        List<Integer> evicted = new ArrayList<>();
+        BoundedOrderedMap<Integer, Integer> st = new BoundedOrderedMap<>(backing, capacity, eviction,
+                (k, v) -> {
+                    assertThat(v, is(-k));
+                    evicted.add(k);
+                });
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        List<Integer> expectedEvicted = new ArrayList<>();
+        Random gen = new Random(11);
+        for (int i = 0; i < 20 * capacity; i++) {
+            int k = gen.nextInt(10 * capacity);
+            switch (gen.nextInt(8)) {
+                case 0:
+                    st.delete(k);
+                    ref.remove(k);
+                    break;
+                case 1:
+                    st.deleteMin();
+                    ref.pollFirstEntry();
+                    break;
+                case 2:
+                    st.deleteMax();
+                    ref.pollLastEntry();
+                    break;
+                default:
+                    ref.put(k, -k);
+                    boolean rejected = false;
+                    if (ref.size() > capacity) {
+                        Map.Entry<Integer, Integer> e = eviction == BoundedOrderedMap.Eviction.MIN
+                                ? ref.pollFirstEntry() : ref.pollLastEntry();
+                        if (e.getKey() == k) {
+                            rejected = true;
+                        } else {
+                            expectedEvicted.add(e.getKey());
+                        }
+                    }
+                    assertThat(st.offer(k, -k), is(!rejected));
+            }
+            assertThat(st.size(), is(ref.size()));
+            assertThat(st.check(), is("pass"));
+        }
+        assertThat(evicted, is(expectedEvicted));
+        List<Integer> keys = new ArrayList<>();
+        for (Integer k : st.keys()) {
+            keys.add(k);
+        }
+        assertThat(keys, is(new ArrayList<>(ref.keySet())));
+    }
+
+    @Test public void testRandom() {
+        testRandom(BoundedOrderedMap.Eviction.MIN, new LLRBTree<>());
+        testRandom(BoundedOrderedMap.Eviction.MAX, new LLRBTree<>());
+        testRandom(BoundedOrderedMap.Eviction.MIN, new AVLTree<>());
+        testRandom(BoundedOrderedMap.Eviction.MAX, new AVLTree<>());
+    }
+
+    @Test public void testLeaderboard() {
+        List<Integer> evicted = new ArrayList<>();
+        List<String> evictedValues = new ArrayList<>();
+        BoundedOrderedMap<Integer, String> top = new BoundedOrderedMap<>(new LLRBTree<Integer, String>(), 3,
+                BoundedOrderedMap.Eviction.MIN, (k, v) -> {
+                    evicted.add(k);
+                    evictedValues.add(v);
+                });
+        assertThat(top.offer(50, "a"), is(true));
+        assertThat(top.offer(10, "b"), is(true));
+        assertThat(top.offer(30, "c"), is(true));
+        // full: below the least score is rejected, equal to it replaces
+        assertThat(top.offer(5, "d"), is(false));
+        assertThat(top.offer(10, "e"), is(true));
+        assertThat(top.get(10), is("e"));
+        assertThat(evicted.isEmpty(), is(true));
+        top.put(40, "f");
+        assertThat(evicted, is(Arrays.asList(10)));
+        assertThat(top.min(), is(30));
+        assertThat(top.compute(20, (k, v) -> "g"), nullValue());
+        assertThat(top.get(20), nullValue());
+        assertThat(top.compute(60, (k, v) -> "h"), is("h"));
+        assertThat(evicted, is(Arrays.asList(10, 30)));
+        // the cached bound follows the value that replaced it
+        assertThat(evictedValues, is(Arrays.asList("e", "c")));
+        assertThat(top.size(), is(3));
+        assertThat(top.check(), is("pass"));
+    }
+
+    @Test public void testPutIfAbsentRejected() {
+        BoundedOrderedMap<Integer, String> top = new BoundedOrderedMap<>(new AVLTree<Integer, String>(), 2,
+                BoundedOrderedMap.Eviction.MIN);
+        assertThat(top.putIfAbsent(20, "a"), nullValue());
+        assertThat(top.putIfAbsent(30, "b"), nullValue());
+        assertThat(top.putIfAbsent(20, "c"), is("a"));
+        // full, and beyond the bound: v comes back and the map is unchanged
+        assertThat(top.putIfAbsent(10, "d"), is("d"));
+        assertThat(top.contains(10), is(false));
+        assertThat(top.size(), is(2));
+        // inside the bound: inserted, evicting the least key
+        assertThat(top.putIfAbsent(25, "e"), nullValue());
+        assertThat(top.get(25), is("e"));
+        assertThat(top.min(), is(25));
+        assertThat(top.check(), is("pass"));
+    }
+
+    @Test public void testRecentWindow() {
+        BoundedOrderedMap<Long, Integer> window = new BoundedOrderedMap<>(new AVLTree<Long, Integer>(), numNodes,
+                BoundedOrderedMap.Eviction.MIN);
+        for (int i = 0; i < 10 * numNodes; i++) {
+            window.put((long) i, i);
+        }
+        assertThat(window.size(), is(numNodes));
+        assertThat(window.min(), is(9L * numNodes));
+        assertThat(window.max(), is(10L * numNodes - 1));
+        // an event older than the window is dropped
+        assertThat(window.offer(0L, 0), is(false));
+        assertThat(window.check(), is("pass"));
+    }
+
+    @Test public void testTrimOnCreate() {
+        LLRBTree<Integer, Integer> st = new LLRBTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st.put(i, i);
+        }
+        List<Integer> evicted = new ArrayList<>();
+        BoundedOrderedMap<Integer, Integer> bounded = new BoundedOrderedMap<>(st, 10,
+                BoundedOrderedMap.Eviction.MAX, (k, v) -> evicted.add(v));
+        assertThat(bounded.size(), is(10));
+        assertThat(bounded.max(), is(9));
+        assertThat(evicted.size(), is(numNodes - 10));
+        assertThat(evicted.get(0), is(numNodes - 1));
+        assertThat(bounded.offer(10, 10), is(false));
+        assertThat(bounded.offer(-1, -1), is(true));
+        assertThat(bounded.max(), is(8));
+        assertThat(bounded.check(), is("pass"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new BoundedOrderedMap<Integer, Integer>(new LLRBTree<>(), 0, BoundedOrderedMap.Eviction.MIN);
+    }
+}
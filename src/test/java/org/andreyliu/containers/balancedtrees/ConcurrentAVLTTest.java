@@ -0,0 +1,187 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ConcurrentAVLTTest {
+    private int numNodes;
+    private TinyST<ConcurrentAVLTree<String, Integer>> test;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void initialize() {
+        numNodes = 1000;
+        test = new TinyST<>((Class<ConcurrentAVLTree<String, Integer>>) (Class<?>) ConcurrentAVLTree.class);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    @Test public void testInsert2() {
+        ConcurrentAVLTree<Integer, Integer> st2 = new ConcurrentAVLTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.isBalanced(), is(true));
+        }
+        assertThat(st2.height(), is(9));
+    }
+
+    @Test public void testRandomOps() {
+        ConcurrentAVLTree<Integer, Integer> st2 = new ConcurrentAVLTree<>();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(2);
+        for (int i = 0; i < 10 * numNodes; i++) {
+            int k = gen.nextInt(numNodes);
+            if (gen.nextInt(3) == 0) {
+                st2.delete(k);
+                ref.remove(k);
+            } else {
+                st2.put(k, i);
+                ref.put(k, i);
+            }
+            assertThat(st2.get(k), is(ref.get(k)));
+            assertThat(st2.floor(k), is(ref.floorKey(k)));
+            assertThat(st2.ceiling(k), is(ref.ceilingKey(k)));
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.isBalanced(), is(true));
+        assertThat(st2.size(), is(ref.size()));
+        assertThat(st2.rank(numNodes / 2), is(ref.headMap(numNodes / 2).size()));
+        assertThat(st2.size(100, 200), is(ref.subMap(100, true, 200, true).size()));
+        while (!st2.isEmpty()) {
+            assertThat(st2.min(), is(ref.firstKey()));
+            st2.deleteMin();
+            ref.pollFirstEntry();
+            if (!ref.isEmpty()) {
+                assertThat(st2.max(), is(ref.lastKey()));
+                st2.deleteMax();
+                ref.pollLastEntry();
+            }
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.height(), is(-1));
+    }
+
+    @Test public void testConcurrentUpdates() throws InterruptedException {
+        // each writer owns the keys congruent to its index, so the final
+        // contents must match the writers' own references
+        int writers = 4;
+        ConcurrentAVLTree<Integer, Integer> st2 = new ConcurrentAVLTree<>();
+        List<TreeMap<Integer, Integer>> refs = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        for (int t = 0; t < writers; t++) {
+            TreeMap<Integer, Integer> ref = new TreeMap<>();
+            refs.add(ref);
+            int owner = t;
+            threads.add(new Thread(() -> {
+                Random gen = new Random(owner);
+                for (int i = 0; i < 50 * numNodes; i++) {
+                    int k = writers * gen.nextInt(numNodes) + owner;
+                    if (gen.nextInt(2) == 0) {
+                        st2.delete(k);
+                        ref.remove(k);
+                    } else {
+                        st2.put(k, i);
+                        ref.put(k, i);
+                    }
+                    if (!Objects.equals(st2.get(k), ref.get(k))) {
+                        failure.set("lost update of " + k);
+                    }
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                Integer prev = null;
+                for (Integer k : st2.keys()) {
+                    if (prev != null && prev >= k) {
+                        failure.set("keys out of order: " + prev + ", " + k);
+                    }
+                    prev = k;
+                }
+                // keys and values of entries are read together
+                for (int k = 0; k < writers * numNodes; k += 97) {
+                    for (OrderedMap.Entry<Integer, Integer> e : Arrays.asList(st2.floorEntry(k), st2.ceilingEntry(k),
+                            st2.minEntry(), st2.maxEntry())) {
+                        if (e != null && e.getValue() == null) {
+                            failure.set("no value for " + e.getKey());
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        reader.join();
+        assertThat(failure.get(), is((String) null));
+
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        refs.forEach(expected::putAll);
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(expected.size()));
+        // balance is relaxed under contention, but stays close to AVL
+        int log = 32 - Integer.numberOfLeadingZeros(st2.size() + 1);
+        assertThat(st2.height() + " levels", st2.height() <= 2 * log, is(true));
+        for (OrderedMap.Entry<Integer, Integer> e : st2.entries()) {
+            assertThat(e.getValue(), is(expected.get(e.getKey())));
+        }
+    }
+}
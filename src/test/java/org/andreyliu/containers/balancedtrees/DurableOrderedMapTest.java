@@ -0,0 +1,170 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DurableOrderedMapTest {
+    private final int numNodes = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // random updates of both the map and a reference
+    private static void update(DurableOrderedMap<Integer, Long> st, TreeMap<Integer, Long> ref,
+                               Random gen, int ops, int keys) {
+        for (int i = 0; i < ops; i++) {
+            int k = gen.nextInt(keys);
+            switch (gen.nextInt(6)) {
+                case 0:
+                    st.delete(k);
+                    ref.remove(k);
+                    break;
+                case 1:
+                    st.deleteMin();
+                    ref.pollFirstEntry();
+                    break;
+                case 2:
+                    st.deleteMax();
+                    ref.pollLastEntry();
+                    break;
+                default:
+                    st.put(k, (long) i);
+                    ref.put(k, (long) i);
+            }
+        }
+    }
+
+    private static void assertSameEntries(OrderedMap<Integer, Long> st, TreeMap<Integer, Long> ref) {
+        assertThat(st.size(), is(ref.size()));
+        Map.Entry<Integer, Long> next = ref.firstEntry();
+        for (OrderedMap.Entry<Integer, Long> e : st.entries()) {
+            assertThat(e.getKey(), is(next.getKey()));
+            assertThat(e.getValue(), is(next.getValue()));
+            next = ref.higherEntry(next.getKey());
+        }
+    }
+
+    @Test public void testReopen() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        TreeMap<Integer, Long> ref = new TreeMap<>();
+        Random gen = new Random(1);
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            update(st, ref, gen, 10 * numNodes, numNodes);
+            assertSameEntries(st, ref);
+        }
+        // the log alone, then on top of a checkpoint
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, LLRBTree::bulkLoad)) {
+            assertSameEntries(st, ref);
+            st.checkpoint();
+            update(st, ref, gen, numNodes, numNodes);
+        }
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            assertSameEntries(st, ref);
+        }
+    }
+
+    @Test public void testCheckpoints() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        TreeMap<Integer, Long> ref = new TreeMap<>();
+        Random gen = new Random(2);
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(
+                dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad, 1, 100)) {
+            update(st, ref, gen, 20 * numNodes, numNodes);
+            // the log never holds many more records than the map has entries
+            assertThat(st.generation() > 10, is(true));
+        }
+        // one checkpoint and the log since
+        assertThat(Files.list(dir).count(), is(2L));
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            assertSameEntries(st, ref);
+        }
+    }
+
+    @Test public void testCrash() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        TreeMap<Integer, Long> ref = new TreeMap<>();
+        Random gen = new Random(3);
+        // never closed, as if the process died after the sync
+        DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(
+                dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad, 0, 1000);
+        update(st, ref, gen, 5 * numNodes, numNodes);
+        Path log = dir.resolve("log-" + st.generation());
+        // a batch cut short by the crash
+        Files.write(log, new byte[] {0, 0, 1, 0, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        try (DurableOrderedMap<Integer, Long> recovered = DurableOrderedMap.open(
+                dir, Codec.INT, Codec.LONG, LLRBTree::bulkLoad)) {
+            assertSameEntries(recovered, ref);
+            // the torn batch is dropped and the log is appended to again
+            recovered.put(-1, -1L);
+            ref.put(-1, -1L);
+        }
+        try (DurableOrderedMap<Integer, Long> recovered = DurableOrderedMap.open(
+                dir, Codec.INT, Codec.LONG, LLRBTree::bulkLoad)) {
+            assertSameEntries(recovered, ref);
+        }
+    }
+
+    @Test public void testCrashDuringCheckpoint() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        TreeMap<Integer, Long> ref = new TreeMap<>();
+        Random gen = new Random(5);
+        long generation;
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            update(st, ref, gen, 5 * numNodes, numNodes);
+            st.checkpoint();
+            update(st, ref, gen, numNodes, numNodes);
+            generation = st.generation();
+        }
+        // the next log was started but the new checkpoint never renamed
+        Files.createFile(dir.resolve("log-" + (generation + 1)));
+        Files.write(dir.resolve("checkpoint.tmp"), new byte[] {1, 2, 3});
+
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            assertSameEntries(st, ref);
+            assertThat(st.generation(), is(generation + 1));
+            update(st, ref, gen, numNodes, numNodes);
+            st.checkpoint();
+        }
+        assertThat(Files.exists(dir.resolve("log-" + generation)), is(false));
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            assertSameEntries(st, ref);
+        }
+    }
+
+    @Test public void testGroupCommit()throws IOException, InterruptedException {
+        Path dir = folder.newFolder().toPath();
+        TreeMap<Integer, Long> ref = new TreeMap<>();
+        DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad, 5);
+        update(st, ref, new Random(4), numNodes, numNodes);
+        // the background sync commits the updates without a call to sync
+        Thread.sleep(200);
+        try (DurableOrderedMap<Integer, Long> recovered = DurableOrderedMap.open(
+                dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            assertSameEntries(recovered, ref);
+        }
+        st.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCodecMismatch() throws IOException {
+        Path dir = folder.newFolder().toPath();
+        try (DurableOrderedMap<Integer, Long> st = DurableOrderedMap.open(dir, Codec.INT, Codec.LONG, AVLTree::bulkLoad)) {
+            st.put(1, 1L);
+            st.checkpoint();
+        }
+        DurableOrderedMap.open(dir, Codec.LONG, Codec.LONG, AVLTree::bulkLoad).close();
+    }
+}
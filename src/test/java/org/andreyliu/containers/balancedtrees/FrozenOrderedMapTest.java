@@ -0,0 +1,178 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FrozenOrderedMapTest {
+    private final int numNodes = 1000;
+    private TinyST<FrozenOrderedMap<String, Integer>> test;
+
+    @Before
+    public void initialize() {
+        AVLTree<String, Integer> st = new AVLTree<>();
+        TinyST.buildTinyST(st);
+        test = new TinyST<>(st.freeze());
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    private static <K extends Comparable<? super K>> void assertSame(
+            FrozenOrderedMap<K, Integer> frozen, TreeMap<K, Integer> ref, List<K> probes) {
+        assertThat(frozen.check(), is("pass"));
+        assertThat(frozen.size(), is(ref.size()));
+        assertThat(frozen.min(), is(ref.isEmpty() ? null : ref.firstKey()));
+        assertThat(frozen.max(), is(ref.isEmpty() ? null : ref.lastKey()));
+        for (int i = 0; i < probes.size(); i++) {
+            K k = probes.get(i);
+            assertThat(frozen.get(k), is(ref.get(k)));
+            assertThat(frozen.floor(k), is(ref.floorKey(k)));
+            assertThat(frozen.ceiling(k), is(ref.ceilingKey(k)));
+            assertThat(frozen.rank(k), is(ref.headMap(k).size()));
+            K hi = probes.get((i + 1) % probes.size());
+            List<K> range = new ArrayList<>();
+            frozen.keys(k, hi).forEach(range::add);
+            List<K> expected = k.compareTo(hi) > 0 ? new ArrayList<>()
+                    : new ArrayList<>(ref.subMap(k, true, hi, true).keySet());
+            assertThat(range, is(expected));
+            assertThat(frozen.size(k, hi), is(expected.size()));
+            List<K> descending = new ArrayList<>();
+            frozen.descendingEntries(k, hi).forEach(e -> descending.add(0, e.getKey()));
+            assertThat(descending, is(expected));
+        }
+        for (int i = 0; i < ref.size(); i++) {
+            assertThat(frozen.rank(frozen.select(i)), is(i));
+        }
+        assertThat(frozen.select(ref.size()), is((K) null));
+    }
+
+    @Test public void testRandom() {
+        Random gen = new Random(17);
+        // every size up to a few hundred fills the last level of the layout differently
+        for (int n = 0; n < 300; n += 7) {
+            LLRBTree<Integer, Integer> st = new LLRBTree<>();
+            TreeMap<Integer, Integer> ref = new TreeMap<>();
+            List<Integer> probes = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int k = gen.nextInt(4 * numNodes);
+                st.put(k, i);
+                ref.put(k, i);
+            }
+            for (int i = 0; i < 50; i++) {
+                probes.add(gen.nextInt(4 * numNodes + 2) - 1);
+            }
+            assertSame(st.freeze(), ref, probes);
+        }
+    }
+
+    @Test public void testLongKeys() {
+        Random gen = new Random(19);
+        AVLTree<Long, Integer> st = new AVLTree<>();
+        TreeMap<Long, Integer> ref = new TreeMap<>();
+        List<Long> probes = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            long k = gen.nextLong() >> 20;
+            st.put(k, i);
+            ref.put(k, i);
+            probes.add(k);
+            probes.add(k + 1);
+        }
+        probes.add(Long.MIN_VALUE);
+        probes.add(Long.MAX_VALUE);
+        FrozenOrderedMap<Long, Integer> frozen = st.freeze();
+        assertSame(frozen, ref, probes);
+        for (long k : probes) {
+            assertThat(frozen.get(k), is(ref.get(k)));
+            assertThat(frozen.contains(k), is(ref.containsKey(k)));
+            assertThat(frozen.rank(k), is(ref.headMap(k).size()));
+            Long floor = ref.floorKey(k);
+            assertThat(frozen.floor(k, -1), is(floor == null ? -1 : floor));
+            Long ceiling = ref.ceilingKey(k);
+            assertThat(frozen.ceiling(k, -1), is(ceiling == null ? -1 : ceiling));
+        }
+        // range views hand out the tree's own keys rather than boxing again
+        Iterator<Long> it = st.keys().iterator();
+        for (Long k : frozen.keys()) {
+            assertThat(k == it.next(), is(true));
+        }
+    }
+
+    @Test public void testIntKeysThroughLongOverloads() {
+        AVLTree<Integer, Integer> st = new AVLTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st.put(2 * i, i);
+        }
+        FrozenOrderedMap<Integer, Integer> frozen = st.freeze();
+        // an int argument resolves to the long overloads
+        assertThat(frozen.get(4), is(2));
+        assertThat(frozen.contains(5), is(false));
+        assertThat(frozen.rank(5), is(3));
+        assertThat(frozen.floor(5, -1), is(4L));
+        assertThat(frozen.ceiling(5, -1), is(6L));
+        assertThat(frozen.get(1L << 32), is((Integer) null));
+        assertThat(frozen.rank(1L << 32), is(numNodes));
+        assertThat(frozen.rank(-1L << 32), is(0));
+        assertThat(frozen.floor(1L << 32, -1), is(2L * (numNodes - 1)));
+        assertThat(frozen.ceiling(-1L << 32, -1), is(0L));
+        assertThat(frozen.ceiling(1L << 32, -1), is(-1L));
+    }
+
+    @Test public void testSnapshot() {
+        AVLTree<Integer, Integer> st = new AVLTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st.put(i, i);
+        }
+        FrozenOrderedMap<Integer, Integer> frozen = st.freeze();
+        st.delete(0);
+        st.put(numNodes, numNodes);
+        assertThat(frozen.get(0), is(0));
+        assertThat(frozen.contains(numNodes), is(false));
+        assertThat(frozen.size(), is(numNodes));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testPut() {
+        new AVLTree<Integer, Integer>().freeze().put(1, 1);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCompute() {
+        new AVLTree<Integer, Integer>().freeze().merge(1, 1, Integer::sum);
+    }
+}
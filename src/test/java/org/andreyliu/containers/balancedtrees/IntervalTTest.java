@@ -0,0 +1,116 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.andreyliu.containers.balancedtrees.IntervalTree.Interval;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class IntervalTTest {
+    private final int numNodes = 1000;
+
+    private static List<Interval<Integer>> overlapping(IntervalTree<Integer, Integer> st, int a, int b) {
+        List<Interval<Integer>> actual = new ArrayList<>();
+        for (OrderedMap.Entry<Interval<Integer>, Integer> e : st.overlapping(a, b)) {
+            actual.add(e.getKey());
+        }
+        return actual;
+    }
+
+    private static List<Interval<Integer>> overlapping(TreeMap<Interval<Integer>, Integer> ref, int a, int b) {
+        List<Interval<Integer>> expected = new ArrayList<>();
+        for (Interval<Integer> i : ref.keySet()) {
+            if (i.overlaps(a, b)) {
+                expected.add(i);
+            }
+        }
+        return expected;
+    }
+
+    @Test public void testRandomOps() {
+        IntervalTree<Integer, Integer> st = new IntervalTree<>();
+        TreeMap<Interval<Integer>, Integer> ref = new TreeMap<>();
+        Random gen = new Random(1);
+        for (int i = 0; i < 10 * numNodes; i++) {
+            int lo = gen.nextInt(numNodes);
+            int hi = lo + gen.nextInt(numNodes / 10);
+            if (gen.nextInt(3) == 0) {
+                st.delete(lo, hi);
+                ref.remove(new Interval<>(lo, hi));
+            } else {
+                st.put(lo, hi, i);
+                ref.put(new Interval<>(lo, hi), i);
+            }
+            assertThat(st.get(lo, hi), is(ref.get(new Interval<>(lo, hi))));
+            if (i % 10 == 0) {
+                int a = gen.nextInt(numNodes);
+                int b = a + gen.nextInt(numNodes / 20);
+                List<Interval<Integer>> expected = overlapping(ref, a, b);
+                assertThat(overlapping(st, a, b), is(expected));
+                assertThat(st.countOverlapping(a, b), is(expected.size()));
+                assertThat(st.countStabbing(a), is(overlapping(ref, a, a).size()));
+            }
+        }
+        assertThat(st.check(), is("pass"));
+        assertThat(st.size(), is(ref.size()));
+        assertThat(st.countOverlapping(5, 4), is(0));
+        assertThat(st.countOverlapping(Integer.MIN_VALUE, Integer.MAX_VALUE), is(ref.size()));
+    }
+
+    @Test public void testStabbing() {
+        IntervalTree<Integer, String> st = new IntervalTree<>();
+        st.put(1, 5, "a");
+        st.put(2, 3, "b");
+        st.put(4, 4, "c");
+        st.put(6, 9, "d");
+        st.put(1, 5, "e");
+        List<String> actual = new ArrayList<>();
+        st.stabbing(4).forEach(e -> actual.add(e.getValue()));
+        assertThat(actual.toString(), is("[e, c]"));
+        assertThat(st.countStabbing(4), is(2));
+        assertThat(st.countStabbing(5), is(1));
+        assertThat(st.countStabbing(0), is(0));
+        assertThat(st.stabbing(10).iterator().hasNext(), is(false));
+        assertThat(st.countOverlapping(3, 6), is(4));
+        st.delete(1, 5);
+        st.delete(1, 5);
+        assertThat(st.countStabbing(4), is(1));
+        assertThat(st.check(), is("pass"));
+    }
+
+    @Test public void testBulkLoad() {
+        TreeMap<Interval<Integer>, Integer> ref = new TreeMap<>();
+        List<OrderedMap.Entry<Interval<Integer>, Integer>> entries = new ArrayList<>();
+        Random gen = new Random(2);
+        for (int i = 0; i < 5 * numNodes; i++) {
+            int lo = gen.nextInt(numNodes);
+            Interval<Integer> key = new Interval<>(lo, lo + gen.nextInt(50));
+            entries.add(OrderedMap.entry(key, i));
+            ref.put(key, i);
+        }
+        IntervalTree<Integer, Integer> st = IntervalTree.bulkLoad(entries.iterator());
+        assertThat(st.check(), is("pass"));
+        assertThat(st.size(), is(ref.size()));
+        for (Map.Entry<Interval<Integer>, Integer> e : ref.entrySet()) {
+            assertThat(st.get(e.getKey().getLo(), e.getKey().getHi()), is(e.getValue()));
+        }
+        for (int a = -10; a < numNodes + 60; a += 7) {
+            assertThat(overlapping(st, a, a + 3), is(overlapping(ref, a, a + 3)));
+            assertThat(st.countOverlapping(a, a + 3), is(overlapping(ref, a, a + 3).size()));
+        }
+        st.put(-5, 2000, -1);
+        assertThat(st.countStabbing(1500), is(1));
+        assertThat(st.check(), is("pass"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyInterval() {
+        new IntervalTree<Integer, Integer>().put(2, 1, 0);
+    }
+}
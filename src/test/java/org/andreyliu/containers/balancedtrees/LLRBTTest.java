@@ -7,13 +7,97 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
 
+
 public class LLRBTTest {
+    private static final TinyST.Trees<LLRBTree<Integer, Integer>> trees = new TinyST.Trees<LLRBTree<Integer, Integer>>() {
+        @Override public LLRBTree<Integer, Integer> create() {
+            return new LLRBTree<>();
+        }
+
+        @Override public LLRBTree<Integer, Integer> create(Aggregator<? super Integer, ?> aggregator) {
+            return new LLRBTree<>(aggregator);
+        }
+
+        @Override public LLRBTree<Integer, Integer> bulkLoad(Iterator<? extends OrderedMap.Entry<Integer, Integer>> entries) {
+            return LLRBTree.bulkLoad(entries);
+        }
+
+        @Override public LLRBTree<Integer, Integer> bulkLoad(Iterator<? extends OrderedMap.Entry<Integer, Integer>> entries,
+                Aggregator<? super Integer, ?> aggregator) {
+            return LLRBTree.bulkLoad(entries, aggregator);
+        }
+
+        @Override public LLRBTree<Integer, Integer> readFrom(InputStream in, Codec<Integer> keys, Codec<Integer> vals)
+                throws IOException {
+            return LLRBTree.readFrom(in, keys, vals);
+        }
+
+        @Override public LLRBTree<Integer, Integer> readFrom(ReadableByteChannel in, Codec<Integer> keys, Codec<Integer> vals)
+                throws IOException {
+            return LLRBTree.readFrom(in, keys, vals);
+        }
+
+        @Override public LLRBTree<Integer, Integer> join(LLRBTree<Integer, Integer> left, Integer k, Integer v, LLRBTree<Integer, Integer> right) {
+            return LLRBTree.join(left, k, v, right);
+        }
+
+        @Override public LLRBTree<Integer, Integer> split(LLRBTree<Integer, Integer> st, Integer k) {
+            return st.split(k);
+        }
+
+        @Override public int deleteRange(LLRBTree<Integer, Integer> st, Integer lo, Integer hi) {
+            return st.deleteRange(lo, hi);
+        }
+
+        @Override public LLRBTree<Integer, Integer> extractRange(LLRBTree<Integer, Integer> st, Integer lo, Integer hi) {
+            return st.extractRange(lo, hi);
+        }
+
+        @Override public void union(LLRBTree<Integer, Integer> st, LLRBTree<Integer, Integer> other) {
+            st.union(other);
+        }
+
+        @Override public void intersection(LLRBTree<Integer, Integer> st, LLRBTree<Integer, Integer> other) {
+            st.intersection(other);
+        }
+
+        @Override public void difference(LLRBTree<Integer, Integer> st, LLRBTree<Integer, Integer> other) {
+            st.difference(other);
+        }
+
+        @Override public Cursor<Integer, Integer> cursor(LLRBTree<Integer, Integer> st) {
+            return st.cursor();
+        }
+
+        @Override public Spliterator<OrderedMap.Entry<Integer, Integer>> spliterator(LLRBTree<Integer, Integer> st) {
+            return st.spliterator();
+        }
+
+        @Override public Spliterator<OrderedMap.Entry<Integer, Integer>> spliterator(LLRBTree<Integer, Integer> st, Integer lo, Integer hi) {
+            return st.spliterator(lo, hi);
+        }
+
+        @Override public Stream<OrderedMap.Entry<Integer, Integer>> stream(LLRBTree<Integer, Integer> st) {
+            return st.stream();
+        }
+
+        @Override public Stream<OrderedMap.Entry<Integer, Integer>> parallelStream(LLRBTree<Integer, Integer> st) {
+            return st.parallelStream();
+        }
+    };
+
     private int numNodes;
     private OrderedMap<String, Integer> st;
 
@@ -65,11 +149,21 @@ public class LLRBTTest {
         test.testRangeSearch();
     }
 
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
     @Test
     public void testDelete1() {
         test.testDelete();
     }
 
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
     @Test public void testInsert2() {
         LLRBTree<Integer, Integer> st2 = new LLRBTree<>();
         for (int i = 0; i < numNodes; i++) {
@@ -99,4 +193,108 @@ public class LLRBTTest {
         assertThat(st2.isEmpty(), is(true));
     }
 
+    @Test public void testBulkLoad() {
+        TinyST.testBulkLoad(trees);
+    }
+
+    @Test public void testBulkLoadUnsorted() {
+        TinyST.testBulkLoadUnsorted(trees);
+    }
+
+    @Test public void testDeleteEnd() {
+        TinyST.testDeleteEnd(trees);
+    }
+
+    @Test public void testSplitJoin() {
+        TinyST.testSplitJoin(trees);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testJoinOutOfOrder() {
+        TinyST.testJoinOutOfOrder(trees);
+    }
+
+    @Test public void testDeleteRange() {
+        TinyST.testDeleteRange(trees);
+    }
+
+    @Test public void testDeleteRangeBlackHeights() {
+        // random puts and deletes leave red nodes all over the tree, so the
+        // black heights passed down by split meet every case of join
+        LLRBTree<Integer, Integer> st2 = new LLRBTree<>();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(13);
+        for (int i = 0; i < 50 * numNodes; i++) {
+            int k = gen.nextInt(50 * numNodes);
+            if (gen.nextInt(4) == 0) {
+                st2.delete(k);
+                ref.remove(k);
+            } else {
+                st2.put(k, k);
+                ref.put(k, k);
+            }
+        }
+        for (int i = 0; i < 200; i++) {
+            int lo = gen.nextInt(50 * numNodes);
+            int hi = lo + gen.nextInt(1 << gen.nextInt(16));
+            int expected = ref.subMap(lo, true, hi, true).size();
+            LLRBTree<Integer, Integer> mid = st2.extractRange(lo, hi);
+            ref.subMap(lo, true, hi, true).clear();
+            assertThat(mid.size(), is(expected));
+            assertThat(mid.check(), is("pass"));
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(ref.size()));
+        }
+    }
+
+    @Test public void testSetOperations() {
+        TinyST.testSetOperations(trees);
+    }
+
+    @Test public void testAggregate() {
+        TinyST.testAggregate(trees);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAggregateOther() {
+        TinyST.testAggregateOther(trees);
+    }
+
+    @Test public void testCursor() {
+        TinyST.testCursor(trees);
+    }
+
+    @Test public void testCursorSetValueAggregate() {
+        TinyST.testCursorSetValueAggregate(trees);
+    }
+
+    @Test public void testStream() {
+        TinyST.testStream(trees);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testSpliteratorModified() {
+        TinyST.testSpliteratorModified(trees);
+    }
+
+    @Test public void testMetrics() throws Exception {
+        TinyST.testMetrics(trees, m -> assertThat(m.getFlips() > 0, is(true)), m -> assertThat(m.getRegroups() > 0, is(true)));
+    }
+
+    @Test public void testComputeRandom() {
+        TinyST.testComputeRandom(trees);
+    }
+
+    @Test public void testSnapshot() throws IOException {
+        TinyST.testSnapshot(trees);
+    }
+
+    @Test public void testSnapshotCompression() throws IOException {
+        TinyST.testSnapshotCompression(trees);
+    }
+
+    @Test(expected = IOException.class)
+    public void testSnapshotCorrupt() throws IOException {
+        TinyST.testSnapshotCorrupt(trees);
+    }
 }
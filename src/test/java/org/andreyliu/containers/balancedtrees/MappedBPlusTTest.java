@@ -0,0 +1,220 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class MappedBPlusTTest {
+    private final int numNodes = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file() throws IOException {
+        return folder.newFile().toPath();
+    }
+
+    @Test public void testInsert() throws IOException {
+        try (MappedBPlusTree<Integer, Integer> st = MappedBPlusTree.open(file(), Codec.INT, Codec.INT, 128)) {
+            for (int i = 0; i < numNodes; i++) {
+                st.put(i, i);
+                assertThat(st.check(), is("pass"));
+            }
+            assertThat(st.size(), is(numNodes));
+            assertThat(st.height() > 1, is(true));
+            for (int i = 0; i < numNodes; i++) {
+                assertThat(st.get(i), is(i));
+                assertThat(st.select(i), is(i));
+                assertThat(st.rank(i), is(i));
+            }
+            assertThat(st.get(numNodes), is((Integer) null));
+        }
+    }
+
+    @Test public void testRandomOps() throws IOException {
+        // small pages so that every split, borrow and merge path runs
+        for (int pageSize = 128; pageSize <= 512; pageSize *= 2) {
+            try (MappedBPlusTree<Integer, Long> st = MappedBPlusTree.open(file(), Codec.INT, Codec.LONG, pageSize)) {
+                TreeMap<Integer, Long> ref = new TreeMap<>();
+                Random gen = new Random(pageSize);
+                for (int i = 0; i < 20 * numNodes; i++) {
+                    int k = gen.nextInt(numNodes);
+                    if (gen.nextBoolean()) {
+                        st.put(k, (long) i);
+                        ref.put(k, (long) i);
+                    } else {
+                        st.delete(k);
+                        ref.remove(k);
+                    }
+                    assertThat(st.get(k), is(ref.get(k)));
+                    assertThat(st.floor(k), is(ref.floorKey(k)));
+                    assertThat(st.ceiling(k), is(ref.ceilingKey(k)));
+                }
+                assertThat(st.check(), is("pass"));
+                assertThat(st.size(), is(ref.size()));
+                assertThat(st.size(100, 700), is(ref.subMap(100, true, 700, true).size()));
+                List<Integer> actual = new ArrayList<>();
+                st.keys(100, 700).forEach(actual::add);
+                assertThat(actual, is(new ArrayList<>(ref.subMap(100, true, 700, true).keySet())));
+                actual.clear();
+                st.descendingKeys().forEach(actual::add);
+                assertThat(actual, is(new ArrayList<>(ref.descendingKeySet())));
+                while (!st.isEmpty()) {
+                    assertThat(st.min(), is(ref.firstKey()));
+                    st.deleteMin();
+                    ref.pollFirstEntry();
+                    if (!ref.isEmpty()) {
+                        assertThat(st.max(), is(ref.lastKey()));
+                        st.deleteMax();
+                        ref.pollLastEntry();
+                    }
+                }
+                assertThat(st.check(), is("pass"));
+            }
+        }
+    }
+
+    @Test public void testReopen() throws IOException {
+        Path path = file();
+        try (MappedBPlusTree<String, Integer> st = MappedBPlusTree.open(path, Codec.utf8(16), Codec.INT, 256)) {
+            for (int i = 0; i < numNodes; i++) {
+                st.put("key" + i, i);
+            }
+            for (int i = 0; i < numNodes; i += 3) {
+                st.delete("key" + i);
+            }
+        }
+        // the page size is read back from the file
+        try (MappedBPlusTree<String, Integer> st = MappedBPlusTree.open(path, Codec.utf8(16), Codec.INT)) {
+            assertThat(st.check(), is("pass"));
+            assertThat(st.size(), is(numNodes - (numNodes + 2) / 3));
+            for (int i = 0; i < numNodes; i++) {
+                assertThat(st.get("key" + i), is(i % 3 == 0 ? null : i));
+            }
+            st.put("zzz", -1);
+        }
+        try (MappedBPlusTree<String, Integer> st = MappedBPlusTree.open(path, Codec.utf8(16), Codec.INT)) {
+            assertThat(st.max(), is("zzz"));
+            assertThat(st.check(), is("pass"));
+        }
+    }
+
+    @Test public void testSegments() throws IOException {
+        // four pages to a segment, so the tree spans many mappings
+        try (MappedBPlusTree<Long, Long> st = MappedBPlusTree.open(file(), Codec.LONG, Codec.LONG, 128, 512)) {
+            for (long i = 0; i < 10 * numNodes; i++) {
+                st.put(i * 7 % (10 * numNodes), i);
+            }
+            assertThat(st.check(), is("pass"));
+            assertThat(st.size(), is(10 * numNodes));
+            long next = 0;
+            for (OrderedMap.Entry<Long, Long> e : st.entries()) {
+                assertThat(e.getKey(), is(next++));
+                assertThat(e.getKey(), is(e.getValue() * 7 % (10 * numNodes)));
+            }
+        }
+    }
+
+    @Test public void testFreePagesReused() throws IOException {
+        try (MappedBPlusTree<Integer, Integer> st = MappedBPlusTree.open(file(), Codec.INT, Codec.INT, 128)) {
+            for (int i = 0; i < numNodes; i++) {
+                st.put(i, i);
+            }
+            int pages = st.pages();
+            for (int i = 0; i < numNodes; i++) {
+                st.delete(i);
+            }
+            assertThat(st.check(), is("pass"));
+            for (int i = 0; i < numNodes; i++) {
+                st.put(i, i);
+            }
+            assertThat(st.check(), is("pass"));
+            assertThat(st.pages(), is(pages));
+        }
+    }
+
+    @Test public void testDirty() throws IOException {
+        Path path = file();
+        MappedBPlusTree<Integer, Integer> st = MappedBPlusTree.open(path, Codec.INT, Codec.INT, 128);
+        st.put(1, 1);
+        st.flush();
+        // clean after a flush, dirty again after the next update
+        MappedBPlusTree.open(path, Codec.INT, Codec.INT).close();
+        st.put(2, 2);
+        try {
+            MappedBPlusTree.open(path, Codec.INT, Codec.INT).close();
+            throw new AssertionError("opened a dirty file");
+        } catch (IOException e) {
+            // expected
+        }
+        // a delete of an absent key writes nothing
+        st.close();
+        try (MappedBPlusTree<Integer, Integer> reopened = MappedBPlusTree.open(path, Codec.INT, Codec.INT)) {
+            reopened.delete(3);
+            assertThat(reopened.size(), is(2));
+        }
+        MappedBPlusTree.open(path, Codec.INT, Codec.INT).close();
+    }
+
+    @Test public void testUtf8Compare() {
+        Codec<String> codec = Codec.utf8(32);
+        ByteBuffer b = ByteBuffer.allocate(codec.width());
+        // ASCII, two and three byte chars, chars above the surrogates, and
+        // a supplementary char, which UTF-8 and String order differently
+        String[] chars = {"a", "z", "\u00e9", "\u4e2d", "\uff21", "\ud83d\ude00", ""};
+        Random gen = new Random(7);
+        for (int i = 0; i < 10 * numNodes; i++) {
+            String s = randomString(chars, gen);
+            String t = randomString(chars, gen);
+            codec.write(b, 0, s);
+            assertThat(Integer.signum(codec.compare(t, b, 0)), is(Integer.signum(t.compareTo(s))));
+        }
+    }
+
+    private static String randomString(String[] chars, Random gen) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = gen.nextInt(5); n > 0; n--) {
+            sb.append(chars[gen.nextInt(chars.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyTooLong() throws IOException {
+        try (MappedBPlusTree<String, Integer> st = MappedBPlusTree.open(file(), Codec.utf8(4), Codec.INT, 128)) {
+            st.put("a", 1);
+            try {
+                st.put("abcde", 2);
+            } finally {
+                assertThat(st.check(), is("pass"));
+                assertThat(st.size(), is(1));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCodecMismatch() throws IOException {
+        Path path = file();
+        MappedBPlusTree.open(path, Codec.INT, Codec.INT).close();
+        MappedBPlusTree.open(path, Codec.LONG, Codec.INT).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotATree() throws IOException {
+        Path path = file();
+        Files.write(path, new byte[] {1, 2, 3, 4});
+        MappedBPlusTree.open(path, Codec.INT, Codec.INT).close();
+    }
+}
@@ -0,0 +1,77 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class OrderedMultimapTest {
+    private final int numNodes = 1000;
+
+    @Test public void testRandomOps() {
+        OrderedMultimap<Integer, Integer> st = new OrderedMultimap<>();
+        TreeMap<Integer, List<Integer>> ref = new TreeMap<>();
+        Random gen = new Random(2);
+        for (int i = 0; i < 20 * numNodes; i++) {
+            int k = gen.nextInt(numNodes / 10);
+            int v = gen.nextInt(5);
+            switch (gen.nextInt(5)) {
+                case 0:
+                    List<Integer> values = ref.get(k);
+                    boolean removed = values != null && values.remove((Integer) v);
+                    if (values != null && values.isEmpty()) ref.remove(k);
+                    assertThat(st.remove(k, v), is(removed));
+                    break;
+                case 1:
+                    List<Integer> all = ref.remove(k);
+                    assertThat(st.removeAll(k), is(all == null ? Collections.<Integer>emptyList() : all));
+                    break;
+                default:
+                    st.put(k, v);
+                    ref.computeIfAbsent(k, x -> new ArrayList<>()).add(v);
+            }
+            assertThat(st.get(k), is(ref.getOrDefault(k, Collections.emptyList())));
+        }
+        assertThat(st.check(), is("pass"));
+        assertThat(st.distinctSize(), is(ref.size()));
+
+        List<OrderedMap.Entry<Integer, Integer>> expected = new ArrayList<>();
+        ref.forEach((k, values) -> values.forEach(v -> expected.add(new SimpleEntry<>(k, v))));
+        assertThat(st.size(), is(expected.size()));
+        int i = 0;
+        for (OrderedMap.Entry<Integer, Integer> e : st.entries()) {
+            OrderedMap.Entry<Integer, Integer> s = st.select(i);
+            assertThat(e.getKey(), is(expected.get(i).getKey()));
+            assertThat(e.getValue(), is(expected.get(i).getValue()));
+            assertThat(s.getKey(), is(e.getKey()));
+            assertThat(s.getValue(), is(e.getValue()));
+            assertThat(st.rank(e.getKey()) <= i && i < st.rank(e.getKey()) + st.count(e.getKey()), is(true));
+            i++;
+        }
+        assertThat(i, is(expected.size()));
+        assertThat(st.size(10, 20), is(ref.subMap(10, true, 20, true).values().stream().mapToInt(List::size).sum()));
+    }
+
+    @Test public void testInsertionOrder() {
+        OrderedMultimap<String, Integer> st = new OrderedMultimap<>();
+        st.put("b", 3);
+        st.put("a", 1);
+        st.put("b", 1);
+        st.put("b", 3);
+        assertThat(st.get("b"), is(Arrays.asList(3, 1, 3)));
+        assertThat(st.select(1).getValue(), is(3));
+        assertThat(st.select(3).getValue(), is(3));
+        assertThat(st.remove("b", 3), is(true));
+        assertThat(st.get("b"), is(Arrays.asList(1, 3)));
+        assertThat(st.size("a", "b"), is(3));
+        assertThat(st.get("c").isEmpty(), is(true));
+        assertThat(st.check(), is("pass"));
+    }
+}
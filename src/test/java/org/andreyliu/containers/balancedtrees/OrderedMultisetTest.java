@@ -0,0 +1,101 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class OrderedMultisetTest {
+    private final int numNodes = 1000;
+
+    // every occurrence of ref in order
+    private static List<Integer> occurrences(TreeMap<Integer, Integer> ref) {
+        List<Integer> all = new ArrayList<>();
+        ref.forEach((k, c) -> {
+            for (int i = 0; i < c; i++) {
+                all.add(k);
+            }
+        });
+        return all;
+    }
+
+    @Test public void testRandomOps() {
+        OrderedMultiset<Integer> st = new OrderedMultiset<>();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(1);
+        for (int i = 0; i < 20 * numNodes; i++) {
+            int k = gen.nextInt(numNodes / 10);
+            switch (gen.nextInt(6)) {
+                case 0:
+                    assertThat(st.remove(k), is(ref.containsKey(k)));
+                    ref.computeIfPresent(k, (x, c) -> c == 1 ? null : c - 1);
+                    break;
+                case 1:
+                    Integer c = ref.remove(k);
+                    assertThat(st.removeAll(k), is(c == null ? 0 : c));
+                    break;
+                case 2:
+                    st.add(k, 3);
+                    ref.merge(k, 3, Integer::sum);
+                    break;
+                default:
+                    st.add(k);
+                    ref.merge(k, 1, Integer::sum);
+            }
+            assertThat(st.count(k), is(ref.getOrDefault(k, 0)));
+            int lo = gen.nextInt(numNodes / 10);
+            int hi = lo + gen.nextInt(20);
+            int expected = 0;
+            for (int x : ref.subMap(lo, true, hi, true).values()) {
+                expected += x;
+            }
+            assertThat(st.size(lo, hi), is(expected));
+        }
+        assertThat(st.check(), is("pass"));
+        assertThat(st.distinctSize(), is(ref.size()));
+        List<Integer> all = occurrences(ref);
+        assertThat(st.size(), is(all.size()));
+        for (int i = 0; i < all.size(); i++) {
+            int k = all.get(i);
+            assertThat(st.select(i), is(k));
+            assertThat(st.rank(k), is(all.indexOf(k)));
+        }
+        assertThat(st.select(all.size()), is((Integer) null));
+        assertThat(st.select(-1), is((Integer) null));
+        List<Integer> actual = new ArrayList<>();
+        st.forEach(actual::add);
+        assertThat(actual, is(all));
+    }
+
+    @Test public void testDuplicates() {
+        OrderedMultiset<String> st = new OrderedMultiset<>();
+        st.add("b");
+        st.add("a");
+        st.add("b");
+        st.add("c", 2);
+        assertThat(st.size(), is(5));
+        assertThat(st.distinctSize(), is(3));
+        assertThat(st.rank("b"), is(1));
+        assertThat(st.rank("c"), is(3));
+        assertThat(st.rank("d"), is(5));
+        assertThat(st.select(2), is("b"));
+        assertThat(st.select(3), is("c"));
+        assertThat(st.size("b", "c"), is(4));
+        assertThat(st.remove("b"), is(true));
+        assertThat(st.count("b"), is(1));
+        assertThat(st.remove("b"), is(true));
+        assertThat(st.contains("b"), is(false));
+        assertThat(st.remove("b"), is(false));
+        assertThat(st.check(), is("pass"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNothing() {
+        new OrderedMultiset<Integer>().add(1, 0);
+    }
+}
@@ -0,0 +1,179 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PersistentAVLTTest {
+    private int numNodes;
+    private TinyST<PersistentAVLTree<String, Integer>> test;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void initialize() {
+        numNodes = 1000;
+        test = new TinyST<>((Class<PersistentAVLTree<String, Integer>>) (Class<?>) PersistentAVLTree.class);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    @Test public void testInsert2() {
+        PersistentAVLTree<Integer, Integer> st2 = new PersistentAVLTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+            assertThat(st2.check(), is("pass"));
+        }
+        assertThat(st2.height(), is(9));
+    }
+
+    @Test public void testRandomOps() {
+        PersistentAVLTree<Integer, Integer> st2 = new PersistentAVLTree<>();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(2);
+        for (int i = 0; i < 5 * numNodes; i++) {
+            int k = gen.nextInt(numNodes);
+            switch (gen.nextInt(4)) {
+                case 0:
+                    st2.delete(k);
+                    ref.remove(k);
+                    break;
+                case 1:
+                    if (!ref.isEmpty()) {
+                        st2.deleteMin();
+                        ref.pollFirstEntry();
+                    }
+                    break;
+                default:
+                    st2.put(k, i);
+                    ref.put(k, i);
+            }
+            assertThat(st2.get(k), is(ref.get(k)));
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(ref.size()));
+        while (!st2.isEmpty()) {
+            st2.deleteMax();
+            assertThat(st2.check(), is("pass"));
+        }
+    }
+
+    @Test public void testSnapshot() {
+        PersistentAVLTree<Integer, Integer> st2 = new PersistentAVLTree<>();
+        List<PersistentAVLTree<Integer, Integer>> versions = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            versions.add(st2.snapshot());
+            st2.put(i, i);
+        }
+        for (int i = 0; i < numNodes; i++) {
+            st2.delete(i);
+        }
+        assertThat(st2.isEmpty(), is(true));
+        // version i holds keys 0 to i - 1, whatever happened afterwards
+        for (int i = 0; i < numNodes; i += 97) {
+            PersistentAVLTree<Integer, Integer> v = versions.get(i);
+            assertThat(v.check(), is("pass"));
+            assertThat(v.size(), is(i));
+            int next = 0;
+            for (Integer k : v.keys()) {
+                assertThat(k, is(next++));
+            }
+            assertThat(next, is(i));
+        }
+        // updating a snapshot leaves the map it was taken from alone
+        PersistentAVLTree<Integer, Integer> v = versions.get(10);
+        PersistentAVLTree<Integer, Integer> w = v.snapshot();
+        w.put(-1, -1);
+        w.delete(5);
+        assertThat(v.size(), is(10));
+        assertThat(v.contains(5), is(true));
+        assertThat(w.size(), is(10));
+        assertThat(w.contains(-1), is(true));
+    }
+
+    @Test public void testReadersDuringUpdates() throws InterruptedException {
+        // the writer only ever adds or removes the largest key, so every
+        // version holds the keys 0 to size - 1
+        PersistentAVLTree<Integer, Integer> st2 = new PersistentAVLTree<>();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            Thread reader = new Thread(() -> {
+                while (!done.get()) {
+                    PersistentAVLTree<Integer, Integer> v = st2.snapshot();
+                    int next = 0;
+                    for (Integer k : v.keys()) {
+                        if (k != next++) {
+                            failure.set("missing key " + (next - 1));
+                        }
+                    }
+                    if (next != v.size()) {
+                        failure.set("scanned " + next + " keys of " + v.size());
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < numNodes; i++) {
+                st2.put(i, i);
+            }
+            while (!st2.isEmpty()) {
+                st2.deleteMax();
+            }
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertThat(failure.get(), is((String) null));
+    }
+}
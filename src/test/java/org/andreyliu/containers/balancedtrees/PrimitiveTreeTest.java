@@ -0,0 +1,134 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Test;
+
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PrimitiveTreeTest {
+    private static final int NUM_OPS = 5000;
+    private static final int KEY_RANGE = 1000;
+    private static final long ABSENT = Long.MIN_VALUE;
+
+    @Test
+    public void testLongAVLTree() {
+        LongAVLTree<String> st = new LongAVLTree<>();
+        TreeMap<Long, String> ref = new TreeMap<>();
+        Random gen = new Random(1);
+        for (int i = 0; i < NUM_OPS; i++) {
+            long k = gen.nextInt(KEY_RANGE) - KEY_RANGE / 2;
+            if (gen.nextInt(3) == 0) {
+                st.delete(k);
+                ref.remove(k);
+            } else {
+                st.put(k, "v" + i);
+                ref.put(k, "v" + i);
+            }
+            assertThat(st.get(k), is(ref.get(k)));
+        }
+        assertThat(st.check(), is("pass"));
+        assertThat(st.size(), is(ref.size()));
+        assertThat(st.min(), is(ref.firstKey()));
+        assertThat(st.max(), is(ref.lastKey()));
+        for (long k = -KEY_RANGE / 2 - 1; k <= KEY_RANGE / 2; k++) {
+            Long floor = ref.floorKey(k);
+            Long ceil = ref.ceilingKey(k);
+            assertThat(st.floor(k, ABSENT), is(floor == null ? ABSENT : floor));
+            assertThat(st.ceiling(k, ABSENT), is(ceil == null ? ABSENT : ceil));
+            assertThat(st.rank(k), is(ref.headMap(k).size()));
+            assertThat(st.size(k, k + 10), is(ref.subMap(k, true, k + 10, true).size()));
+        }
+        int i = 0;
+        for (long k : ref.keySet()) {
+            assertThat(st.select(i++), is(k));
+        }
+        assertKeys(st.keys(-10, 40), ref.subMap(-10L, true, 40L, true).keySet());
+        while (!st.isEmpty()) {
+            st.deleteMin();
+            st.deleteMax();
+            assertThat(st.check(), is("pass"));
+        }
+    }
+
+    @Test
+    public void testLongLongLLRBTree() {
+        LongLongLLRBTree st = new LongLongLLRBTree();
+        TreeMap<Long, Long> ref = new TreeMap<>();
+        Random gen = new Random(2);
+        for (int i = 0; i < NUM_OPS; i++) {
+            long k = gen.nextInt(KEY_RANGE) * 1_000_000_007L;
+            if (gen.nextInt(3) == 0) {
+                st.delete(k);
+                ref.remove(k);
+            } else {
+                st.put(k, i);
+                ref.put(k, (long) i);
+            }
+            assertThat(st.get(k, ABSENT), is(ref.getOrDefault(k, ABSENT)));
+            assertThat(st.contains(k), is(ref.containsKey(k)));
+        }
+        assertThat(st.check(), is("pass"));
+        assertThat(st.size(), is(ref.size()));
+        for (long k = -1; k <= KEY_RANGE * 1_000_000_007L; k += 500_000_003L) {
+            Long floor = ref.floorKey(k);
+            Long ceil = ref.ceilingKey(k);
+            assertThat(st.floor(k, ABSENT), is(floor == null ? ABSENT : floor));
+            assertThat(st.ceiling(k, ABSENT), is(ceil == null ? ABSENT : ceil));
+            assertThat(st.rank(k), is(ref.headMap(k).size()));
+        }
+        int i = 0;
+        for (long k : ref.keySet()) {
+            assertThat(st.select(i++), is(k));
+        }
+        assertKeys(st.keys(), ref.keySet());
+        while (!st.isEmpty()) {
+            st.deleteMin();
+            st.deleteMax();
+            assertThat(st.check(), is("pass"));
+        }
+    }
+
+    @Test
+    public void testIntIntAVLTree() {
+        IntIntAVLTree st = new IntIntAVLTree();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(3);
+        for (int i = 0; i < NUM_OPS; i++) {
+            int k = gen.nextInt(KEY_RANGE);
+            if (gen.nextInt(3) == 0) {
+                st.delete(k);
+                ref.remove(k);
+            } else {
+                st.put(k, -i);
+                ref.put(k, -i);
+            }
+            assertThat(st.get(k, 1), is(ref.getOrDefault(k, 1)));
+        }
+        assertThat(st.check(), is("pass"));
+        assertThat(st.height() <= 1.44 * Math.log(st.size() + 2) / Math.log(2), is(true));
+        int i = 0;
+        for (int k : ref.keySet()) {
+            assertThat(st.select(i), is(k));
+            assertThat(st.rank(k), is(i++));
+        }
+        assertThat(st.size(100, 200), is(ref.subMap(100, true, 200, true).size()));
+        assertThat(st.size(200, 100), is(0));
+        PrimitiveIterator.OfInt it = st.keys(250, 260);
+        for (int k : ref.subMap(250, true, 260, true).keySet()) {
+            assertThat(it.nextInt(), is(k));
+        }
+        assertThat(it.hasNext(), is(false));
+    }
+
+    private static void assertKeys(PrimitiveIterator.OfLong it, Iterable<Long> expected) {
+        for (long k : expected) {
+            assertThat(it.hasNext(), is(true));
+            assertThat(it.nextLong(), is(k));
+        }
+        assertThat(it.hasNext(), is(false));
+    }
+}
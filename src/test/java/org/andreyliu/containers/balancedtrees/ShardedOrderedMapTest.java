@@ -0,0 +1,257 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ShardedOrderedMapTest {
+    private int numNodes;
+    private TinyST<ShardedOrderedMap<String, Integer>> test;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void initialize() {
+        numNodes = 1000;
+        test = new TinyST<>((Class<ShardedOrderedMap<String, Integer>>) (Class<?>) ShardedOrderedMap.class);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    @Test public void testRandomOps() {
+        for (ShardedOrderedMap.Backing backing : ShardedOrderedMap.Backing.values()) {
+            // small shards, so the map splits and merges many times
+            ShardedOrderedMap<Integer, Integer> st2 = new ShardedOrderedMap<>(backing, 16, 8);
+            TreeMap<Integer, Integer> ref = new TreeMap<>();
+            Random gen = new Random(2);
+            int maxShards = 1;
+            for (int i = 0; i < 20 * numNodes; i++) {
+                int k = gen.nextInt(numNodes);
+                // grow, then shrink, then grow again
+                boolean shrinking = i / (5 * numNodes) % 2 == 1;
+                if (gen.nextInt(4) < (shrinking ? 3 : 1)) {
+                    st2.delete(k);
+                    ref.remove(k);
+                } else {
+                    st2.put(k, i);
+                    ref.put(k, i);
+                }
+                maxShards = Math.max(maxShards, st2.shardCount());
+                assertThat(st2.get(k), is(ref.get(k)));
+                assertThat(st2.floor(k), is(ref.floorKey(k)));
+                assertThat(st2.ceiling(k), is(ref.ceilingKey(k)));
+            }
+            assertThat(maxShards > 1, is(true));
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(ref.size()));
+            int i = 0;
+            for (Integer k : ref.keySet()) {
+                assertThat(st2.rank(k), is(i));
+                assertThat(st2.select(i++), is(k));
+            }
+            assertThat(st2.size(100, 700), is(ref.subMap(100, true, 700, true).size()));
+            List<Integer> expected = new ArrayList<>(ref.subMap(100, true, 700, true).keySet());
+            List<Integer> actual = new ArrayList<>();
+            st2.keys(100, 700).forEach(actual::add);
+            assertThat(actual, is(expected));
+            actual.clear();
+            st2.descendingKeys().forEach(actual::add);
+            assertThat(actual, is(new ArrayList<>(ref.descendingKeySet())));
+            while (!st2.isEmpty()) {
+                assertThat(st2.min(), is(ref.firstKey()));
+                st2.deleteMin();
+                ref.pollFirstEntry();
+                if (!ref.isEmpty()) {
+                    assertThat(st2.max(), is(ref.lastKey()));
+                    st2.deleteMax();
+                    ref.pollLastEntry();
+                }
+            }
+            assertThat(st2.check(), is("pass"));
+        }
+    }
+
+    @Test public void testHotShardSplits() {
+        // uniform writes to enough entries for a few shards, then writes to
+        // a narrow range only
+        ShardedOrderedMap<Integer, Integer> st2 = new ShardedOrderedMap<>(ShardedOrderedMap.Backing.LLRB, 64, 1 << 14);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1 << 16; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(3));
+        for (Integer k : keys) {
+            st2.put(k, k);
+        }
+        int before = st2.shardCount();
+        for (int i = 0; i < 64 * ShardedOrderedMap.CHECK_PERIOD; i++) {
+            st2.put(i % 512, i);
+        }
+        assertThat(st2.shardCount() > before, is(true));
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(1 << 16));
+    }
+
+    @Test public void testConcurrentUpdates() throws InterruptedException {
+        // each writer owns the keys congruent to its index, so the final
+        // contents must match the writers' own references
+        int writers = 4;
+        ShardedOrderedMap<Integer, Integer> st2 = new ShardedOrderedMap<>(ShardedOrderedMap.Backing.AVL, 32, 16);
+        List<TreeMap<Integer, Integer>> refs = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        for (int t = 0; t < writers; t++) {
+            TreeMap<Integer, Integer> ref = new TreeMap<>();
+            refs.add(ref);
+            int owner = t;
+            threads.add(new Thread(() -> {
+                Random gen = new Random(owner);
+                for (int i = 0; i < 50 * numNodes; i++) {
+                    int k = writers * gen.nextInt(numNodes) + owner;
+                    if (gen.nextInt(2) == 0) {
+                        st2.delete(k);
+                        ref.remove(k);
+                    } else {
+                        st2.put(k, i);
+                        ref.put(k, i);
+                    }
+                    if (!Objects.equals(st2.get(k), ref.get(k))) {
+                        failure.set("lost update of " + k);
+                    }
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                Integer prev = null;
+                for (Integer k : st2.keys()) {
+                    if (prev != null && prev >= k) {
+                        failure.set("keys out of order: " + prev + ", " + k);
+                    }
+                    prev = k;
+                }
+                // keys and values of entries are read together
+                for (int k = 0; k < writers * numNodes; k += 97) {
+                    for (OrderedMap.Entry<Integer, Integer> e : Arrays.asList(st2.floorEntry(k), st2.ceilingEntry(k),
+                            st2.minEntry(), st2.maxEntry())) {
+                        if (e != null && e.getValue() == null) {
+                            failure.set("no value for " + e.getKey());
+                        }
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        reader.join();
+        assertThat(failure.get(), is((String) null));
+
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        refs.forEach(expected::putAll);
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(expected.size()));
+        for (OrderedMap.Entry<Integer, Integer> e : st2.entries()) {
+            assertThat(e.getValue(), is(expected.get(e.getKey())));
+        }
+    }
+
+    @Test public void testRankWhileResharding() throws InterruptedException {
+        // the keys never change, only their values, so every rank, select
+        // and range size has one right answer however the shards move
+        int n = 4 * numNodes;
+        ShardedOrderedMap<Integer, Integer> st2 = new ShardedOrderedMap<>(ShardedOrderedMap.Backing.LLRB, 64, 16);
+        for (int i = 0; i < n; i++) {
+            st2.put(i, i);
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            Random gen = new Random(5);
+            // a hot range that moves, so shards split where it is and merge
+            // where it was
+            for (int i = 0; i < 200 * numNodes; i++) {
+                int hot = (i / (4 * ShardedOrderedMap.CHECK_PERIOD)) * 397 % n;
+                st2.put((hot + gen.nextInt(n / 16)) % n, i);
+            }
+            done.set(true);
+        });
+        Thread reader = new Thread(() -> {
+            Random gen = new Random(6);
+            while (!done.get()) {
+                int k = gen.nextInt(n);
+                int rank = st2.rank(k);
+                Integer selected = st2.select(k);
+                int size = st2.size(k / 2, k);
+                if (rank != k || !Objects.equals(selected, k) || size != k - k / 2 + 1) {
+                    failure.set("rank(" + k + ")=" + rank + ", select(" + k + ")=" + selected
+                            + ", size(" + k / 2 + ", " + k + ")=" + size);
+                }
+            }
+        });
+        int before = st2.shardCount();
+        reader.start();
+        writer.start();
+        writer.join();
+        reader.join();
+        assertThat(failure.get(), is((String) null));
+        assertThat(st2.shardCount() != before, is(true));
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(n));
+    }
+}
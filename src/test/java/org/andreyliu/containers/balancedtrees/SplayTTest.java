@@ -0,0 +1,172 @@
+package org.andreyliu.containers.balancedtrees;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SplayTTest {
+    private int numNodes;
+    private TinyST<SplayTree<String, Integer>> test;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void initialize() {
+        numNodes = 1000;
+        test = new TinyST<>((Class<SplayTree<String, Integer>>) (Class<?>) SplayTree.class);
+    }
+
+    @Test
+    public void testInsert1() {
+        test.testInsert();
+    }
+
+    @Test
+    public void testKeys() {
+        test.testKeys();
+    }
+
+    @Test
+    public void testSelect() {
+        test.testSelect();
+    }
+
+    @Test
+    public void testFloorCeil() {
+        test.testFloorCeil();
+    }
+
+    @Test
+    public void testRangeSearch() {
+        test.testRangeSearch();
+    }
+
+    @Test
+    public void testIterators() {
+        test.testIterators();
+    }
+
+    @Test
+    public void testDelete1() {
+        test.testDelete();
+    }
+
+    @Test
+    public void testFusedOps() {
+        test.testFusedOps();
+    }
+
+    @Test public void testInsert2() {
+        // ascending inserts leave a path, which splaying must handle without recursion
+        SplayTree<Integer, Integer> st2 = new SplayTree<>();
+        for (int i = 0; i < 100 * numNodes; i++) {
+            st2.put(i, i);
+        }
+        assertThat(st2.height(), is(100 * numNodes - 1));
+        assertThat(st2.get(0), is(0));
+        // splaying the deepest key halves the depth of its path
+        assertThat(st2.height() < 100 * numNodes / 2 + 2, is(true));
+        for (int i = 0; i < numNodes; i++) {
+            assertThat(st2.get(i), is(i));
+        }
+        assertThat(st2.size(), is(100 * numNodes));
+        assertThat(st2.rank(numNodes), is(numNodes));
+    }
+
+    @Test public void testRandom() {
+        Aggregator<Integer, Long> sum = Aggregator.sum(v -> v);
+        SplayTree<Integer, Integer> st2 = new SplayTree<>(sum);
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(5);
+        for (int i = 0; i < 20 * numNodes; i++) {
+            int k = gen.nextInt(numNodes);
+            switch (gen.nextInt(3)) {
+                case 0:
+                    st2.put(k, i);
+                    ref.put(k, i);
+                    break;
+                case 1:
+                    assertThat(st2.remove(k), is(ref.remove(k)));
+                    break;
+                default:
+                    assertThat(st2.get(k), is(ref.get(k)));
+            }
+            if (i % numNodes == 0) {
+                assertThat(st2.check(), is("pass"));
+            }
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(ref.size()));
+        assertThat(st2.aggregate(sum), is(ref.values().stream().mapToLong(v -> v).sum()));
+        assertThat(st2.aggregate(sum, 100, 200),
+                is(ref.subMap(100, true, 200, true).values().stream().mapToLong(v -> v).sum()));
+        while (!st2.isEmpty()) {
+            st2.deleteMin();
+            st2.deleteMax();
+        }
+        assertThat(st2.check(), is("pass"));
+    }
+
+    @Test public void testIterateWhileGetting() {
+        SplayTree<Integer, Integer> st2 = new SplayTree<>();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+        }
+        Random gen = new Random(7);
+        List<Integer> keys = new ArrayList<>();
+        for (Integer k : st2.keys()) {
+            keys.add(k);
+            st2.get(gen.nextInt(numNodes));
+            st2.put(k, -k);
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < numNodes; i++) {
+            expected.add(i);
+        }
+        assertThat(keys, is(expected));
+        keys.clear();
+        for (Integer k : st2.descendingKeys(100, 200)) {
+            keys.add(k);
+            st2.get(gen.nextInt(numNodes));
+        }
+        assertThat(keys.size(), is(101));
+        assertThat(keys.get(0), is(200));
+        assertThat(keys.get(100), is(100));
+        assertThat(st2.get(500), is(-500));
+    }
+
+    @Test public void testSkewedAccess() {
+        Assume.assumeTrue(TreeMetrics.ENABLED);
+        SplayTree<Integer, Integer> st2 = new SplayTree<>();
+        Random gen = new Random(9);
+        for (int i = 0; i < 100 * numNodes; i++) {
+            st2.put(gen.nextInt(), i);
+        }
+        List<Integer> all = new ArrayList<>();
+        for (Integer k : st2.keys()) {
+            all.add(k);
+        }
+        Integer[] hot = new Integer[10];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = all.get(gen.nextInt(all.size()));
+        }
+        // 90% of the reads go to 10 keys, the rest anywhere
+        for (int i = 0; i < 10 * numNodes; i++) {
+            st2.get(gen.nextInt(10) < 9 ? hot[gen.nextInt(hot.length)] : all.get(gen.nextInt(all.size())));
+        }
+        TreeMetrics m = st2.metrics();
+        for (int i = 0; i < numNodes; i++) {
+            st2.get(hot[gen.nextInt(hot.length)]);
+        }
+        // a balanced tree of this size takes around 17 comparisons each
+        assertThat(m.getComparisonsPerOperation() < 8, is(true));
+        assertThat(st2.check(), is("pass"));
+    }
+}
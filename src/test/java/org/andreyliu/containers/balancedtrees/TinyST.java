@@ -1,16 +1,64 @@
 package org.andreyliu.containers.balancedtrees;
 
+import org.junit.Assume;
+
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
-class TinyST<T extends BST<String, Integer>> {
+class TinyST<T extends OrderedMap<String, Integer>> {
+
+    private static final int numNodes = 1000;
+
+    /**
+     * Operations that AVLTree and LLRBTree both have but BST does not
+     * declare, for the Integer-keyed scenarios their tests share.
+     */
+    interface Trees<S extends BST<Integer, Integer>> {
+        S create();
+        S create(Aggregator<? super Integer, ?> aggregator);
+        S bulkLoad(Iterator<? extends OrderedMap.Entry<Integer, Integer>> entries);
+        S bulkLoad(Iterator<? extends OrderedMap.Entry<Integer, Integer>> entries,
+                   Aggregator<? super Integer, ?> aggregator);
+        S readFrom(InputStream in, Codec<Integer> keys, Codec<Integer> vals) throws IOException;
+        S readFrom(ReadableByteChannel in, Codec<Integer> keys, Codec<Integer> vals) throws IOException;
+        S join(S left, Integer k, Integer v, S right);
+        S split(S st, Integer k);
+        int deleteRange(S st, Integer lo, Integer hi);
+        S extractRange(S st, Integer lo, Integer hi);
+        void union(S st, S other);
+        void intersection(S st, S other);
+        void difference(S st, S other);
+        Cursor<Integer, Integer> cursor(S st);
+        Spliterator<OrderedMap.Entry<Integer, Integer>> spliterator(S st);
+        Spliterator<OrderedMap.Entry<Integer, Integer>> spliterator(S st, Integer lo, Integer hi);
+        Stream<OrderedMap.Entry<Integer, Integer>> stream(S st);
+        Stream<OrderedMap.Entry<Integer, Integer>> parallelStream(S st);
+    }
 
     private T st;
 
@@ -29,6 +77,11 @@ class TinyST<T extends BST<String, Integer>> {
         buildTinyST(st);
     }
 
+    // for maps that cannot be built with puts, already holding tinyST
+    TinyST(T st) {
+        this.st = st;
+    }
+
     static void buildTinyST(OrderedMap<String, Integer> st) {
         try (Scanner sc = new Scanner(new FileReader("src/test/resources/tinyST.txt"))) {
             int i = 0;
@@ -152,6 +205,66 @@ class TinyST<T extends BST<String, Integer>> {
         assertThat(os.toString(), equalTo(rangeSearch));
     }
 
+    void testIterators() {
+        for (String s : st.descendingKeys())
+            ps.print(s + " ");
+        ps.println();
+        for (String s : st.descendingKeys("B", "L"))
+            ps.print(s + " ");
+        ps.println();
+        for (OrderedMap.Entry<String, Integer> e : st.entries("D", "P"))
+            ps.print(e.getKey() + "=" + e.getValue() + " ");
+        ps.println();
+        for (OrderedMap.Entry<String, Integer> e : st.descendingEntries("Z", "A"))
+            ps.print(e.getKey() + "=" + e.getValue() + " ");
+        ps.println();
+        for (String s : st.keys("F", "Z")) {
+            if (s.compareTo("P") > 0) break;
+            ps.print(s + " ");
+        }
+        ps.println();
+
+        String iterators =
+                "X S R P M L H E C A \n" +
+                        "L H E C \n" +
+                        "E=12 H=5 L=11 M=9 P=10 \n" +
+                        "\n" +
+                        "H L M P \n";
+        assertThat(os.toString(), equalTo(iterators));
+    }
+
+    void testFusedOps() {
+        ps.println(st.getOrDefault("A", -1) + " " + st.getOrDefault("B", -1));
+        ps.println(st.putIfAbsent("A", 100) + " " + st.putIfAbsent("B", 1) + " " + st.get("B"));
+        ps.println(st.compute("C", (k, v) -> v + 1) + " " + st.compute("D", (k, v) -> v == null ? 0 : v));
+        ps.println(st.computeIfAbsent("C", k -> -1) + " " + st.computeIfAbsent("F", String::length));
+        ps.println(st.computeIfPresent("G", (k, v) -> 0) + " " + st.computeIfPresent("F", (k, v) -> null));
+        ps.println(st.merge("E", 10, Integer::sum) + " " + st.merge("G", 10, Integer::sum));
+        ps.println(st.merge("G", 10, (a, b) -> null) + " " + st.compute("H", (k, v) -> null));
+        ps.println(st.remove("X") + " " + st.remove("X") + " " + st.size());
+        OrderedMap.Entry<String, Integer> f = st.floorEntry("Q");
+        OrderedMap.Entry<String, Integer> c = st.ceilingEntry("Q");
+        ps.println(f.getKey() + "=" + f.getValue() + " " + c.getKey() + "=" + c.getValue());
+        ps.println(st.floorEntry("0") + " " + st.ceilingEntry("Z"));
+        for (String s : st.keys())
+            ps.print(s + "=" + st.get(s) + " ");
+        ps.println();
+
+        String fused =
+                "8 -1\n" +
+                        "8 null 1\n" +
+                        "5 0\n" +
+                        "5 1\n" +
+                        "null null\n" +
+                        "22 10\n" +
+                        "null null\n" +
+                        "7 null 10\n" +
+                        "P=10 R=3\n" +
+                        "null null\n" +
+                        "A=8 B=1 C=5 D=0 E=22 L=11 M=9 P=10 R=3 S=0 \n";
+        assertThat(os.toString(), equalTo(fused));
+    }
+
     void testDelete() {
         for (int i = 0; i < st.size() / 2; i++) {
             st.deleteMin();
@@ -209,4 +322,554 @@ class TinyST<T extends BST<String, Integer>> {
         assertThat(os.toString(), equalTo(del));
 
     }
+
+    static <S extends BST<Integer, Integer>> void testBulkLoad(Trees<S> trees) {
+        // every size up to a few hundred exercises each split of the input
+        for (int n = 0; n < 300; n++) {
+            List<OrderedMap.Entry<Integer, Integer>> sorted = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                sorted.add(OrderedMap.entry(i, -i));
+            }
+            S st2 = trees.bulkLoad(sorted.iterator());
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(n));
+            for (int i = 0; i < n; i++) {
+                assertThat(st2.select(i), is(i));
+                assertThat(st2.get(i), is(-i));
+            }
+        }
+    }
+
+    static <S extends BST<Integer, Integer>> void testBulkLoadUnsorted(Trees<S> trees) {
+        Random gen = new Random(3);
+        List<OrderedMap.Entry<Integer, Integer>> entries = new ArrayList<>();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            int k = gen.nextInt(numNodes / 2);
+            entries.add(OrderedMap.entry(k, i));
+            ref.put(k, i);
+        }
+        S st2 = trees.bulkLoad(entries.iterator());
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(ref.size()));
+        for (Integer k : ref.keySet()) {
+            assertThat(st2.get(k), is(ref.get(k)));
+        }
+        // still a regular tree afterwards
+        st2.put(numNodes, 0);
+        st2.delete(ref.firstKey());
+        assertThat(st2.check(), is("pass"));
+    }
+
+    static <S extends BST<Integer, Integer>> void testDeleteEnd(Trees<S> trees) {
+        S st2 = trees.create();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(17);
+        for (int i = 0; i < numNodes; i++) {
+            int k = gen.nextInt(10 * numNodes);
+            st2.put(k, -k);
+            ref.put(k, -k);
+        }
+        while (!ref.isEmpty()) {
+            boolean min = gen.nextBoolean();
+            OrderedMap.Entry<Integer, Integer> e = st2.deleteEnd(min);
+            if (min) {
+                ref.pollFirstEntry();
+            } else {
+                ref.pollLastEntry();
+            }
+            if (ref.isEmpty()) {
+                assertThat(e == null, is(true));
+            } else {
+                assertThat(e.getKey(), is(min ? ref.firstKey() : ref.lastKey()));
+                assertThat(e.getValue(), is(-e.getKey()));
+            }
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(ref.size()));
+        }
+        assertThat(st2.deleteEnd(true) == null, is(true));
+    }
+
+    static <S extends BST<Integer, Integer>> void testSplitJoin(Trees<S> trees) {
+        S st2 = trees.create();
+        for (int i = 0; i < numNodes; i += 2) {
+            st2.put(i, i);
+        }
+        for (int k = -1; k <= numNodes; k += 37) {
+            S hi = trees.split(st2, k);
+            assertThat(st2.check(), is("pass"));
+            assertThat(hi.check(), is("pass"));
+            assertThat(st2.isBalanced() && hi.isBalanced(), is(true));
+            assertThat(st2.size(), is(Math.max(0, (k + 1) / 2)));
+            assertThat(st2.size() + hi.size(), is(numNodes / 2));
+            if (!hi.isEmpty()) {
+                assertThat(hi.min() >= k, is(true));
+            }
+            Integer mid = hi.min();
+            if (mid != null && mid % 2 == 0) {
+                hi.delete(mid);
+            }
+            st2 = trees.join(st2, mid == null ? numNodes : mid, mid == null ? numNodes : mid, hi);
+            st2.delete(numNodes);
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(numNodes / 2));
+            assertThat(hi.isEmpty(), is(true));
+        }
+        // joining trees of very different heights
+        S small = trees.create();
+        small.put(-5, -5);
+        st2 = trees.join(small, -1, -1, st2);
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.isBalanced(), is(true));
+        assertThat(st2.min(), is(-5));
+        assertThat(st2.select(1), is(-1));
+    }
+
+    static <S extends BST<Integer, Integer>> void testJoinOutOfOrder(Trees<S> trees) {
+        S left = trees.create();
+        left.put(5, 5);
+        trees.join(left, 3, 3, trees.create());
+    }
+
+    static <S extends BST<Integer, Integer>> void testDeleteRange(Trees<S> trees) {
+        Aggregator<Integer, Long> sum = Aggregator.sum(v -> v);
+        S st2 = trees.create(sum);
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        for (int i = 0; i < numNodes; i += 2) {
+            st2.put(i, i);
+            ref.put(i, i);
+        }
+        Random gen = new Random(11);
+        for (int i = 0; i < 20 && !ref.isEmpty(); i++) {
+            int lo = gen.nextInt(numNodes + 2) - 1;
+            int hi = lo + gen.nextInt(numNodes / 5) - 2;
+            int expected = lo > hi ? 0 : ref.subMap(lo, true, hi, true).size();
+            if (i % 2 == 0) {
+                assertThat(trees.deleteRange(st2, lo, hi), is(expected));
+            } else {
+                S mid = trees.extractRange(st2, lo, hi);
+                assertThat(mid.check(), is("pass"));
+                assertThat(mid.size(), is(expected));
+                if (expected > 0) {
+                    assertThat(mid.min(), is(ref.ceilingKey(lo)));
+                    assertThat(mid.max(), is(ref.floorKey(hi)));
+                    assertThat(mid.aggregate(sum),
+                            is(ref.subMap(lo, true, hi, true).values().stream().mapToLong(v -> v).sum()));
+                }
+            }
+            if (lo <= hi) ref.subMap(lo, true, hi, true).clear();
+            assertThat(st2.check(), is("pass"));
+            assertThat(st2.size(), is(ref.size()));
+            assertThat(st2.aggregate(sum), is(ref.values().stream().mapToLong(v -> v).sum()));
+        }
+        // a prefix and a suffix
+        assertThat(trees.deleteRange(st2, Integer.MIN_VALUE, numNodes / 2), is(ref.headMap(numNodes / 2, true).size()));
+        ref.headMap(numNodes / 2, true).clear();
+        assertThat(trees.extractRange(st2, numNodes - 10, Integer.MAX_VALUE).size(), is(ref.tailMap(numNodes - 10).size()));
+        ref.tailMap(numNodes - 10).clear();
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(ref.size()));
+        assertThat(trees.deleteRange(st2, Integer.MIN_VALUE, Integer.MAX_VALUE), is(ref.size()));
+        assertThat(st2.isEmpty(), is(true));
+        assertThat(trees.extractRange(st2, 0, 1).isEmpty(), is(true));
+    }
+
+    static <S extends BST<Integer, Integer>> void testSetOperations(Trees<S> trees) {
+        // the larger sizes take the parallel path
+        for (int n : new int[] {0, 1, 50, numNodes, 40000}) {
+            checkSetOperations(trees, n, n / 3 + 1, new Random(n));
+            checkSetOperations(trees, n / 3 + 1, n, new Random(n + 1));
+        }
+    }
+
+    private static <S extends BST<Integer, Integer>> void checkSetOperations(Trees<S> trees, int n, int m, Random gen) {
+        TreeMap<Integer, Integer> refA = new TreeMap<>();
+        TreeMap<Integer, Integer> refB = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            refA.put(gen.nextInt(2 * n + 1), i);
+        }
+        for (int i = 0; i < m; i++) {
+            refB.put(gen.nextInt(2 * n + 1), -i);
+        }
+
+        S a = treeOf(trees, refA);
+        S b = treeOf(trees, refB);
+        trees.union(a, b);
+        TreeMap<Integer, Integer> expected = new TreeMap<>(refA);
+        expected.putAll(refB);
+        assertSameEntries(a, expected);
+        assertThat(b.isEmpty(), is(true));
+
+        a = treeOf(trees, refA);
+        b = treeOf(trees, refB);
+        trees.intersection(a, b);
+        expected = new TreeMap<>(refA);
+        expected.keySet().retainAll(refB.keySet());
+        assertSameEntries(a, expected);
+        assertSameEntries(b, refB);
+
+        a = treeOf(trees, refA);
+        trees.difference(a, b);
+        expected = new TreeMap<>(refA);
+        expected.keySet().removeAll(refB.keySet());
+        assertSameEntries(a, expected);
+        assertSameEntries(b, refB);
+    }
+
+    static <S extends BST<Integer, Integer>> void testAggregate(Trees<S> trees) {
+        Aggregator<Integer, Long> sum = Aggregator.sum(v -> v);
+        // not commutative, so the order of the values counts
+        Aggregator<Integer, String> concat = Aggregator.of("", String::valueOf, String::concat);
+        S st2 = trees.create(sum);
+        S st3 = trees.create(concat);
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(7);
+        for (int i = 0; i < 20 * numNodes; i++) {
+            int k = gen.nextInt(numNodes);
+            int v = gen.nextInt(10);
+            switch (gen.nextInt(5)) {
+                case 0:
+                    st2.delete(k);
+                    st3.delete(k);
+                    ref.remove(k);
+                    break;
+                case 1:
+                    st2.deleteMin();
+                    st3.deleteMin();
+                    ref.pollFirstEntry();
+                    break;
+                default:
+                    st2.put(k, v);
+                    st3.put(k, v);
+                    ref.put(k, v);
+            }
+            int lo = gen.nextInt(numNodes);
+            int hi = lo + gen.nextInt(numNodes / 4);
+            long expected = 0;
+            StringBuilder sb = new StringBuilder();
+            for (int x : ref.subMap(lo, true, hi, true).values()) {
+                expected += x;
+                sb.append(x);
+            }
+            assertThat(st2.aggregate(sum, lo, hi), is(expected));
+            assertThat(st3.aggregate(concat, lo, hi), is(sb.toString()));
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st3.check(), is("pass"));
+        assertThat(st2.aggregate(sum, 10, 5), is(0L));
+        assertThat(st2.aggregate(sum), is(ref.values().stream().mapToLong(v -> v).sum()));
+
+        // split, join and set operations keep the aggregates
+        S hi = trees.split(st2, numNodes / 3);
+        assertThat(st2.check(), is("pass"));
+        assertThat(hi.check(), is("pass"));
+        assertThat(hi.aggregate(sum), is(ref.tailMap(numNodes / 3).values().stream().mapToLong(v -> v).sum()));
+        st2 = trees.join(st2, -1, 100, trees.create(sum));
+        assertThat(st2.aggregate(sum, -1, -1), is(100L));
+        trees.union(st2, hi);
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.aggregate(sum), is(100 + ref.values().stream().mapToLong(v -> v).sum()));
+
+        S loaded = trees.bulkLoad(ref.entrySet().stream()
+                .map(e -> OrderedMap.entry(e.getKey(), e.getValue())).iterator(), sum);
+        assertThat(loaded.check(), is("pass"));
+        assertThat(loaded.aggregate(sum, 0, numNodes / 2), is(ref.headMap(numNodes / 2, true).values().stream()
+                .mapToLong(v -> v).sum()));
+    }
+
+    static <S extends BST<Integer, Integer>> void testAggregateOther(Trees<S> trees) {
+        S st2 = trees.create(Aggregator.sum(v -> v));
+        st2.put(1, 1);
+        st2.aggregate(Aggregator.sum(v -> v), 0, 1);
+    }
+
+    static <S extends BST<Integer, Integer>> void testCursor(Trees<S> trees) {
+        S st2 = trees.create();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(2 * i, i);
+        }
+        Cursor<Integer, Integer> c = trees.cursor(st2);
+        assertThat(c.isValid(), is(false));
+        assertThat(c.seekFirst(), is(true));
+        for (int i = 0; i < numNodes; i++) {
+            assertThat(c.key(), is(2 * i));
+            assertThat(c.value(), is(i));
+            assertThat(c.next(), is(i + 1 < numNodes));
+        }
+        assertThat(c.isValid(), is(false));
+        assertThat(c.seekLast(), is(true));
+        for (int i = numNodes - 1; i >= 0; i--) {
+            assertThat(c.key(), is(2 * i));
+            assertThat(c.prev(), is(i > 0));
+        }
+        for (int k = -1; k < 2 * numNodes + 1; k += 7) {
+            assertThat(c.seek(k), is(k < 2 * numNodes - 1));
+            if (c.isValid()) {
+                assertThat(c.key(), is(st2.ceiling(k)));
+                // both ways from the same position
+                if (c.prev()) {
+                    assertThat(c.key(), is(st2.floor(k - 1)));
+                    c.next();
+                } else {
+                    // stepping off the end leaves no entry
+                    assertThat(c.isValid(), is(false));
+                    c.seek(k);
+                }
+                assertThat(c.key(), is(st2.ceiling(k)));
+            }
+        }
+        assertThat(c.seekRank(numNodes / 3), is(true));
+        assertThat(c.key(), is(st2.select(numNodes / 3)));
+        c.next();
+        assertThat(c.key(), is(st2.select(numNodes / 3 + 1)));
+        assertThat(c.seekRank(numNodes), is(false));
+
+        assertThat(c.seek(0), is(true));
+        c.setValue(-1);
+        assertThat(st2.get(0), is(-1));
+        st2.put(0, 5);
+        // not a structural modification
+        assertThat(c.value(), is(5));
+        st2.put(-2, 5);
+        try {
+            c.next();
+            assertThat("expected ConcurrentModificationException", false, is(true));
+        } catch (ConcurrentModificationException e) {
+            assertThat(c.seek(-2), is(true));
+        }
+    }
+
+    static <S extends BST<Integer, Integer>> void testCursorSetValueAggregate(Trees<S> trees) {
+        Aggregator<Integer, Long> sum = Aggregator.sum(v -> v);
+        S st2 = trees.create(sum);
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, 1);
+        }
+        Cursor<Integer, Integer> c = trees.cursor(st2);
+        for (boolean more = c.seekRank(numNodes / 2); more; more = c.next()) {
+            c.setValue(2);
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.aggregate(sum), is(numNodes + (long) (numNodes - numNodes / 2)));
+    }
+
+    static <S extends BST<Integer, Integer>> void testStream(Trees<S> trees) {
+        S st2 = trees.create();
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(13);
+        for (int i = 0; i < numNodes; i++) {
+            int k = gen.nextInt(10 * numNodes);
+            st2.put(k, i);
+            ref.put(k, i);
+        }
+        assertThat(trees.parallelStream(st2).mapToLong(OrderedMap.Entry::getValue).sum(),
+                is(ref.values().stream().mapToLong(v -> v).sum()));
+        assertThat(trees.parallelStream(st2).map(OrderedMap.Entry::getKey).collect(Collectors.toList()),
+                is(new ArrayList<>(ref.keySet())));
+        assertThat(trees.stream(st2).count(), is((long) ref.size()));
+
+        for (int i = 0; i < 50; i++) {
+            int lo = gen.nextInt(10 * numNodes);
+            int hi = lo + gen.nextInt(numNodes);
+            Spliterator<OrderedMap.Entry<Integer, Integer>> s = trees.spliterator(st2, lo, hi);
+            assertThat(s.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.SORTED), is(true));
+            assertThat(s.getExactSizeIfKnown(), is((long) ref.subMap(lo, true, hi, true).size()));
+            // splits at any point of the traversal keep every entry exactly once
+            List<Integer> keys = new ArrayList<>();
+            s.tryAdvance(e -> keys.add(e.getKey()));
+            Spliterator<OrderedMap.Entry<Integer, Integer>> lower = s.trySplit();
+            if (lower != null) {
+                assertThat(Math.abs(lower.estimateSize() - s.estimateSize()) <= 1, is(true));
+                lower.forEachRemaining(e -> keys.add(e.getKey()));
+            }
+            s.forEachRemaining(e -> keys.add(e.getKey()));
+            assertThat(keys, is(new ArrayList<>(ref.subMap(lo, true, hi, true).keySet())));
+        }
+    }
+
+    static <S extends BST<Integer, Integer>> void testSpliteratorModified(Trees<S> trees) {
+        S st2 = trees.create();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+        }
+        Spliterator<OrderedMap.Entry<Integer, Integer>> s = trees.spliterator(st2);
+        s.tryAdvance(e -> st2.delete(numNodes - 1));
+        s.tryAdvance(e -> { });
+    }
+
+    static <S extends BST<Integer, Integer>> void testMetrics(Trees<S> trees, Consumer<TreeMetrics> afterPuts,
+                                                          Consumer<TreeMetrics> afterDeletes) throws Exception {
+        Assume.assumeTrue(TreeMetrics.ENABLED);
+        S st2 = trees.create();
+        TreeMetrics m = st2.metrics();
+        for (int i = 0; i < numNodes; i++) {
+            st2.put(i, i);
+        }
+        assertThat(m.getPuts(), is((long) numNodes));
+        assertThat(m.getRotations() > 0, is(true));
+        afterPuts.accept(m);
+        m.reset();
+        for (int i = 0; i < numNodes; i++) {
+            st2.get(i);
+        }
+        assertThat(m.getGets(), is((long) numNodes));
+        // one comparison per node on the path down to each key
+        assertThat(m.getComparisonsPerOperation(), is(m.getAveragePathLength()));
+        assertThat(m.getAveragePathLength() <= st2.height() + 1, is(true));
+        assertThat(m.getLongestPath(), is(st2.height() + 1));
+        long[] histogram = m.getComparisonHistogram();
+        long ops = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            ops += histogram[i];
+            assertThat(histogram[i] == 0 || i <= st2.height() + 1, is(true));
+        }
+        assertThat(ops, is((long) numNodes));
+        for (int i = 0; i < numNodes; i += 2) {
+            st2.delete(i);
+        }
+        assertThat(m.getDeletes(), is((long) numNodes / 2));
+        assertThat(m.getOperations(), is((long) numNodes + numNodes / 2));
+        afterDeletes.accept(m);
+        assertThat(st2.check(), is("pass"));
+
+        ObjectName name = m.register(st2.getClass().getSimpleName() + "-" + System.identityHashCode(st2));
+        try {
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Deletes"),
+                    is((Object) ((long) numNodes / 2)));
+            assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LongestPath"),
+                    is((Object) m.getLongestPath()));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+
+        // every public operation has a kind
+        m.reset();
+        st2.floor(1);
+        st2.ceiling(1);
+        st2.floorEntry(1);
+        st2.rank(1);
+        st2.select(1);
+        st2.min();
+        st2.size(0, 10);
+        assertThat(m.getSearches(), is(7L));
+        assertThat(m.getComparisons() > 0, is(true));
+        st2.deleteMin();
+        st2.compute(3, (k, v) -> null);
+        assertThat(m.getDeletes(), is(2L));
+        trees.split(st2, numNodes / 2);
+        trees.deleteRange(st2, 0, 10);
+        assertThat(m.getBulkOperations(), is(2L));
+        assertThat(m.getOperations(), is(11L));
+        // checking is not an operation
+        assertThat(st2.check(), is("pass"));
+        assertThat(m.getOperations(), is(11L));
+
+        // set operations that fork restructure on other threads, uncounted
+        S big = trees.create();
+        S other = trees.create();
+        for (int i = 0; i < 20 * numNodes; i++) {
+            big.put(2 * i, i);
+            other.put(2 * i + 1, i);
+        }
+        TreeMetrics bm = big.metrics();
+        trees.union(big, other);
+        assertThat(bm.getBulkOperations(), is(1L));
+        assertThat(bm.getRotations() + bm.getFlips() + bm.getRegroups(), is(0L));
+        assertThat(big.check(), is("pass"));
+    }
+
+    static <S extends BST<Integer, Integer>> void testComputeRandom(Trees<S> trees) {
+        Aggregator<Integer, Long> sum = Aggregator.sum(v -> v);
+        S st2 = trees.create(sum);
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        Random gen = new Random(9);
+        for (int i = 0; i < 20 * numNodes; i++) {
+            int k = gen.nextInt(numNodes);
+            int v = gen.nextInt(4);
+            switch (gen.nextInt(4)) {
+                case 0:
+                    assertThat(st2.remove(k), is(ref.remove(k)));
+                    break;
+                case 1:
+                    assertThat(st2.putIfAbsent(k, v), is(ref.putIfAbsent(k, v)));
+                    break;
+                default:
+                    // deletes the key when the sum comes to 3
+                    assertThat(st2.merge(k, v, (a, b) -> a + b == 3 ? null : a + b),
+                            is(ref.merge(k, v, (a, b) -> a + b == 3 ? null : a + b)));
+            }
+            int lo = gen.nextInt(numNodes);
+            int hi = lo + gen.nextInt(numNodes / 10) - 5;
+            assertThat(st2.size(lo, hi), is(lo > hi ? 0 : ref.subMap(lo, true, hi, true).size()));
+            if (i % 100 == 0) {
+                assertThat(st2.check(), is("pass"));
+            }
+        }
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.size(), is(ref.size()));
+        assertThat(st2.aggregate(sum), is(ref.values().stream().mapToLong(v -> v).sum()));
+    }
+
+    static <S extends BST<Integer, Integer>> void testSnapshot(Trees<S> trees) throws IOException {
+        Random gen = new Random(5);
+        for (int n : new int[] {0, 1, 2, 100, 20000}) {
+            TreeMap<Integer, Integer> ref = new TreeMap<>();
+            while (ref.size() < n) {
+                ref.put(gen.nextInt(), gen.nextInt(10));
+            }
+            for (boolean compress : new boolean[] {false, true}) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                treeOf(trees, ref).writeTo(out, Codec.INT, Codec.INT, compress);
+                // anything after the snapshot is left in the stream
+                out.write(42);
+                ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+                assertSameEntries(trees.readFrom(in, Codec.INT, Codec.INT), ref);
+                assertThat(in.read(), is(42));
+            }
+        }
+    }
+
+    static <S extends BST<Integer, Integer>> void testSnapshotCompression(Trees<S> trees) throws IOException {
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        for (int i = 0; i < 100000; i++) {
+            ref.put(i, i % 16);
+        }
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        S st2 = treeOf(trees, ref);
+        st2.writeTo(plain, Codec.INT, Codec.INT, false);
+        st2.writeTo(Channels.newChannel(packed), Codec.INT, Codec.INT, true);
+        assertThat(packed.size() < plain.size() * 3 / 4, is(true));
+        assertSameEntries(trees.readFrom(
+                Channels.newChannel(new ByteArrayInputStream(packed.toByteArray())), Codec.INT, Codec.INT), ref);
+    }
+
+    static <S extends BST<Integer, Integer>> void testSnapshotCorrupt(Trees<S> trees) throws IOException {
+        TreeMap<Integer, Integer> ref = new TreeMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            ref.put(i, i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        treeOf(trees, ref).writeTo(out, Codec.INT, Codec.INT, true);
+        byte[] bytes = out.toByteArray();
+        bytes[bytes.length / 2] ^= 1;
+        trees.readFrom(new ByteArrayInputStream(bytes), Codec.INT, Codec.INT);
+    }
+
+    private static <S extends BST<Integer, Integer>> S treeOf(Trees<S> trees, TreeMap<Integer, Integer> ref) {
+        S st2 = trees.create();
+        ref.forEach(st2::put);
+        return st2;
+    }
+
+    private static void assertSameEntries(BST<Integer, Integer> st2, TreeMap<Integer, Integer> ref) {
+        assertThat(st2.check(), is("pass"));
+        assertThat(st2.isBalanced(), is(true));
+        assertThat(st2.size(), is(ref.size()));
+        int i = 0;
+        for (OrderedMap.Entry<Integer, Integer> e : st2.entries()) {
+            assertThat(st2.rank(e.getKey()), is(i++));
+            assertThat(e.getValue(), is(ref.get(e.getKey())));
+        }
+    }
 }